@@ -191,6 +191,21 @@ public class ArchiveSettings {
      */
     public static String DB_CONN_VALID_CHECK_TIMEOUT = "settings.archive.admin.database.validityCheckTimeout";
 
+    /**
+     * <b>settings.archive.admin.database.guidSetInMemoryLimit</b>: <br>
+     * The maximal number of replicafileinfo guids kept on the heap when looking for files missing from a checksum list
+     * or a file list of a replica. If a replica has more files than this, the guids are spilled to a memory-mapped file
+     * in the common temp dir. Each guid takes 8 bytes. Default is 10000000.
+     */
+    public static String DB_GUID_SET_IN_MEMORY_LIMIT = "settings.archive.admin.database.guidSetInMemoryLimit";
+
+    /**
+     * <b>settings.archive.admin.database.ingestBatchSize</b>: <br>
+     * The number of entries from a checksum list or a file list of a replica, which are staged and applied to the
+     * admin database in one transaction. Default is 10000.
+     */
+    public static String DB_INGEST_BATCH_SIZE = "settings.archive.admin.database.ingestBatchSize";
+
     /**
      * <b>settings.archive.admin.database.pool.minSize</b>: <br>
      * Configure the minimum size of the DB connection pool. Default value is 5.
@@ -300,6 +315,13 @@ public class ArchiveSettings {
      * The default is false
      */
     public static String CHECKSUM_USE_PRECOMPUTED_CHECKSUM_DURING_UPLOAD= "settings.archive.checksum.usePrecomputedChecksumDuringUpload";
+
+    /**
+     * <b>settings.archive.checksum.syncWrites</b>: <br>
+     * Whether the FileChecksumArchive forces new entries to disk before an upload is acknowledged. Concurrent uploads
+     * share a single sync of the checksum file.
+     */
+    public static String CHECKSUM_SYNC_WRITES = "settings.archive.checksum.syncWrites";
     
     
     /**
@@ -308,6 +330,21 @@ public class ArchiveSettings {
      * to set a timelimit to the batchjob for the GetChecksumMessage.
      */
     public static String SINGLE_CHECKSUM_TIMEOUT = "settings.archive.bitarchive.singleChecksumTimeout";
+
+    /**
+     * <b>settings.archive.bitarchive.openFileCacheSize</b>: <br>
+     * The number of archive files the bitarchive keeps open for reading records. Records are often requested from the
+     * same files again, e.g. when browsing with the viewerproxy. If 0, every file is closed after use.
+     */
+    public static String BITARCHIVE_OPEN_FILE_CACHE_SIZE = "settings.archive.bitarchive.openFileCacheSize";
+
+    /**
+     * <b>settings.archive.bitarchive.directRecordTransfer</b>: <br>
+     * true/false - If true, the payload of a record in an uncompressed ARC or WARC file is copied directly from the
+     * file when handling a GetMessage, with FileChannel.transferTo() for records stored as RemoteFiles. Otherwise the
+     * payload is read through the ARC or WARC record.
+     */
+    public static String BITARCHIVE_DIRECT_RECORD_TRANSFER = "settings.archive.bitarchive.directRecordTransfer";
     
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     /////////////// necessary changes to ease the migration to the bitrepository system as archive ////////////////////////////////////////////////////
@@ -321,8 +358,11 @@ public class ArchiveSettings {
     
     /**
      * <b>settings.archive.bitarchive.fileDirectoryListing</b>: <br> (optional)
-     * The name of the file in baseFileDir where an inventory of the archived files are placed. 
-     * Replaces the use of the archivedFiles and archivedTime , introduced to optimize getFile and getRecord operations
+     * The name of the file in baseFileDir where an inventory of the archived files are placed. The inventory is
+     * written when the bitarchive is closed, and read at startup instead of listing the directory if the directory has
+     * not been modified since. If empty or not given, which is the default, the directories are always listed at startup.
+     * A snapshot is only known to be out of date by the modification time of the directory, so it should only be used
+     * where files are added to and removed from the directory by the bitarchive alone.
      */
     public static String FILE_DIRECTORY_FILE_LISTING = "settings.archive.bitarchive.fileDirectoryListing";
     
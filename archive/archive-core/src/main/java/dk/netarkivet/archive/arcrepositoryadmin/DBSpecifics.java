@@ -71,6 +71,27 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
      */
     public abstract void backupDatabase(Connection c, File backupDir) throws SQLException, PermissionDenied;
 
+    /**
+     * Get a temporary table for staging the entries of a checksum list or file list, while they are applied to the
+     * file and replicafileinfo tables. The table has the columns filename varchar(300), checksum varchar(300) and
+     * file_id bigint, and rows are kept across commits. The table should be disposed of with
+     * dropReplicaFileInfoStagingTable.
+     *
+     * @param c The DB connection to use.
+     * @return The name of the created table
+     * @throws SQLException if there is a problem getting the table.
+     */
+    public abstract String getReplicaFileInfoStagingTable(Connection c) throws SQLException;
+
+    /**
+     * Dispose of a temporary table gotten with getReplicaFileInfoStagingTable. This can be expected to be called from
+     * within a finally clause, so it mustn't throw exceptions.
+     *
+     * @param c The DB connection to use.
+     * @param tableName The name of the temporary table
+     */
+    public abstract void dropReplicaFileInfoStagingTable(Connection c, String tableName);
+
     /**
      * Get the name of the JDBC driver class that handles interfacing to this server.
      *
@@ -23,9 +23,16 @@
 
 package dk.netarkivet.archive.arcrepositoryadmin;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.DBUtils;
+
 /**
  * Derby-specific implementation of DB methods.
  * <p>
@@ -35,4 +42,33 @@ import org.slf4j.LoggerFactory;
 public abstract class DerbySpecifics extends DBSpecifics {
     /** The log. */
     protected static final Logger log = LoggerFactory.getLogger(DerbySpecifics.class);
+
+    @Override
+    public String getReplicaFileInfoStagingTable(Connection c) throws SQLException {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        PreparedStatement s = c.prepareStatement("DECLARE GLOBAL TEMPORARY TABLE replicafileinfostaging "
+                + "( filename varchar(300), checksum varchar(300), file_id bigint )"
+                + " ON COMMIT PRESERVE ROWS NOT LOGGED ON ROLLBACK DELETE ROWS");
+        try {
+            s.execute();
+        } finally {
+            s.close();
+        }
+        return "session.replicafileinfostaging";
+    }
+
+    @Override
+    public void dropReplicaFileInfoStagingTable(Connection c, String tableName) {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        ArgumentNotValid.checkNotNullOrEmpty(tableName, "String tableName");
+        PreparedStatement s = null;
+        try {
+            s = c.prepareStatement("DROP TABLE " + tableName);
+            s.execute();
+        } catch (SQLException e) {
+            log.warn("Couldn't drop temporary table {}", tableName, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
 }
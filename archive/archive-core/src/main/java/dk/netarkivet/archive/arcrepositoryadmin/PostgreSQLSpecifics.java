@@ -24,12 +24,15 @@ package dk.netarkivet.archive.arcrepositoryadmin;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.PermissionDenied;
+import dk.netarkivet.common.utils.DBUtils;
 
 public class PostgreSQLSpecifics extends DBSpecifics {
 
@@ -60,4 +63,32 @@ public class PostgreSQLSpecifics extends DBSpecifics {
         return "org.postgresql.Driver";
     }
 
+    @Override
+    public String getReplicaFileInfoStagingTable(Connection c) throws SQLException {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        PreparedStatement s = c.prepareStatement("CREATE TEMPORARY TABLE replicafileinfostaging "
+                + "( filename varchar(300), checksum varchar(300), file_id bigint )");
+        try {
+            s.execute();
+        } finally {
+            s.close();
+        }
+        return "replicafileinfostaging";
+    }
+
+    @Override
+    public void dropReplicaFileInfoStagingTable(Connection c, String tableName) {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        ArgumentNotValid.checkNotNullOrEmpty(tableName, "String tableName");
+        PreparedStatement s = null;
+        try {
+            s = c.prepareStatement("DROP TABLE " + tableName);
+            s.execute();
+        } catch (SQLException e) {
+            log.warn("Couldn't drop temporary table {}", tableName, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
+
 }
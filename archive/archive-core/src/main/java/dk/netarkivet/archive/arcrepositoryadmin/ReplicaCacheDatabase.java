@@ -23,8 +23,6 @@
 package dk.netarkivet.archive.arcrepositoryadmin;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
@@ -40,10 +38,10 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
-import org.apache.commons.io.LineIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.common.distribute.Channels;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
 import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
@@ -55,12 +53,11 @@ import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.FileUtils;
-import dk.netarkivet.common.utils.KeyValuePair;
 import dk.netarkivet.common.utils.NotificationType;
 import dk.netarkivet.common.utils.NotificationsFactory;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.TimeUtils;
-import dk.netarkivet.common.utils.batch.ChecksumJob;
 
 /**
  * Method for storing the bitpreservation cache in a database.
@@ -75,13 +72,6 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
     /** The current instance. */
     private static ReplicaCacheDatabase instance;
 
-    /**
-     * The number of entries between logging in either file list or checksum list. This also controls how often the
-     * database connection is renewed in methods {@link #addChecksumInformation(File, Replica)} and
-     * {@link #addFileListInformation(File, Replica)}, where the operations can take hours, and seems to leak memory.
-     */
-    private final int LOGGING_ENTRY_INTERVAL = 1000;
-
     /** Waiting time in seconds before attempting to initialise the database again. */
     private final int WAIT_BEFORE_INIT_RETRY = 30;
 
@@ -726,9 +716,8 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         FileUtils.sortFile(checksumOutputFile, sortedResult);
         final long datasize = FileUtils.countLines(sortedResult);
 
-        Set<Long> missingReplicaRFIs = null;
+        ReplicaFileInfoGuidSet missingReplicaRFIs = null;
         Connection con = ArchiveDBConnection.get();
-        LineIterator lineIterator = null;
         try {
             // Make sure, that the replica exists in the database.
             if (!ReplicaCacheHelpers.existsReplicaInDB(replica, con)) {
@@ -740,68 +729,18 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
 
             log.info("Starting processing of {} checksum entries for replica {}", datasize, replica.getId());
 
-            // retrieve the list of files already known by this cache.
-            // TODO This does not scale! Should the datastructure
-            // (missingReplicaRFIs) be disk-bound in some way, or optimized
-            // in some way, e.g. using it.unimi.dsi.fastutil.longs.LongArrayList
-            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForReplica(replica.getId(), con);
-
-            // Initialize the String iterator
-            lineIterator = new LineIterator(new FileReader(sortedResult));
-
-            String lastFilename = "";
-            String lastChecksum = "";
-
-            int i = 0;
-            while (lineIterator.hasNext()) {
-                String line = lineIterator.next();
-                // log that it is in progress every so often.
-                if ((i % LOGGING_ENTRY_INTERVAL) == 0) {
-                    log.info("Processed checksum list entry number {} for replica {}", i, replica);
-                    // Close connection, and open another one
-                    // to avoid memory-leak (NAS-2003)
-                    ArchiveDBConnection.release(con);
-                    con = ArchiveDBConnection.get();
-                    log.debug("Databaseconnection has now been renewed");
-                }
-                ++i;
-
-                // parse the input.
-                final KeyValuePair<String, String> entry = ChecksumJob.parseLine(line);
-                final String filename = entry.getKey();
-                final String checksum = entry.getValue();
-
-                // check for duplicates
-                if (filename.equals(lastFilename)) {
-                    // if different checksums, then
-                    if (!checksum.equals(lastChecksum)) {
-                        // log and send notification
-                        String errMsg = "Unidentical duplicates of file '" + filename + "' with the checksums '"
-                                + lastChecksum + "' and '" + checksum + "'. First instance used.";
-                        log.warn(errMsg);
-                        NotificationsFactory.getInstance().notify(errMsg, NotificationType.WARNING);
-                    } else {
-                        // log about duplicate identical
-                        log.debug("Duplicates of the file '{}' found with the same checksum '{}'.", filename, checksum);
-                    }
-
-                    // avoid overhead of inserting duplicates twice.
-                    continue;
-                }
-
-                // set these value to be the old values in next iteration.
-                lastFilename = filename;
-                lastChecksum = checksum;
+            // retrieve the list of files already known by this cache, as primitive
+            // guids which are spilled to disk for large replicas.
+            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidSetForReplica(replica.getId(), con);
 
-                // Process the current (filename + checksum) combo for this replica
-                // Remove the returned replicafileinfo guid from the missing entries.
-                missingReplicaRFIs.remove(ReplicaCacheHelpers.processChecksumline(filename, checksum, replica, con));
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Unable to read checksum entries from file", e);
+            // Apply the entries in batches, removing the found entries from the missing ones.
+            new ReplicaFileInfoIngester(sortedResult, replica, true,
+                    Settings.getInt(ArchiveSettings.DB_INGEST_BATCH_SIZE), missingReplicaRFIs).ingest(con);
+        } catch (RuntimeException e) {
+            closeQuietly(missingReplicaRFIs);
+            throw e;
         } finally {
             ArchiveDBConnection.release(con);
-            LineIterator.closeQuietly(lineIterator);
         }
 
         con = ArchiveDBConnection.get();
@@ -810,10 +749,9 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
             // their filelist_status to missing.
             if (missingReplicaRFIs.size() > 0) {
                 log.warn("Found {} missing files for replica '{}'.", missingReplicaRFIs.size(), replica);
-                for (long rfi : missingReplicaRFIs) {
-                    // set the replicafileinfo in the database to missing.
-                    ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(rfi, con);
-                }
+                // set the replicafileinfo entries in the database to missing.
+                ReplicaCacheHelpers.updateReplicaFileInfosMissingFromFilelist(missingReplicaRFIs, replica.getId(),
+                        con);
             }
 
             // update the checksum updated date for this replica.
@@ -822,6 +760,7 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
 
             log.info("Finished processing of {} checksum entries for replica {}", datasize, replica.getId());
         } finally {
+            missingReplicaRFIs.close();
             ArchiveDBConnection.release(con);
         }
     }
@@ -857,8 +796,7 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         final long datasize = FileUtils.countLines(sortedResult);
 
         Connection con = ArchiveDBConnection.get();
-        Set<Long> missingReplicaRFIs = null;
-        LineIterator lineIterator = null;
+        ReplicaFileInfoGuidSet missingReplicaRFIs = null;
         try {
             // Make sure, that the replica exists in the database.
             if (!ReplicaCacheHelpers.existsReplicaInDB(replica, con)) {
@@ -870,45 +808,18 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
 
             log.info("Starting processing of {} filelist entries for replica {}", datasize, replica.getId());
 
-            // retrieve the list of files already known by this cache.
-            // TODO This does not scale! Should this datastructure
-            // (missingReplicaRFIs) be disk-bound in some way.
-            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForReplica(replica.getId(), con);
-
-            // Initialize String iterator
-            lineIterator = new LineIterator(new FileReader(sortedResult));
-
-            String lastFileName = "";
-            int i = 0;
-            while (lineIterator.hasNext()) {
-                String file = lineIterator.next();
-                // log that it is in progress every so often.
-                if ((i % LOGGING_ENTRY_INTERVAL) == 0) {
-                    log.info("Processed file list entry number {} for replica {}", i, replica);
-                    // Close connection, and open another one
-                    // to avoid memory-leak (NAS-2003)
-                    ArchiveDBConnection.release(con);
-                    con = ArchiveDBConnection.get();
-                    log.debug("Databaseconnection has now been renewed");
-                }
-                ++i;
-
-                // handle duplicates.
-                if (file.equals(lastFileName)) {
-                    log.warn("There have been found multiple files with the name '{}'", file);
-                    continue;
-                }
+            // retrieve the list of files already known by this cache, as primitive
+            // guids which are spilled to disk for large replicas.
+            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidSetForReplica(replica.getId(), con);
 
-                lastFileName = file;
-                // Add information for one file, and remove the ReplicaRFI from the
-                // set of missing ones.
-                missingReplicaRFIs.remove(ReplicaCacheHelpers.addFileInformation(file, replica, con));
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Unable to read the filenames from file", e);
+            // Apply the entries in batches, removing the found entries from the missing ones.
+            new ReplicaFileInfoIngester(sortedResult, replica, false,
+                    Settings.getInt(ArchiveSettings.DB_INGEST_BATCH_SIZE), missingReplicaRFIs).ingest(con);
+        } catch (RuntimeException e) {
+            closeQuietly(missingReplicaRFIs);
+            throw e;
         } finally {
             ArchiveDBConnection.release(con);
-            LineIterator.closeQuietly(lineIterator);
         }
 
         con = ArchiveDBConnection.get();
@@ -917,18 +828,29 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
             // their filelist_status to missing.
             if (missingReplicaRFIs.size() > 0) {
                 log.warn("Found {} missing files for replica '{}'.", missingReplicaRFIs.size(), replica);
-                for (long rfi : missingReplicaRFIs) {
-                    // set the replicafileinfo in the database to missing.
-                    ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(rfi, con);
-                }
+                // set the replicafileinfo entries in the database to missing.
+                ReplicaCacheHelpers.updateReplicaFileInfosMissingFromFilelist(missingReplicaRFIs, replica.getId(),
+                        con);
             }
             // Update the date for filelist update for this replica.
             ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
         } finally {
+            missingReplicaRFIs.close();
             ArchiveDBConnection.release(con);
         }
     }
 
+    /**
+     * Close a set of guids, if it has been made.
+     *
+     * @param guids The set to close, or null.
+     */
+    private static void closeQuietly(ReplicaFileInfoGuidSet guids) {
+        if (guids != null) {
+            guids.close();
+        }
+    }
+
     /**
      * Get the date for the last file list job.
      *
@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,14 +40,18 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
 import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
 import dk.netarkivet.common.distribute.arcrepository.ReplicaType;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.NotificationType;
 import dk.netarkivet.common.utils.NotificationsFactory;
+import dk.netarkivet.common.utils.Settings;
 
 /**
  * Helper methods used by {@link ReplicaCacheDatabase}.
@@ -56,6 +61,12 @@ public final class ReplicaCacheHelpers {
     /** The log. */
     protected static Logger log = LoggerFactory.getLogger(ReplicaCacheHelpers.class);
 
+    /** The number of replicafileinfo guids fetched from the database at a time. */
+    private static final int GUID_FETCH_SIZE = 10000;
+
+    /** The number of range updates sent to the database in one batch when marking entries as missing. */
+    private static final int MISSING_UPDATE_BATCH_SIZE = 1000;
+
     /** Private constructor to avoid instantiation. */
     private ReplicaCacheHelpers() {
     }
@@ -314,6 +325,39 @@ public final class ReplicaCacheHelpers {
         return DBUtils.selectLongSet(con, sql, replicaId);
     }
 
+    /**
+     * Method for retrieving all the replicafileinfo_guids for a specific replica into a set of primitive longs. If the
+     * replica has more entries than given by the setting {@link ArchiveSettings#DB_GUID_SET_IN_MEMORY_LIMIT}, the set
+     * is spilled to a file in the common temp dir. The set must be closed after use.
+     *
+     * @param replicaId The id for the replica to contain the files.
+     * @param con An open connection to the archiveDatabase.
+     * @return The set of all the replicafileinfo_guids for the replica.
+     * @throws IOFailure If the guids cannot be retrieved.
+     */
+    protected static ReplicaFileInfoGuidSet retrieveReplicaFileInfoGuidSetForReplica(String replicaId, Connection con) {
+        // sql for retrieving the replicafileinfo_guids for the replica.
+        final String sql = "SELECT replicafileinfo_guid FROM replicafileinfo "
+                + "WHERE replica_id = ? ORDER BY replicafileinfo_guid";
+        ReplicaFileInfoGuidSet guids = new ReplicaFileInfoGuidSet(
+                Settings.getInt(ArchiveSettings.DB_GUID_SET_IN_MEMORY_LIMIT), FileUtils.getTempDir());
+        PreparedStatement statement = null;
+        try {
+            statement = DBUtils.prepareStatement(con, GUID_FETCH_SIZE, sql, replicaId);
+            ResultSet result = statement.executeQuery();
+            while (result.next()) {
+                guids.add(result.getLong(1));
+            }
+            return guids;
+        } catch (SQLException e) {
+            guids.close();
+            throw new IOFailure("Error retrieving the replicafileinfo guids for replica '" + replicaId + "'\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
+        }
+    }
+
     /**
      * Method for retrieving the replica type for a specific replica.
      *
@@ -485,6 +529,77 @@ public final class ReplicaCacheHelpers {
         }
     }
 
+    /**
+     * Method for updating the filelist of all the replicafileinfo entries in a set to missing. Updates the following
+     * fields for the entries in the replicafileinfo table: <br/>
+     * filelist_status = missing. <br/>
+     * filelist_checkdatetime = current time. <br/>
+     * upload_status = upload_failed.
+     * <p>
+     * Instead of one update per entry, the entries are updated range by range, where each range covers guids that are
+     * consecutive for the replica. All the updates are committed together.
+     *
+     * @param missing The guids of the replicafileinfo entries, which are missing.
+     * @param replicaId The id of the replica, which the entries belong to.
+     * @param con An open connection to the archive database
+     * @return The number of updated entries.
+     * @throws IOFailure If the entries cannot be updated.
+     */
+    protected static long updateReplicaFileInfosMissingFromFilelist(ReplicaFileInfoGuidSet missing, String replicaId,
+            Connection con) {
+        // The SQL statement
+        final String sql = "UPDATE replicafileinfo "
+                + "SET filelist_status = ?, filelist_checkdatetime = ?, upload_status = ? "
+                + "WHERE replica_id = ? AND replicafileinfo_guid BETWEEN ? AND ?";
+        Date now = new Date(Calendar.getInstance().getTimeInMillis());
+        PreparedStatement statement = null;
+        long updated = 0;
+        try {
+            statement = DBUtils.prepareStatement(con, sql, FileListStatus.MISSING.ordinal(), now,
+                    ReplicaStoreState.UPLOAD_FAILED.ordinal(), replicaId, 0L, 0L);
+            int batched = 0;
+            Iterator<long[]> ranges = missing.rangeIterator();
+            while (ranges.hasNext()) {
+                long[] range = ranges.next();
+                statement.setLong(5, range[0]);
+                statement.setLong(6, range[1]);
+                statement.addBatch();
+                if (++batched == MISSING_UPDATE_BATCH_SIZE) {
+                    updated += sumUpdateCounts(statement.executeBatch());
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                updated += sumUpdateCounts(statement.executeBatch());
+            }
+            con.commit();
+            return updated;
+        } catch (SQLException e) {
+            String msg = "Problems updating the missing replicafileinfo entries for replica '" + replicaId + "'";
+            log.warn(msg, e);
+            try {
+                con.rollback();
+            } catch (SQLException e1) {
+                log.warn("Unable to roll back the update of missing replicafileinfo entries", e1);
+            }
+            throw new IOFailure(msg + "\n" + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
+        }
+    }
+
+    /**
+     * @param counts The update counts of an executed batch.
+     * @return The total number of updated rows, where statements with an unknown number of updated rows count as one.
+     */
+    private static long sumUpdateCounts(int[] counts) {
+        long total = 0;
+        for (int count : counts) {
+            total += count >= 0 ? count : 1;
+        }
+        return total;
+    }
+
     /**
      * Method for updating the checksum status of a replicafileinfo instance. Updates the following fields for the entry
      * in the replicafileinfo: <br/>
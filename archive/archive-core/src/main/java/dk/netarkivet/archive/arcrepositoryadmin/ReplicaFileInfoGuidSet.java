@@ -0,0 +1,331 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepositoryadmin;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * A set of replicafileinfo guids, used for finding the entries of a replica that are missing from a checksum or file
+ * list.
+ * <p>
+ * The guids are added in ascending order, after which guids can only be removed. The guids are kept as primitive
+ * longs in a sorted array, with a bitmap marking the removed ones. When more guids than the in-memory limit are added,
+ * they are spilled to a temporary file, which is memory-mapped when all guids have been added.
+ * <p>
+ * The set must be closed after use to delete the temporary file.
+ */
+public class ReplicaFileInfoGuidSet implements Closeable {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(ReplicaFileInfoGuidSet.class);
+
+    /** The number of guids in each memory-mapped region of the temporary file. */
+    private static final int GUIDS_PER_REGION = 1 << 27;
+
+    /** The maximal number of guids kept on the heap before spilling to a file. */
+    private final int inMemoryLimit;
+
+    /** The directory for the temporary file, or null for the system temp dir. */
+    private final File tempDir;
+
+    /** The guids when held on the heap. */
+    private long[] guids = new long[16];
+
+    /** The temporary file with the guids when spilled, or null. */
+    private File spillFile;
+
+    /** The stream writing to the temporary file while guids are being added. */
+    private DataOutputStream spillStream;
+
+    /** The memory-mapped regions of the temporary file, made when the first guid is looked up. */
+    private LongBuffer[] regions;
+
+    /** The number of guids added. */
+    private long count;
+
+    /** The last guid added. */
+    private long lastGuid = Long.MIN_VALUE;
+
+    /** The indices of the removed guids. */
+    private final BitSet removed = new BitSet();
+
+    /** The number of removed guids. */
+    private long removedCount;
+
+    /**
+     * Create an empty set.
+     *
+     * @param inMemoryLimit The maximal number of guids kept on the heap. More guids are spilled to a memory-mapped
+     * temporary file.
+     * @param tempDir The directory for the temporary file, or null for the system temp dir.
+     * @throws ArgumentNotValid If the inMemoryLimit is not positive.
+     */
+    public ReplicaFileInfoGuidSet(int inMemoryLimit, File tempDir) {
+        ArgumentNotValid.checkPositive(inMemoryLimit, "int inMemoryLimit");
+        this.inMemoryLimit = inMemoryLimit;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Add a guid to the set. Guids must be added in ascending order, before any are removed.
+     *
+     * @param guid The guid to add.
+     * @throws ArgumentNotValid If the guid is not larger than the last guid added.
+     * @throws IllegalState If guids have already been looked up or removed.
+     * @throws IOFailure If the guid cannot be spilled to the temporary file.
+     */
+    public void add(long guid) {
+        if (count > 0 && guid <= lastGuid) {
+            throw new ArgumentNotValid("Guids must be added in ascending order, but " + guid + " was added after "
+                    + lastGuid);
+        }
+        if (regions != null) {
+            throw new IllegalState("Cannot add guids to the set after they have been looked up");
+        }
+        try {
+            if (spillStream == null && count == inMemoryLimit) {
+                spill();
+            }
+            if (spillStream != null) {
+                spillStream.writeLong(guid);
+            } else {
+                if (count == guids.length) {
+                    guids = Arrays.copyOf(guids, (int) Math.min(inMemoryLimit, 2L * guids.length));
+                }
+                guids[(int) count] = guid;
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to write guid to '" + spillFile + "'", e);
+        }
+        lastGuid = guid;
+        count++;
+    }
+
+    /**
+     * Move the guids on the heap to a temporary file, and write all following guids there.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    private void spill() throws IOException {
+        if (tempDir != null) {
+            FileUtils.createDir(tempDir);
+        }
+        spillFile = File.createTempFile("replicafileinfoguids", ".bin", tempDir);
+        spillFile.deleteOnExit();
+        log.info("More than {} replicafileinfo guids. Spilling to '{}'", inMemoryLimit, spillFile);
+        spillStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), 1 << 16));
+        for (int i = 0; i < count; i++) {
+            spillStream.writeLong(guids[i]);
+        }
+        guids = null;
+    }
+
+    /**
+     * Finish adding guids. If the guids have been spilled, the temporary file is memory-mapped.
+     *
+     * @throws IOFailure If the temporary file cannot be mapped.
+     */
+    private void ensureReadable() {
+        if (regions != null) {
+            return;
+        }
+        if (spillStream == null) {
+            regions = new LongBuffer[] {LongBuffer.wrap(guids, 0, (int) count)};
+            return;
+        }
+        try {
+            spillStream.close();
+            spillStream = null;
+            int numberOfRegions = (int) ((count + GUIDS_PER_REGION - 1) / GUIDS_PER_REGION);
+            regions = new LongBuffer[numberOfRegions];
+            try (RandomAccessFile raf = new RandomAccessFile(spillFile, "r")) {
+                FileChannel channel = raf.getChannel();
+                for (int i = 0; i < numberOfRegions; i++) {
+                    long first = (long) i * GUIDS_PER_REGION;
+                    long size = Math.min(GUIDS_PER_REGION, count - first);
+                    regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, first * 8, size * 8).asLongBuffer();
+                }
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Unable to map the guids in '" + spillFile + "'", e);
+        }
+    }
+
+    /**
+     * @param index The index of a guid.
+     * @return The guid at the given index.
+     */
+    private long get(long index) {
+        return regions[(int) (index / GUIDS_PER_REGION)].get((int) (index % GUIDS_PER_REGION));
+    }
+
+    /**
+     * Find the index of a guid.
+     *
+     * @param guid The guid to find.
+     * @return The index of the guid, or -1 if it was never added.
+     */
+    private long indexOf(long guid) {
+        long low = 0;
+        long high = count - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long midGuid = get(mid);
+            if (midGuid < guid) {
+                low = mid + 1;
+            } else if (midGuid > guid) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Remove a guid from the set.
+     *
+     * @param guid The guid to remove.
+     * @return true if the guid was in the set.
+     */
+    public boolean remove(long guid) {
+        ensureReadable();
+        long index = indexOf(guid);
+        if (index < 0 || removed.get((int) index)) {
+            return false;
+        }
+        removed.set((int) index);
+        removedCount++;
+        return true;
+    }
+
+    /**
+     * @param guid A guid.
+     * @return true if the guid is in the set.
+     */
+    public boolean contains(long guid) {
+        ensureReadable();
+        long index = indexOf(guid);
+        return index >= 0 && !removed.get((int) index);
+    }
+
+    /**
+     * @return The number of guids in the set.
+     */
+    public long size() {
+        return count - removedCount;
+    }
+
+    /**
+     * Get the guids in the set as ranges of guids that were consecutive when added. Since no guid added to the set
+     * lies between the first and last guid of a range, a range can be used to select all its guids, e.g. with a
+     * BETWEEN clause in SQL.
+     *
+     * @return An iterator over the ranges in ascending order. Each range is an array with the first and the last guid
+     * of the range.
+     */
+    public Iterator<long[]> rangeIterator() {
+        ensureReadable();
+        return new Iterator<long[]>() {
+            /** The index of the first guid of the next range, or count if there are no more. */
+            private long next = nextIndex(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public long[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more ranges");
+                }
+                long end = removed.nextSetBit((int) next);
+                if (end < 0) {
+                    end = count;
+                }
+                long[] range = new long[] {get(next), get(end - 1)};
+                next = nextIndex(end);
+                return range;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Not supported");
+            }
+        };
+    }
+
+    /**
+     * @param from An index.
+     * @return The index of the first guid in the set from the given index, or count if there is none.
+     */
+    private long nextIndex(long from) {
+        if (from >= count) {
+            return count;
+        }
+        return Math.min(count, removed.nextClearBit((int) from));
+    }
+
+    /**
+     * Release the guids and delete the temporary file, if any.
+     */
+    @Override
+    public void close() {
+        guids = null;
+        regions = null;
+        if (spillStream != null) {
+            try {
+                spillStream.close();
+            } catch (IOException e) {
+                log.debug("Unable to close '{}'", spillFile, e);
+            }
+            spillStream = null;
+        }
+        if (spillFile != null) {
+            FileUtils.remove(spillFile);
+            spillFile = null;
+        }
+    }
+
+}
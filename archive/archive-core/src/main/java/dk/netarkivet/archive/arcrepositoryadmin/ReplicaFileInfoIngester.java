@@ -0,0 +1,417 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepositoryadmin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.distribute.arcrepository.Replica;
+import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.common.utils.KeyValuePair;
+import dk.netarkivet.common.utils.NotificationType;
+import dk.netarkivet.common.utils.NotificationsFactory;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+
+/**
+ * Applies a sorted checksum list or file list of a replica to the file and replicafileinfo tables.
+ * <p>
+ * The list is parsed on a separate thread into chunks of entries. Each chunk is staged in a temporary table with a
+ * JDBC batch and applied with a few set-based statements, which insert unknown files and their replicafileinfo
+ * entries and update the replicafileinfo entries of the replica. Each chunk is committed as one transaction. The
+ * replicafileinfo guids of the applied entries are removed from a set of missing guids.
+ * <p>
+ * The same connection is used for the whole list, since the staging table belongs to the connection.
+ */
+final class ReplicaFileInfoIngester {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(ReplicaFileInfoIngester.class);
+
+    /** The number of parsed chunks waiting to be applied. */
+    private static final int QUEUED_CHUNKS = 2;
+
+    /** The chunk put on the queue after the last chunk. */
+    private static final List<String[]> END_OF_LIST = new ArrayList<String[]>();
+
+    /** The sorted checksum list or file list. */
+    private final File sortedList;
+
+    /** The replica the list is for. */
+    private final Replica replica;
+
+    /** Whether the list is a checksum list or a file list. */
+    private final boolean isChecksumList;
+
+    /** The number of entries applied in one transaction. */
+    private final int batchSize;
+
+    /** The guids of the replicafileinfo entries not yet found in the list. */
+    private final ReplicaFileInfoGuidSet missing;
+
+    /** The chunks parsed and not yet applied. */
+    private final BlockingQueue<List<String[]>> chunks = new ArrayBlockingQueue<List<String[]>>(QUEUED_CHUNKS);
+
+    /** The failure of the parsing thread, if any. */
+    private volatile RuntimeException parseFailure;
+
+    /** The number of lines read from the list. */
+    private volatile long linesRead;
+
+    /**
+     * Create an ingester for a list.
+     *
+     * @param sortedList The sorted checksum list, with lines parsable by {@link ChecksumJob#parseLine(String)}, or the
+     * sorted file list, with a filename in each line.
+     * @param replica The replica the list is for.
+     * @param isChecksumList Whether the list is a checksum list or a file list.
+     * @param batchSize The number of entries applied in one transaction.
+     * @param missing The guids of the replicafileinfo entries of the replica. The guids of the entries in the list are
+     * removed while the list is applied.
+     * @throws ArgumentNotValid If an argument is null, or batchSize is not positive.
+     */
+    ReplicaFileInfoIngester(File sortedList, Replica replica, boolean isChecksumList, int batchSize,
+            ReplicaFileInfoGuidSet missing) {
+        ArgumentNotValid.checkNotNull(sortedList, "File sortedList");
+        ArgumentNotValid.checkNotNull(replica, "Replica replica");
+        ArgumentNotValid.checkPositive(batchSize, "int batchSize");
+        ArgumentNotValid.checkNotNull(missing, "ReplicaFileInfoGuidSet missing");
+        this.sortedList = sortedList;
+        this.replica = replica;
+        this.isChecksumList = isChecksumList;
+        this.batchSize = batchSize;
+        this.missing = missing;
+    }
+
+    /**
+     * Apply the list to the database.
+     *
+     * @param con An open connection to the archive database. It is used for the whole list.
+     * @return The number of lines read from the list.
+     * @throws IOFailure If the list cannot be read or applied.
+     */
+    long ingest(Connection con) {
+        ArgumentNotValid.checkNotNull(con, "Connection con");
+        final String listType = isChecksumList ? "checksum" : "file list";
+        final long startTime = System.currentTimeMillis();
+        Thread parser = new Thread("Parser of " + listType + " for replica " + replica.getId()) {
+            @Override
+            public void run() {
+                parse();
+            }
+        };
+        parser.setDaemon(true);
+        String table = null;
+        Statements statements = null;
+        long applied = 0;
+        try {
+            table = DBSpecifics.getInstance().getReplicaFileInfoStagingTable(con);
+            con.commit();
+            statements = new Statements(con, table);
+            parser.start();
+            List<String[]> chunk;
+            while ((chunk = chunks.take()) != END_OF_LIST) {
+                applyChunk(chunk, statements, con);
+                applied += chunk.size();
+                long seconds = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+                log.info("Applied {} {} entries for replica {} ({} lines/sec)", applied, listType, replica.getId(),
+                        linesRead / seconds);
+            }
+            if (parseFailure != null) {
+                throw parseFailure;
+            }
+        } catch (SQLException e) {
+            rollback(con);
+            throw new IOFailure("Error applying " + listType + " entries for replica " + replica.getId() + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } catch (InterruptedException e) {
+            rollback(con);
+            throw new IOFailure("Interrupted while applying " + listType + " entries for replica " + replica.getId(),
+                    e);
+        } catch (RuntimeException e) {
+            rollback(con);
+            throw e;
+        } finally {
+            parser.interrupt();
+            if (statements != null) {
+                statements.close();
+            }
+            if (table != null) {
+                DBSpecifics.getInstance().dropReplicaFileInfoStagingTable(con, table);
+                commitQuietly(con);
+            }
+        }
+        long millis = Math.max(1, System.currentTimeMillis() - startTime);
+        log.info("Applied {} {} entries from {} lines for replica {} in {} ms ({} lines/sec)", applied, listType,
+                linesRead, replica.getId(), millis, linesRead * 1000 / millis);
+        return linesRead;
+    }
+
+    /**
+     * Parse the list into chunks of distinct entries, and put them on the queue followed by {@link #END_OF_LIST}. Each
+     * entry is the filename and the checksum, which is null for file lists. Failures are stored in
+     * {@link #parseFailure}.
+     */
+    private void parse() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(sortedList));
+            List<String[]> chunk = new ArrayList<String[]>(batchSize);
+            String lastFilename = "";
+            String lastChecksum = "";
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ++linesRead;
+                String filename;
+                String checksum = null;
+                if (isChecksumList) {
+                    final KeyValuePair<String, String> entry = ChecksumJob.parseLine(line);
+                    filename = entry.getKey();
+                    checksum = entry.getValue();
+                } else {
+                    filename = line;
+                }
+
+                // handle duplicates, which are adjacent since the list is sorted.
+                if (filename.equals(lastFilename)) {
+                    warnAboutDuplicate(filename, lastChecksum, checksum);
+                    continue;
+                }
+                lastFilename = filename;
+                lastChecksum = checksum;
+
+                chunk.add(new String[] {filename, checksum});
+                if (chunk.size() == batchSize) {
+                    chunks.put(chunk);
+                    chunk = new ArrayList<String[]>(batchSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunks.put(chunk);
+            }
+        } catch (InterruptedException e) {
+            log.debug("Parsing of '{}' was interrupted", sortedList);
+            return;
+        } catch (IOException e) {
+            parseFailure = new IOFailure("Unable to read entries from '" + sortedList + "'", e);
+        } catch (RuntimeException e) {
+            parseFailure = e;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.debug("Unable to close '{}'", sortedList, e);
+                }
+            }
+        }
+        try {
+            chunks.put(END_OF_LIST);
+        } catch (InterruptedException e) {
+            log.debug("Parsing of '{}' was interrupted", sortedList);
+        }
+    }
+
+    /**
+     * Log a duplicate entry in the list. For checksum lists with different checksums, a notification is sent as well.
+     *
+     * @param filename The filename of the duplicate entry.
+     * @param firstChecksum The checksum of the first entry, which is used.
+     * @param checksum The checksum of the duplicate entry.
+     */
+    private void warnAboutDuplicate(String filename, String firstChecksum, String checksum) {
+        if (!isChecksumList) {
+            log.warn("There have been found multiple files with the name '{}'", filename);
+        } else if (!checksum.equals(firstChecksum)) {
+            String errMsg = "Unidentical duplicates of file '" + filename + "' with the checksums '" + firstChecksum
+                    + "' and '" + checksum + "'. First instance used.";
+            log.warn(errMsg);
+            NotificationsFactory.getInstance().notify(errMsg, NotificationType.WARNING);
+        } else {
+            log.debug("Duplicates of the file '{}' found with the same checksum '{}'.", filename, checksum);
+        }
+    }
+
+    /**
+     * Apply a chunk of entries in one transaction.
+     *
+     * @param chunk The entries of filename and checksum.
+     * @param statements The prepared statements.
+     * @param con The connection the statements belong to.
+     * @throws SQLException If the chunk cannot be applied.
+     */
+    private void applyChunk(List<String[]> chunk, Statements statements, Connection con) throws SQLException {
+        for (String[] entry : chunk) {
+            statements.stage.setString(1, entry[0]);
+            statements.stage.setString(2, entry[1]);
+            statements.stage.addBatch();
+        }
+        statements.stage.executeBatch();
+
+        int newFiles = statements.insertFiles.executeUpdate();
+        if (newFiles > 0) {
+            log.info("Inserted {} new files into the database from the list of replica {}", newFiles,
+                    replica.getId());
+        }
+        statements.resolveFileIds.executeUpdate();
+        int newEntries = statements.insertReplicaFileInfos.executeUpdate();
+        if (newEntries > 0) {
+            log.info("Inserted {} missing replicafileinfo entries into the database", newEntries);
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        statements.update.setTimestamp(1, now);
+        if (isChecksumList) {
+            statements.update.setTimestamp(2, now);
+        }
+        statements.update.executeUpdate();
+
+        ResultSet guids = statements.selectGuids.executeQuery();
+        try {
+            while (guids.next()) {
+                missing.remove(guids.getLong(1));
+            }
+        } finally {
+            guids.close();
+        }
+
+        statements.clear.executeUpdate();
+        con.commit();
+    }
+
+    /**
+     * Roll back the current transaction, logging failures.
+     *
+     * @param con The connection.
+     */
+    private static void rollback(Connection con) {
+        try {
+            con.rollback();
+        } catch (SQLException e) {
+            log.warn("Unable to roll back\n{}", ExceptionUtils.getSQLExceptionCause(e), e);
+        }
+    }
+
+    /**
+     * Commit the current transaction, logging failures.
+     *
+     * @param con The connection.
+     */
+    private static void commitQuietly(Connection con) {
+        try {
+            con.commit();
+        } catch (SQLException e) {
+            log.warn("Unable to commit\n{}", ExceptionUtils.getSQLExceptionCause(e), e);
+        }
+    }
+
+    /**
+     * The statements used for applying chunks, prepared once for the whole list.
+     */
+    private final class Statements {
+        /** Inserts an entry into the staging table. */
+        private final PreparedStatement stage;
+        /** Inserts the staged files not already in the file table. */
+        private final PreparedStatement insertFiles;
+        /** Sets the file_id of the staged entries. */
+        private final PreparedStatement resolveFileIds;
+        /** Inserts the replicafileinfo entries missing for the staged files for any replica. */
+        private final PreparedStatement insertReplicaFileInfos;
+        /** Updates the replicafileinfo entries of the staged files for the replica. */
+        private final PreparedStatement update;
+        /** Selects the guids of the replicafileinfo entries of the staged files for the replica. */
+        private final PreparedStatement selectGuids;
+        /** Empties the staging table. */
+        private final PreparedStatement clear;
+
+        /**
+         * Prepare the statements.
+         *
+         * @param con The connection to prepare them on.
+         * @param table The name of the staging table.
+         * @throws SQLException If the statements cannot be prepared.
+         */
+        Statements(Connection con, String table) throws SQLException {
+            stage = con.prepareStatement("INSERT INTO " + table + " (filename, checksum) VALUES ( ?, ? )");
+            insertFiles = con.prepareStatement("INSERT INTO file (filename) SELECT s.filename FROM " + table
+                    + " s WHERE NOT EXISTS (SELECT 1 FROM file f WHERE f.filename = s.filename)");
+            resolveFileIds = con.prepareStatement("UPDATE " + table + " SET file_id = "
+                    + "(SELECT MIN(f.file_id) FROM file f WHERE f.filename = " + table + ".filename)");
+            // Enum ordinals are inlined, since not all databases allow parameters in the select list.
+            insertReplicaFileInfos = con.prepareStatement("INSERT INTO replicafileinfo "
+                    + "(file_id, replica_id, filelist_status, checksum_status, upload_status) "
+                    + "SELECT s.file_id, r.replica_id, " + FileListStatus.NO_FILELIST_STATUS.ordinal() + ", "
+                    + ChecksumStatus.UNKNOWN.ordinal() + ", " + ReplicaStoreState.UNKNOWN_UPLOAD_STATE.ordinal()
+                    + " FROM " + table + " s, replica r WHERE NOT EXISTS (SELECT 1 FROM replicafileinfo rfi "
+                    + "WHERE rfi.file_id = s.file_id AND rfi.replica_id = r.replica_id)");
+            String replicaCondition = " WHERE replica_id = ? AND file_id IN (SELECT s.file_id FROM " + table
+                    + " s)";
+            if (isChecksumList) {
+                update = con.prepareStatement("UPDATE replicafileinfo SET checksum = (SELECT s.checksum FROM "
+                        + table + " s WHERE s.file_id = replicafileinfo.file_id), upload_status = "
+                        + ReplicaStoreState.UPLOAD_COMPLETED.ordinal() + ", filelist_status = "
+                        + FileListStatus.OK.ordinal() + ", checksum_status = " + ChecksumStatus.UNKNOWN.ordinal()
+                        + ", checksum_checkdatetime = ?, filelist_checkdatetime = ?" + replicaCondition);
+            } else {
+                update = con.prepareStatement("UPDATE replicafileinfo SET filelist_status = "
+                        + FileListStatus.OK.ordinal() + ", filelist_checkdatetime = ?" + replicaCondition);
+            }
+            update.setString(isChecksumList ? 3 : 2, replica.getId());
+            selectGuids = con.prepareStatement("SELECT rfi.replicafileinfo_guid FROM replicafileinfo rfi, " + table
+                    + " s WHERE rfi.file_id = s.file_id AND rfi.replica_id = ?");
+            selectGuids.setString(1, replica.getId());
+            clear = con.prepareStatement("DELETE FROM " + table);
+        }
+
+        /**
+         * Close the statements.
+         */
+        void close() {
+            DBUtils.closeStatementIfOpen(stage);
+            DBUtils.closeStatementIfOpen(insertFiles);
+            DBUtils.closeStatementIfOpen(resolveFileIds);
+            DBUtils.closeStatementIfOpen(insertReplicaFileInfos);
+            DBUtils.closeStatementIfOpen(update);
+            DBUtils.closeStatementIfOpen(selectGuids);
+            DBUtils.closeStatementIfOpen(clear);
+        }
+    }
+
+}
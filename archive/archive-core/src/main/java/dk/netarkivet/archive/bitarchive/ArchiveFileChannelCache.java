@@ -0,0 +1,227 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A least-recently-used cache of read-only channels to archive files, so that records can be read from the same file
+ * again and again without opening it each time.
+ * <p>
+ * A channel is acquired for a file and must be released after use. A channel evicted from the cache while in use is
+ * closed when released. All reads from the channels must be positional, since a channel can be shared by several
+ * threads.
+ */
+final class ArchiveFileChannelCache {
+
+    /** The class logger. */
+    private static final Logger log = LoggerFactory.getLogger(ArchiveFileChannelCache.class);
+
+    /** An open channel and the number of users of it. */
+    private static final class Entry {
+        /** The file. */
+        private final File file;
+        /** The channel. */
+        private final FileChannel channel;
+        /** The number of times the channel is acquired but not released. */
+        private int users;
+        /** True if the channel has been evicted from the cache, and must be closed when no longer used. */
+        private boolean evicted;
+
+        /**
+         * @param file The file.
+         * @param channel An open channel for the file.
+         */
+        private Entry(File file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    /** The channels in order of access, least recently used first. */
+    private final LinkedHashMap<File, Entry> entries;
+
+    /** All open channels, both those in the cache and those evicted while in use. */
+    private final Map<FileChannel, Entry> openChannels = new HashMap<FileChannel, Entry>();
+
+    /**
+     * Create a cache.
+     *
+     * @param capacity The number of channels to keep open. If zero, channels are closed as soon as they are released.
+     * @throws ArgumentNotValid If the capacity is negative.
+     */
+    ArchiveFileChannelCache(final int capacity) {
+        ArgumentNotValid.checkNotNegative(capacity, "int capacity");
+        entries = new LinkedHashMap<File, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<File, Entry> eldest) {
+                if (size() > capacity) {
+                    evict(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get an open channel for a file. The channel must be released with {@link #release(FileChannel)} after use, and
+     * must not be closed by the caller.
+     *
+     * @param file An archive file.
+     * @return A read-only channel for the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    synchronized FileChannel acquire(File file) throws IOException {
+        Entry entry = entries.get(file);
+        if (entry == null) {
+            entry = new Entry(file, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+            openChannels.put(entry.channel, entry);
+            // Count the user before adding, so the new entry is not closed if the capacity is zero
+            entry.users++;
+            entries.put(file, entry);
+        } else {
+            entry.users++;
+        }
+        return entry.channel;
+    }
+
+    /**
+     * Release a channel. If the channel has been evicted from the cache, it is closed when it is no longer used.
+     *
+     * @param channel A channel returned by {@link #acquire(File)}.
+     */
+    synchronized void release(FileChannel channel) {
+        Entry entry = openChannels.get(channel);
+        if (entry == null) {
+            return;
+        }
+        entry.users--;
+        if (entry.evicted && entry.users <= 0) {
+            openChannels.remove(channel);
+            close(entry);
+        }
+    }
+
+    /**
+     * Evict an entry from the cache, closing its channel unless it is in use.
+     *
+     * @param entry The entry.
+     */
+    private void evict(Entry entry) {
+        entry.evicted = true;
+        if (entry.users <= 0) {
+            openChannels.remove(entry.channel);
+            close(entry);
+        }
+    }
+
+    /**
+     * Close the channel of an entry, logging any failure.
+     *
+     * @param entry The entry.
+     */
+    private static void close(Entry entry) {
+        try {
+            entry.channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close channel for '{}'", entry.file, e);
+        }
+    }
+
+    /**
+     * Close all channels not in use, and empty the cache. Channels in use are closed when released.
+     */
+    synchronized void close() {
+        for (Entry entry : entries.values()) {
+            evict(entry);
+        }
+        entries.clear();
+    }
+
+    /**
+     * @return The number of channels kept open by the cache.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Make a stream reading from a channel from a given position, using positional reads so the position of the
+     * channel itself is left alone. Closing the stream does not close the channel.
+     *
+     * @param channel The channel.
+     * @param position The position to start reading from.
+     * @return The stream.
+     */
+    static InputStream newInputStream(final FileChannel channel, final long position) {
+        return new InputStream() {
+            /** The position of the next byte to read. */
+            private long pos = position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                int read = channel.read(ByteBuffer.wrap(b, off, len), pos);
+                if (read > 0) {
+                    pos += read;
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = Math.max(0, Math.min(n, channel.size() - pos));
+                pos += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(Integer.MAX_VALUE, Math.max(0, channel.size() - pos));
+            }
+        };
+    }
+
+}
@@ -22,18 +22,24 @@
  */
 package dk.netarkivet.archive.bitarchive;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveReaderFactory;
 import org.archive.io.ArchiveRecord;
+import org.archive.io.arc.ARCRecord;
+import org.archive.io.warc.WARCRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
@@ -43,6 +49,7 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 
@@ -61,6 +68,12 @@ public class Bitarchive {
     /** The instance of the bitarchive. */
     private static Bitarchive instance;
 
+    /** The archive files kept open for reading records. */
+    private final ArchiveFileChannelCache channels;
+
+    /** Whether to copy the payload of records in uncompressed files directly from the file. */
+    private final boolean directRecordTransfer;
+
     /**
      * Create a new Bitarchive with files stored on local disk in one or more directories. This can reopen an existing
      * bit archive or create a Bitarchive from scratch, with no files on disk.
@@ -70,12 +83,15 @@ public class Bitarchive {
     private Bitarchive() throws PermissionDenied {
         log.debug("Starting bit archive");
         admin = BitarchiveAdmin.getInstance();
+        channels = new ArchiveFileChannelCache(Settings.getInt(ArchiveSettings.BITARCHIVE_OPEN_FILE_CACHE_SIZE));
+        directRecordTransfer = Settings.getBoolean(ArchiveSettings.BITARCHIVE_DIRECT_RECORD_TRANSFER);
     }
 
     /**
      * Release all resources allocated by the bitarchive Ensures that all admin data and log data are flushed.
      */
     public void close() {
+        channels.close();
         admin.close();
         instance = null;
     }
@@ -103,6 +119,7 @@ public class Bitarchive {
         }
         ArchiveReader arcReader = null;
         ArchiveRecord arc = null;
+        FileChannel channel = null;
         try {
             if ((barc.getSize() <= index) || (index < 0)) {
                 log.warn("GET: index out of bounds: {}:{} > {}", arcfile, index, barc.getSize());
@@ -110,9 +127,21 @@ public class Bitarchive {
                         + barc.getSize());
             }
             File in = barc.getFilePath();
-            arcReader = ArchiveReaderFactory.get(in);
-            arc = arcReader.get(index);
-            BitarchiveRecord result = new BitarchiveRecord(arc, arcfile);
+            channel = channels.acquire(in);
+            // Parse the record header from the open channel rather than opening the file again
+            arcReader = ArchiveReaderFactory.get(in.getName(),
+                    new BufferedInputStream(ArchiveFileChannelCache.newInputStream(channel, index)), index == 0);
+            arc = arcReader.get();
+            BitarchiveRecord result;
+            // The reader strips the version block from the payload of the first record of an ARC file, so that
+            // record is read through the reader
+            if (directRecordTransfer && !in.getName().toLowerCase().endsWith(".gz")
+                    && !RemoteFileFactory.isExtendedRemoteFile() && !(arc instanceof ARCRecord && index == 0)) {
+                result = getRecordFromChannel(arcfile, channel, index, arc);
+            } else {
+                // The offset in the header of the record is relative to the stream, which starts at the record
+                result = new BitarchiveRecord(arc, arcfile, index);
+            }
 
             // release resources locked
             log.info("GET: Got {} bytes of data from {}:{}", result.getLength(), arcfile, index);
@@ -141,7 +170,63 @@ public class Bitarchive {
             } catch (IOException e) {
                 log.warn("Could not close ARCReader or ARCRecord!", e);
             }
+            if (channel != null) {
+                channels.release(channel);
+            }
+        }
+    }
+
+    /**
+     * Make a BitarchiveRecord with the payload of a record in an uncompressed archive file, copied directly from the
+     * file.
+     *
+     * @param arcfile The name of the archive file.
+     * @param channel A channel for the archive file.
+     * @param index The offset of the record in the file.
+     * @param record The record at the offset, with its header read.
+     * @return A BitarchiveRecord for the record.
+     * @throws IOException If the file cannot be read.
+     */
+    private static BitarchiveRecord getRecordFromChannel(String arcfile, FileChannel channel, long index,
+            ArchiveRecord record) throws IOException {
+        long payloadStart;
+        long length;
+        if (record instanceof WARCRecord) {
+            // The payload starts after the record header, as in BitarchiveRecord(ArchiveRecord, String)
+            payloadStart = index + record.getHeader().getContentBegin();
+            length = record.getHeader().getLength() - record.getHeader().getContentBegin();
+        } else if (record instanceof ARCRecord) {
+            // The payload starts after the header line, and the length in the header line is that of the payload
+            payloadStart = findEndOfLine(channel, index);
+            length = record.getHeader().getLength();
+        } else {
+            throw new ArgumentNotValid("Unknown type of ArchiveRecord");
+        }
+        return new BitarchiveRecord(arcfile, channel, index, payloadStart, length);
+    }
+
+    /**
+     * Find the end of the line starting at a given offset in a file.
+     *
+     * @param channel A channel for the file.
+     * @param offset The offset of the start of the line.
+     * @return The offset just after the line feed ending the line.
+     * @throws IOException If the file cannot be read, or the line does not end before the end of the file.
+     */
+    private static long findEndOfLine(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        long position = offset;
+        while (channel.read(buffer, position) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position++;
+                if (buffer.get() == '\n') {
+                    return position;
+                }
+            }
+            buffer.clear();
         }
+        throw new IOException("No end of line after offset " + offset);
     }
 
     /**
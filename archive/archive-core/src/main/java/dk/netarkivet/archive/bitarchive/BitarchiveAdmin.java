@@ -23,16 +23,30 @@
 
 package dk.netarkivet.archive.bitarchive;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,12 +69,21 @@ public final class BitarchiveAdmin {
     /** The class logger. */
     private static final Logger log = LoggerFactory.getLogger(BitarchiveAdmin.class);
 
+    /** Version of the format of the file list snapshots. */
+    private static final int SNAPSHOT_VERSION = 1;
+
     /**
-     * Map containing the archive directories and their files. The file must be the CanonicalFile (use
+     * Map containing the archive directories and their files, sorted by name. The file must be the CanonicalFile (use
      * getCanonicalFile() before access).
      */
-    private Map<File, List<String>> archivedFiles = Collections
-            .synchronizedMap(new LinkedHashMap<File, List<String>>());
+    private Map<File, NavigableSet<String>> archivedFiles = Collections
+            .synchronizedMap(new LinkedHashMap<File, NavigableSet<String>>());
+
+    /**
+     * Index from the name of an archived file to the archive directory containing it. The file must be the
+     * CanonicalFile. Kept in step with archivedFiles.
+     */
+    private final Map<String, File> fileIndex = new ConcurrentHashMap<String, File>();
 
     /**
      * Map containing the time for the latest update of the filelist for each archive directory. The file must be the
@@ -86,6 +109,9 @@ public final class BitarchiveAdmin {
     /** readonly mode */
     private final boolean readOnlyMode;
 
+    /** The name of the file list snapshot in each archive directory, or null if snapshots are not used. */
+    private final String fileListSnapshotName;
+
 
     /**
      * Creates a new BitarchiveAdmin object for an existing bit archive. Reads the directories to use from settings.
@@ -104,6 +130,7 @@ public final class BitarchiveAdmin {
 
         fileDirectoryName = Settings.get(ArchiveSettings.FILE_DIRECTORY_NAME);
         readOnlyMode = Settings.getBoolean(ArchiveSettings.READONLY_ARCHIVE_MODE);
+        fileListSnapshotName = getFileListSnapshotName();
         // Check, if value of minSpaceLeft is greater than zero
         if (minSpaceLeft <= 0L) {
             log.warn("Wrong setting of minSpaceLeft read from Settings: {}", minSpaceLeft);
@@ -139,9 +166,12 @@ public final class BitarchiveAdmin {
                 ApplicationUtils.dirMustExist(atticdir);
 
                 // initialise the variables archivedFiles and archiveTime
-                archivedFiles.put(basedir, new ArrayList<String>());
+                archivedFiles.put(basedir, new ConcurrentSkipListSet<String>());
                 archiveTime.put(basedir, 0L);
-                updateFileList(basedir);
+                if (!readFileListSnapshot(basedir)) {
+                    updateFileList(basedir);
+                    writeFileListSnapshot(basedir);
+                }
 
                 final Long bytesUsedInDir = calculateBytesUsed(basedir);
                 log.info(
@@ -179,7 +209,7 @@ public final class BitarchiveAdmin {
      * file-directory under basedir is not either a writable directory or a symbolic link
      * @throws IOFailure If it is not possible to retrieve the canonical file for the basedir.
      */
-    public void updateFileList(File basedir) throws ArgumentNotValid, UnknownID, IOFailure {
+    public synchronized void updateFileList(File basedir) throws ArgumentNotValid, UnknownID, IOFailure {
         ArgumentNotValid.checkNotNull(basedir, "File basedir");
         // ensure that it is the CanonicalFile for the directory.
         try {
@@ -205,18 +235,193 @@ public final class BitarchiveAdmin {
             throw new UnknownID("The directory '" + filedir + "' is not an " + " archive directory.");
         }
 
+        // Read the time before listing, so changes made during the listing are found next time.
+        long lastModified = filedir.lastModified();
         String[] dirContent = filedir.list();
-        List<String> filenames = new ArrayList<String>(dirContent.length);
+        NavigableSet<String> filenames = archivedFiles.get(basedir);
+        Set<String> removedFiles = new HashSet<String>(filenames);
+        int added = 0;
         for (String file : dirContent) {
+            // Only files not known already need to be checked
+            if (removedFiles.remove(file)) {
+                continue;
+            }
             // ensure that only files are handled
             if ((new File(filedir, file)).isFile()) {
-                filenames.add(file);
+                addToIndex(basedir, file);
+                added++;
             } else {
                 log.warn("The file '{}' in directory {} is not a proper file.", file, filedir.getPath());
             }
         }
-        archivedFiles.put(basedir, filenames);
-        archiveTime.put(basedir, filedir.lastModified());
+        for (String file : removedFiles) {
+            removeFromIndex(basedir, file);
+        }
+        archiveTime.put(basedir, lastModified);
+        log.debug("Updated the filelist for '{}': {} files added, {} files removed, {} files in total.", basedir,
+                added, removedFiles.size(), filenames.size());
+    }
+
+    /**
+     * Add a file in an archive directory to the file lists.
+     *
+     * @param basedir The canonical archive directory.
+     * @param filename The name of the file.
+     */
+    private void addToIndex(File basedir, String filename) {
+        archivedFiles.get(basedir).add(filename);
+        File indexed = fileIndex.get(filename);
+        // If the file is in more than one directory, lookup uses the first one as it did when scanning the directories
+        if (indexed == null || !indexed.equals(basedir) && !precedes(indexed, basedir)) {
+            fileIndex.put(filename, basedir);
+        }
+    }
+
+    /**
+     * Remove a file in an archive directory from the file lists.
+     *
+     * @param basedir The canonical archive directory.
+     * @param filename The name of the file.
+     */
+    private void removeFromIndex(File basedir, String filename) {
+        archivedFiles.get(basedir).remove(filename);
+        if (fileIndex.remove(filename, basedir)) {
+            // Fall back to a copy in another directory, if any
+            synchronized (archivedFiles) {
+                for (Map.Entry<File, NavigableSet<String>> entry : archivedFiles.entrySet()) {
+                    if (entry.getValue().contains(filename)) {
+                        fileIndex.put(filename, entry.getKey());
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param dir1 An archive directory.
+     * @param dir2 Another archive directory.
+     * @return true if dir1 comes before dir2 in the settings.
+     */
+    private boolean precedes(File dir1, File dir2) {
+        synchronized (archivedFiles) {
+            for (File dir : archivedFiles.keySet()) {
+                if (dir.equals(dir1)) {
+                    return true;
+                }
+                if (dir.equals(dir2)) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the setting for the name of the file list snapshots.
+     *
+     * @return The name of the snapshot file, or null if the optional setting is not given or empty.
+     */
+    private static String getFileListSnapshotName() {
+        try {
+            String name = Settings.get(ArchiveSettings.FILE_DIRECTORY_FILE_LISTING).trim();
+            if (!name.isEmpty()) {
+                return name;
+            }
+        } catch (UnknownID e) {
+            // The setting is optional
+        }
+        log.info("No file list snapshot given by '{}'. The archive directories are listed at startup.",
+                ArchiveSettings.FILE_DIRECTORY_FILE_LISTING);
+        return null;
+    }
+
+    /**
+     * Initialise the filelist for a basedir from its snapshot. The snapshot is only used if the file-directory has not
+     * been modified since the snapshot was written.
+     *
+     * @param basedir The canonical archive directory.
+     * @return true if the filelist was read from the snapshot, false if the directory must be listed.
+     */
+    private boolean readFileListSnapshot(File basedir) {
+        if (fileListSnapshotName == null) {
+            return false;
+        }
+        File snapshot = new File(basedir, fileListSnapshotName);
+        if (!snapshot.isFile()) {
+            return false;
+        }
+        long lastModified = new File(basedir, fileDirectoryName).lastModified();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                new FileInputStream(snapshot))))) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                log.info("File list snapshot '{}' has an unknown version. Ignoring it.", snapshot);
+                return false;
+            }
+            long snapshotTime = in.readLong();
+            if (snapshotTime != lastModified) {
+                log.info("File list snapshot '{}' is out of date. Ignoring it.", snapshot);
+                return false;
+            }
+            int count = in.readInt();
+            List<String> filenames = new ArrayList<String>(count);
+            String previous = "";
+            for (int i = 0; i < count; i++) {
+                // The names are stored sorted, with the length of the prefix shared with the previous name
+                int shared = in.readUnsignedShort();
+                previous = previous.substring(0, shared) + in.readUTF();
+                filenames.add(previous);
+            }
+            for (String filename : filenames) {
+                addToIndex(basedir, filename);
+            }
+            archiveTime.put(basedir, snapshotTime);
+            log.info("Read {} filenames for '{}' from snapshot '{}'.", count, basedir, snapshot);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read file list snapshot '{}'. Listing the directory instead.", snapshot, e);
+            return false;
+        }
+    }
+
+    /**
+     * Write the filelist of a basedir to its snapshot, if snapshots are used. Failure to write the snapshot is logged,
+     * as the directory can always be listed instead.
+     *
+     * @param basedir The canonical archive directory.
+     */
+    private void writeFileListSnapshot(File basedir) {
+        if (fileListSnapshotName == null || archiveTime.get(basedir) == 0L) {
+            return;
+        }
+        File snapshot = new File(basedir, fileListSnapshotName);
+        File tmpSnapshot = new File(basedir, fileListSnapshotName + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                    new FileOutputStream(tmpSnapshot))))) {
+                NavigableSet<String> filenames = archivedFiles.get(basedir);
+                List<String> sortedNames = new ArrayList<String>(filenames);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(archiveTime.get(basedir));
+                out.writeInt(sortedNames.size());
+                String previous = "";
+                for (String filename : sortedNames) {
+                    int shared = 0;
+                    int maxShared = Math.min(Math.min(previous.length(), filename.length()), 0xFFFF);
+                    while (shared < maxShared && previous.charAt(shared) == filename.charAt(shared)) {
+                        shared++;
+                    }
+                    out.writeShort(shared);
+                    out.writeUTF(filename.substring(shared));
+                    previous = filename;
+                }
+            }
+            Files.move(tmpSnapshot.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log.debug("Wrote file list snapshot '{}'.", snapshot);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to write file list snapshot '{}'.", snapshot, e);
+            FileUtils.remove(tmpSnapshot);
+        }
     }
 
     /**
@@ -322,11 +527,10 @@ public final class BitarchiveAdmin {
         } catch (IOException e) {
             throw new IOFailure("Could not find canonical file for " + basedir.getAbsolutePath(), e);
         }
-        final List<String> fileList = archivedFiles.get(canonicalFile);
-        if (fileList == null) {
+        if (!archivedFiles.containsKey(canonicalFile)) {
             throw new UnknownID("The directory " + basedir.getAbsolutePath() + " was not found in the map of known directories and files.");
         }
-        fileList.add(arcFileName);
+        addToIndex(canonicalFile, arcFileName);
         archiveTime.put(canonicalFile, storagePath.lastModified());
         return storageFile;
     }
@@ -391,8 +595,7 @@ public final class BitarchiveAdmin {
         for (File archivePath : archivedFiles.keySet()) {
             File archiveDir = new File(archivePath, fileDirectoryName);
             if (checkArchiveDir(archiveDir)) {
-                List<String> filesHere = archivedFiles.get(archivePath);
-                for (String filename : filesHere) {
+                for (String filename : archivedFiles.get(archivePath)) {
                     files.add(new File(archiveDir, filename));
                 }
             }
@@ -412,11 +615,16 @@ public final class BitarchiveAdmin {
         ArgumentNotValid.checkNotNull(regexp, "Pattern regexp");
         // Ensure that the filelist is up to date.
         verifyFilelistUpToDate();
+        // Only the files starting with the literal prefix of the regexp can match
+        String prefix = getLiteralPrefix(regexp);
         List<File> files = new ArrayList<File>();
         for (File archivePath : archivedFiles.keySet()) {
             File archiveDir = new File(archivePath, fileDirectoryName);
             if (checkArchiveDir(archiveDir)) {
-                for (String filename : archivedFiles.get(archivePath)) {
+                for (String filename : archivedFiles.get(archivePath).tailSet(prefix)) {
+                    if (!filename.startsWith(prefix)) {
+                        break;
+                    }
                     if (regexp.matcher(filename).matches()) {
                         files.add(new File(archiveDir, filename));
                     }
@@ -426,6 +634,68 @@ public final class BitarchiveAdmin {
         return files.toArray(new File[files.size()]);
     }
 
+    /**
+     * Find the literal text that all strings matched by a regular expression start with. Only simple constructs are
+     * recognised, so the prefix may be shorter than the longest one possible.
+     *
+     * @param regexp A regular expression.
+     * @return The literal prefix, or the empty string if none is found.
+     */
+    static String getLiteralPrefix(Pattern regexp) {
+        String pattern = regexp.pattern();
+        if ((regexp.flags() & Pattern.LITERAL) != 0) {
+            return pattern;
+        }
+        if ((regexp.flags() & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS)) != 0 || pattern.indexOf('|') >= 0) {
+            return "";
+        }
+        StringBuilder prefix = new StringBuilder();
+        int i = pattern.startsWith("^") ? 1 : 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            int next = i + 1;
+            if (pattern.startsWith("\\Q", i)) {
+                // Quoted text, as made by Pattern.quote()
+                int end = pattern.indexOf("\\E", i + 2);
+                if (end < 0) {
+                    prefix.append(pattern.substring(i + 2));
+                    break;
+                }
+                String quoted = pattern.substring(i + 2, end);
+                next = end + 2;
+                if (next < pattern.length() && "?*{".indexOf(pattern.charAt(next)) >= 0 && !quoted.isEmpty()) {
+                    prefix.append(quoted.substring(0, quoted.length() - 1));
+                    break;
+                }
+                prefix.append(quoted);
+                if (next < pattern.length() && pattern.charAt(next) == '+') {
+                    break;
+                }
+                i = next;
+                continue;
+            } else if (c == '\\') {
+                // Only escaped punctuation is literal; other escapes are character classes and the like
+                if (next >= pattern.length() || Character.isLetterOrDigit(pattern.charAt(next))) {
+                    break;
+                }
+                c = pattern.charAt(next);
+                next++;
+            } else if (".[]{}()*+?^$".indexOf(c) >= 0) {
+                break;
+            }
+            // A quantified character may not be part of the match
+            if (next < pattern.length() && "?*{".indexOf(pattern.charAt(next)) >= 0) {
+                break;
+            }
+            prefix.append(c);
+            if (next < pattern.length() && pattern.charAt(next) == '+') {
+                break;
+            }
+            i = next;
+        }
+        return prefix.toString();
+    }
+
     /**
      * Return the path that a given arc file can be found in.
      *
@@ -435,7 +705,8 @@ public final class BitarchiveAdmin {
     public BitarchiveARCFile lookup(String arcFileName) {
         ArgumentNotValid.checkNotNullOrEmpty(arcFileName, "arcFileName");
         verifyFilelistUpToDate();
-        for (File archivePath : archivedFiles.keySet()) {
+        File archivePath = fileIndex.get(arcFileName);
+        if (archivePath != null) {
             File archiveDir = new File(archivePath, fileDirectoryName);
             if (checkArchiveDir(archiveDir)) {
                 File archiveFile = new File(archiveDir, arcFileName);
@@ -515,10 +786,16 @@ public final class BitarchiveAdmin {
     }
 
     /**
-     * Close down the bitarchive admin. Currently has no data to store.
+     * Close down the bitarchive admin. The filelists are stored in their snapshots, if snapshots are used.
      */
-    public void close() {
+    public synchronized void close() {
+        synchronized (archivedFiles) {
+            for (File basedir : archivedFiles.keySet()) {
+                writeFileListSnapshot(basedir);
+            }
+        }
         archivedFiles.clear();
+        fileIndex.clear();
         archiveTime.clear();
         instance = null;
     }
@@ -549,6 +826,25 @@ public final class BitarchiveAdmin {
         return new File(atticdir, arcFileName);
     }
 
+    /**
+     * Move a file in the bitarchive to the attic dir, and remove it from the filelist.
+     *
+     * @param existingFile a File object for an existing file in the bitarchive
+     * @return The full path of the file in the attic dir
+     * @throws ArgumentNotValid If the file does not belong to a bitarchive dir.
+     * @throws IOFailure If the file cannot be moved.
+     */
+    public File moveToAttic(File existingFile) throws ArgumentNotValid, IOFailure {
+        File atticFile = getAtticPath(existingFile);
+        if (!existingFile.renameTo(atticFile)) {
+            throw new IOFailure("Failed to move the file '" + existingFile + "' to attic");
+        }
+        File basedir = atticFile.getParentFile().getParentFile();
+        removeFromIndex(basedir, atticFile.getName());
+        archiveTime.put(basedir, new File(basedir, fileDirectoryName).lastModified());
+        return atticFile;
+    }
+
     public boolean isReadonlyMode(){
     	return readOnlyMode;
     }
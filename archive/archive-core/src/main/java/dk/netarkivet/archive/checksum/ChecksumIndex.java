@@ -0,0 +1,519 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.KeyValuePair;
+
+/**
+ * A compact map from filename to checksum, used as the in-memory archive of the FileChecksumArchive.
+ * <p>
+ * The entries are kept in an open-addressing hash table of primitive arrays. The filenames are stored as UTF-8 bytes
+ * in large pages, and MD5 checksums in lower case hex are stored as their 16 bytes. Other checksums are stored as text
+ * after the filename.
+ * <p>
+ * Entries are only added, by a single writer at a time. Replacing the checksum of a filename adds a new entry, which
+ * takes the place of the old one in the hash table. Lookups take no locks: the data of an entry is written before the
+ * entry is published in the hash table, and a lookup reads the hash table before the data.
+ */
+final class ChecksumIndex {
+
+    /** The number of entries in each chunk of the entry arrays is 2^CHUNK_SHIFT. */
+    private static final int CHUNK_SHIFT = 14;
+    /** The number of entries in each chunk of the entry arrays. */
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    /** The size of the pages holding the filenames. */
+    private static final int PAGE_SIZE = 1 << 20;
+    /** The maximal length in bytes of a filename or a checksum stored as text. */
+    private static final int MAX_TEXT_LENGTH = 0xFFFF;
+    /** The flag in the name reference of an entry telling that its checksum is stored as text after the filename. */
+    private static final long TEXT_CHECKSUM = 1L << 63;
+    /** The initial number of slots in the hash table. */
+    private static final int INITIAL_SLOTS = 1 << 10;
+    /** The hex digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The arrays of the index. The arrays of entries are split into chunks, which never move. When the index grows, a
+     * new Table is made, sharing the chunks and pages of the old one.
+     */
+    private static final class Table {
+        /** The hash table. Each slot holds the entry number plus one, or zero for an empty slot. */
+        private final AtomicIntegerArray slots;
+        /** The hashes of the filenames, for each entry. */
+        private final int[][] hashes;
+        /** The page and offset of the filename, for each entry, and the TEXT_CHECKSUM flag. */
+        private final long[][] names;
+        /** The two halves of the MD5 checksum, for each entry. */
+        private final long[][] digests;
+        /** The pages of filenames and checksums stored as text. */
+        private final byte[][] pages;
+
+        /**
+         * @param slots The hash table.
+         * @param hashes The chunks of hashes.
+         * @param names The chunks of name references.
+         * @param digests The chunks of digests.
+         * @param pages The pages.
+         */
+        private Table(AtomicIntegerArray slots, int[][] hashes, long[][] names, long[][] digests, byte[][] pages) {
+            this.slots = slots;
+            this.hashes = hashes;
+            this.names = names;
+            this.digests = digests;
+            this.pages = pages;
+        }
+    }
+
+    /** The current table. Replaced whenever the writer grows the index. */
+    private volatile Table table;
+
+    /** The number of filenames in the index. */
+    private volatile int size;
+
+    /** The number of entries, including replaced ones. Only used by the writer. */
+    private int entries;
+
+    /** The number of the page being filled. Only used by the writer. */
+    private int page;
+
+    /** The next free offset in the page being filled. Only used by the writer. */
+    private int pageOffset;
+
+    /** Create an empty index. */
+    ChecksumIndex() {
+        clear();
+    }
+
+    /**
+     * Remove all entries.
+     */
+    synchronized void clear() {
+        table = new Table(new AtomicIntegerArray(INITIAL_SLOTS), new int[0][], new long[0][], new long[0][],
+                new byte[][] {new byte[PAGE_SIZE]});
+        size = 0;
+        entries = 0;
+        page = 0;
+        pageOffset = 0;
+    }
+
+    /**
+     * @return The number of filenames in the index.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return Whether the index is empty.
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param filename A filename.
+     * @return Whether the index has a checksum for the filename.
+     */
+    boolean containsKey(String filename) {
+        return get(filename) != null;
+    }
+
+    /**
+     * Get the checksum of a filename.
+     *
+     * @param filename The filename.
+     * @return The checksum, or null if the filename is not in the index.
+     */
+    String get(String filename) {
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        Table t = table;
+        int entry = t.slots.get(findSlot(t, name, hash(name))) - 1;
+        if (entry < 0) {
+            return null;
+        }
+        return getChecksum(current(t, entry), entry);
+    }
+
+    /**
+     * Set the checksum of a filename.
+     *
+     * @param filename The filename.
+     * @param checksum The checksum.
+     * @throws ArgumentNotValid If the filename or the checksum is longer than 65535 bytes.
+     */
+    synchronized void put(String filename, String checksum) {
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        ArgumentNotValid.checkTrue(name.length <= MAX_TEXT_LENGTH, "The filename '" + filename + "' is too long");
+        int hash = hash(name);
+        Table t = table;
+        int slot = findSlot(t, name, hash);
+        int old = t.slots.get(slot) - 1;
+        long nameRef;
+        if (old >= 0) {
+            if (checksum.equals(getChecksum(t, old))) {
+                return;
+            }
+            nameRef = t.names[old >>> CHUNK_SHIFT][old & (CHUNK_SIZE - 1)] & ~TEXT_CHECKSUM;
+        } else {
+            nameRef = -1;
+        }
+
+        long[] digest = parseDigest(checksum);
+        byte[] text = digest == null ? checksum.getBytes(StandardCharsets.UTF_8) : null;
+        ArgumentNotValid.checkTrue(text == null || text.length <= MAX_TEXT_LENGTH,
+                "The checksum '" + checksum + "' is too long");
+        if (nameRef < 0 || text != null) {
+            // Write the filename, followed by the checksum if stored as text
+            int needed = 2 + name.length + (text == null ? 0 : 2 + text.length);
+            t = ensurePageSpace(t, needed);
+            nameRef = ((long) page << 32) | pageOffset;
+            pageOffset = writeText(t.pages[page], pageOffset, name);
+            if (text != null) {
+                pageOffset = writeText(t.pages[page], pageOffset, text);
+            }
+        }
+
+        t = ensureEntrySpace(t);
+        int entry = entries++;
+        int chunk = entry >>> CHUNK_SHIFT;
+        int index = entry & (CHUNK_SIZE - 1);
+        t.hashes[chunk][index] = hash;
+        t.names[chunk][index] = text == null ? nameRef : nameRef | TEXT_CHECKSUM;
+        if (digest != null) {
+            t.digests[chunk][2 * index] = digest[0];
+            t.digests[chunk][2 * index + 1] = digest[1];
+        }
+
+        // Publish the entry
+        t.slots.set(slot, entry + 1);
+        if (old < 0) {
+            size++;
+            if (size > t.slots.length() / 4 * 3) {
+                rehash(t);
+            }
+        }
+    }
+
+    /**
+     * Iterate over the entries of the index. Entries added during the iteration may or may not be included.
+     *
+     * @return An iterator over the filenames and their checksums.
+     */
+    Iterator<KeyValuePair<String, String>> iterator() {
+        final Table t = table;
+        return new Iterator<KeyValuePair<String, String>>() {
+            /** The next slot to look at. */
+            private int slot = nextSlot(0);
+
+            /**
+             * @param from A slot number.
+             * @return The first used slot from the given one, or the number of slots if there is none.
+             */
+            private int nextSlot(int from) {
+                int i = from;
+                while (i < t.slots.length() && t.slots.get(i) == 0) {
+                    i++;
+                }
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot < t.slots.length();
+            }
+
+            @Override
+            public KeyValuePair<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more entries");
+                }
+                int entry = t.slots.get(slot) - 1;
+                Table current = current(t, entry);
+                slot = nextSlot(slot + 1);
+                return new KeyValuePair<String, String>(getFilename(current, entry), getChecksum(current, entry));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Not supported");
+            }
+        };
+    }
+
+    /**
+     * Find the slot of a filename in the hash table.
+     *
+     * @param t The table.
+     * @param name The filename as bytes.
+     * @param hash The hash of the filename.
+     * @return The slot holding the filename, or the empty slot where it belongs.
+     */
+    private int findSlot(Table t, byte[] name, int hash) {
+        int mask = t.slots.length() - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int entry = t.slots.get(slot) - 1;
+            if (entry < 0) {
+                return slot;
+            }
+            Table current = current(t, entry);
+            if (current.hashes[entry >>> CHUNK_SHIFT][entry & (CHUNK_SIZE - 1)] == hash
+                    && nameEquals(current, entry, name)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Get a table holding an entry. A slot can refer to an entry added to the chunks or pages of a table published
+     * after the one the reader started with; the newer table is then visible, since it was published before the slot
+     * was set.
+     *
+     * @param t The table the reader started with.
+     * @param entry An entry number read from the slots.
+     * @return A table holding the entry.
+     */
+    private Table current(Table t, int entry) {
+        int chunk = entry >>> CHUNK_SHIFT;
+        if (chunk < t.hashes.length && pageOf(t.names[chunk][entry & (CHUNK_SIZE - 1)]) < t.pages.length) {
+            return t;
+        }
+        return table;
+    }
+
+    /**
+     * @param ref The name reference of an entry.
+     * @return The number of the page holding the filename.
+     */
+    private static int pageOf(long ref) {
+        return (int) ((ref & ~TEXT_CHECKSUM) >>> 32);
+    }
+
+    /**
+     * @param t A table holding the entry.
+     * @param entry An entry number.
+     * @param name A filename as bytes.
+     * @return Whether the entry has the given filename.
+     */
+    private static boolean nameEquals(Table t, int entry, byte[] name) {
+        long ref = t.names[entry >>> CHUNK_SHIFT][entry & (CHUNK_SIZE - 1)];
+        byte[] p = t.pages[pageOf(ref)];
+        int offset = (int) ref;
+        if (readLength(p, offset) != name.length) {
+            return false;
+        }
+        offset += 2;
+        for (int i = 0; i < name.length; i++) {
+            if (p[offset + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param t A table holding the entry.
+     * @param entry An entry number.
+     * @return The filename of the entry.
+     */
+    private static String getFilename(Table t, int entry) {
+        long ref = t.names[entry >>> CHUNK_SHIFT][entry & (CHUNK_SIZE - 1)];
+        byte[] p = t.pages[pageOf(ref)];
+        int offset = (int) ref;
+        return new String(p, offset + 2, readLength(p, offset), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param t A table holding the entry.
+     * @param entry An entry number.
+     * @return The checksum of the entry.
+     */
+    private static String getChecksum(Table t, int entry) {
+        int chunk = entry >>> CHUNK_SHIFT;
+        int index = entry & (CHUNK_SIZE - 1);
+        long ref = t.names[chunk][index];
+        if ((ref & TEXT_CHECKSUM) != 0) {
+            byte[] p = t.pages[pageOf(ref)];
+            int offset = (int) ref;
+            offset += 2 + readLength(p, offset);
+            return new String(p, offset + 2, readLength(p, offset), StandardCharsets.UTF_8);
+        }
+        char[] hex = new char[32];
+        toHex(t.digests[chunk][2 * index], hex, 0);
+        toHex(t.digests[chunk][2 * index + 1], hex, 16);
+        return new String(hex);
+    }
+
+    /**
+     * Make sure the page being filled has room for some bytes, starting a new page if not.
+     *
+     * @param t The current table.
+     * @param needed The number of bytes needed.
+     * @return The current table, which may be a new one.
+     */
+    private Table ensurePageSpace(Table t, int needed) {
+        if (pageOffset + needed <= PAGE_SIZE) {
+            return t;
+        }
+        byte[][] pages = Arrays.copyOf(t.pages, t.pages.length + 1);
+        pages[pages.length - 1] = new byte[PAGE_SIZE];
+        page = pages.length - 1;
+        pageOffset = 0;
+        return publish(new Table(t.slots, t.hashes, t.names, t.digests, pages));
+    }
+
+    /**
+     * Make sure the entry arrays have room for one more entry, adding a chunk if not.
+     *
+     * @param t The current table.
+     * @return The current table, which may be a new one.
+     */
+    private Table ensureEntrySpace(Table t) {
+        int chunk = entries >>> CHUNK_SHIFT;
+        if (chunk < t.hashes.length) {
+            return t;
+        }
+        int[][] hashes = Arrays.copyOf(t.hashes, chunk + 1);
+        long[][] names = Arrays.copyOf(t.names, chunk + 1);
+        long[][] digests = Arrays.copyOf(t.digests, chunk + 1);
+        hashes[chunk] = new int[CHUNK_SIZE];
+        names[chunk] = new long[CHUNK_SIZE];
+        digests[chunk] = new long[2 * CHUNK_SIZE];
+        return publish(new Table(t.slots, hashes, names, digests, t.pages));
+    }
+
+    /**
+     * Double the size of the hash table.
+     *
+     * @param t The current table.
+     */
+    private void rehash(Table t) {
+        AtomicIntegerArray slots = new AtomicIntegerArray(t.slots.length() * 2);
+        int mask = slots.length() - 1;
+        for (int i = 0; i < t.slots.length(); i++) {
+            int entry = t.slots.get(i);
+            if (entry == 0) {
+                continue;
+            }
+            int slot = t.hashes[(entry - 1) >>> CHUNK_SHIFT][(entry - 1) & (CHUNK_SIZE - 1)] & mask;
+            while (slots.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.set(slot, entry);
+        }
+        publish(new Table(slots, t.hashes, t.names, t.digests, t.pages));
+    }
+
+    /**
+     * @param t A new table.
+     * @return The table, now the current one.
+     */
+    private Table publish(Table t) {
+        table = t;
+        return t;
+    }
+
+    /**
+     * Write a text with its length.
+     *
+     * @param p The page.
+     * @param offset The offset to write at.
+     * @param text The text as bytes.
+     * @return The offset after the text.
+     */
+    private static int writeText(byte[] p, int offset, byte[] text) {
+        p[offset] = (byte) (text.length >>> 8);
+        p[offset + 1] = (byte) text.length;
+        System.arraycopy(text, 0, p, offset + 2, text.length);
+        return offset + 2 + text.length;
+    }
+
+    /**
+     * @param p A page.
+     * @param offset The offset of a text.
+     * @return The length of the text.
+     */
+    private static int readLength(byte[] p, int offset) {
+        return ((p[offset] & 0xFF) << 8) | (p[offset + 1] & 0xFF);
+    }
+
+    /**
+     * @param name A filename as bytes.
+     * @return The hash of the filename.
+     */
+    private static int hash(byte[] name) {
+        int h = 0;
+        for (byte b : name) {
+            h = 31 * h + b;
+        }
+        // Spread the bits, since the slot is taken from the low bits
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Parse a checksum in the form of 32 lower case hex digits.
+     *
+     * @param checksum The checksum.
+     * @return The two halves of the checksum, or null if it is not 32 lower case hex digits.
+     */
+    private static long[] parseDigest(String checksum) {
+        if (checksum.length() != 32) {
+            return null;
+        }
+        long[] digest = new long[2];
+        for (int i = 0; i < 32; i++) {
+            char c = checksum.charAt(i);
+            int value;
+            if (c >= '0' && c <= '9') {
+                value = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                value = c - 'a' + 10;
+            } else {
+                return null;
+            }
+            digest[i / 16] = (digest[i / 16] << 4) | value;
+        }
+        return digest;
+    }
+
+    /**
+     * Write a long as 16 hex digits.
+     *
+     * @param value The value.
+     * @param hex The array to write to.
+     * @param offset The offset to write at.
+     */
+    private static void toHex(long value, char[] hex, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            hex[offset + 15 - i] = HEX[(int) (value >>> (4 * i)) & 0xF];
+        }
+    }
+
+}
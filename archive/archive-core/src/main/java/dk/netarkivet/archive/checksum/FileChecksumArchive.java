@@ -23,16 +23,26 @@
 package dk.netarkivet.archive.checksum;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Iterator;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -60,6 +70,12 @@ import dk.netarkivet.common.utils.batch.ChecksumJob;
  * <b>'filename' + ## + 'checksum'</b> <br>
  * The lines are not sorted.
  * <p>
+ * The file is an append-only log: new entries are appended to the end, and are forced to disk before the upload is
+ * acknowledged, with one sync shared by concurrent uploads. When the file has grown by other means, only the new lines
+ * are loaded. The file is only rewritten when an entry is corrected or a bad entry is removed.
+ * <p>
+ * The archive in memory is a compact hash table (see ChecksumIndex), and lookups do not lock.
+ * <p>
  * If no file exists when the class is instantiated then it will be created, and if an 'admin.data' file exists, then it
  * will be loaded and put into the archive file.
  */
@@ -82,6 +98,9 @@ public final class FileChecksumArchive implements ChecksumArchive {
     /** The suffix to the removedEntryFile. */
     private static final String WRONG_FILENAME_SUFFIX = ".checksum";
 
+    /** The size of the buffer for loading the checksum file. */
+    private static final int LOAD_BUFFER_SIZE = 1 << 16;
+
     /** The logger used by this class. */
     private static final Logger log = LoggerFactory.getLogger(FileChecksumArchive.class);
 
@@ -102,7 +121,31 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * The last modified date for the checksum file. This variable is used for determining whether to reload the archive
      * from the checksum file, when they are synchronized. This has to be updated whenever the checksum file is changed.
      */
-    private long lastModifiedChecksumFile;
+    private volatile long lastModifiedChecksumFile;
+
+    /** The number of bytes of the checksum file that are loaded into the memory. */
+    private volatile long loadedLength;
+
+    /** The file key of the checksum file when loaded, used for telling whether the file has been replaced. */
+    private Object checksumFileKey;
+
+    /** Whether the last line of the checksum file lacks its line feed. */
+    private boolean missingLineFeed;
+
+    /** The channel for appending to the checksum file. */
+    private FileChannel checksumChannel;
+
+    /** Whether entries are forced to disk before an upload is acknowledged. */
+    private final boolean syncWrites;
+
+    /** The number of entries appended to the checksum file. Guarded by this. */
+    private long entriesWritten;
+
+    /** The lock for forcing the checksum file to disk. Must not be taken while holding the lock on this. */
+    private final Object syncLock = new Object();
+
+    /** The number of appended entries known to be on disk. Guarded by syncLock. */
+    private long entriesSynced;
 
     /**
      * This map consists of the archive loaded into the memory. It is faster to use a memory archive than the the
@@ -110,7 +153,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * <p>
      * Map(file -> checksum).
      */
-    private Map<String, String> checksumArchive = Collections.synchronizedMap(new HashMap<String, String>());
+    private final ChecksumIndex checksumArchive = new ChecksumIndex();
 
     /** The minimum space left. */
     private long minSpaceLeft;
@@ -146,6 +189,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
             log.warn(msg);
             throw new ArgumentNotValid(msg);
         }
+        syncWrites = Settings.getBoolean(ArchiveSettings.CHECKSUM_SYNC_WRITES);
 
         // Initialize the archive and bad-entry files.
         initializeFiles();
@@ -241,6 +285,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
             // memory.
             loadFile();
         }
+        openChecksumChannel();
 
         // If the archive is new or otherwise empty, then try to load admin.data
         if (checksumArchive.isEmpty()) {
@@ -256,41 +301,54 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * If a bad entry is found, then the archive file has to be recreated afterwards, since the bad entry otherwise
      * still would be in the archive file.
      */
-    private void loadFile() {
+    private synchronized void loadFile() {
+        checksumArchive.clear();
+        loadedLength = 0;
+        missingLineFeed = false;
+        checksumFileKey = getFileKey(checksumFile);
+        loadNewEntries();
+    }
+
+    /**
+     * Loads the lines of the checksum file after the part already loaded into the memory. The lines are handled as in
+     * {@link #loadFile()}.
+     */
+    private synchronized void loadNewEntries() {
         // Checks whether a bad entry was found, to decide whether the archive
         // file should be recreated.
         boolean recreate = false;
 
-        // extract all the data from the file.
-        List<String> entries;
-
-        // This should be synchronized to prevent reading the file while it is
-        // being written.
-        synchronized (this) {
-            entries = FileUtils.readListFromFile(checksumFile);
-        }
-
-        String filename;
-        String checksum;
-
-        // go through all entries and extract their filename and checksum.
-        for (String record : entries) {
-            try {
-                KeyValuePair<String, String> entry = ChecksumJob.parseLine(record);
-                // extract the filename and checksum
-                filename = entry.getKey();
-                checksum = entry.getValue();
-                // If their are extracted correct, then they will be put
-                // into the archive.
-                checksumArchive.put(filename, checksum);
-            } catch (IllegalState e) {
-                log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry file.", record,
-                        e);
-                // put into wrongEntryFile!
-                appendWrongRecordToWrongEntryFile(record);
-                recreate = true;
+        long position = loadedLength;
+        try (FileInputStream in = new FileInputStream(checksumFile)) {
+            in.getChannel().position(position);
+            byte[] buffer = new byte[LOAD_BUFFER_SIZE];
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        line.write(buffer, lineStart, i - lineStart);
+                        position += line.size() + 1;
+                        recreate |= !loadEntry(line.toString(StandardCharsets.UTF_8.name()));
+                        line.reset();
+                        lineStart = i + 1;
+                    }
+                }
+                line.write(buffer, lineStart, read - lineStart);
+            }
+            // The last line may lack its line feed, if the file was not written by this class
+            missingLineFeed = line.size() > 0;
+            if (missingLineFeed) {
+                position += line.size();
+                recreate |= !loadEntry(line.toString(StandardCharsets.UTF_8.name()));
             }
+        } catch (IOException e) {
+            throw new IOFailure("Could not read data from " + checksumFile.getAbsolutePath(), e);
         }
+        log.debug("Loaded {} bytes of the checksum file, which now has {} entries", position - loadedLength,
+                checksumArchive.size());
+        loadedLength = position;
 
         // If a bad entry is found, then the archive file should be recreated.
         // Otherwise the bad entries might still be in the archive file next
@@ -303,6 +361,68 @@ public final class FileChecksumArchive implements ChecksumArchive {
         lastModifiedChecksumFile = checksumFile.lastModified();
     }
 
+    /**
+     * Put a line of the checksum file into the memory archive. An invalid line is put into the wrongEntryFile.
+     *
+     * @param record The line.
+     * @return Whether the line was valid.
+     */
+    private boolean loadEntry(String record) {
+        try {
+            KeyValuePair<String, String> entry = ChecksumJob.parseLine(record);
+            // If their are extracted correct, then they will be put
+            // into the archive.
+            checksumArchive.put(entry.getKey(), entry.getValue());
+            return true;
+        } catch (ArgumentNotValid | IllegalState e) {
+            log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry file.", record, e);
+            // put into wrongEntryFile!
+            appendWrongRecordToWrongEntryFile(record);
+            return false;
+        }
+    }
+
+    /**
+     * Opens the channel for appending to the checksum file.
+     *
+     * @throws IOFailure If the checksum file cannot be opened.
+     */
+    private synchronized void openChecksumChannel() {
+        try {
+            checksumChannel = FileChannel.open(checksumFile.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new IOFailure("Cannot open the checksum archive file '" + checksumFile + "'", e);
+        }
+    }
+
+    /**
+     * Closes the channel for appending to the checksum file, if it is open.
+     */
+    private synchronized void closeChecksumChannel() {
+        if (checksumChannel != null) {
+            try {
+                checksumChannel.close();
+            } catch (IOException e) {
+                log.warn("Could not close the checksum archive file '{}'", checksumFile, e);
+            }
+            checksumChannel = null;
+        }
+    }
+
+    /**
+     * @param file A file.
+     * @return The key identifying the file on the file system, or null if it is not available.
+     */
+    private static Object getFileKey(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            log.debug("Could not read the attributes of '{}'", file, e);
+            return null;
+        }
+    }
+
     /**
      * This function is made for the converting the checksum part of admin.data to an actual checksum replica. If no
      * usable admin.data file is found, then we start with an empty archive.
@@ -360,7 +480,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
                             recreate = true;
                         }
                         checksumArchive.put(filename, checksum);
-                        appendEntryToFile(filename, checksum);
+                        syncEntries(appendEntryToFile(filename, checksum));
                         log.debug("AdminData line inserted: {}", line);
                     } else {
                         log.trace("AdminData line ignored: {}", line);
@@ -410,19 +530,33 @@ public final class FileChecksumArchive implements ChecksumArchive {
                 }
 
                 // put the archive into the file.
-                FileWriter fw = new FileWriter(recreateFile);
+                FileOutputStream out = new FileOutputStream(recreateFile);
                 try {
-                    for (Map.Entry<String, String> entry : checksumArchive.entrySet()) {
-                        String record = entry.getKey() + CHECKSUM_SEPARATOR + entry.getValue();
-                        fw.append(record + "\n");
+                    Writer fw = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                    Iterator<KeyValuePair<String, String>> entries = checksumArchive.iterator();
+                    while (entries.hasNext()) {
+                        KeyValuePair<String, String> entry = entries.next();
+                        fw.append(entry.getKey() + CHECKSUM_SEPARATOR + entry.getValue() + "\n");
                     }
-                } finally {
                     fw.flush();
-                    fw.close();
+                    if (syncWrites) {
+                        out.getFD().sync();
+                    }
+                } finally {
+                    out.close();
                 }
 
-                // Move the file.
+                // Move the file, and append to the new one from now on.
+                boolean open = checksumChannel != null;
+                closeChecksumChannel();
                 FileUtils.moveFile(recreateFile, checksumFile);
+                if (open) {
+                    openChecksumChannel();
+                }
+                loadedLength = checksumFile.length();
+                missingLineFeed = false;
+                checksumFileKey = getFileKey(checksumFile);
+                lastModifiedChecksumFile = checksumFile.lastModified();
             }
         } catch (IOException e) {
             String errMsg = "The checksum file has not been recreated as attempted. "
@@ -484,37 +618,66 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
     /**
      * Appending an checksum archive entry to the checksum file. The record string is created and appended to the file.
+     * The entry is not forced to disk; see {@link #syncEntries(long)}.
      *
      * @param filename The name of the file to add.
      * @param checksum The checksum of the file to add.
+     * @return The number of entries appended so far, including this one.
      * @throws IOFailure If something is wrong when writing to the file.
      */
-    private synchronized void appendEntryToFile(String filename, String checksum) throws IOFailure {
+    private synchronized long appendEntryToFile(String filename, String checksum) throws IOFailure {
         // initialise the record.
-        String record = filename + CHECKSUM_SEPARATOR + checksum + "\n";
+        String record = (missingLineFeed ? "\n" : "") + filename + CHECKSUM_SEPARATOR + checksum + "\n";
+        ByteBuffer bytes = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
 
-        // get a filewriter for the checksum file, and append the record.
-        boolean appendToFile = true;
+        try {
+            while (bytes.hasRemaining()) {
+                checksumChannel.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("An error occurred while appending an entry to the archive file.", e);
+        }
 
-        // Synchronize to ensure that the file is not overridden during the
-        // appending of the new entry.
-        synchronized (this) {
+        // The checksum file has been updated and so has its timestamp.
+        // Thus update the last modified date for the checksum file.
+        missingLineFeed = false;
+        loadedLength += bytes.capacity();
+        lastModifiedChecksumFile = checksumFile.lastModified();
+        return ++entriesWritten;
+    }
+
+    /**
+     * Forces appended entries to disk, if syncWrites is set. Concurrent callers share a single sync: a caller waiting
+     * for another caller's sync to finish returns at once if that sync covered its entry.
+     *
+     * @param entry The number of the entry which must be on disk, as returned by appendEntryToFile.
+     * @throws IOFailure If the checksum file cannot be forced to disk.
+     */
+    private void syncEntries(long entry) throws IOFailure {
+        if (!syncWrites) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (entriesSynced >= entry) {
+                return;
+            }
+            FileChannel channel;
+            long written;
+            synchronized (this) {
+                channel = checksumChannel;
+                written = entriesWritten;
+            }
             try {
-                FileWriter fwrite = new FileWriter(checksumFile, appendToFile);
-                try {
-                    fwrite.append(record);
-                } finally {
-                    // close fileWriter.
-                    fwrite.flush();
-                    fwrite.close();
+                if (channel != null) {
+                    channel.force(false);
                 }
+            } catch (ClosedChannelException e) {
+                // The file has been recreated, and the new file was forced to disk before replacing it.
+                log.debug("The checksum file was recreated before being forced to disk.", e);
             } catch (IOException e) {
-                throw new IOFailure("An error occurred while appending an entry to the archive file.", e);
+                throw new IOFailure("An error occurred while forcing the archive file to disk.", e);
             }
-
-            // The checksum file has been updated and so has its timestamp.
-            // Thus update the last modified date for the checksum file.
-            lastModifiedChecksumFile = checksumFile.lastModified();
+            entriesSynced = written;
         }
     }
 
@@ -561,17 +724,45 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
         try {
             input = file.getInputStream();
-            synchronizeMemoryWithFile();
             String checksum = calculateChecksum(input);
+            addEntry(filename, checksum);
+        } finally {
+            if (input != null) {
+                IOUtils.closeQuietly(input);
+            }
+        }
 
-            if (checksumArchive.containsKey(filename)) {
-                if (checksumArchive.get(filename).equals(checksum)) {
+    }
+    
+    public void upload(String checksum, String filename) throws ArgumentNotValid, IllegalState {
+        // Validate arguments.
+        ArgumentNotValid.checkNotNull(checksum, "String checksum");
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+
+        addEntry(filename, checksum);
+    }
+
+    /**
+     * Adds an entry to the file and the memory archive, unless the file is already archived. The entry is on disk when
+     * this method returns.
+     *
+     * @param filename The name of the arcFile.
+     * @param checksum The checksum of the arcFile.
+     * @throws IllegalState If the file already within the archive but with a different checksum.
+     */
+    private void addEntry(String filename, String checksum) throws IllegalState {
+        long entry;
+        synchronized (this) {
+            synchronizeMemoryWithFile();
+            String archivedChecksum = checksumArchive.get(filename);
+            if (archivedChecksum != null) {
+                if (archivedChecksum.equals(checksum)) {
                     log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
                             filename, checksum);
                 } else {
                     throw new IllegalState("Cannot upload arcfile '" + filename
                             + "', it is already archived with different checksum." + " Archive checksum: '"
-                            + checksumArchive.get(filename) + "' and the uploaded file has: '" + checksum + "'.");
+                            + archivedChecksum + "' and the uploaded file has: '" + checksum + "'.");
                 }
 
                 // It is considered a success that it already is within the archive,
@@ -580,40 +771,11 @@ public final class FileChecksumArchive implements ChecksumArchive {
             }
 
             // otherwise put the file into memory and file.
-            appendEntryToFile(filename, checksum);
+            entry = appendEntryToFile(filename, checksum);
             checksumArchive.put(filename, checksum);
-        } finally {
-            if (input != null) {
-                IOUtils.closeQuietly(input);
-            }
         }
-
-    }
-    
-    public void upload(String checksum, String filename) throws ArgumentNotValid, IllegalState {
-        // Validate arguments.
-        ArgumentNotValid.checkNotNull(checksum, "String checksum");
-        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
-
-        synchronizeMemoryWithFile();
-        if (checksumArchive.containsKey(filename)) {
-        	if (checksumArchive.get(filename).equals(checksum)) {
-        		log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
-        				filename, checksum);
-        	} else {
-        		throw new IllegalState("Cannot upload arcfile '" + filename
-        				+ "', it is already archived with different checksum." + " Archive checksum: '"
-        				+ checksumArchive.get(filename) + "' and the uploaded file has: '" + checksum + "'.");
-        	}
-
-        	// It is considered a success that it already is within the archive,
-        	// thus do not throw an exception.
-        	return;
-        }
-
-        // otherwise put the file into memory and file.
-        appendEntryToFile(filename, checksum);
-        checksumArchive.put(filename, checksum);
+        // Force the entry to disk without holding the lock, so other uploads can share the sync.
+        syncEntries(entry);
     }
 
     /**
@@ -719,10 +881,11 @@ public final class FileChecksumArchive implements ChecksumArchive {
         // Correct the bad entry, by changing the value to the newChecksum.'
         // Since the checksumArchive is a hashmap, then putting an existing
         // entry with a new value will override the existing one.
-        checksumArchive.put(filename, newChecksum);
-
         // Recreate the archive file.
-        recreateArchiveFile();
+        synchronized (this) {
+            checksumArchive.put(filename, newChecksum);
+            recreateArchiveFile();
+        }
 
         // Make the file containing the bad entry be returned in the
         // CorrectMessage.
@@ -788,8 +951,9 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
             try {
                 // put the content into the file.
-                for (String filename : checksumArchive.keySet()) {
-                    fw.append(filename);
+                Iterator<KeyValuePair<String, String>> entries = checksumArchive.iterator();
+                while (entries.hasNext()) {
+                    fw.append(entries.next().getKey());
                     fw.append("\n");
                 }
 
@@ -810,20 +974,37 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * Ensures that the file and memory archives are identical.
      * <p>
      * The timestamp of last communication with the file (read/write) will be checked whether it corresponds the 'last
-     * modified' date of the file. If they are different, then the memory archive is reloaded from the file.
+     * modified' date of the file. If they are different, then the lines appended to the file since it was last read
+     * are loaded. If the file has been replaced or truncated, then the memory archive is reloaded from the file.
      */
-    private synchronized void synchronizeMemoryWithFile() {
-        log.debug("Synchronizing memory archive with file archive.");
-
-        // Check if the checksum file has changed since last access.
-        if (checksumFile.lastModified() > lastModifiedChecksumFile) {
-            log.warn("Archive in memory out of sync with archive in file.");
-
-            // The archive is then reloaded by clearing the current memory
-            // archive and loading the file again.
-            checksumArchive.clear();
-            // The 'last modified' is reset during loading.
-            loadFile();
+    private void synchronizeMemoryWithFile() {
+        // Check without locking first, so lookups do not wait for uploads.
+        if (checksumFile.lastModified() <= lastModifiedChecksumFile) {
+            return;
+        }
+        synchronized (this) {
+            log.debug("Synchronizing memory archive with file archive.");
+
+            // Check if the checksum file has changed since last access.
+            if (checksumFile.lastModified() > lastModifiedChecksumFile) {
+                Object fileKey = getFileKey(checksumFile);
+                if (checksumFile.length() >= loadedLength && fileKey != null && fileKey.equals(checksumFileKey)) {
+                    log.info("Checksum file has been appended to. Loading the new entries.");
+                    loadNewEntries();
+                } else {
+                    log.warn("Archive in memory out of sync with archive in file.");
+                    // The archive is then reloaded by clearing the current memory
+                    // archive and loading the file again.
+                    // The 'last modified' is reset during loading.
+                    // The channel still appends to the old file, if it was replaced, so it is reopened.
+                    boolean open = checksumChannel != null;
+                    closeChecksumChannel();
+                    loadFile();
+                    if (open) {
+                        openChecksumChannel();
+                    }
+                }
+            }
         }
     }
 
@@ -832,11 +1013,10 @@ public final class FileChecksumArchive implements ChecksumArchive {
      */
     @Override
     public void cleanup() {
+        closeChecksumChannel();
         checksumFile = null;
         instance = null;
-        if (checksumArchive != null) {
-            checksumArchive.clear();
-        }
+        checksumArchive.clear();
     }
 
 }
@@ -34,12 +34,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.archive.format.arc.ARCConstants;
 import org.archive.io.arc.ARCReader;
@@ -65,7 +66,6 @@ import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StreamUtils;
 import dk.netarkivet.common.utils.arc.ARCKey;
-import dk.netarkivet.testutils.ReflectUtils;
 import dk.netarkivet.testutils.TestFileUtils;
 import dk.netarkivet.testutils.preconfigured.ReloadSettings;
 
@@ -184,11 +184,11 @@ public class ARCLookupTester {
         		TestInfo.DISTRIBUTE_ARCREPOSITORY_ARCHIVE_DIR.getAbsolutePath());
         Settings.set(CommonSettings.DIR_COMMONTEMPDIR, new File(
         		TestInfo.DISTRIBUTE_ARCREPOSITORY_WORKING_DIR, "serverdir").getAbsolutePath());
-        Field searcher_field = ARCLookup.class.getDeclaredField("luceneSearcher");
-        searcher_field.setAccessible(true);
-        // Set the searcher to null. lookup will then throw a message with the
+        Field index_field = ARCLookup.class.getDeclaredField("index");
+        index_field.setAccessible(true);
+        // Set the index to null. lookup will then throw a message with the
         // actual URI
-        searcher_field.set(lookup, null);
+        index_field.set(lookup, null);
         try {
             lookup.lookup(new URI("http://www.adomain.dk/?key=%7B12345%7D"));
             fail("Should get IOFailure when lucene lookup is null");
@@ -199,15 +199,59 @@ public class ARCLookupTester {
     }
 
     @Test
-    public void testLuceneLookup() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        Method luceneLookup = ReflectUtils.getPrivateMethod(ARCLookup.class, "luceneLookup", String.class);
-        ARCKey key = (ARCKey) luceneLookup.invoke(lookup, "http://foo.bar");
-        assertNull("Should get null key on not found", key);
-
-        key = (ARCKey) luceneLookup.invoke(lookup, "http://www.raeder.dk/robots.txt");
-        assertEquals("Should have found right file",
-                "2-2-20060731110420-00000-sb-test-har-001.statsbiblioteket.dk.arc", key.getFile().getName());
-        assertEquals("Should have found right offset", 1941, key.getOffset());
+    public void testLuceneLookup() throws Exception {
+        realArcRepos.close();
+        lookup = new ARCLookup(new TestArcRepositoryClient());
+        lookup.setIndex(TestInfo.DISTRIBUTE_ARCREPOSITORY_INDEX_DIR_2_3);
+        assertNull("Should get null on not found", lookup.lookup(new URI("http://foo.bar")));
+        assertNull("Should get null on not found when looked up again", lookup.lookup(new URI("http://foo.bar")));
+
+        for (int i = 0; i < 2; i++) {
+            ARCKey key = readKey(lookup.lookup(new URI("http://www.raeder.dk/robots.txt")).getInputStream());
+            assertEquals("Should have found right file",
+                    "2-2-20060731110420-00000-sb-test-har-001.statsbiblioteket.dk.arc", key.getFile().getName());
+            assertEquals("Should have found right offset", 1941, key.getOffset());
+        }
+    }
+
+    /**
+     * Test that lookups running while the index is replaced keep searching the index they started with, and find the
+     * right records.
+     */
+    @Test
+    public void testLookupWhileSettingIndex() throws Exception {
+        realArcRepos.close();
+        lookup = new ARCLookup(new TestArcRepositoryClient());
+        lookup.setIndex(TestInfo.DISTRIBUTE_ARCREPOSITORY_INDEX_DIR_2_3);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final AtomicBoolean done = new AtomicBoolean(false);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            ARCKey key = readKey(lookup.lookup(GIF_URL).getInputStream());
+                            assertEquals("Should get right file for gif", GIF_URL_KEY.getFile(), key.getFile());
+                            assertEquals("Should get right offset for gif", GIF_URL_KEY.getOffset(), key.getOffset());
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (int i = 0; i < 50; i++) {
+            lookup.setIndex(TestInfo.DISTRIBUTE_ARCREPOSITORY_INDEX_DIR_2_3);
+        }
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue("Lookups should not fail while the index is set, but got " + failures, failures.isEmpty());
     }
 
     /**
@@ -298,6 +342,26 @@ public class ARCLookupTester {
 
     }
 
+    /**
+     * Read the key of a record returned by the TestArcRepositoryClient.
+     *
+     * @param is The contents of the record, which is closed afterwards.
+     * @return The file and offset the record was read from.
+     * @throws IOException on trouble reading from input stream
+     */
+    private ARCKey readKey(InputStream is) throws IOException {
+        try {
+            // Skip the header lines and the blank line after them
+            for (int i = 0; i < 3; i++) {
+                readLine(is);
+            }
+            String s = new String(readFully(is));
+            return new ARCKey(s.substring(0, s.indexOf(" ")), Long.parseLong(s.substring(s.indexOf(" ") + 1)));
+        } finally {
+            is.close();
+        }
+    }
+
     private byte[] readFully(InputStream is) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         int i = is.read();
@@ -29,11 +29,16 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.sql.Connection;
 import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import org.apache.commons.collections.IteratorUtils;
@@ -48,6 +53,7 @@ import dk.netarkivet.common.distribute.Channels;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
 import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
 import dk.netarkivet.common.exceptions.IllegalState;
+import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.PrintNotifications;
 import dk.netarkivet.common.utils.RememberNotifications;
@@ -296,6 +302,146 @@ public class ReplicaCacheDatabaseTester {
         lr.stopRecorder();
     }
 
+    /**
+     * Test that files missing from a file list are marked as missing when the guids of the replica are spilled to
+     * disk, both when the missing files are consecutive and when they are not.
+     */
+    @Test
+    public void testMissingFilesWithSpilledGuids() throws Exception {
+        Settings.set(ArchiveSettings.DB_GUID_SET_IN_MEMORY_LIMIT, "1");
+        Replica replica = Replica.getReplicaFromId("TWO");
+        cache.addChecksumInformation(makeTemporaryChecksumFile1(), replica);
+
+        File fl = new File(TestInfo.TEST_DIR, "filelist_partial.out");
+        FileUtils.writeCollectionToFile(fl, Arrays.asList("TEST2", "TEST4"));
+        cache.addFileListInformation(fl, replica);
+        assertEquals("TEST1 should be missing", FileListStatus.MISSING,
+                cache.retrieveFileListStatus("TEST1", replica));
+        assertEquals("TEST2 should be ok", FileListStatus.OK,
+                cache.retrieveFileListStatus("TEST2", replica));
+        assertEquals("TEST3 should be missing", FileListStatus.MISSING,
+                cache.retrieveFileListStatus("TEST3", replica));
+        assertEquals("TEST4 should be ok", FileListStatus.OK,
+                cache.retrieveFileListStatus("TEST4", replica));
+
+        cache.addFileListInformation(makeTemporaryEmptyFilelistFile(), replica);
+        for (String filename : Arrays.asList("TEST1", "TEST2", "TEST3", "TEST4")) {
+            assertEquals(filename + " should be missing", FileListStatus.MISSING,
+                    cache.retrieveFileListStatus(filename, replica));
+        }
+        cache.cleanup();
+    }
+
+    /**
+     * Test that a checksum list larger than the ingest batch size is applied in several batches: unknown files are
+     * created with the checksum of the list, duplicate lines are applied once, and no file is missing.
+     */
+    @Test
+    public void testIngestChecksumListInBatches() throws Exception {
+        Settings.set(ArchiveSettings.DB_INGEST_BATCH_SIZE, "2");
+        Replica replica = Replica.getReplicaFromId("ONE");
+        File cs = new File(TestInfo.TEST_DIR, "checksum_batches.out");
+        FileUtils.writeCollectionToFile(cs, Arrays.asList("TEST5##5555", "TEST1##1111", "TEST3##3333", "TEST2##2222",
+                "TEST4##4444", "TEST1##1111"));
+
+        cache.addChecksumInformation(cs, replica);
+
+        assertEquals("All files in the list should be known", 5, cache.retrieveAllFilenames().size());
+        for (int i = 1; i <= 5; i++) {
+            ReplicaFileInfo rfi = cache.getReplicaFileInfo("TEST" + i, replica);
+            assertEquals("TEST" + i + " should have the checksum of the list", "" + i + i + i + i, rfi.getChecksum());
+            assertEquals("TEST" + i + " should be in the file list", FileListStatus.OK, rfi.getFileListState());
+        }
+        assertEquals("No files should be missing", 0, cache.getNumberOfMissingFilesInLastUpdate(replica));
+        cache.cleanup();
+    }
+
+    /**
+     * Test that applying a checksum list again with changed checksums updates the entries of the replica without
+     * creating new files.
+     */
+    @Test
+    public void testReingestChecksumListWithChangedChecksums() throws Exception {
+        Settings.set(ArchiveSettings.DB_INGEST_BATCH_SIZE, "3");
+        Replica replica = Replica.getReplicaFromId("TWO");
+        cache.addChecksumInformation(makeTemporaryChecksumFile1(), replica);
+        assertEquals("TEST1 should have the first checksum", "1234567890",
+                cache.getReplicaFileInfo("TEST1", replica).getChecksum());
+
+        cache.addChecksumInformation(makeTemporaryChecksumFile2(), replica);
+
+        assertEquals("No new files should be made", 4, cache.retrieveAllFilenames().size());
+        assertEquals("TEST1 should have the new checksum", "ABCDEFGHIJ",
+                cache.getReplicaFileInfo("TEST1", replica).getChecksum());
+        assertEquals("TEST4 should have the new checksum", "JABICHDGEF",
+                cache.getReplicaFileInfo("TEST4", replica).getChecksum());
+        assertEquals("No files should be missing", 0, cache.getNumberOfMissingFilesInLastUpdate(replica));
+        cache.cleanup();
+    }
+
+    /**
+     * Test that files known for a replica but left out of its next checksum list are marked missing, while the files
+     * in the list keep their status.
+     */
+    @Test
+    public void testIngestChecksumListWithMissingFiles() throws Exception {
+        Settings.set(ArchiveSettings.DB_INGEST_BATCH_SIZE, "1");
+        Replica replica = Replica.getReplicaFromId("THREE");
+        cache.addChecksumInformation(makeTemporaryChecksumFile1(), replica);
+
+        File cs = new File(TestInfo.TEST_DIR, "checksum_partial.out");
+        FileUtils.writeCollectionToFile(cs, Arrays.asList("TEST1##1234567890", "TEST3##1029384756"));
+        cache.addChecksumInformation(cs, replica);
+
+        assertEquals("Two files should be missing", 2, cache.getNumberOfMissingFilesInLastUpdate(replica));
+        List<String> missing = new ArrayList<String>();
+        for (String filename : cache.getMissingFilesInLastUpdate(replica)) {
+            missing.add(filename);
+        }
+        Collections.sort(missing);
+        assertEquals("TEST2 and TEST4 should be missing", Arrays.asList("TEST2", "TEST4"), missing);
+        assertEquals("TEST1 should be ok", FileListStatus.OK, cache.retrieveFileListStatus("TEST1", replica));
+        assertEquals("TEST2 should be missing", FileListStatus.MISSING,
+                cache.retrieveFileListStatus("TEST2", replica));
+        cache.cleanup();
+    }
+
+    /**
+     * Test that the staging table can be created, used and dropped, and created again on the same connection, as it is
+     * for each list applied.
+     */
+    @Test
+    public void testStagingTable() throws Exception {
+        Connection con = ArchiveDBConnection.get();
+        try {
+            for (int i = 0; i < 2; i++) {
+                String table = DBSpecifics.getInstance().getReplicaFileInfoStagingTable(con);
+                PreparedStatement s = con.prepareStatement("INSERT INTO " + table
+                        + " (filename, checksum, file_id) VALUES (?, ?, ?)");
+                try {
+                    s.setString(1, "TEST" + i);
+                    s.setString(2, "checksum");
+                    s.setLong(3, i);
+                    s.executeUpdate();
+                } finally {
+                    s.close();
+                }
+                s = con.prepareStatement("SELECT filename FROM " + table);
+                try {
+                    ResultSet res = s.executeQuery();
+                    assertTrue("The staged row should be found", res.next());
+                    assertEquals("Only the row of this round should be staged", "TEST" + i, res.getString(1));
+                    assertTrue("Only one row should be staged", !res.next());
+                } finally {
+                    DBUtils.closeStatementIfOpen(s);
+                }
+                DBSpecifics.getInstance().dropReplicaFileInfoStagingTable(con, table);
+            }
+        } finally {
+            ArchiveDBConnection.release(con);
+        }
+    }
+
     private File makeTemporaryDuplicateFilelistFile() throws Exception {
         File res = new File(TestInfo.TEST_DIR, "filelist.out");
         FileWriter fw = new FileWriter(res);
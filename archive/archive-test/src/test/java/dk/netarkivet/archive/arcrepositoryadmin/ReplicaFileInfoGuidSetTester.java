@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepositoryadmin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the ReplicaFileInfoGuidSet class.
+ */
+public class ReplicaFileInfoGuidSetTester {
+
+    private File tempDir;
+
+    @Before
+    public void setUp() {
+        tempDir = FileUtils.createUniqueTempDir(new File(System.getProperty("java.io.tmpdir")), "guidset");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(tempDir);
+    }
+
+    /**
+     * Test that guids kept in memory can be looked up and removed, and that the remaining guids are given as ranges.
+     */
+    @Test
+    public void testInMemory() {
+        ReplicaFileInfoGuidSet set = makeSet(1000, 10);
+        assertEquals("Should hold all guids", 10, set.size());
+        assertEquals("Should not spill below the limit", 0, tempDir.list().length);
+        checkRemovalsAndRanges(set);
+        set.close();
+    }
+
+    /**
+     * Test that guids beyond the in-memory limit are spilled to a file, which is deleted when closing the set.
+     */
+    @Test
+    public void testSpilled() {
+        ReplicaFileInfoGuidSet set = makeSet(3, 10);
+        assertEquals("Should spill above the limit", 1, tempDir.list().length);
+        checkRemovalsAndRanges(set);
+        set.close();
+        assertEquals("Should delete the spill file on close", 0, tempDir.list().length);
+    }
+
+    /**
+     * Test that guids must be added in ascending order.
+     */
+    @Test(expected = ArgumentNotValid.class)
+    public void testAddOutOfOrder() {
+        ReplicaFileInfoGuidSet set = new ReplicaFileInfoGuidSet(10, tempDir);
+        set.add(5);
+        set.add(5);
+    }
+
+    /**
+     * Test that an empty set has no ranges.
+     */
+    @Test
+    public void testEmpty() {
+        ReplicaFileInfoGuidSet set = new ReplicaFileInfoGuidSet(10, tempDir);
+        assertFalse("Should not contain anything", set.contains(1));
+        assertFalse("Should have no ranges", set.rangeIterator().hasNext());
+        set.close();
+    }
+
+    /**
+     * Make a set with the guids 10, 20, ... .
+     *
+     * @param inMemoryLimit The in-memory limit of the set.
+     * @param count The number of guids.
+     * @return The set.
+     */
+    private ReplicaFileInfoGuidSet makeSet(int inMemoryLimit, int count) {
+        ReplicaFileInfoGuidSet set = new ReplicaFileInfoGuidSet(inMemoryLimit, tempDir);
+        for (int i = 1; i <= count; i++) {
+            set.add(i * 10);
+        }
+        return set;
+    }
+
+    /**
+     * Remove some guids from a set made by {@link #makeSet(int, int)} with 10 guids, and check the remaining ranges.
+     *
+     * @param set The set.
+     */
+    private void checkRemovalsAndRanges(ReplicaFileInfoGuidSet set) {
+        assertTrue("Should contain an added guid", set.contains(50));
+        assertFalse("Should not contain a guid never added", set.contains(55));
+        assertFalse("Should not remove a guid never added", set.remove(55));
+        assertTrue("Should remove an added guid", set.remove(10));
+        assertTrue("Should remove an added guid", set.remove(40));
+        assertTrue("Should remove an added guid", set.remove(50));
+        assertTrue("Should remove an added guid", set.remove(100));
+        assertFalse("Should not remove a guid twice", set.remove(40));
+        assertFalse("Should not contain a removed guid", set.contains(40));
+        assertEquals("Should count the remaining guids", 6, set.size());
+
+        List<long[]> ranges = new ArrayList<long[]>();
+        Iterator<long[]> it = set.rangeIterator();
+        while (it.hasNext()) {
+            ranges.add(it.next());
+        }
+        assertEquals("Should give the ranges between removed guids", 2, ranges.size());
+        assertArrayEquals("Should give the first range", new long[] {20, 30}, ranges.get(0));
+        assertArrayEquals("Should give the last range", new long[] {60, 90}, ranges.get(1));
+    }
+}
@@ -367,6 +367,74 @@ public class BitarchiveAdminTester {
         assertTrue("Should have " + file4path + " but found " + filePaths, filePaths.contains(file4path));
     }
 
+    @Test
+    public void testGetLiteralPrefix() {
+        assertEquals("Should find literal prefix", "1-2-", BitarchiveAdmin.getLiteralPrefix(Pattern.compile("1-2-.*")));
+        assertEquals("Should include escaped punctuation", "1.arc",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("1\\.arc(\\.gz)?")));
+        assertEquals("Should stop before optional characters", "fil",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("^file?[24]")));
+        assertEquals("Should include one repeated character", "file",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("file+")));
+        assertEquals("Should stop at character classes", "1-",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("1-\\d+-.*")));
+        assertEquals("Should include quoted text", "1-2.arc",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile(Pattern.quote("1-2.arc"))));
+        assertEquals("Should stop before an optional quoted character", "1-",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("\\Q1-2\\E?.*")));
+        assertEquals("Should give no prefix on alternatives", "",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("file1|file2")));
+        assertEquals("Should give no prefix when ignoring case", "",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("file1", Pattern.CASE_INSENSITIVE)));
+        assertEquals("Should use literal patterns as they are", "file.*",
+                BitarchiveAdmin.getLiteralPrefix(Pattern.compile("file.*", Pattern.LITERAL)));
+    }
+
+    @Test
+    public void testFileListSnapshot() throws Exception {
+        File snapshot = new File(BA_DIR_1, "filelist.snapshot");
+        assertFalse("Should not write snapshots by default", snapshot.exists());
+        ad.close();
+        Settings.set(ArchiveSettings.FILE_DIRECTORY_FILE_LISTING, "filelist.snapshot");
+        ad = BitarchiveAdmin.getInstance();
+        assertTrue("Should write snapshot at startup", snapshot.isFile());
+        ad.close();
+        File filedir = new File(BA_DIR_1, FILEDIR);
+        new File(filedir, "file1").delete();
+        filedir.setLastModified(filedir.lastModified() + 10000);
+        long lastModified = filedir.lastModified();
+        ad = BitarchiveAdmin.getInstance();
+        assertNull("Should list the changed directory", ad.lookup("file1"));
+        ad.close();
+        File hidden = new File(filedir, "file5");
+        hidden.createNewFile();
+        filedir.setLastModified(lastModified);
+        ad = BitarchiveAdmin.getInstance();
+        assertNull("Should use snapshot of the unchanged directory", ad.lookup("file5"));
+        ad.close();
+        Settings.set(ArchiveSettings.FILE_DIRECTORY_FILE_LISTING, "");
+        ad = BitarchiveAdmin.getInstance();
+        assertNotNull("Should list the directory without snapshots", ad.lookup("file5"));
+        assertEquals("Should find all files", 4, ad.getFiles().length);
+    }
+
+    @Test
+    public void testMoveToAttic() throws Exception {
+        BitarchiveARCFile file = ad.lookup("file1");
+        File atticFile = ad.moveToAttic(file.getFilePath());
+        assertEquals("Should move to attic", new File(new File(BA_DIR_1, "atticdir"), "file1").getCanonicalPath(),
+                atticFile.getCanonicalPath());
+        assertTrue("Should have moved the file", atticFile.isFile());
+        assertNull("Should no longer find the file", ad.lookup("file1"));
+        assertEquals("Should no longer list the file", 3, ad.getFiles().length);
+        try {
+            ad.moveToAttic(file.getFilePath());
+            fail("Should throw exception when the file is gone");
+        } catch (IOFailure e) {
+            // expected
+        }
+    }
+
     @Test
     public void testIsBitarchiveDirectory() throws IOException {
         assertTrue("Should find existing dir", ad.isBitarchiveDirectory(BA_DIR_1));
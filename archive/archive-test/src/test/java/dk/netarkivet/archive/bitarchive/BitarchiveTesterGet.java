@@ -22,6 +22,7 @@
  */
 package dk.netarkivet.archive.bitarchive;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -35,10 +36,13 @@ import java.io.OutputStream;
 
 import org.junit.Test;
 
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StreamUtils;
 
 /**
@@ -56,6 +60,8 @@ public class BitarchiveTesterGet extends BitarchiveTestCase {
      * The name of the ARC file that we're reading. This file must not exist in the ARCHIVE_DIR directory.
      */
     static final String ARC_FILE_NAME = "Upload2.ARC";
+    /** A compressed ARC file, which is copied into the archive by the tests using it. */
+    private static final String ARC_GZ_FILE_NAME = "GetTest.arc.gz";
 
     protected File getOriginalsDir() {
         return ORIGINALS_DIR;
@@ -202,4 +208,78 @@ public class BitarchiveTesterGet extends BitarchiveTestCase {
         assertTrue("File should be deletable",
                 FileUtils.removeRecursively(new File(new File(TestInfo.WORKING_DIR, "filedir"), ARC_FILE_NAME)));
     }
+
+    /**
+     * Test that records copied directly from the file are the same as those read through the ARC reader, both when
+     * kept in memory and when stored in a RemoteFile.
+     */
+    @Test
+    public void testDirectRecordTransfer() throws IOException {
+        long[] offsets = {37534, 37650};
+        for (String limit : new String[] {"100000", "1000"}) {
+            Settings.set(CommonSettings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE, limit);
+            byte[][] direct = getRecords(offsets);
+            archive.close();
+            Settings.set(ArchiveSettings.BITARCHIVE_DIRECT_RECORD_TRANSFER, "false");
+            archive = Bitarchive.getInstance();
+            byte[][] readerRecords = getRecords(offsets);
+            for (int i = 0; i < offsets.length; i++) {
+                assertArrayEquals("Record at " + offsets[i] + " should be the same with limit " + limit,
+                        readerRecords[i], direct[i]);
+            }
+            archive.close();
+            Settings.set(ArchiveSettings.BITARCHIVE_DIRECT_RECORD_TRANSFER, "true");
+            archive = Bitarchive.getInstance();
+        }
+    }
+
+    /**
+     * Test that a record which is not the first in the file gets the offset it was asked for, both when copied directly
+     * from the file and when read through the ARC reader.
+     */
+    @Test
+    public void testGetOffset() {
+        for (String direct : new String[] {"true", "false"}) {
+            archive.close();
+            Settings.set(ArchiveSettings.BITARCHIVE_DIRECT_RECORD_TRANSFER, direct);
+            archive = Bitarchive.getInstance();
+            BitarchiveRecord record = archive.get(ARC_FILE_NAME, 37534);
+            assertNotNull("ARC record should be non-null", record);
+            assertEquals("The record should have the offset asked for with direct transfer " + direct, 37534,
+                    record.getOffset());
+        }
+    }
+
+    /**
+     * Test that a record which is not the first in a compressed ARC file gets the offset it was asked for.
+     */
+    @Test
+    public void testGetOffsetCompressed() throws IOException {
+        FileUtils.copyFile(new File(new File(TestInfo.DATA_DIR, "get"), ARC_GZ_FILE_NAME), new File(new File(
+                TestInfo.WORKING_DIR, "filedir"), ARC_GZ_FILE_NAME));
+        archive.close();
+        archive = Bitarchive.getInstance();
+        BitarchiveRecord record = archive.get(ARC_GZ_FILE_NAME, 773);
+        assertNotNull("ARC record should be non-null", record);
+        assertEquals("ARC record should be for the right file", ARC_GZ_FILE_NAME, record.getFile());
+        assertEquals("The record should have the offset asked for", 773, record.getOffset());
+        assertEquals("The record should have the length of its payload", 471, record.getLength());
+        String content = new String(StreamUtils.inputStreamToBytes(record.getData(), (int) record.getLength()));
+        assertTrue("The record should have the payload of the record asked for, not " + content,
+                content.startsWith("HTTP/1.1 404 Not Found"));
+    }
+
+    /**
+     * @param offsets Offsets of records in the ARC file.
+     * @return The contents of the records.
+     */
+    private byte[][] getRecords(long[] offsets) throws IOException {
+        byte[][] contents = new byte[offsets.length][];
+        for (int i = 0; i < offsets.length; i++) {
+            BitarchiveRecord record = archive.get(ARC_FILE_NAME, offsets[i]);
+            assertNotNull("ARC record should be non-null", record);
+            contents[i] = StreamUtils.inputStreamToBytes(record.getData(), (int) record.getLength());
+        }
+        return contents;
+    }
 }
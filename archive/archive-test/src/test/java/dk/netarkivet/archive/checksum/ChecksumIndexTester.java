@@ -0,0 +1,116 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.KeyValuePair;
+
+/**
+ * Tester class for the ChecksumIndex.
+ */
+public class ChecksumIndexTester {
+
+    /**
+     * Test that both MD5 checksums and other checksums are stored and returned unchanged.
+     */
+    @Test
+    public void testPutAndGet() {
+        ChecksumIndex index = new ChecksumIndex();
+        assertTrue("A new index should be empty", index.isEmpty());
+        index.put("TEST1.arc", TestInfo.TEST1_CHECKSUM);
+        index.put("TEST2.arc", "checksum2");
+        index.put("TEST3.arc", "616FDEF40001383B80991B1B4D582A69");
+        index.put("tæst.arc", "");
+
+        assertEquals("Should have the MD5 checksum", TestInfo.TEST1_CHECKSUM, index.get("TEST1.arc"));
+        assertEquals("Should have the text checksum", "checksum2", index.get("TEST2.arc"));
+        assertEquals("Upper case checksums should be kept as they are", "616FDEF40001383B80991B1B4D582A69",
+                index.get("TEST3.arc"));
+        assertEquals("Non-ASCII filenames should be found", "", index.get("tæst.arc"));
+        assertNull("Unknown files should have no checksum", index.get("TEST4.arc"));
+        assertFalse("Unknown files should not be in the index", index.containsKey("TEST4.arc"));
+        assertEquals("Should have all filenames", 4, index.size());
+
+        index.clear();
+        assertTrue("A cleared index should be empty", index.isEmpty());
+        assertNull("A cleared index should not have old entries", index.get("TEST1.arc"));
+    }
+
+    /**
+     * Test that replacing a checksum, also between MD5 and text, leaves one entry with the new checksum.
+     */
+    @Test
+    public void testReplace() {
+        ChecksumIndex index = new ChecksumIndex();
+        index.put("TEST1.arc", TestInfo.TEST1_CHECKSUM);
+        index.put("TEST1.arc", TestInfo.TEST2_CHECKSUM);
+        assertEquals("Should have the new checksum", TestInfo.TEST2_CHECKSUM, index.get("TEST1.arc"));
+        index.put("TEST1.arc", "checksum1");
+        assertEquals("Should have the text checksum", "checksum1", index.get("TEST1.arc"));
+        index.put("TEST1.arc", TestInfo.TEST1_CHECKSUM);
+        assertEquals("Should have the MD5 checksum again", TestInfo.TEST1_CHECKSUM, index.get("TEST1.arc"));
+        assertEquals("Should have one filename", 1, index.size());
+
+        Iterator<KeyValuePair<String, String>> entries = index.iterator();
+        assertTrue("Should iterate over the entry", entries.hasNext());
+        assertEquals("Should iterate over the latest checksum", TestInfo.TEST1_CHECKSUM, entries.next().getValue());
+        assertFalse("Should iterate over one entry only", entries.hasNext());
+    }
+
+    /**
+     * Test that the index keeps all entries when it grows beyond its initial chunks, pages and hash table.
+     */
+    @Test
+    public void testGrowth() {
+        ChecksumIndex index = new ChecksumIndex();
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 100000; i++) {
+            String filename = "1-" + i + "-20180101000000-00000-sb-prod-har-001.statsbiblioteket.dk.warc.gz";
+            String checksum = i % 10 == 0 ? "checksum" + i : String.format("%032x", i * 7919L);
+            index.put(filename, checksum);
+            expected.put(filename, checksum);
+        }
+        assertEquals("Should have all filenames", expected.size(), index.size());
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals("Should have the checksum of " + entry.getKey(), entry.getValue(),
+                    index.get(entry.getKey()));
+        }
+        Map<String, String> iterated = new HashMap<String, String>();
+        Iterator<KeyValuePair<String, String>> entries = index.iterator();
+        while (entries.hasNext()) {
+            KeyValuePair<String, String> entry = entries.next();
+            iterated.put(entry.getKey(), entry.getValue());
+        }
+        assertEquals("Should iterate over all entries", expected, iterated);
+    }
+}
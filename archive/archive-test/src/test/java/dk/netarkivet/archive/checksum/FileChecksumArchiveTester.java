@@ -30,6 +30,7 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -239,4 +240,42 @@ public class FileChecksumArchiveTester {
             adminFile.delete();
         }
     }
+
+    /**
+     * Checks that lines appended to the checksum file by other means are loaded, and that a replaced checksum file is
+     * loaded anew.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testReloadFromFile() throws IOException {
+        fca.upload(TestInfo.TEST1_CHECKSUM, "TEST1.arc");
+        File checksumFile = new File(fca.getFileName());
+
+        FileWriter fw = new FileWriter(checksumFile, true);
+        fw.append("TEST2.arc##" + TestInfo.TEST2_CHECKSUM + "\n");
+        fw.close();
+        checksumFile.setLastModified(System.currentTimeMillis() + 2000);
+        assertEquals("The appended entry should be loaded", TestInfo.TEST2_CHECKSUM, fca.getChecksum("TEST2.arc"));
+        assertEquals("The old entry should be kept", TestInfo.TEST1_CHECKSUM, fca.getChecksum("TEST1.arc"));
+
+        fca.upload("checksum3", "TEST3.arc");
+        List<String> lines = FileUtils.readListFromFile(checksumFile);
+        assertEquals("All entries should be in the file", 3, lines.size());
+        assertEquals("The upload should be appended after the other entries", "TEST3.arc##checksum3", lines.get(2));
+
+        File replacement = new File(TestInfo.CHECKSUM_DIR, "replacement");
+        fw = new FileWriter(replacement);
+        fw.append("TEST4.arc##checksum4\n");
+        fw.close();
+        FileUtils.moveFile(replacement, checksumFile);
+        checksumFile.setLastModified(System.currentTimeMillis() + 4000);
+        assertEquals("The replaced file should be loaded", "checksum4", fca.getChecksum("TEST4.arc"));
+        assertFalse("Entries not in the replaced file should be gone", fca.hasEntry("TEST1.arc"));
+
+        fca.upload("checksum5", "TEST5.arc");
+        lines = FileUtils.readListFromFile(checksumFile);
+        assertEquals("The upload should be appended to the replaced file",
+                Arrays.asList("TEST4.arc##checksum4", "TEST5.arc##checksum5"), lines);
+    }
 }
@@ -93,6 +93,13 @@ public class CommonSettings {
      */
     public static String ARC_REPOSITORY_CLIENT = "settings.common.arcrepositoryClient.class";
 
+    /**
+     * <b>settings.common.arcrepositoryClient.lookupCacheSize</b>: <br>
+     * The number of recently looked up URIs for which an ARCLookup remembers where the record was found in its index,
+     * or that it was not found. 0 disables remembering lookups.
+     */
+    public static String ARC_LOOKUP_CACHE_SIZE = "settings.common.arcrepositoryClient.lookupCacheSize";
+
     /**
      * <b>settings.common.batch.maxExceptions</b>: <br>
      * The maximum number of exceptions to be stored for a batch job.
@@ -112,6 +119,15 @@ public class CommonSettings {
      */
     public static String BATCH_DEFAULT_TIMEOUT = "settings.common.batch.defaultBatchTimeout";
 
+    /**
+     * <b>settings.common.batch.threadsPerDirectory</b>: <br/>
+     * The number of files in each directory that a batch job may process at the same time, if the job allows its
+     * files to be processed in parallel. The directories are processed in parallel too, so the files on each disk
+     * can be read at the rate the disk allows. With the default of 1, all files are processed one at a time in the
+     * order they are given, and the output is in that order.
+     */
+    public static String BATCH_THREADS_PER_DIRECTORY = "settings.common.batch.threadsPerDirectory";
+
     /**
      * <b>settings.common.monitorregistryClient.class</b>: <br>
      * Which class to use for monitor registry. Must implement the interface
@@ -135,15 +151,28 @@ public class CommonSettings {
 
     /**
      * <b>settings.common.unixSort.useCommonTempDir</b>: <br>
-     * When using the Unix sort command, by default it stores temporary files in the system temp dir, but if this
-     * setting is set to true, then it will be configured to use the common temp dir defined by common.settings.tempDir.
-     * By default the value is false (use system temp), which is the legacy behavior. This setting is part of the fix
-     * for Jira issue NAS-1995.
+     * When sorting files, by default temporary files are stored in the system temp dir, but if this setting is set to
+     * true, then the common temp dir defined by common.settings.tempDir is used instead. By default the value is false
+     * (use system temp), which is the legacy behavior. This setting is part of the fix for Jira issue NAS-1995. The
+     * name is kept from when files were sorted with the Unix sort command.
      *
      * @see #DIR_COMMONTEMPDIR
      */
     public static String UNIX_SORT_USE_COMMON_TEMP_DIR = "settings.common.unixSort.useCommonTempDir";
 
+    /**
+     * <b>settings.common.sort.memoryBudget</b>: <br>
+     * The approximate number of bytes of heap used for holding lines when sorting CDX files, crawl logs and other
+     * files. Files larger than this are sorted in runs that are merged from temporary files. Default is 64 MB.
+     */
+    public static String SORT_MEMORY_BUDGET = "settings.common.sort.memoryBudget";
+
+    /**
+     * <b>settings.common.sort.threads</b>: <br>
+     * The number of threads used for sorting the runs of a large file in parallel. Default is 4.
+     */
+    public static String SORT_THREADS = "settings.common.sort.threads";
+
     /**
      * <b>settings.common.cacheDir</b>: <br>
      * The name of the directory where cache data global to the entire machine can be stored. Various kinds of caches
@@ -581,6 +610,12 @@ public class CommonSettings {
      */
     public static String HADOOP_MAPRED_INPUT_FILES_PARENT_DIR = "settings.common.hadoop.mapred.inputFilesParentDir";
 
+    /**
+     * The number of bytes of input files to give each map task of a map-/reduce job. If 0 or less, which is the
+     * default, each map task is given five input files regardless of their size.
+     */
+    public static String HADOOP_MAPRED_BYTES_PER_TASK = "settings.common.hadoop.mapred.bytesPerTask";
+
     /**
      * The setting for the input path to use in cdx-indexing map-/reduce jobs.
      */
@@ -591,6 +626,11 @@ public class CommonSettings {
      */
     public static String HADOOP_MAPRED_CDXJOB_OUTPUT_DIR = "settings.common.hadoop.mapred.cdxJob.outputDir";
 
+    /**
+     * Whether cdx-indexing map-/reduce jobs sort their output, so the resulting cdx files are sorted.
+     */
+    public static String HADOOP_MAPRED_CDXJOB_SORTED_OUTPUT = "settings.common.hadoop.mapred.cdxJob.sortedOutput";
+
     /**
      * The directory/path for Hadoop to use as input path in metadata extraction map-/reduce jobs.
      * Used when Hadoop metadata extraction jobs are started by the IndexRequestServer after receiving requests.
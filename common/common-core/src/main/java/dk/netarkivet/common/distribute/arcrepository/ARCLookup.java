@@ -20,52 +20,78 @@
  * <http://www.gnu.org/licenses/lgpl-2.1.html>.
  * #L%
  */
-
 package dk.netarkivet.common.distribute.arcrepository;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TermRangeFilter;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.utils.AllDocsCollector;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.arc.ARCKey;
 import is.hi.bok.deduplicator.DigestIndexer;
 
 /**
  * This class allows lookup of URLs in the ArcRepository, using full Lucene indexes to find offsets. The input takes the
  * form of a directory containing a Lucene index.
+ * <p>
+ * Lookups may run concurrently, also with changes of the index: each lookup holds a reference to the searcher it uses,
+ * so the index it searches is only closed once the last lookup using it is done. All the forms of a URI are looked up
+ * in one search, and the results of recent lookups are remembered until the index changes.
  */
 public class ARCLookup {
 
     /** Logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(ARCLookup.class);
 
+    /** The fields loaded from the documents found in the index. */
+    private static final Set<String> LOOKUP_FIELDS = new HashSet<String>();
+
+    static {
+        LOOKUP_FIELDS.add(DigestIndexer.FIELD_URL);
+        LOOKUP_FIELDS.add(DigestIndexer.FIELD_ORIGIN);
+    }
+
     /** The ArcRepositoryClient we use to retrieve records. */
     private final ViewerArcRepositoryClient arcRepositoryClient;
 
-    /** The currently active lucene search engine. */
-    private IndexSearcher luceneSearcher;
-    /** The Indexreader used by the index-searcher. */
-    private IndexReader luceneReader;
+    /** The number of lookups remembered for each index. */
+    private final int cacheSize;
+
+    /** The currently active index, or null if no index is set. */
+    private volatile Index index;
 
     /** If the value is true, we will try to lookup w/ ftp instead of http, if we don't get a hit in the index. */
-    private boolean tryToLookupUriAsFtp;
+    private volatile boolean tryToLookupUriAsFtp;
 
     /**
      * Create a new ARCLookup object.
@@ -76,7 +102,8 @@ public class ARCLookup {
     public ARCLookup(ViewerArcRepositoryClient arcRepositoryClient) {
         ArgumentNotValid.checkNotNull(arcRepositoryClient, "ArcRepositoryClient arcRepositoryClient");
         this.arcRepositoryClient = arcRepositoryClient;
-        luceneSearcher = null;
+        this.cacheSize = Settings.getInt(CommonSettings.ARC_LOOKUP_CACHE_SIZE);
+        index = null;
     }
 
     /**
@@ -88,35 +115,39 @@ public class ARCLookup {
      */
     public void setTryToLookupUriAsFtp(boolean searchForFtpUri) {
         this.tryToLookupUriAsFtp = searchForFtpUri;
+        Index current = index;
+        if (current != null) {
+            // Remembered lookups may have been made with the other setting
+            current.clearLookups();
+        }
     }
 
     /**
      * This method sets the current Lucene index this object works on, replacing and closing the current index if one is
-     * already set.
+     * already set. Lookups already searching the current index finish before it is closed.
      *
      * @param indexDir The new index, a directory containing Lucene files.
      * @throws ArgumentNotValid If argument is null
      */
-    public void setIndex(File indexDir) {
+    public synchronized void setIndex(File indexDir) {
         ArgumentNotValid.checkNotNull(indexDir, "File indexDir");
         ArgumentNotValid.checkTrue(indexDir.isDirectory(), "indexDir '" + indexDir + "' should be a directory");
-        if (luceneSearcher != null) {
+        Index newIndex;
+        try {
+            newIndex = new Index(new SearcherManager(FSDirectory.open(indexDir), null), cacheSize);
+        } catch (IOException e) {
+            throw new IOFailure("Unable to find/open index " + indexDir, e);
+        }
+        Index oldIndex = index;
+        index = newIndex;
+        if (oldIndex != null) {
             try {
                 // Existing lucene indices must be shut down
-                luceneReader.close();
+                oldIndex.searcherManager.close();
             } catch (IOException e) {
-                throw new IOFailure("Unable to close index " + luceneSearcher, e);
-            } finally {
-                // Must be careful to shut down only once.
-                luceneSearcher = null;
+                throw new IOFailure("Unable to close index " + oldIndex.searcherManager, e);
             }
         }
-        try {
-            luceneReader = org.apache.lucene.index.DirectoryReader.open(FSDirectory.open(indexDir));
-            luceneSearcher = new IndexSearcher(luceneReader);
-        } catch (IOException e) {
-            throw new IOFailure("Unable to find/open index " + indexDir, e);
-        }
     }
 
     /**
@@ -136,37 +167,13 @@ public class ARCLookup {
     public ResultStream lookup(URI uri) {
         ArgumentNotValid.checkNotNull(uri, "uri");
         log.debug("Doing lookup of {}", uri);
-        boolean containsHeader = true;
-        // the URI.getSchemeSpecificPart() carries out the url-decoding
-        ARCKey key = luceneLookup(uri.getScheme() + ":" + uri.getSchemeSpecificPart());
+        Resolution resolution = resolve(uri);
+        ARCKey key = resolution.key;
         if (key == null) {
-            // the URI.getRawSchemeSpecificPart() returns the uri in non-decoded form
-            key = luceneLookup(uri.getScheme() + ":" + uri.getRawSchemeSpecificPart());
-        }
-
-        if (key == null && tryToLookupUriAsFtp) {
-            log.debug("Url not found with the schema '{}'. Now trying with 'ftp' as the schema", uri.getScheme());
-            final String ftpSchema = "ftp";
-            key = luceneLookup(ftpSchema + ":" + uri.getSchemeSpecificPart());
-            if (key == null) {
-                key = luceneLookup(ftpSchema + ":" + uri.getRawSchemeSpecificPart());
-                if (key != null) {
-                    // Remember, that the found ftp-records don't have any HTTP
-                    // Header
-                    containsHeader = false;
-                }
-            } else {
-                // Remember, that the found ftp-record don't have any HTTP
-                // Header
-                containsHeader = false;
-            }
-        }
-
-        if (key == null) {
-        	log.debug("Lookup failed for uri '{}'");
+            log.debug("Lookup failed for uri '{}'", uri);
             return null; // key not found
         } else {
-        	log.debug("Retrieving record {},{} from archive", key.getFile().getName(), key.getOffset());
+            log.debug("Retrieving record {},{} from archive", key.getFile().getName(), key.getOffset());
             final BitarchiveRecord bitarchiveRecord = arcRepositoryClient.get(key.getFile().getName(), key.getOffset());
             if (bitarchiveRecord == null) {
                 String message = "ARC file '" + key.getFile().getName() + "' mentioned in index file was not found by"
@@ -176,65 +183,242 @@ public class ARCLookup {
                 throw new IOFailure(message);
             }
             log.debug("Retrieved record {},{} from archive and returning it as ResultStream", key.getFile().getName(), key.getOffset());
-            return new ResultStream(bitarchiveRecord.getData(), containsHeader);
+            return new ResultStream(bitarchiveRecord.getData(), resolution.containsHeader);
         }
     }
 
     /**
-     * Looks up a URI in our lucene index and extracts a key.
+     * Find where a URI is in the current index, either among the recent lookups or by searching the index for all the
+     * forms of the URI at once. The forms are, in order of preference: url-decoded, non-url-decoded, and if
+     * tryToLookupUriAsFtp is set, the same two with ftp as the scheme. Records found with ftp as the scheme don't have
+     * an HTTP header.
      *
-     * @param uri A URI to look for.
-     * @return The file and offset where that URI can be found, or null if it doesn't exist.
-     * @throws IllegalState If a URL is found with a malformed origin field.
+     * @param uri The URI to find.
+     * @return Where the URI was found, with a null key if it was not found.
      * @throws IOFailure if no index is set or Lucene gives problems.
      */
-    private ARCKey luceneLookup(String uri) {
-        if (luceneSearcher == null) {
-            throw new IOFailure("No index set while searching for '" + uri + "'");
+    private Resolution resolve(URI uri) {
+        List<String> candidates = new ArrayList<String>(4);
+        // the URI.getSchemeSpecificPart() carries out the url-decoding
+        candidates.add(uri.getScheme() + ":" + uri.getSchemeSpecificPart());
+        // the URI.getRawSchemeSpecificPart() returns the uri in non-decoded form
+        candidates.add(uri.getScheme() + ":" + uri.getRawSchemeSpecificPart());
+        int firstFtpCandidate = candidates.size();
+        if (tryToLookupUriAsFtp) {
+            final String ftpSchema = "ftp";
+            candidates.add(ftpSchema + ":" + uri.getSchemeSpecificPart());
+            candidates.add(ftpSchema + ":" + uri.getRawSchemeSpecificPart());
+        }
+
+        Index current = index;
+        if (current == null) {
+            throw new IOFailure("No index set while searching for '" + candidates.get(0) + "'");
+        }
+        IndexSearcher searcher = current.acquire();
+        while (searcher == null) {
+            // The index was replaced and closed since we got it, so use its replacement
+            current = index;
+            searcher = current.acquire();
+        }
+        try {
+            String cacheKey = uri.toString();
+            Resolution resolution = current.getLookup(cacheKey);
+            if (resolution != null) {
+                log.debug("Found earlier lookup of {}", uri);
+                return resolution;
+            }
+            Map<String, ARCKey> found = luceneLookup(searcher, candidates);
+            resolution = new Resolution(null, true);
+            for (int i = 0; i < candidates.size(); i++) {
+                ARCKey key = found.get(candidates.get(i));
+                if (key != null) {
+                    if (i >= firstFtpCandidate) {
+                        log.debug("Url not found with the schema '{}', but with 'ftp' as the schema", uri.getScheme());
+                    }
+                    // Remember, that the found ftp-records don't have any HTTP Header
+                    resolution = new Resolution(key, i < firstFtpCandidate);
+                    break;
+                }
+            }
+            current.putLookup(cacheKey, resolution);
+            return resolution;
+        } finally {
+            current.release(searcher);
         }
-        return luceneLookUp(uri);
     }
 
     /**
-     * Lucene Lookup. 
+     * Looks up URIs in a lucene index with one search, and extracts keys.
      *
-     * @param uri A URI to look for.
-     * @return The file and offset where that URI can be found, or null if it doesn't exist. 
+     * @param searcher The searcher of the index.
+     * @param uris The URIs to look for.
+     * @return The file and offset where each found URI can be found. URIs that don't exist are not in the map.
+     * @throws IllegalState If a URL is found with a malformed origin field.
+     * @throws IOFailure if Lucene gives problems.
      */
-    private ARCKey luceneLookUp(String uri) {
-        BytesRef uriRef = new BytesRef(uri.getBytes()); // Should we decide which charset?
-
-        Query query = new ConstantScoreQuery(new TermRangeFilter(DigestIndexer.FIELD_URL, uriRef, uriRef, true, true));
+    private Map<String, ARCKey> luceneLookup(IndexSearcher searcher, List<String> uris) {
+        BooleanQuery terms = new BooleanQuery();
+        for (String uri : new LinkedHashSet<String>(uris)) {
+            terms.add(new TermQuery(new Term(DigestIndexer.FIELD_URL, uri)), BooleanClause.Occur.SHOULD);
+        }
+        Query query = new ConstantScoreQuery(terms);
 
+        Map<String, ARCKey> keys = new HashMap<String, ARCKey>();
         try {
             AllDocsCollector allResultsCollector = new AllDocsCollector();
-            luceneSearcher.search(query, allResultsCollector);
-            Document doc = null;
+            searcher.search(query, allResultsCollector);
             List<ScoreDoc> hits = allResultsCollector.getHits();
-            if (hits != null) {
-                log.debug("Found {} hits for uri: {}", hits.size(), uri);
-                int i = 0;
-                for (ScoreDoc hit : hits) {
-                    int docId = hit.doc;
-                    doc = luceneSearcher.doc(docId);
-                    String origin = doc.get(DigestIndexer.FIELD_ORIGIN);
-                    // Here is where we will handle multiple hits in the future
-                    if (origin == null) {
-                        log.debug("No origin for URL '{}' hit {}", uri, i++);
-                        continue;
-                    }
-                    String[] originParts = origin.split(",");
-                    if (originParts.length < 2) {
-                        throw new IllegalState("Bad origin for URL '" + uri + "': '" + origin + "'");
-                    }
-                    log.debug("Found document with origin: {}", origin);
-                    return new ARCKey(originParts[0], Long.parseLong(originParts[1]));
+            log.debug("Found {} hits for uris: {}", hits.size(), uris);
+            // Hits may be collected out of order, but the first hit in the index is used for each URI
+            Collections.sort(hits, new Comparator<ScoreDoc>() {
+                @Override
+                public int compare(ScoreDoc hit1, ScoreDoc hit2) {
+                    return Integer.compare(hit1.doc, hit2.doc);
                 }
+            });
+            for (ScoreDoc hit : hits) {
+                Document doc = searcher.doc(hit.doc, LOOKUP_FIELDS);
+                String uri = doc.get(DigestIndexer.FIELD_URL);
+                if (uri == null || keys.containsKey(uri)) {
+                    continue;
+                }
+                String origin = doc.get(DigestIndexer.FIELD_ORIGIN);
+                // Here is where we will handle multiple hits in the future
+                if (origin == null) {
+                    log.debug("No origin for URL '{}' document {}", uri, hit.doc);
+                    continue;
+                }
+                String[] originParts = origin.split(",");
+                if (originParts.length < 2) {
+                    throw new IllegalState("Bad origin for URL '" + uri + "': '" + origin + "'");
+                }
+                log.debug("Found document with origin: {}", origin);
+                keys.put(uri, new ARCKey(originParts[0], Long.parseLong(originParts[1])));
             }
         } catch (IOException e) {
-            throw new IOFailure("Fatal error looking up '" + uri + "'", e);
+            throw new IOFailure("Fatal error looking up '" + uris + "'", e);
+        }
+        return keys;
+    }
+
+    /**
+     * A Lucene index being searched, and the lookups recently made in it.
+     */
+    private static final class Index {
+        /** The manager of the searcher of the index, counting the lookups using it. */
+        private final SearcherManager searcherManager;
+        /** The recent lookups by URI, least recently used first, or null if lookups are not remembered. */
+        private final Map<String, Resolution> lookups;
+
+        /**
+         * @param searcherManager The manager of the searcher of the index.
+         * @param cacheSize The number of lookups to remember.
+         */
+        private Index(SearcherManager searcherManager, final int cacheSize) {
+            this.searcherManager = searcherManager;
+            if (cacheSize > 0) {
+                lookups = new LinkedHashMap<String, Resolution>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+                        return size() > cacheSize;
+                    }
+                };
+            } else {
+                lookups = null;
+            }
+        }
+
+        /**
+         * Get the searcher of the index, which must be released after use.
+         *
+         * @return The searcher, or null if the index has been closed, because another index has been set.
+         * @throws IOFailure If the searcher cannot be opened.
+         */
+        private IndexSearcher acquire() {
+            try {
+                return acquireSearcher();
+            } catch (AlreadyClosedException e) {
+                return null;
+            } catch (IOException e) {
+                throw new IOFailure("Unable to search index", e);
+            }
+        }
+
+        /**
+         * @return The searcher of the index, with its reference count increased.
+         * @throws IOException If the searcher cannot be opened.
+         */
+        private IndexSearcher acquireSearcher() throws IOException {
+            return searcherManager.acquire();
+        }
+
+        /**
+         * Release a searcher after use, closing the index if it has been replaced and this was the last lookup.
+         *
+         * @param searcher The searcher from {@link #acquire()}.
+         */
+        private void release(IndexSearcher searcher) {
+            try {
+                searcherManager.release(searcher);
+            } catch (IOException e) {
+                log.warn("Unable to release searcher of index", e);
+            }
+        }
+
+        /**
+         * @param uri A URI.
+         * @return The recent lookup of the URI, or null if it has not been looked up recently.
+         */
+        private Resolution getLookup(String uri) {
+            if (lookups == null) {
+                return null;
+            }
+            synchronized (lookups) {
+                return lookups.get(uri);
+            }
+        }
+
+        /**
+         * Remember a lookup, forgetting the least recently used one if there are too many.
+         *
+         * @param uri The URI looked up.
+         * @param resolution Where it was found.
+         */
+        private void putLookup(String uri, Resolution resolution) {
+            if (lookups != null) {
+                synchronized (lookups) {
+                    lookups.put(uri, resolution);
+                }
+            }
+        }
+
+        /** Forget the recent lookups. */
+        private void clearLookups() {
+            if (lookups != null) {
+                synchronized (lookups) {
+                    lookups.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Where a URI was found in the index.
+     */
+    private static final class Resolution {
+        /** The file and offset of the record, or null if the URI was not found. */
+        private final ARCKey key;
+        /** Whether the record has an HTTP header, which records found with ftp as the scheme don't. */
+        private final boolean containsHeader;
+
+        /**
+         * @param key The file and offset of the record, or null if the URI was not found.
+         * @param containsHeader Whether the record has an HTTP header.
+         */
+        private Resolution(ARCKey key, boolean containsHeader) {
+            this.key = key;
+            this.containsHeader = containsHeader;
         }
-        return null;
     }
 
 }
@@ -30,6 +30,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveReaderFactory;
@@ -97,10 +99,24 @@ public class BitarchiveRecord implements Serializable {
      * @param filename The filename of the ArchiveFile
      */
     public BitarchiveRecord(ArchiveRecord record, String filename) {
+        this(record, filename, record == null ? 0 : record.getHeader().getOffset());
+    }
+
+    /**
+     * Creates a BitarchiveRecord from the a ArchiveRecord, as {@link #BitarchiveRecord(ArchiveRecord, String)}, with
+     * the offset of the record in the file given. This is needed when the record was read from a stream starting at the
+     * record, as the offset in its header is then relative to the stream.
+     *
+     * @param record the ArchiveRecord that the data should come from. We do not close the ArchiveRecord.
+     * @param filename The filename of the ArchiveFile
+     * @param offset The offset of the record in the file.
+     */
+    public BitarchiveRecord(ArchiveRecord record, String filename, long offset) {
         ArgumentNotValid.checkNotNull(record, "ArchiveRecord record");
         ArgumentNotValid.checkNotNull(filename, "String filename");
+        ArgumentNotValid.checkNotNegative(offset, "long offset");
         this.fileName = filename;
-        this.offset = record.getHeader().getOffset();
+        this.offset = offset;
         if (record instanceof ARCRecord) {
             length = record.getHeader().getLength();
         } else if (record instanceof WARCRecord) {
@@ -143,6 +159,72 @@ public class BitarchiveRecord implements Serializable {
         }
     }
 
+    /**
+     * Creates a BitarchiveRecord from the payload of a record in an uncompressed ARC or WARC file, copying the bytes
+     * directly from the file. The payload is the same as that of the ArchiveRecord used by
+     * {@link #BitarchiveRecord(ArchiveRecord, String)}, but is not copied through an ArchiveRecord.
+     * <p>
+     * If the length of the payload is higher than Settings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE the data is
+     * transferred to a local file with FileChannel.transferTo() and stored in a RemoteFile, otherwise the data is read
+     * into a byte array.
+     *
+     * @param filename The filename of the ArchiveFile
+     * @param channel A channel for the ArchiveFile. Only positional reads are used, so the position of the channel is
+     * not changed. We do not close the channel.
+     * @param offset The offset of the record in the file.
+     * @param payloadStart The offset of the first byte of the payload in the file.
+     * @param length The length of the payload.
+     * @throws ArgumentNotValid If the filename is null or the channel is null, or the offsets or length are negative.
+     * @throws IOFailure If the payload cannot be read from the channel.
+     */
+    public BitarchiveRecord(String filename, FileChannel channel, long offset, long payloadStart, long length) {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        ArgumentNotValid.checkNotNull(channel, "FileChannel channel");
+        ArgumentNotValid.checkNotNegative(offset, "long offset");
+        ArgumentNotValid.checkNotNegative(payloadStart, "long payloadStart");
+        ArgumentNotValid.checkNotNegative(length, "long length");
+        this.fileName = filename;
+        this.offset = offset;
+        this.length = length;
+        File localTmpFile = null;
+        try {
+            if (length > LIMIT_FOR_SAVING_DATA_IN_OBJECT_BUFFER) {
+                log.info("Record exceeds limit of {} bytes. Length is {} bytes, Storing as instance of {}",
+                        LIMIT_FOR_SAVING_DATA_IN_OBJECT_BUFFER, length, Settings.get(CommonSettings.REMOTE_FILE_CLASS));
+                localTmpFile = File.createTempFile("BitarchiveRecord-" + fileName, ".tmp", FileUtils.getTempDir());
+                try (FileOutputStream out = new FileOutputStream(localTmpFile)) {
+                    FileChannel outChannel = out.getChannel();
+                    long transferred = 0;
+                    while (transferred < length) {
+                        long count = channel.transferTo(payloadStart + transferred, length - transferred, outChannel);
+                        if (count <= 0) {
+                            throw new IOException("Unexpected end of file after " + transferred + " of " + length
+                                    + " bytes");
+                        }
+                        transferred += count;
+                    }
+                }
+                objectAsRemoteFile = RemoteFileFactory.getMovefileInstance(localTmpFile);
+                isStoredAsRemoteFile = true;
+            } else {
+                objectBuffer = new byte[(int) length];
+                ByteBuffer buffer = ByteBuffer.wrap(objectBuffer);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, payloadStart + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of file after " + buffer.position() + " of " + length
+                                + " bytes");
+                    }
+                }
+                log.debug("Bytes stored in objectBuffer: {}", objectBuffer.length);
+            }
+        } catch (IOException e) {
+            if (localTmpFile != null) {
+                FileUtils.remove(localTmpFile);
+            }
+            throw new IOFailure("Unable to read record(" + fileName + "," + offset + ")", e);
+        }
+    }
+
     /**
      * Returns the file that this information was loaded from.
      *
@@ -152,6 +234,15 @@ public class BitarchiveRecord implements Serializable {
         return fileName;
     }
 
+    /**
+     * Returns the offset of the ARCRecord contained in its file.
+     *
+     * @return the offset of the ARCRecord contained
+     */
+    public long getOffset() {
+        return offset;
+    }
+
     /**
      * Returns the length of the ARCRecord contained.
      *
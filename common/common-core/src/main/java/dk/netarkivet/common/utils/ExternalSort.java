@@ -0,0 +1,509 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * An external merge sort of the lines in a file, done entirely in the JVM.
+ * <p>
+ * Lines are handled as bytes terminated by '\n', with any '\r' before the '\n' removed, and every line in the output is
+ * terminated by '\n'. Unlike for {@link java.io.BufferedReader#readLine()}, a '\r' inside a line does not end it. The
+ * input is split into runs that fit in the memory budget. The runs are sorted in parallel on a ForkJoinPool and written
+ * to temporary files, which are then merged. If the whole input fits in one run, it is sorted in memory and no
+ * temporary files are made.
+ * <p>
+ * The ordering is given by a comparator on the bytes of the lines. {@link #LEXICOGRAPHIC} and {@link #CRAWL_LOG_URL}
+ * give the same result as the Unix sort command with LANG=C, without and with "-k 4b" respectively, regardless of the
+ * locale of the host. {@link #STRING_ORDER} gives the order of {@link String#compareTo(String)} of the lines decoded as
+ * UTF-8.
+ */
+public class ExternalSort {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(ExternalSort.class);
+
+    /** Orders lines by comparing their bytes as unsigned values, like "LANG=C sort". */
+    public static final Comparator<byte[]> LEXICOGRAPHIC = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] line1, byte[] line2) {
+            return compareBytes(line1, 0, line2, 0);
+        }
+    };
+
+    /**
+     * Orders UTF-8 lines like {@link String#compareTo(String)} orders the decoded lines, i.e. by UTF-16 code units.
+     * This is the byte order, except that characters above U+FFFF, which are surrogate pairs in UTF-16, come before the
+     * characters U+E000 to U+FFFF.
+     */
+    public static final Comparator<byte[]> STRING_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] line1, byte[] line2) {
+            int length = Math.min(line1.length, line2.length);
+            for (int i = 0; i < length; i++) {
+                if (line1[i] != line2[i]) {
+                    // The lines are equal before i, so the characters holding i start at the same byte.
+                    int start = i;
+                    while (start > 0 && (line1[start] & 0xc0) == 0x80) {
+                        start--;
+                    }
+                    boolean supplementary1 = (line1[start] & 0xff) >= 0xf0;
+                    boolean supplementary2 = (line2[start] & 0xff) >= 0xf0;
+                    if (supplementary1 != supplementary2) {
+                        // A surrogate pair is before U+E000 to U+FFFF, which start with the bytes 0xee and 0xef.
+                        int other = (supplementary1 ? line2[start] : line1[start]) & 0xff;
+                        if (other == 0xee || other == 0xef) {
+                            return supplementary1 ? -1 : 1;
+                        }
+                    }
+                    return (line1[i] & 0xff) - (line2[i] & 0xff);
+                }
+            }
+            return line1.length - line2.length;
+        }
+    };
+
+    /**
+     * Orders crawl.log lines by their fourth field and the rest of the line, ignoring leading blanks, like
+     * "LANG=C sort -k 4b". Lines with equal keys are ordered by comparing the whole lines.
+     */
+    public static final Comparator<byte[]> CRAWL_LOG_URL = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] line1, byte[] line2) {
+            int cmp = compareBytes(line1, keyStart(line1, 4), line2, keyStart(line2, 4));
+            if (cmp == 0) {
+                cmp = compareBytes(line1, 0, line2, 0);
+            }
+            return cmp;
+        }
+    };
+
+    /** The approximate number of bytes of heap used by a line, in addition to its content. */
+    private static final int LINE_OVERHEAD = 48;
+
+    /** The maximal number of runs merged at once. More runs are merged in several passes. */
+    static final int MAX_MERGE_FANIN = 64;
+
+    /** The size of the buffers used for reading and writing files. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The ordering of the lines. */
+    private final Comparator<byte[]> comparator;
+
+    /** The approximate number of bytes of lines held in memory at once. */
+    private final long memoryBudget;
+
+    /** The number of runs sorted in parallel. */
+    private final int parallelism;
+
+    /** The directory for temporary files, or null for the default temporary directory. */
+    private final File tempDir;
+
+    /**
+     * Create a sorter.
+     *
+     * @param comparator The ordering of the lines.
+     * @param memoryBudget The approximate number of bytes of lines held in memory at once.
+     * @param parallelism The number of runs sorted in parallel.
+     * @param tempDir The directory for temporary files, or null for the default temporary directory.
+     * @throws ArgumentNotValid If comparator is null, or memoryBudget or parallelism is not positive.
+     */
+    public ExternalSort(Comparator<byte[]> comparator, long memoryBudget, int parallelism, File tempDir) {
+        ArgumentNotValid.checkNotNull(comparator, "Comparator<byte[]> comparator");
+        ArgumentNotValid.checkPositive(memoryBudget, "long memoryBudget");
+        ArgumentNotValid.checkPositive(parallelism, "int parallelism");
+        this.comparator = comparator;
+        this.memoryBudget = memoryBudget;
+        this.parallelism = parallelism;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Sort the lines of a file into another file.
+     *
+     * @param input The file to sort.
+     * @param output The file to write the sorted lines to. May be the same as the input.
+     * @throws ArgumentNotValid If input or output is null.
+     * @throws IOFailure If the files cannot be read or written.
+     */
+    public void sort(File input, File output) {
+        ArgumentNotValid.checkNotNull(input, "File input");
+        ArgumentNotValid.checkNotNull(output, "File output");
+        long startTime = System.currentTimeMillis();
+        // One run is being read while the others are being sorted.
+        long runBudget = Math.max(1, memoryBudget / (parallelism + 1));
+        List<File> runFiles = new ArrayList<File>();
+        List<ForkJoinTask<File>> runTasks = new ArrayList<ForkJoinTask<File>>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Semaphore runsInMemory = new Semaphore(parallelism);
+        try {
+            LineReader reader = new LineReader(new FileInputStream(input));
+            List<byte[]> run = new ArrayList<byte[]>();
+            try {
+                long runBytes = 0;
+                byte[] line;
+                while ((line = reader.readLine()) != null) {
+                    run.add(line);
+                    runBytes += line.length + LINE_OVERHEAD;
+                    if (runBytes >= runBudget) {
+                        runTasks.add(submitRun(pool, runsInMemory, run));
+                        run = new ArrayList<byte[]>();
+                        runBytes = 0;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (runTasks.isEmpty()) {
+                final byte[][] lines = run.toArray(new byte[run.size()][]);
+                join(pool.submit(new Runnable() {
+                    public void run() {
+                        Arrays.parallelSort(lines, comparator);
+                    }
+                }), input);
+                writeLines(lines, output);
+                log.debug("Sorted {} lines of '{}' in memory in {} ms", lines.length, input,
+                        System.currentTimeMillis() - startTime);
+                return;
+            }
+            if (!run.isEmpty()) {
+                runTasks.add(submitRun(pool, runsInMemory, run));
+            }
+            for (ForkJoinTask<File> task : runTasks) {
+                runFiles.add(join(task, input));
+            }
+            while (runFiles.size() > MAX_MERGE_FANIN) {
+                List<File> group = new ArrayList<File>(runFiles.subList(0, MAX_MERGE_FANIN));
+                File merged = createRunFile();
+                runFiles.add(merged);
+                merge(group, merged);
+                for (File f : group) {
+                    FileUtils.remove(f);
+                }
+                runFiles.removeAll(group);
+            }
+            merge(runFiles, output);
+            log.debug("Sorted '{}' using {} runs in {} ms", input, runTasks.size(), System.currentTimeMillis()
+                    - startTime);
+        } catch (IOException e) {
+            throw new IOFailure("Error sorting '" + input + "' into '" + output + "'", e);
+        } finally {
+            pool.shutdownNow();
+            for (ForkJoinTask<File> task : runTasks) {
+                if (task.isDone() && !task.isCompletedAbnormally()) {
+                    FileUtils.remove(task.getRawResult());
+                }
+            }
+            for (File f : runFiles) {
+                FileUtils.remove(f);
+            }
+        }
+    }
+
+    /**
+     * Sort a run and write it to a temporary file on the pool. Blocks while the maximal number of runs are in memory.
+     *
+     * @param pool The pool to sort on.
+     * @param runsInMemory The permits for runs being held in memory.
+     * @param run The lines of the run.
+     * @return The task that sorts the run and gives the file it was written to.
+     */
+    private ForkJoinTask<File> submitRun(ForkJoinPool pool, final Semaphore runsInMemory, List<byte[]> run) {
+        try {
+            runsInMemory.acquire();
+        } catch (InterruptedException e) {
+            throw new IOFailure("Interrupted while waiting for runs to be sorted", e);
+        }
+        final byte[][] lines = run.toArray(new byte[run.size()][]);
+        run.clear();
+        return pool.submit(new Callable<File>() {
+            public File call() throws IOException {
+                try {
+                    Arrays.sort(lines, comparator);
+                    File runFile = createRunFile();
+                    writeLines(lines, runFile);
+                    return runFile;
+                } finally {
+                    runsInMemory.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for a sorting task, and give its result.
+     *
+     * @param task The task.
+     * @param input The file being sorted.
+     * @param <T> The type of the result.
+     * @return The result of the task.
+     * @throws IOFailure If the task failed.
+     */
+    private static <T> T join(ForkJoinTask<T> task, File input) {
+        try {
+            return task.join();
+        } catch (IOFailure e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new IOFailure("Error sorting a run of '" + input + "'", e);
+        }
+    }
+
+    /**
+     * Merge a number of sorted files into one.
+     *
+     * @param files The sorted files.
+     * @param output The file to write the merged lines to.
+     * @throws IOException If the files cannot be read or written.
+     */
+    private void merge(List<File> files, File output) throws IOException {
+        final List<LineReader> readers = new ArrayList<LineReader>(files.size());
+        // Entries are the current line and the index of its reader, which keeps equal lines in a stable order.
+        PriorityQueue<Object[]> heads = new PriorityQueue<Object[]>(Math.max(1, files.size()),
+                new Comparator<Object[]>() {
+                    @Override
+                    public int compare(Object[] head1, Object[] head2) {
+                        int cmp = comparator.compare((byte[]) head1[0], (byte[]) head2[0]);
+                        return cmp != 0 ? cmp : Integer.compare((Integer) head1[1], (Integer) head2[1]);
+                    }
+                });
+        OutputStream out = null;
+        try {
+            for (File f : files) {
+                LineReader reader = new LineReader(new FileInputStream(f));
+                readers.add(reader);
+                byte[] line = reader.readLine();
+                if (line != null) {
+                    heads.add(new Object[] {line, readers.size() - 1});
+                }
+            }
+            out = new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE);
+            Object[] head;
+            while ((head = heads.poll()) != null) {
+                out.write((byte[]) head[0]);
+                out.write('\n');
+                byte[] line = readers.get((Integer) head[1]).readLine();
+                if (line != null) {
+                    head[0] = line;
+                    heads.add(head);
+                }
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            for (LineReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Make a temporary file for a run.
+     *
+     * @return A new, empty file.
+     * @throws IOException If the file cannot be made.
+     */
+    private File createRunFile() throws IOException {
+        File runFile = File.createTempFile("sort", ".run", tempDir);
+        runFile.deleteOnExit();
+        return runFile;
+    }
+
+    /**
+     * Write lines to a file, each terminated by '\n'.
+     *
+     * @param lines The lines to write.
+     * @param output The file to write to.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeLines(byte[][] lines, File output) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE);
+        try {
+            for (byte[] line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Compare two byte arrays from the given offsets as unsigned values. A proper prefix is before the longer array.
+     *
+     * @param bytes1 The first array.
+     * @param start1 The offset to start from in the first array.
+     * @param bytes2 The second array.
+     * @param start2 The offset to start from in the second array.
+     * @return A negative number, zero or a positive number as the first array is before, equal to or after the second.
+     */
+    static int compareBytes(byte[] bytes1, int start1, byte[] bytes2, int start2) {
+        int length1 = bytes1.length - start1;
+        int length2 = bytes2.length - start2;
+        int length = Math.min(length1, length2);
+        for (int i = 0; i < length; i++) {
+            int cmp = (bytes1[start1 + i] & 0xff) - (bytes2[start2 + i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length1 - length2;
+    }
+
+    /**
+     * Find the start of a sort key starting at the given field and ignoring leading blanks, as in "sort -k Nb". Fields
+     * are separated by the empty string between a non-blank and a blank, and blanks are spaces and tabs.
+     *
+     * @param line The line to find the key in.
+     * @param field The field the key starts at, counting from 1.
+     * @return The offset of the key, which is the length of the line if the line has fewer fields.
+     */
+    static int keyStart(byte[] line, int field) {
+        int pos = 0;
+        for (int i = 1; i < field; i++) {
+            while (pos < line.length && isBlank(line[pos])) {
+                pos++;
+            }
+            while (pos < line.length && !isBlank(line[pos])) {
+                pos++;
+            }
+        }
+        while (pos < line.length && isBlank(line[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @param b A byte.
+     * @return true if the byte is a blank in the C locale.
+     */
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Reads lines of bytes from a stream.
+     */
+    private static class LineReader {
+        /** The stream read from. */
+        private final InputStream in;
+        /** The buffer of bytes read from the stream. */
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        /** The position of the next unread byte in the buffer. */
+        private int pos;
+        /** The number of valid bytes in the buffer. */
+        private int limit;
+
+        /**
+         * @param in The stream to read from.
+         */
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Read the next line.
+         *
+         * @return The bytes of the line without the terminating '\n' and any '\r' before it, or null at the end of the
+         * stream.
+         * @throws IOException If the stream cannot be read.
+         */
+        byte[] readLine() throws IOException {
+            byte[] line = null;
+            int lineLength = 0;
+            while (true) {
+                if (pos == limit) {
+                    limit = in.read(buffer);
+                    pos = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return line == null ? null : Arrays.copyOf(line, withoutCarriageReturn(line, lineLength));
+                    }
+                }
+                int end = pos;
+                while (end < limit && buffer[end] != '\n') {
+                    end++;
+                }
+                int chunk = end - pos;
+                if (line == null) {
+                    line = new byte[chunk];
+                } else if (lineLength + chunk > line.length) {
+                    line = Arrays.copyOf(line, Math.max(lineLength + chunk, line.length * 2));
+                }
+                System.arraycopy(buffer, pos, line, lineLength, chunk);
+                lineLength += chunk;
+                if (end < limit) {
+                    pos = end + 1;
+                    lineLength = withoutCarriageReturn(line, lineLength);
+                    return lineLength == line.length ? line : Arrays.copyOf(line, lineLength);
+                }
+                pos = end;
+            }
+        }
+
+        /**
+         * @param line The bytes of a line.
+         * @param lineLength The number of bytes of the line used.
+         * @return The length of the line without trailing '\r's.
+         */
+        private static int withoutCarriageReturn(byte[] line, int lineLength) {
+            while (lineLength > 0 && line[lineLength - 1] == '\r') {
+                lineLength--;
+            }
+            return lineLength;
+        }
+
+        /**
+         * Close the underlying stream.
+         *
+         * @throws IOException If closing fails.
+         */
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
@@ -40,6 +40,7 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 
@@ -598,18 +599,19 @@ public class FileUtils {
     }
 
     /**
-     * Sort a file into another. The current implementation slurps all lines into memory. This will not scale forever.
+     * Sort a file into another. The lines are in the order of {@link String#compareTo(String)}, as they have always
+     * been, taking the file to be UTF-8. Temporary files are used if the lines do not fit in the memory given by
+     * {@link CommonSettings#SORT_MEMORY_BUDGET}.
      *
      * @param unsortedFile A file to sort
      * @param sortedOutput The file to sort into
+     * @throws IOFailure If the file could not be sorted
      */
     public static void makeSortedFile(File unsortedFile, File sortedOutput) {
         ArgumentNotValid.checkNotNull(unsortedFile, "File unsortedFile");
         ArgumentNotValid.checkNotNull(sortedOutput, "File sortedOutput");
-        List<String> lines;
-        lines = readListFromFile(unsortedFile);
-        Collections.sort(lines);
-        writeCollectionToFile(sortedOutput, lines);
+        new ExternalSort(ExternalSort.STRING_ORDER, Settings.getLong(CommonSettings.SORT_MEMORY_BUDGET),
+                Settings.getInt(CommonSettings.SORT_THREADS), getSortTempDir()).sort(unsortedFile, sortedOutput);
     }
 
     /**
@@ -934,33 +936,10 @@ public class FileUtils {
      *
      * @param file The file containing the unsorted data.
      * @param toFile The file that the sorted data can be put into.
-     * @throws IOFailure if there were errors running the sort process, or if the file does not exist.
+     * @throws IOFailure if there were errors sorting the file, or if the file does not exist.
      */
     public static void sortCrawlLog(File file, File toFile) {
-        ArgumentNotValid.checkNotNull(file, "File file");
-        ArgumentNotValid.checkNotNull(toFile, "File toFile");
-        if (!file.exists()) {
-            String errMsg = "The file '" + file.getAbsolutePath() + "' does not exist.";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
-
-        File sortTempDir = null;
-        if (Settings.getBoolean(CommonSettings.UNIX_SORT_USE_COMMON_TEMP_DIR)) {
-            sortTempDir = FileUtils.getTempDir();
-            if (!sortTempDir.isDirectory()) {
-            	log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist", 
-            			sortTempDir.getAbsolutePath());
-            	sortTempDir = null;
-            }
-        }
-        boolean sortLikeCrawllog = true;
-        int error = ProcessUtils.runUnixSort(file, toFile, sortTempDir, sortLikeCrawllog);
-        if (error != 0) {
-            final String errMsg = "Error code " + error + " sorting crawl log '" + file + "'";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
+        sortLines(file, toFile, ExternalSort.CRAWL_LOG_URL);
     }
 
     /**
@@ -968,43 +947,44 @@ public class FileUtils {
      *
      * @param file The file containing the unsorted data.
      * @param toFile The file that the sorted data can be put into.
-     * @throws IOFailure if there were errors running the sort process, or if the file does not exist.
+     * @throws IOFailure if there were errors sorting the file, or if the file does not exist.
      */
     public static void sortCrawlLogOnTimestamp(File file, File toFile) {
-        ArgumentNotValid.checkNotNull(file, "File file");
-        ArgumentNotValid.checkNotNull(toFile, "File toFile");
-        if (!file.exists()) {
-            String errMsg = "The file '" + file.getAbsolutePath() + "' does not exist.";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
-
-        File sortTempDir = null;
-        if (Settings.getBoolean(CommonSettings.UNIX_SORT_USE_COMMON_TEMP_DIR)) {
-            sortTempDir = FileUtils.getTempDir();
-            if (!sortTempDir.isDirectory()) {
-            	log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist", 
-            			sortTempDir.getAbsolutePath());
-            	sortTempDir = null;
-            }
-        }
-        boolean sortLikeCrawllog = false;
-        int error = ProcessUtils.runUnixSort(file, toFile, sortTempDir, sortLikeCrawllog);
-        if (error != 0) {
-            final String errMsg = "Error code " + error + " sorting crawl log '" + file + "'";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
+        sortLines(file, toFile, ExternalSort.LEXICOGRAPHIC);
     }
 
     /**
-     * Sort a CDX file according to our standard for CDX file sorting. This method depends on the Unix sort() command.
+     * Sort a CDX file according to our standard for CDX file sorting, which is the order of the Unix sort command with
+     * LANG=C.
      *
      * @param file The raw unsorted CDX file.
      * @param toFile The file that the result will be put into.
      * @throws IOFailure If the file does not exist, or could not be sorted
      */
     public static void sortCDX(File file, File toFile) {
+        sortLines(file, toFile, ExternalSort.LEXICOGRAPHIC);
+    }
+
+    /**
+     * Sort a file in the order of the Unix sort command with LANG=C.
+     *
+     * @param file the file that you want to sort.
+     * @param toFile The destination file.
+     */
+    public static void sortFile(File file, File toFile) {
+        sortCDX(file, toFile);
+    }
+
+    /**
+     * Sort the lines of a file with an {@link ExternalSort} using the memory and threads given by the settings
+     * {@link CommonSettings#SORT_MEMORY_BUDGET} and {@link CommonSettings#SORT_THREADS}.
+     *
+     * @param file The file to sort.
+     * @param toFile The file that the sorted lines are written to.
+     * @param comparator The ordering of the lines.
+     * @throws IOFailure If the file does not exist, or could not be sorted
+     */
+    private static void sortLines(File file, File toFile, Comparator<byte[]> comparator) {
         ArgumentNotValid.checkNotNull(file, "File file");
         ArgumentNotValid.checkNotNull(toFile, "File toFile");
         if (!file.exists()) {
@@ -1012,33 +992,25 @@ public class FileUtils {
             log.warn(errMsg);
             throw new IOFailure(errMsg);
         }
-        boolean sortLikeCrawllog = false;
+        new ExternalSort(comparator, Settings.getLong(CommonSettings.SORT_MEMORY_BUDGET),
+                Settings.getInt(CommonSettings.SORT_THREADS), getSortTempDir()).sort(file, toFile);
+    }
+
+    /**
+     * @return The directory for the temporary files of a sort, or null for the system temp dir.
+     * @see CommonSettings#UNIX_SORT_USE_COMMON_TEMP_DIR
+     */
+    private static File getSortTempDir() {
         File sortTempDir = null;
         if (Settings.getBoolean(CommonSettings.UNIX_SORT_USE_COMMON_TEMP_DIR)) {
             sortTempDir = FileUtils.getTempDir();
             if (!sortTempDir.isDirectory()) {
-            	log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist", 
-            			sortTempDir.getAbsolutePath());
-            	sortTempDir = null;
+                log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist",
+                        sortTempDir.getAbsolutePath());
+                sortTempDir = null;
             }
-
         }
-        int error = ProcessUtils.runUnixSort(file, toFile, sortTempDir, sortLikeCrawllog);
-        if (error != 0) {
-            final String errMsg = "Error code " + error + " sorting cdx file '" + file.getAbsolutePath() + "'";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
-    }
-
-    /**
-     * Sort a file using UNIX sort.
-     *
-     * @param file the file that you want to sort.
-     * @param toFile The destination file.
-     */
-    public static void sortFile(File file, File toFile) {
-        sortCDX(file, toFile);
+        return sortTempDir;
     }
 
     /**
@@ -101,6 +101,8 @@ public abstract class ARCBatchJob extends FileBatchJob {
         ArgumentNotValid.checkNotNull(arcFile, "arcFile");
         ArgumentNotValid.checkNotNull(os, "os");
         long arcFileIndex = 0;
+        // Counted per file and added when the file is done, as files may be processed in parallel
+        int recordsInFile = 0;
         boolean success = true;
         log.info("Processing ARCfile: {}", arcFile.getName());
 
@@ -133,9 +135,10 @@ public abstract class ARCBatchJob extends FileBatchJob {
                         if (!getFilter().accept(record)) {
                             continue;
                         }
-                        log.debug("Processing ARCRecord #{} in ARCfile '{}'.", noOfRecordsProcessed, arcFile.getName());
+                        log.debug("Processing ARCRecord #{} in ARCfile '{}'.", noOfRecordsProcessed + recordsInFile,
+                                arcFile.getName());
                         processRecord(record, os);
-                        ++noOfRecordsProcessed;
+                        ++recordsInFile;
                     } catch (NetarkivetException e) {
                         // Our exceptions don't stop us
                         success = false;
@@ -168,6 +171,7 @@ public abstract class ARCBatchJob extends FileBatchJob {
                     log.trace("At end of processing-loop");
                 }
             } finally {
+                addRecordsProcessed(recordsInFile);
                 try {
                     arcReader.close();
                 } catch (IOException e) { // Some IOException
@@ -235,4 +239,16 @@ public abstract class ARCBatchJob extends FileBatchJob {
         return noOfRecordsProcessed;
     }
 
+    /**
+     * Add the records processed in a file to the total. Files may be processed by several threads at a time, so the
+     * records of each file are counted on their own and added under the lock of the job.
+     *
+     * @param records The number of records processed in a file.
+     */
+    private void addRecordsProcessed(int records) {
+        synchronized (this) {
+            noOfRecordsProcessed += records;
+        }
+    }
+
 }
@@ -78,6 +78,8 @@ public abstract class ArchiveBatchJob extends ArchiveBatchJobBase {
         ArgumentNotValid.checkNotNull(archiveFile, "archiveFile");
         ArgumentNotValid.checkNotNull(os, "os");
         long arcFileIndex = 0;
+        // Counted per file and added when the file is done, as files may be processed in parallel
+        int recordsInFile = 0;
         boolean success = true;
         log.info("Processing archive file: {}", archiveFile.getName());
 
@@ -112,10 +114,10 @@ public abstract class ArchiveBatchJob extends ArchiveBatchJobBase {
                         if (!getFilter().accept(record)) {
                             continue;
                         }
-                        log.debug("Processing record #{} in archive file '{}'.", noOfRecordsProcessed,
+                        log.debug("Processing record #{} in archive file '{}'.", noOfRecordsProcessed + recordsInFile,
                                 archiveFile.getName());
                         processRecord(record, os);
-                        ++noOfRecordsProcessed;
+                        ++recordsInFile;
                     } catch (NetarkivetException e) {
                         // Our exceptions don't stop us
                         success = false;
@@ -156,6 +158,7 @@ public abstract class ArchiveBatchJob extends ArchiveBatchJobBase {
                     log.trace("At end of processing-loop");
                 }
             } finally {
+                addRecordsProcessed(recordsInFile);
                 try {
                     archiveReader.close();
                 } catch (IOException e) { // Some IOException
@@ -109,4 +109,16 @@ public abstract class ArchiveBatchJobBase extends FileBatchJob {
         return noOfRecordsProcessed;
     }
 
+    /**
+     * Add the records processed in a file to the total. Files may be processed by several threads at a time, so the
+     * records of each file are counted on their own and added under the lock of the job.
+     *
+     * @param records The number of records processed in a file.
+     */
+    protected void addRecordsProcessed(int records) {
+        synchronized (this) {
+            noOfRecordsProcessed += records;
+        }
+    }
+
 }
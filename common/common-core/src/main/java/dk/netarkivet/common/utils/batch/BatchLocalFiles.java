@@ -23,10 +23,24 @@
 
 package dk.netarkivet.common.utils.batch;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,11 +48,21 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.BatchTermination;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.batch.FileBatchJob.ExceptionOccurrence;
 
 /**
  * Class for running FileBatchJobs on a set of local files. The constructor takes an array of files to be processed and
  * the run() method takes a FileBatchJob and applies it to each file in turn.
+ * <p>
+ * If the job allows it (see {@link FileBatchJob#isParallelizable()}) and the setting
+ * {@link CommonSettings#BATCH_THREADS_PER_DIRECTORY} is more than 1, the files are processed in parallel instead. The
+ * files of each directory are divided between that number of workers, so every disk gets its own workers. Each worker writes to its own
+ * temporary file, and these are concatenated to the output in the order of the directories and workers before
+ * finish() is called. The output offsets of exceptions recorded by the workers are moved by the output of the workers
+ * before them, so they refer to the output of processFile() as a whole.
  */
 public class BatchLocalFiles {
 
@@ -80,6 +104,7 @@ public class BatchLocalFiles {
         // Initialise the job:
         job.noOfFilesProcessed = 0;
         job.filesFailed = new HashSet<File>();
+        boolean parallel = false;
         try {
             job.initialize(os);
             // count the files (used for logging).
@@ -88,6 +113,12 @@ public class BatchLocalFiles {
             long logInterval = Settings.getLong(CommonSettings.BATCH_LOGGING_INTERVAL);
             // get the time for starting the batchjob (used for logging).
             startTime = new Date().getTime();
+            int threadsPerDirectory = Settings.getInt(CommonSettings.BATCH_THREADS_PER_DIRECTORY);
+            if (job.isParallelizable() && threadsPerDirectory > 1) {
+                parallel = true;
+                runInParallel(job, os, groupByDirectory(job), threadsPerDirectory, logInterval);
+                return;
+            }
             // Process each file:
             for (File file : files) {
                 fileCount++;
@@ -124,6 +155,10 @@ public class BatchLocalFiles {
             if (e instanceof BatchTermination) {
                 throw (BatchTermination) e;
             }
+            // a failing worker means that files were not processed
+            if (parallel && e instanceof IOFailure) {
+                throw (IOFailure) e;
+            }
         } finally {
             // Finally, allow the job to finish: */
             try {
@@ -142,6 +177,202 @@ public class BatchLocalFiles {
         }
     }
 
+    /**
+     * Find the files that the job should process, grouped by the directory they are in.
+     *
+     * @param job The job to be executed.
+     * @return The files matching the filename pattern of the job, by directory in the order the directories are first
+     * found among the files.
+     */
+    private Map<File, List<File>> groupByDirectory(FileBatchJob job) {
+        Map<File, List<File>> filesByDirectory = new LinkedHashMap<File, List<File>>();
+        for (File file : files) {
+            if (job.getFilenamePattern().matcher(file.getName()).matches()) {
+                File dir = file.getAbsoluteFile().getParentFile();
+                List<File> filesInDir = filesByDirectory.get(dir);
+                if (filesInDir == null) {
+                    filesInDir = new ArrayList<File>();
+                    filesByDirectory.put(dir, filesInDir);
+                }
+                filesInDir.add(file);
+            }
+        }
+        return filesByDirectory;
+    }
+
+    /**
+     * Run the job on the files in parallel. The files in each directory are divided between at most
+     * threadsPerDirectory workers, which each write to a temporary file. When all workers are done, the temporary files
+     * are written to the output in the order of the workers. If a worker fails, the others are stopped, and the failure
+     * is thrown once they have all ended.
+     *
+     * @param job The job to be executed.
+     * @param os The OutputStream to which output data is written.
+     * @param filesByDirectory The files to process, grouped by directory.
+     * @param threadsPerDirectory The maximum number of workers for the files in one directory.
+     * @param logInterval The time in milliseconds between logging the status.
+     * @throws BatchTermination If the thread running the job is interrupted.
+     * @throws IOFailure If a worker fails, or the output of the workers cannot be written.
+     */
+    private void runInParallel(final FileBatchJob job, OutputStream os, Map<File, List<File>> filesByDirectory,
+            int threadsPerDirectory, final long logInterval) {
+        final int matchingFiles = countFiles(filesByDirectory);
+        // Deal the files of each directory to its workers, keeping the order of the files for each worker.
+        List<List<File>> workerFiles = new ArrayList<List<File>>();
+        for (List<File> filesInDir : filesByDirectory.values()) {
+            int workers = Math.max(1, Math.min(threadsPerDirectory, filesInDir.size()));
+            int first = workerFiles.size();
+            for (int i = 0; i < workers; i++) {
+                workerFiles.add(new ArrayList<File>());
+            }
+            for (int i = 0; i < filesInDir.size(); i++) {
+                workerFiles.get(first + i % workers).add(filesInDir.get(i));
+            }
+        }
+        log.info("Running the batchjob '{}' on {} files in {} directories with {} workers.", job.getClass(),
+                matchingFiles, filesByDirectory.size(), workerFiles.size());
+
+        final AtomicInteger fileCount = new AtomicInteger();
+        final int exceptionsBefore;
+        synchronized (job) {
+            exceptionsBefore = job.exceptions.size();
+        }
+        List<File> outputs = new ArrayList<File>();
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        File tempDir = FileUtils.getTempDir();
+        FileUtils.createDir(tempDir);
+        ExecutorService executor = Executors.newFixedThreadPool(workerFiles.size());
+        try {
+            for (final List<File> filesForWorker : workerFiles) {
+                final File output = File.createTempFile("batch", ".out", tempDir);
+                outputs.add(output);
+                results.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try (OutputStream workerOs = new BufferedOutputStream(new FileOutputStream(output))) {
+                            for (File file : filesForWorker) {
+                                if (Thread.currentThread().isInterrupted()) {
+                                    return;
+                                }
+                                logStatus(job, file, fileCount.incrementAndGet(), matchingFiles, logInterval);
+                                processFile(job, file, workerOs);
+                            }
+                        } catch (IOException e) {
+                            throw new IOFailure("Could not write batch output to '" + output + "'", e);
+                        }
+                    }
+                }));
+            }
+            executor.shutdown();
+            Throwable failure = null;
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                        // Stop the other workers, but let them end before the failure is thrown.
+                        executor.shutdownNow();
+                    }
+                }
+            }
+            if (failure != null) {
+                throw new IOFailure("A worker of the batchjob '" + job.toString() + "' failed", failure);
+            }
+            long[] outputStarts = new long[outputs.size()];
+            long outputLength = 0;
+            for (int i = 0; i < outputs.size(); i++) {
+                outputStarts[i] = outputLength;
+                outputLength += outputs.get(i).length();
+                FileUtils.writeFileToStream(outputs.get(i), os);
+            }
+            moveExceptionOffsets(job, exceptionsBefore, workerFiles, outputStarts);
+        } catch (InterruptedException e) {
+            String errMsg = "The batchjob '" + job.toString() + "' has been interrupted and will terminate!";
+            log.warn(errMsg);
+            throw new BatchTermination(errMsg);
+        } catch (IOException e) {
+            throw new IOFailure("Could not create temporary file for the batch output", e);
+        } finally {
+            executor.shutdownNow();
+            try {
+                if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.warn("The workers of the batchjob '{}' did not stop in time.", job);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (File output : outputs) {
+                FileUtils.remove(output);
+            }
+        }
+    }
+
+    /**
+     * Move the output offsets of the exceptions recorded by the workers from their temporary file to the output of all
+     * the workers.
+     *
+     * @param job The job executed.
+     * @param exceptionsBefore The number of exceptions recorded before the workers started.
+     * @param workerFiles The files processed by each worker.
+     * @param outputStarts The offset in the output of all the workers where the output of each worker starts.
+     */
+    private static void moveExceptionOffsets(FileBatchJob job, int exceptionsBefore, List<List<File>> workerFiles,
+            long[] outputStarts) {
+        Map<String, Integer> workerByName = new HashMap<String, Integer>();
+        Map<String, File> fileByName = new HashMap<String, File>();
+        for (int i = 0; i < workerFiles.size(); i++) {
+            for (File file : workerFiles.get(i)) {
+                workerByName.put(file.getName(), i);
+                fileByName.put(file.getName(), file);
+            }
+        }
+        synchronized (job) {
+            for (int i = exceptionsBefore; i < job.exceptions.size(); i++) {
+                ExceptionOccurrence occurrence = job.exceptions.get(i);
+                Integer worker = workerByName.get(occurrence.getFileName());
+                if (worker == null || occurrence.getOutputOffset() == ExceptionOccurrence.UNKNOWN_OFFSET
+                        || outputStarts[worker] == 0) {
+                    continue;
+                }
+                job.exceptions.set(i, new ExceptionOccurrence(fileByName.get(occurrence.getFileName()),
+                        occurrence.getFileOffset(), occurrence.getOutputOffset() + outputStarts[worker],
+                        occurrence.getException()));
+            }
+        }
+    }
+
+    /**
+     * @param filesByDirectory Files grouped by directory.
+     * @return The total number of files.
+     */
+    private static int countFiles(Map<File, List<File>> filesByDirectory) {
+        int count = 0;
+        for (List<File> filesInDir : filesByDirectory.values()) {
+            count += filesInDir.size();
+        }
+        return count;
+    }
+
+    /**
+     * Log the status of a job running in parallel, if the logging interval has passed since last time.
+     *
+     * @param job The job being executed.
+     * @param file The file about to be processed.
+     * @param fileNumber The number of the file among the files processed.
+     * @param totalFiles The number of files to process.
+     * @param logInterval The time in milliseconds between logging the status.
+     */
+    private synchronized void logStatus(FileBatchJob job, File file, int fileNumber, int totalFiles,
+            long logInterval) {
+        long currentTime = new Date().getTime();
+        if (lastLoggingDate + logInterval < currentTime) {
+            log.info("The batchjob '{}' has run for {} seconds and has reached file '{}', which is number {} out of {}",
+                    job.getClass(), (currentTime - startTime) / 1000, file.getName(), fileNumber, totalFiles);
+            lastLoggingDate = currentTime;
+        }
+    }
+
     /**
      * Process a single file.
      *
@@ -160,9 +391,12 @@ public class BatchLocalFiles {
             // job.addException(currentFile, currentOffset, outputOffset, e)
             log.warn("Exception while processing file {} with job {}", file, job, e);
         }
-        job.noOfFilesProcessed++;
-        if (!success) {
-            job.filesFailed.add(file);
+        // The files may be processed in parallel
+        synchronized (job) {
+            job.noOfFilesProcessed++;
+            if (!success) {
+                job.filesFailed.add(file);
+            }
         }
     }
 
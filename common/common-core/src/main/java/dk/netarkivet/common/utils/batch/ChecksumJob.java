@@ -86,6 +86,17 @@ public class ChecksumJob extends FileBatchJob {
         return true;
     }
 
+    /**
+     * Checksumming of one file is independent of the others, so the files may be processed in parallel.
+     *
+     * @return true
+     * @see FileBatchJob#isParallelizable()
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * Finishing the job requires nothing particular.
      *
@@ -101,6 +101,20 @@ public abstract class FileBatchJob implements Serializable {
      */
     public abstract void finish(OutputStream os);
 
+    /**
+     * Tell whether this job allows several files to be processed at the same time. If true, processFile() may be
+     * called concurrently from several threads, each with its own OutputStream, and the output of the files may be
+     * concatenated in another order than the files were given in. initialize() and finish() are still called once
+     * with the OutputStream for the entire result.
+     * <p>
+     * Override this to return true in jobs where processFile() is thread-safe.
+     *
+     * @return true if the files may be processed in parallel. false by default.
+     */
+    public boolean isParallelizable() {
+        return false;
+    }
+
     /**
      * Mark the job to process only the specified files. This will override any previous setting of which files to
      * process.
@@ -215,7 +229,7 @@ public abstract class FileBatchJob implements Serializable {
      * offset could not be found.
      * @param e The exception thrown. This exception must be serializable.
      */
-    protected void addException(File currentFile, long currentOffset, long outputOffset, Exception e) {
+    protected synchronized void addException(File currentFile, long currentOffset, long outputOffset, Exception e) {
         if (!maxExceptionsReached()) {
             exceptions.add(new ExceptionOccurrence(currentFile, currentOffset, outputOffset, e));
         } else {
@@ -234,7 +248,7 @@ public abstract class FileBatchJob implements Serializable {
      * offset could not be found.
      * @param e The exception thrown. This exception must be serializable.
      */
-    protected void addInitializeException(long outputOffset, Exception e) {
+    protected synchronized void addInitializeException(long outputOffset, Exception e) {
         if (!maxExceptionsReached()) {
             exceptions.add(new ExceptionOccurrence(true, outputOffset, e));
         } else {
@@ -250,7 +264,7 @@ public abstract class FileBatchJob implements Serializable {
      * offset could not be found.
      * @param e The exception thrown. This exception must be serializable.
      */
-    protected void addFinishException(long outputOffset, Exception e) {
+    protected synchronized void addFinishException(long outputOffset, Exception e) {
         if (!maxExceptionsReached()) {
             exceptions.add(new ExceptionOccurrence(false, outputOffset, e));
         } else {
@@ -279,7 +293,7 @@ public abstract class FileBatchJob implements Serializable {
      *
      * @return True if the maximum number of exceptions (MAX_EXCEPTIONS) has been recorded already.
      */
-    protected boolean maxExceptionsReached() {
+    protected synchronized boolean maxExceptionsReached() {
         return exceptions.size() >= ExceptionOccurrence.MAX_EXCEPTIONS;
     }
 
@@ -178,6 +178,16 @@ public class LoadableFileBatchJob extends FileBatchJob {
         return loadedJob.processFile(file, os);
     }
 
+    /**
+     * The loaded job decides whether its files may be processed in parallel.
+     *
+     * @return true if the job has been initialized, and the loaded job may process files in parallel.
+     */
+    @Override
+    public boolean isParallelizable() {
+        return loadedJob != null && loadedJob.isParallelizable();
+    }
+
     /**
      * Finish up the job. This is called after the last process() call.
      *
@@ -179,6 +179,16 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
         printFields(fieldsread, os);
     }
 
+    /**
+     * The records of each file are extracted independently of other files, so the files may be processed in parallel.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * End of the batch job.
      *
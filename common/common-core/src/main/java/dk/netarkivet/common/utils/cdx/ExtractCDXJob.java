@@ -143,6 +143,16 @@ public class ExtractCDXJob extends ARCBatchJob {
         printFields(fieldsread, os);
     }
 
+    /**
+     * The records of each file are extracted independently of other files, so the files may be processed in parallel.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * End of the batch job.
      *
@@ -0,0 +1,376 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.common.utils.cdx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * A sorted CDX file mapped into memory, with a sparse index of line offsets for fast prefix lookups.
+ * <p>
+ * The file is mapped in regions of at most {@link #REGION_SIZE} bytes, so files larger than 2GB are supported. When
+ * the file is opened, the start of the first line in each block of {@link #BLOCK_SIZE} bytes is recorded. A lookup
+ * does a binary search over these block starts and then scans at most one block, comparing the prefix directly with
+ * the mapped bytes. Only the lines that are actually returned are decoded into Strings.
+ * <p>
+ * Lines are decoded as ISO-8859-1 and are terminated by '\n', '\r' or "\r\n", which gives the same lines and the same
+ * ordering as {@link RandomAccessFile#readLine()} used to.
+ * <p>
+ * Instances are cached per file and reused as long as the modification time and length of the file are unchanged.
+ */
+public class MappedCDXFile {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(MappedCDXFile.class);
+
+    /** The approximate number of bytes between two entries in the block index. */
+    static final int BLOCK_SIZE = 8192;
+
+    /** The number of bits used for addressing inside one mapped region. */
+    private static final int REGION_BITS = 30;
+
+    /** The maximum size of a single mapped region. */
+    static final long REGION_SIZE = 1L << REGION_BITS;
+
+    /** The mask giving the position inside a region. */
+    private static final long REGION_MASK = REGION_SIZE - 1;
+
+    /** The maximum number of mapped files kept in the cache. */
+    private static final int MAX_CACHED_FILES = 64;
+
+    /** The mapped files, most recently used last. Access must be synchronized on the map. */
+    private static final Map<File, MappedCDXFile> cache = new LinkedHashMap<File, MappedCDXFile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, MappedCDXFile> eldest) {
+            return size() > MAX_CACHED_FILES;
+        }
+    };
+
+    /** The modification time of the file when it was mapped. */
+    private final long lastModified;
+
+    /** The length of the file when it was mapped. */
+    private final long length;
+
+    /** The mapped regions of the file, each REGION_SIZE long except maybe the last. */
+    private final MappedByteBuffer[] regions;
+
+    /** The offsets of the first line starting in each block, in increasing order. The first entry is always 0. */
+    private final long[] blockStarts;
+
+    /**
+     * Map the given file and build its block index.
+     *
+     * @param file A sorted CDX file.
+     * @throws IOFailure If the file cannot be read.
+     */
+    private MappedCDXFile(File file) {
+        this.lastModified = file.lastModified();
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                length = channel.size();
+                regions = new MappedByteBuffer[(int) ((length + REGION_SIZE - 1) >>> REGION_BITS)];
+                for (int i = 0; i < regions.length; i++) {
+                    long start = i * REGION_SIZE;
+                    regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, length - start));
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            String message = "IOException mapping file '" + file + "'";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        }
+        blockStarts = buildBlockIndex();
+        log.debug("Mapped CDX file '{}' of {} bytes with {} index entries", file, length, blockStarts.length);
+    }
+
+    /**
+     * Get the mapped version of a sorted CDX file. A previously mapped instance is reused if the file has not changed
+     * since it was mapped.
+     *
+     * @param file A sorted CDX file.
+     * @return The mapped file.
+     * @throws ArgumentNotValid If file is null.
+     * @throws IOFailure If the file cannot be read.
+     */
+    public static MappedCDXFile getInstance(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        File key = file.getAbsoluteFile();
+        synchronized (cache) {
+            MappedCDXFile mapped = cache.get(key);
+            if (mapped == null || mapped.lastModified != key.lastModified() || mapped.length != key.length()) {
+                mapped = new MappedCDXFile(key);
+                cache.put(key, mapped);
+            }
+            return mapped;
+        }
+    }
+
+    /**
+     * Return an iterable that will return the lines in the file that start with the given prefix, in order.
+     * <p>
+     * If no matches are found, it will still return an iterable with no entries.
+     *
+     * @param prefix The line prefix to search for.
+     * @return An Iterable object that will return the lines matching the prefix in the file.
+     * @throws ArgumentNotValid If prefix is null.
+     */
+    public Iterable<String> getLinesWithPrefix(final String prefix) {
+        ArgumentNotValid.checkNotNull(prefix, "String prefix");
+        final long firstMatching = findFirstLine(prefix);
+        if (firstMatching == -1) {
+            return Collections.emptyList();
+        }
+        return new Iterable<String>() {
+            public Iterator<String> iterator() {
+                return new PrefixIterator(firstMatching, prefix);
+            }
+        };
+    }
+
+    /**
+     * Find the first line in the file that starts with the given prefix.
+     *
+     * @param prefix The prefix to look for.
+     * @return The offset of the first line matching the prefix, or -1 if no line matches.
+     */
+    long findFirstLine(String prefix) {
+        // Find the last block whose first line is before the prefix. All lines
+        // before that block are then also before the prefix, and the first line
+        // of the next block is not before the prefix.
+        int low = 0;
+        int high = blockStarts.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compare(blockStarts[mid], prefix) < 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long pos = block == -1 ? 0 : blockStarts[block];
+        while (pos < length) {
+            int cmp = compare(pos, prefix);
+            if (cmp == 0) {
+                return pos;
+            }
+            if (cmp > 0) {
+                return -1;
+            }
+            pos = nextLineStart(pos);
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the line starting at the given position with a prefix. The result is equivalent to comparing the line,
+     * cut to the length of the prefix, with the prefix using String.compareTo.
+     *
+     * @param lineStart The position of the start of a line.
+     * @param prefix The prefix to compare with.
+     * @return A negative number, zero or a positive number if the line is before, starts with, or is after the prefix.
+     */
+    private int compare(long lineStart, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            long pos = lineStart + i;
+            if (pos >= length) {
+                return -1;
+            }
+            int b = byteAt(pos);
+            if (b == '\n' || b == '\r') {
+                return -1;
+            }
+            int cmp = b - prefix.charAt(i);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Find the start of the line following the given position. Note that if the position is at the start of a line, the
+     * start of the next line is returned.
+     *
+     * @param pos A position in the file.
+     * @return The start of the next line, or the length of the file if there is no next line.
+     */
+    long nextLineStart(long pos) {
+        long end = lineEnd(pos);
+        if (end < length && byteAt(end) == '\r') {
+            end++;
+            if (end < length && byteAt(end) == '\n') {
+                end++;
+            }
+            return end;
+        }
+        return Math.min(end + 1, length);
+    }
+
+    /**
+     * Find the end of the line containing the given position.
+     *
+     * @param pos A position in the file.
+     * @return The position of the line terminator, or the length of the file if the line is not terminated.
+     */
+    private long lineEnd(long pos) {
+        while (pos < length) {
+            int b = byteAt(pos);
+            if (b == '\n' || b == '\r') {
+                return pos;
+            }
+            pos++;
+        }
+        return length;
+    }
+
+    /**
+     * Read the line starting at the given position.
+     *
+     * @param lineStart The position of the start of a line.
+     * @return The line without its terminator.
+     */
+    private String readLine(long lineStart) {
+        long end = lineEnd(lineStart);
+        byte[] bytes = new byte[(int) (end - lineStart)];
+        int region = (int) (lineStart >>> REGION_BITS);
+        if (region == (int) ((end - 1) >>> REGION_BITS) || bytes.length == 0) {
+            ByteBuffer buffer = regions[region].duplicate();
+            buffer.position((int) (lineStart & REGION_MASK));
+            buffer.get(bytes);
+        } else {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) byteAt(lineStart + i);
+            }
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Read a single byte from the mapped file.
+     *
+     * @param pos The position to read. Must be less than the length of the file.
+     * @return The byte at that position, as an unsigned value.
+     */
+    private int byteAt(long pos) {
+        return regions[(int) (pos >>> REGION_BITS)].get((int) (pos & REGION_MASK)) & 0xff;
+    }
+
+    /**
+     * Record the start of the first line in each block of the file.
+     *
+     * @return The offsets of the first line in each block.
+     */
+    private long[] buildBlockIndex() {
+        long[] starts = new long[(int) (length / BLOCK_SIZE) + 1];
+        int count = 1;
+        for (long blockStart = BLOCK_SIZE; blockStart < length; blockStart += BLOCK_SIZE) {
+            long lineStart = nextLineStart(blockStart - 1);
+            if (lineStart < length && lineStart > starts[count - 1]) {
+                starts[count++] = lineStart;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * An iterator that returns lines from a start position until a line no longer matches the prefix.
+     */
+    private class PrefixIterator implements Iterator<String> {
+        /** The prefix of all lines we return. */
+        private final String prefix;
+        /** The start of the next line to check, or -1 when finished. */
+        private long pos;
+
+        /**
+         * Construct an iterator starting at the given line.
+         *
+         * @param pos The start of the first line to return. This line must match the prefix.
+         * @param prefix The prefix of all lines that will be returned.
+         */
+        PrefixIterator(long pos, String prefix) {
+            this.pos = pos;
+            this.prefix = prefix;
+        }
+
+        /**
+         * Check whether there is a next element.
+         *
+         * @return True if there is a next element to be had.
+         */
+        public boolean hasNext() {
+            if (pos != -1 && (pos >= length || compare(pos, prefix) != 0)) {
+                pos = -1;
+            }
+            return pos != -1;
+        }
+
+        /**
+         * Return the next element, if any.
+         *
+         * @return Next element.
+         */
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = readLine(pos);
+            pos = nextLineStart(pos);
+            return line;
+        }
+
+        /**
+         * This iterator doesn't support remove.
+         *
+         * @throws UnsupportedOperationException
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -184,6 +184,16 @@ public class WARCExtractCDXJob extends WARCBatchJob {
         printFields(fieldsread, os);
     }
 
+    /**
+     * The records of each file are extracted independently of other files, so the files may be processed in parallel.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * End of the batch job.
      *
@@ -116,7 +116,7 @@ public class GetMetadataMapper extends Mapper<LongWritable, Text, NullWritable,
         int lineCount = 0;
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(record.getInputStream()))) {
             for (String metadataLine = reader.readLine(); metadataLine != null; metadataLine = reader.readLine()) {
-                context.write(NullWritable.get(), new Text(metadataLine));
+                writeMetadataLine(path, new Text(metadataLine), context);
                 lineCount++;
             }
             log.info("Mapper written {} lines to output.", lineCount);
@@ -124,4 +124,18 @@ public class GetMetadataMapper extends Mapper<LongWritable, Text, NullWritable,
             log.warn("Failed writing metadata line #{} for input file '{}'.", lineCount, path.toString());
         }
     }
+
+    /**
+     * Writes a single metadata line to output. Subclasses may override this to direct the line elsewhere.
+     *
+     * @param path Path for the input file the line was found in.
+     * @param metadataLine The metadata line.
+     * @param context The mapping context.
+     * @throws IOException If the line cannot be written.
+     * @throws InterruptedException If interrupted while writing the line.
+     */
+    protected void writeMetadataLine(Path path, Text metadataLine, Context context)
+            throws IOException, InterruptedException {
+        context.write(NullWritable.get(), metadataLine);
+    }
 }
@@ -0,0 +1,78 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hadoop Mapper for extracting metadata entries from the metadata files of several harvest jobs at a time. The lines
+ * found are written to a subdirectory of the job output directory named by the harvest job ID of the file they were
+ * found in, so the output of each harvest job can be read separately.
+ * <p>
+ * The harvest job ID of a file is the first group of the pattern {@link #JOB_ID_PATTERN} matching the name of the file.
+ * Lines from files whose names do not match the pattern are skipped.
+ */
+public class GetMetadataPerJobMapper extends GetMetadataMapper {
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(GetMetadataPerJobMapper.class);
+
+    public static final String JOB_ID_PATTERN = "jobid.pattern";
+    /** The base name of the output files in the directory of each harvest job. */
+    public static final String OUTPUT_BASE_NAME = "part";
+
+    /** The pattern for finding the harvest job ID in a filename. */
+    private Pattern jobIdMatcher;
+    /** The writer of the output of each harvest job. */
+    private MultipleOutputs<NullWritable, Text> outputs;
+    /** The name of the file the last line was found in. */
+    private String lastFilename;
+    /** The base output path for the file the last line was found in, or null if it has no harvest job ID. */
+    private String lastBaseOutputPath;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        super.setup(context);
+        String jobIdPattern = context.getConfiguration().get(JOB_ID_PATTERN);
+        if (jobIdPattern == null) {
+            throw new IOException("No pattern for finding harvest job IDs given as '" + JOB_ID_PATTERN + "'");
+        }
+        jobIdMatcher = Pattern.compile(jobIdPattern);
+        outputs = new MultipleOutputs<NullWritable, Text>(context);
+        log.info("Setting up mapper for harvest job IDs matching {}.", jobIdMatcher);
+    }
+
+    @Override
+    protected void writeMetadataLine(Path path, Text metadataLine, Context context)
+            throws IOException, InterruptedException {
+        String filename = path.getName();
+        if (!filename.equals(lastFilename)) {
+            lastFilename = filename;
+            Matcher m = jobIdMatcher.matcher(filename);
+            if (m.matches() && m.groupCount() >= 1) {
+                lastBaseOutputPath = m.group(1) + Path.SEPARATOR + OUTPUT_BASE_NAME;
+            } else {
+                log.warn("No harvest job ID found in filename '{}' by '{}'. Skipping its lines.", filename,
+                        jobIdMatcher);
+                lastBaseOutputPath = null;
+            }
+        }
+        if (lastBaseOutputPath != null) {
+            outputs.write(NullWritable.get(), metadataLine, lastBaseOutputPath);
+        }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (outputs != null) {
+            outputs.close();
+        }
+        super.cleanup(context);
+    }
+}
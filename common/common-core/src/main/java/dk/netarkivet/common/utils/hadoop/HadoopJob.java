@@ -82,7 +82,8 @@ public class HadoopJob {
         log.info("{} found {} file(s) matching pattern '{}' to add to input file for {} job {}",
                 fileResolver.getClass().getName(), fileCount, filenamePattern, jobType, jobID);
         try {
-            HadoopJobUtils.writeHadoopInputFileLinesToInputFile(filePaths, localInputTempFile);
+            boolean includeSizes = fileSystem.getConf().getLong(SizeBalancedInputFormat.BYTES_PER_SPLIT, 0) > 0;
+            HadoopJobUtils.writeHadoopInputFileLinesToInputFile(filePaths, localInputTempFile, includeSizes);
         } catch (IOException e) {
             log.error("Failed writing filepaths to '{}' for {} job '{}'",
                     localInputTempFile, jobType, jobID);
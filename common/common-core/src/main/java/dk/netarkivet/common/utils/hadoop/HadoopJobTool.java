@@ -4,21 +4,50 @@ import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
 import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.InputSampler;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
 import org.apache.hadoop.util.Tool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A simple generic Hadoop map-only tool that runs a given mapper on the passed input file
- * containing new-line separated file paths and outputs the job's resulting files in the passed output path
+ * containing new-line separated file paths and outputs the job's resulting files in the passed output path.
+ * <p>
+ * If {@link SizeBalancedInputFormat#BYTES_PER_SPLIT} is set in the configuration, each map task gets files of about
+ * that many bytes in total. Otherwise each map task gets five files.
+ * <p>
+ * If {@link #SORTED_OUTPUT} is set in the configuration, the output of the mapper is sorted afterwards by a second
+ * job with {@link #SORT_REDUCERS} reducers and a total order partitioner, so the output files are each sorted, and
+ * follow each other in order of their names.
  */
 public class HadoopJobTool extends Configured implements Tool {
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(HadoopJobTool.class);
+
+    /** The configuration key for sorting the output lines. */
+    public static final String SORTED_OUTPUT = "netarchivesuite.sorted.output";
+    /** The configuration key for the number of reducers sorting the output lines. The default is 1. */
+    public static final String SORT_REDUCERS = "netarchivesuite.sort.reducers";
+
+    /** The number of files each map task gets, if not splitting by size. */
+    private static final int LINES_PER_SPLIT = 5;
+
     private Mapper<LongWritable, Text, NullWritable, Text> mapper;
 
     public HadoopJobTool(Configuration conf, Mapper<LongWritable, Text, NullWritable, Text> mapper) {
@@ -37,26 +66,140 @@ public class HadoopJobTool extends Configured implements Tool {
         Path inputPath = new Path(args[0]);
         Path outputPath = new Path(args[1]);
         Configuration conf = getConf();
+        boolean sorted = conf.getBoolean(SORTED_OUTPUT, false);
+        Path mapOutputPath = sorted ? new Path(outputPath.getParent(), outputPath.getName() + "-unsorted")
+                : outputPath;
         Job job = Job.getInstance(conf);
         job.setJobName("HadoopJob using " + mapper.getClass().getSimpleName());
 
         //job.setJarByClass(this.getClass());
-        job.setInputFormatClass(NLineInputFormat.class);
+        long bytesPerSplit = conf.getLong(SizeBalancedInputFormat.BYTES_PER_SPLIT, 0);
+        if (bytesPerSplit > 0) {
+            job.setInputFormatClass(SizeBalancedInputFormat.class);
+        } else {
+            job.setInputFormatClass(NLineInputFormat.class);
+            // How many files should each node process at a time (how many lines are read from the input file)
+            NLineInputFormat.setNumLinesPerSplit(job, LINES_PER_SPLIT);
+        }
         job.setOutputFormatClass(TextOutputFormat.class);
         NLineInputFormat.addInputPath(job, inputPath);
-        TextOutputFormat.setOutputPath(job, outputPath);
+        TextOutputFormat.setOutputPath(job, mapOutputPath);
         job.setMapperClass(mapper.getClass());
         job.setNumReduceTasks(0); // Ensure job is map-only
 
-        // How many files should each node process at a time (how many lines are read from the input file)
-        NLineInputFormat.setNumLinesPerSplit(job, 5);
-
         // In- and output types
         job.setMapOutputKeyClass(NullWritable.class);
         job.setMapOutputValueClass(Text.class);
         job.setOutputKeyClass(NullWritable.class);
         job.setOutputValueClass(Text.class);
 
-        return job.waitForCompletion(true) ? 0 : 1;
+        if (!job.waitForCompletion(true)) {
+            return 1;
+        }
+        if (!sorted) {
+            return 0;
+        }
+        try {
+            return sortLines(conf, mapOutputPath, outputPath, job.getJobName()) ? 0 : 1;
+        } finally {
+            FileSystem fs = mapOutputPath.getFileSystem(conf);
+            fs.delete(mapOutputPath, true);
+        }
+    }
+
+    /**
+     * Sort the lines of the output files of a job.
+     *
+     * @param conf The configuration.
+     * @param inputPath The output directory of the job whose lines are sorted.
+     * @param outputPath The directory to write the sorted lines to.
+     * @param jobName The name of the job whose lines are sorted.
+     * @return True if the lines were sorted.
+     * @throws InterruptedException If interrupted while waiting for the job to complete.
+     * @throws IOException If the job cannot be set up or run.
+     * @throws ClassNotFoundException If a class of the job cannot be found.
+     */
+    private static boolean sortLines(Configuration conf, Path inputPath, Path outputPath, String jobName)
+            throws InterruptedException, IOException, ClassNotFoundException {
+        Job job = Job.getInstance(conf);
+        job.setJobName("Sorting output of " + jobName);
+        job.setInputFormatClass(LineKeyInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+        LineKeyInputFormat.addInputPath(job, inputPath);
+        TextOutputFormat.setOutputPath(job, outputPath);
+        // The lines are sorted as keys on their way from the identity mapper to the reducers
+        job.setMapperClass(Mapper.class);
+        job.setReducerClass(LineReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(NullWritable.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+
+        int reducers = Math.max(1, conf.getInt(SORT_REDUCERS, 1));
+        job.setNumReduceTasks(reducers);
+        if (reducers > 1) {
+            Path partitionFile = new Path(outputPath.getParent(), outputPath.getName() + "-partitions");
+            TotalOrderPartitioner.setPartitionFile(job.getConfiguration(), partitionFile);
+            InputSampler.writePartitionFile(job, new InputSampler.RandomSampler<Text, NullWritable>(1.0, 10000, 10));
+            job.setPartitionerClass(TotalOrderPartitioner.class);
+            log.info("Sorting output of '{}' with {} reducers partitioned by '{}'", jobName, reducers, partitionFile);
+            try {
+                return job.waitForCompletion(true);
+            } finally {
+                partitionFile.getFileSystem(conf).delete(partitionFile, false);
+            }
+        }
+        return job.waitForCompletion(true);
+    }
+
+    /** Input format reading each line of the input files as a key without a value. */
+    public static class LineKeyInputFormat extends FileInputFormat<Text, NullWritable> {
+        @Override
+        public RecordReader<Text, NullWritable> createRecordReader(InputSplit split, TaskAttemptContext context) {
+            return new RecordReader<Text, NullWritable>() {
+                private final LineRecordReader lines = new LineRecordReader();
+
+                @Override
+                public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+                    lines.initialize(split, context);
+                }
+
+                @Override
+                public boolean nextKeyValue() throws IOException {
+                    return lines.nextKeyValue();
+                }
+
+                @Override
+                public Text getCurrentKey() {
+                    return lines.getCurrentValue();
+                }
+
+                @Override
+                public NullWritable getCurrentValue() {
+                    return NullWritable.get();
+                }
+
+                @Override
+                public float getProgress() throws IOException {
+                    return lines.getProgress();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    lines.close();
+                }
+            };
+        }
+    }
+
+    /** Reducer writing each line as often as it was found, in the order of the keys. */
+    public static class LineReducer extends Reducer<Text, NullWritable, NullWritable, Text> {
+        @Override
+        protected void reduce(Text line, Iterable<NullWritable> occurrences, Context context)
+                throws IOException, InterruptedException {
+            for (NullWritable occurrence : occurrences) {
+                context.write(NullWritable.get(), line);
+            }
+        }
     }
 }
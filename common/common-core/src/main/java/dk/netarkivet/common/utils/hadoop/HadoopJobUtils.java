@@ -1,21 +1,24 @@
 package dk.netarkivet.common.utils.hadoop;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.MRConfig;
 import org.apache.hadoop.security.UserGroupInformation;
@@ -24,6 +27,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.FilterIterator;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.cdx.CDXRecord;
 import sun.security.krb5.KrbException;
@@ -36,6 +40,9 @@ public class HadoopJobUtils {
     public static final String MAPREDUCE_FRAMEWORK = "mapreduce.framework.name";
     public static final String YARN_RESOURCEMANAGER_ADDRESS = "yarn.resourcemanager.address";
 
+    /** The size of the buffer used when copying job output. */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
     /** Utility class, do not initialise. */
     private HadoopJobUtils() {
     }
@@ -85,6 +92,7 @@ public class HadoopJobUtils {
             throw new RuntimeException("Jar file " + jarPath + " does not exist.");
         }
         conf.set("mapreduce.job.jar", jarPath);
+        conf.setLong(SizeBalancedInputFormat.BYTES_PER_SPLIT, Settings.getLong(CommonSettings.HADOOP_MAPRED_BYTES_PER_TASK));
         return conf;
     }
 
@@ -97,18 +105,38 @@ public class HadoopJobUtils {
      */
     public static void writeHadoopInputFileLinesToInputFile(List<java.nio.file.Path> files,
             java.nio.file.Path inputFilePath) throws IOException {
+        writeHadoopInputFileLinesToInputFile(files, inputFilePath, false);
+    }
+
+    /**
+     * Given a list of file paths prepend 'file://' to every entry and write them as newline
+     * separated lines to the given input file path, optionally followed by the size of the file for
+     * {@link SizeBalancedInputFormat} to split the input by.
+     * @param files A list of input file paths to operate on
+     * @param inputFilePath The path of the file to write the lines to
+     * @param includeSizes Whether to write the size of each file after its path
+     * @throws IOException If the input file path cannot be written to
+     */
+    public static void writeHadoopInputFileLinesToInputFile(List<java.nio.file.Path> files,
+            java.nio.file.Path inputFilePath, boolean includeSizes) throws IOException {
         if (files.size() == 0) {
             log.warn("No file paths to add. Input file will be empty.");
             return;
         }
-        java.nio.file.Path lastElem = files.get(files.size() - 1);
-        for (java.nio.file.Path file : files) {
-            String inputLine = "file://" + file.toString() + "\n";
-            if (file.equals(lastElem)) {
+        try (BufferedWriter writer = Files.newBufferedWriter(inputFilePath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (int i = 0; i < files.size(); i++) {
+                java.nio.file.Path file = files.get(i);
+                writer.write("file://" + file.toString());
+                if (includeSizes) {
+                    writer.write(SizeBalancedInputFormat.SIZE_SEPARATOR);
+                    writer.write(Long.toString(file.toFile().length()));
+                }
                 // Not writing newline on last line to avoid a mapper being spawned on no input
-                inputLine = "file://" + file.toString();
+                if (i < files.size() - 1) {
+                    writer.write('\n');
+                }
             }
-            Files.write(inputFilePath, inputLine.getBytes(), StandardOpenOption.APPEND);
         }
     }
 
@@ -122,17 +150,9 @@ public class HadoopJobUtils {
      */
     public static List<String> collectOutputLines(FileSystem fileSystem, Path outputFolder) throws IOException {
         List<String> resultLines = new ArrayList<>();
-        RemoteIterator<LocatedFileStatus> iterator = fileSystem.listFiles(outputFolder, false);
-        while (iterator.hasNext()) {
-            Path subPath = iterator.next().getPath();
-            if (subPath.getName().startsWith("part-m")) {
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(
-                        fileSystem.open(subPath))))) {
-                    String line;
-                    while ((line = in.readLine()) != null) {
-                        resultLines.add(line);
-                    }
-                }
+        try (HadoopOutputLines lines = HadoopOutputLines.concatenated(fileSystem, outputFolder)) {
+            while (lines.hasNext()) {
+                resultLines.add(lines.next());
             }
         }
         // Clean up once output has been collected
@@ -140,6 +160,65 @@ public class HadoopJobUtils {
         return resultLines;
     }
 
+    /**
+     * Copies the contents of a job's output files at a specified path to a local file, without holding the output in
+     * memory. The output folder is left in place.
+     * @param fileSystem The filesystem that the result is copied from.
+     * @param outputFolder The output folder to find the job result files in.
+     * @param destination The local file to write the output to. It is overwritten if it exists.
+     * @return The number of bytes copied.
+     * @throws IOException If the output folder or its contents cannot be read, or the destination cannot be written.
+     */
+    public static long copyOutputToFile(FileSystem fileSystem, Path outputFolder, File destination)
+            throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(destination))) {
+            return copyOutput(fileSystem, outputFolder, out);
+        }
+    }
+
+    /**
+     * Copies the contents of a job's output files at a specified path to a stream, one file after the other, without
+     * holding the output in memory. The output folder is left in place, and the stream is not closed.
+     * @param fileSystem The filesystem that the result is copied from.
+     * @param outputFolder The output folder to find the job result files in.
+     * @param out The stream to write the output to.
+     * @return The number of bytes copied.
+     * @throws IOException If the output folder or its contents cannot be read, or the stream cannot be written.
+     */
+    public static long copyOutput(FileSystem fileSystem, Path outputFolder, OutputStream out) throws IOException {
+        long bytes = 0;
+        for (Path part : HadoopOutputLines.listPartFiles(fileSystem, outputFolder)) {
+            try (InputStream in = fileSystem.open(part)) {
+                IOUtils.copyBytes(in, out, COPY_BUFFER_SIZE, false);
+            }
+            bytes += fileSystem.getFileStatus(part).getLen();
+        }
+        return bytes;
+    }
+
+    /**
+     * Converts CDX lines to CDXRecords as they are read, e.g. from {@link HadoopOutputLines}.
+     * @param cdxLines The lines to convert
+     * @return An iterator over CDXRecords representing the lines
+     */
+    public static Iterator<CDXRecord> getCDXRecords(Iterator<String> cdxLines) {
+        return new FilterIterator<String, CDXRecord>(cdxLines) {
+            @Override
+            protected CDXRecord filter(String line) {
+                return getCDXRecordFromCDXLine(line);
+            }
+        };
+    }
+
+    /**
+     * Converts a CDX line string to a CDXRecord
+     * @param cdxLine The line to convert
+     * @return A CDXRecord representing the line
+     */
+    public static CDXRecord getCDXRecordFromCDXLine(String cdxLine) {
+        return new CDXRecord(cdxLine.split("\\s+"));
+    }
+
     /**
      * Converts a list of CDX line strings to a list of CDXRecords
      * @param cdxLines The list to convert
@@ -148,9 +227,7 @@ public class HadoopJobUtils {
     public static List<CDXRecord> getCDXRecordListFromCDXLines(List<String> cdxLines) {
         List<CDXRecord> recordsForJob = new ArrayList<>();
         for (String line : cdxLines) {
-            String[] parts = line.split("\\s+");
-            CDXRecord record = new CDXRecord(parts);
-            recordsForJob.add(record);
+            recordsForJob.add(getCDXRecordFromCDXLine(line));
         }
         return recordsForJob;
     }
@@ -0,0 +1,247 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Iterator reading the lines of a job's output files lazily, so the output never has to be held in memory. Either the
+ * files are read one after the other in name order, or, if each file is sorted, they are merged on the fly into one
+ * sorted sequence of lines. The iterator must be closed after use.
+ */
+public class HadoopOutputLines implements Iterator<String>, Closeable {
+
+    /** The prefix of the names of the output files of a job, from mappers or reducers. */
+    public static final String PART_FILE_PREFIX = "part-";
+
+    /** The filesystem the output is read from. */
+    private final FileSystem fileSystem;
+    /** The output files not yet opened, when reading the files one after the other. */
+    private final Iterator<Path> unread;
+    /** The comparator of lines, or null if the files are read one after the other. */
+    private final Comparator<String> comparator;
+    /** The readers of the open files, ordered by their next line when merging. */
+    private final PriorityQueue<PartReader> open;
+    /** The reader of the open file, when reading the files one after the other. */
+    private PartReader current;
+
+    /**
+     * Create an iterator over the lines of a job's output files.
+     *
+     * @param fileSystem The filesystem that the output is read from.
+     * @param outputFolder The output folder to find the job result files in.
+     * @param comparator The order of the lines in each output file, which are then merged in that order, or null to
+     * read the files one after the other.
+     * @throws IOException If the output folder or its contents cannot be read.
+     */
+    private HadoopOutputLines(FileSystem fileSystem, Path outputFolder, Comparator<String> comparator)
+            throws IOException {
+        this.fileSystem = fileSystem;
+        this.comparator = comparator;
+        List<Path> parts = listPartFiles(fileSystem, outputFolder);
+        if (comparator == null) {
+            unread = parts.iterator();
+            open = null;
+        } else {
+            unread = Collections.<Path> emptyList().iterator();
+            open = new PriorityQueue<PartReader>(Math.max(1, parts.size()), new Comparator<PartReader>() {
+                @Override
+                public int compare(PartReader r1, PartReader r2) {
+                    return HadoopOutputLines.this.comparator.compare(r1.line, r2.line);
+                }
+            });
+            try {
+                for (Path part : parts) {
+                    PartReader reader = new PartReader(part);
+                    if (reader.advance()) {
+                        open.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Read the lines of a job's output files one after the other.
+     *
+     * @param fileSystem The filesystem that the output is read from.
+     * @param outputFolder The output folder to find the job result files in.
+     * @return An iterator over the lines, which must be closed after use.
+     * @throws IOException If the output folder cannot be read.
+     */
+    public static HadoopOutputLines concatenated(FileSystem fileSystem, Path outputFolder) throws IOException {
+        return new HadoopOutputLines(fileSystem, outputFolder, null);
+    }
+
+    /**
+     * Read the lines of a job's output files, each of which is sorted, merged into one sorted sequence.
+     *
+     * @param fileSystem The filesystem that the output is read from.
+     * @param outputFolder The output folder to find the job result files in.
+     * @param comparator The order of the lines in each output file.
+     * @return An iterator over the lines in sorted order, which must be closed after use.
+     * @throws IOException If the output folder or its contents cannot be read.
+     */
+    public static HadoopOutputLines merged(FileSystem fileSystem, Path outputFolder, Comparator<String> comparator)
+            throws IOException {
+        return new HadoopOutputLines(fileSystem, outputFolder, comparator);
+    }
+
+    /**
+     * List the output files of a job.
+     *
+     * @param fileSystem The filesystem that the output is read from.
+     * @param outputFolder The output folder to find the job result files in.
+     * @return The paths of the output files in name order.
+     * @throws IOException If the output folder cannot be read.
+     */
+    static List<Path> listPartFiles(FileSystem fileSystem, Path outputFolder) throws IOException {
+        List<Path> parts = new ArrayList<Path>();
+        RemoteIterator<LocatedFileStatus> iterator = fileSystem.listFiles(outputFolder, false);
+        while (iterator.hasNext()) {
+            Path subPath = iterator.next().getPath();
+            if (subPath.getName().startsWith(PART_FILE_PREFIX)) {
+                parts.add(subPath);
+            }
+        }
+        Collections.sort(parts);
+        return parts;
+    }
+
+    /**
+     * @return True if there are more lines.
+     * @throws IOFailure If an output file cannot be read.
+     */
+    @Override
+    public boolean hasNext() {
+        if (open != null) {
+            return !open.isEmpty();
+        }
+        try {
+            while (current == null || current.line == null) {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+                if (!unread.hasNext()) {
+                    return false;
+                }
+                current = new PartReader(unread.next());
+                current.advance();
+            }
+            return true;
+        } catch (IOException e) {
+            throw new IOFailure("Failed reading job output", e);
+        }
+    }
+
+    /**
+     * @return The next line.
+     * @throws NoSuchElementException If there are no more lines.
+     * @throws IOFailure If an output file cannot be read.
+     */
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more lines in job output");
+        }
+        try {
+            if (open == null) {
+                String line = current.line;
+                current.advance();
+                return line;
+            }
+            PartReader reader = open.poll();
+            String line = reader.line;
+            if (reader.advance()) {
+                open.add(reader);
+            } else {
+                reader.close();
+            }
+            return line;
+        } catch (IOException e) {
+            throw new IOFailure("Failed reading job output", e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Cannot remove from job output");
+    }
+
+    /**
+     * Close the output files that are open.
+     */
+    @Override
+    public void close() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        if (open != null) {
+            for (PartReader reader : open) {
+                reader.close();
+            }
+            open.clear();
+        }
+    }
+
+    /** A reader of one output file and its next line. */
+    private final class PartReader {
+        /** The reader of the file. */
+        private final BufferedReader reader;
+        /** The next line of the file, or null at the end of the file. */
+        private String line;
+
+        /**
+         * Open an output file.
+         *
+         * @param part The path of the file.
+         * @throws IOException If the file cannot be opened.
+         */
+        private PartReader(Path part) throws IOException {
+            reader = new BufferedReader(new InputStreamReader(fileSystem.open(part), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Read the next line of the file.
+         *
+         * @return True if there was a next line.
+         * @throws IOException If the file cannot be read.
+         */
+        private boolean advance() throws IOException {
+            line = reader.readLine();
+            return line != null;
+        }
+
+        /** Close the file, ignoring failure. */
+        private void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // Nothing more can be read anyway
+            }
+        }
+    }
+}
@@ -6,6 +6,10 @@ import java.util.regex.Pattern;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +32,7 @@ public class MetadataExtractionStrategy implements HadoopJobStrategy {
     private final Configuration hadoopConf;
     private final Pattern urlPattern;
     private final Pattern mimePattern;
+    private final Mapper<LongWritable, Text, NullWritable, Text> mapper;
 
     /**
      * Constructor.
@@ -36,7 +41,20 @@ public class MetadataExtractionStrategy implements HadoopJobStrategy {
      * @param fileSystem The Hadoop FileSystem used.
      */
     public MetadataExtractionStrategy(long jobID, FileSystem fileSystem) {
+        this(jobID, fileSystem, new GetMetadataMapper());
+    }
+
+    /**
+     * Constructor for extracting metadata with a specific mapper, e.g. a {@link GetMetadataPerJobMapper}.
+     *
+     * @param jobID The ID for the job.
+     * @param fileSystem The Hadoop FileSystem used.
+     * @param mapper The mapper extracting the metadata.
+     */
+    public MetadataExtractionStrategy(long jobID, FileSystem fileSystem,
+            Mapper<LongWritable, Text, NullWritable, Text> mapper) {
         this.jobID = jobID;
+        this.mapper = mapper;
         this.fileSystem = fileSystem;
         hadoopConf = fileSystem.getConf();
         urlPattern = hadoopConf.getPattern(GetMetadataMapper.URL_PATTERN, Pattern.compile(".*"));
@@ -49,7 +67,7 @@ public class MetadataExtractionStrategy implements HadoopJobStrategy {
         try {
             log.info("URL/MIME patterns used for metadata extraction job {} are '{}' and '{}'",
                     jobID, urlPattern, mimePattern);
-            exitCode = ToolRunner.run(new HadoopJobTool(hadoopConf, new GetMetadataMapper()),
+            exitCode = ToolRunner.run(new HadoopJobTool(hadoopConf, mapper),
                     new String[] {jobInputFile.toString(), jobOutputDir.toString()});
         } catch (Exception e) {
             log.warn("Metadata extraction job with ID {} failed to run normally.", jobID, e);
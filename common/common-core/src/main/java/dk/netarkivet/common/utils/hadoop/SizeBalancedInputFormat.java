@@ -0,0 +1,158 @@
+package dk.netarkivet.common.utils.hadoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
+import org.apache.hadoop.util.LineReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Input format for job input files listing the paths of the files to process, one per line, which gives each map task
+ * a run of lines whose files add up to about {@link #BYTES_PER_SPLIT} bytes, instead of a fixed number of lines. Many
+ * small files thus share a task, while large files get a task of their own.
+ * <p>
+ * The size of a file is taken from the line listing it, if the path is followed by {@link #SIZE_SEPARATOR} and the
+ * size, as written by {@link HadoopJobUtils#writeHadoopInputFileLinesToInputFile(List, java.nio.file.Path, boolean)}.
+ * Otherwise the size is looked up on the filesystem of the path. The size is removed from the lines given to the
+ * mapper, so mappers see only the path.
+ */
+public class SizeBalancedInputFormat extends NLineInputFormat {
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(SizeBalancedInputFormat.class);
+
+    /** The configuration key for the number of input bytes to aim for in each split. */
+    public static final String BYTES_PER_SPLIT = "netarchivesuite.input.bytes.per.split";
+    /** The separator between the path and the size of a file in an input line. */
+    public static final char SIZE_SEPARATOR = '\t';
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        long bytesPerSplit = job.getConfiguration().getLong(BYTES_PER_SPLIT, 0);
+        if (bytesPerSplit <= 0) {
+            throw new IOException("No positive number of bytes per split given as '" + BYTES_PER_SPLIT + "'");
+        }
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+        for (FileStatus status : listStatus(job)) {
+            splits.addAll(getSplitsForFile(status, job.getConfiguration(), bytesPerSplit));
+        }
+        log.info("Made {} splits of about {} bytes each", splits.size(), bytesPerSplit);
+        return splits;
+    }
+
+    /**
+     * Split an input file into runs of lines, each listing files of at least the given number of bytes in total,
+     * except the last.
+     *
+     * @param status The status of the input file.
+     * @param conf The job configuration.
+     * @param bytesPerSplit The number of bytes to aim for in each split.
+     * @return The splits of the input file.
+     * @throws IOException If the input file cannot be read.
+     */
+    public static List<FileSplit> getSplitsForFile(FileStatus status, Configuration conf, long bytesPerSplit)
+            throws IOException {
+        List<FileSplit> splits = new ArrayList<FileSplit>();
+        Path fileName = status.getPath();
+        if (status.isDirectory()) {
+            throw new IOException("Not a file: " + fileName);
+        }
+        FileSystem fs = fileName.getFileSystem(conf);
+        FSDataInputStream in = fs.open(fileName);
+        LineReader lr = new LineReader(in, conf);
+        try {
+            Text line = new Text();
+            long begin = 0;
+            long length = 0;
+            long bytes = 0;
+            int num;
+            while ((num = lr.readLine(line)) > 0) {
+                length += num;
+                bytes += getInputFileSize(line.toString(), conf);
+                if (bytes >= bytesPerSplit) {
+                    splits.add(createFileSplit(fileName, begin, length));
+                    begin += length;
+                    length = 0;
+                    bytes = 0;
+                }
+            }
+            if (length != 0) {
+                splits.add(createFileSplit(fileName, begin, length));
+            }
+        } finally {
+            lr.close();
+        }
+        return splits;
+    }
+
+    /**
+     * Get the size of the file listed in an input line.
+     *
+     * @param line The input line.
+     * @param conf The job configuration.
+     * @return The size of the file, or 0 if it is unknown.
+     */
+    static long getInputFileSize(String line, Configuration conf) {
+        int separator = line.indexOf(SIZE_SEPARATOR);
+        if (separator >= 0) {
+            try {
+                return Long.parseLong(line.substring(separator + 1).trim());
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring malformed size in input line '{}'", line);
+            }
+        }
+        String path = getInputFilePath(line);
+        if (path.isEmpty()) {
+            return 0;
+        }
+        try {
+            Path filePath = new Path(path);
+            return filePath.getFileSystem(conf).getFileStatus(filePath).getLen();
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Unable to get the size of '{}'. Counting it as empty.", path, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Get the path of the file listed in an input line.
+     *
+     * @param line The input line.
+     * @return The path, without any size.
+     */
+    static String getInputFilePath(String line) {
+        int separator = line.indexOf(SIZE_SEPARATOR);
+        return (separator >= 0 ? line.substring(0, separator) : line).trim();
+    }
+
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit genericSplit, TaskAttemptContext context)
+            throws IOException {
+        context.setStatus(genericSplit.toString());
+        return new LineRecordReader() {
+            @Override
+            public Text getCurrentValue() {
+                Text value = super.getCurrentValue();
+                if (value != null && value.find(String.valueOf(SIZE_SEPARATOR)) >= 0) {
+                    value.set(getInputFilePath(value.toString()));
+                }
+                return value;
+            }
+        };
+    }
+}
@@ -98,6 +98,8 @@ public abstract class WARCBatchJob extends FileBatchJob {
         ArgumentNotValid.checkNotNull(warcFile, "warcFile");
         ArgumentNotValid.checkNotNull(os, "os");
         long arcFileIndex = 0;
+        // Counted per file and added when the file is done, as files may be processed in parallel
+        int recordsInFile = 0;
         boolean success = true;
         log.info("Processing WARCfile: {}", warcFile.getName());
 
@@ -130,10 +132,10 @@ public abstract class WARCBatchJob extends FileBatchJob {
                         if (!getFilter().accept(record)) {
                             continue;
                         }
-                        log.debug("Processing WARCRecord #{} in WARCfile '{}'.", noOfRecordsProcessed,
+                        log.debug("Processing WARCRecord #{} in WARCfile '{}'.", noOfRecordsProcessed + recordsInFile,
                                 warcFile.getName());
                         processRecord(record, os);
-                        ++noOfRecordsProcessed;
+                        ++recordsInFile;
                     } catch (NetarkivetException e) {
                         // Our exceptions don't stop us
                         success = false;
@@ -167,6 +169,7 @@ public abstract class WARCBatchJob extends FileBatchJob {
                     log.trace("At end of processing-loop");
                 }
             } finally {
+                addRecordsProcessed(recordsInFile);
                 try {
                     warcReader.close();
                 } catch (IOException e) { // Some IOException
@@ -234,4 +237,16 @@ public abstract class WARCBatchJob extends FileBatchJob {
         return noOfRecordsProcessed;
     }
 
+    /**
+     * Add the records processed in a file to the total. Files may be processed by several threads at a time, so the
+     * records of each file are counted on their own and added under the lock of the job.
+     *
+     * @param records The number of records processed in a file.
+     */
+    private void addRecordsProcessed(int records) {
+        synchronized (this) {
+            noOfRecordsProcessed += records;
+        }
+    }
+
 }
@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Unit tests for the ExternalSort class.
+ */
+public class ExternalSortTester {
+
+    private File tempDir;
+    private File input;
+    private File output;
+
+    @Before
+    public void setUp() {
+        tempDir = FileUtils.createUniqueTempDir(new File(System.getProperty("java.io.tmpdir")), "sorttest");
+        input = new File(tempDir, "input");
+        output = new File(tempDir, "output");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(tempDir);
+    }
+
+    /**
+     * Test that a file too large for the memory budget is sorted through several merge passes, and that the temporary
+     * run files are removed afterwards.
+     */
+    @Test
+    public void testSortWithManyRuns() {
+        List<String> lines = new ArrayList<String>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            lines.add("http://host" + random.nextInt(1000) + ".dk/" + random.nextInt() + " " + i);
+        }
+        FileUtils.writeCollectionToFile(input, lines);
+
+        // About 20 lines per run gives more than MAX_MERGE_FANIN runs.
+        new ExternalSort(ExternalSort.LEXICOGRAPHIC, 3000, 2, tempDir).sort(input, output);
+
+        Collections.sort(lines);
+        assertEquals("Should sort all lines", lines, FileUtils.readListFromFile(output));
+        assertEquals("Should leave only input and output in the temp dir", 2, tempDir.list().length);
+    }
+
+    /**
+     * Test that a file can be sorted in memory onto itself.
+     */
+    @Test
+    public void testSortInPlace() {
+        FileUtils.writeBinaryFile(input, "c\nb\r\na\n\nb".getBytes());
+        new ExternalSort(ExternalSort.LEXICOGRAPHIC, 1000000, 4, null).sort(input, input);
+        assertEquals("Should sort bytes and terminate all lines", "\na\nb\nb\nc\n",
+                new String(FileUtils.readBinaryFile(input)));
+    }
+
+    /**
+     * Test that "\r\n" line ends are read as '\n', both when sorting in memory and when merging runs, so lines ending
+     * in '\r' sort among the others. A '\r' inside a line is kept.
+     */
+    @Test
+    public void testCarriageReturns() {
+        StringBuilder crlf = new StringBuilder();
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            String line = "http://host" + (i * 7919 % 500) + ".dk/";
+            if (i % 10 == 0) {
+                line += "a\rb";
+            }
+            crlf.append(line).append("\r\n");
+            lines.add(line);
+        }
+        crlf.append("http://last.dk/\r");
+        lines.add("http://last.dk/");
+        Collections.sort(lines);
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            expected.append(line).append('\n');
+        }
+
+        FileUtils.writeBinaryFile(input, crlf.toString().getBytes());
+        new ExternalSort(ExternalSort.LEXICOGRAPHIC, 1000000, 2, tempDir).sort(input, output);
+        assertEquals("Should sort in memory without the '\\r' of the line ends", expected.toString(),
+                new String(FileUtils.readBinaryFile(output)));
+        new ExternalSort(ExternalSort.LEXICOGRAPHIC, 2000, 2, tempDir).sort(input, output);
+        assertEquals("Should merge runs without the '\\r' of the line ends", expected.toString(),
+                new String(FileUtils.readBinaryFile(output)));
+        assertEquals("Should leave only input and output in the temp dir", 2, tempDir.list().length);
+    }
+
+    /**
+     * Test that bytes are compared as unsigned values like "LANG=C sort".
+     */
+    @Test
+    public void testUnsignedOrdering() {
+        byte[] high = new byte[] {'a', (byte) 0xe6};
+        byte[] low = new byte[] {'a', 'z'};
+        assertTrue("Non-ASCII bytes should come after ASCII", ExternalSort.LEXICOGRAPHIC.compare(high, low) > 0);
+        assertTrue("A prefix should come first", ExternalSort.LEXICOGRAPHIC.compare("a".getBytes(), low) < 0);
+    }
+
+    /**
+     * Test that STRING_ORDER orders UTF-8 lines like String.compareTo, also where that differs from the byte order.
+     */
+    @Test
+    public void testStringOrdering() throws Exception {
+        List<String> lines = new ArrayList<String>(Arrays.asList("b", "\u00e6", "\uffff", "\ud83d\ude00", "\ue000x",
+                "a\u00f8", "a", "\ud83d\ude00a", "\u4e2d", ""));
+        List<byte[]> bytes = new ArrayList<byte[]>();
+        for (String line : lines) {
+            bytes.add(line.getBytes("UTF-8"));
+        }
+        Collections.sort(lines);
+        Collections.sort(bytes, ExternalSort.STRING_ORDER);
+        List<String> decoded = new ArrayList<String>();
+        for (byte[] line : bytes) {
+            decoded.add(new String(line, "UTF-8"));
+        }
+        assertEquals("Should order like String.compareTo", lines, decoded);
+        assertTrue("Surrogate pairs should come before U+E000 to U+FFFF", ExternalSort.STRING_ORDER.compare(
+                "\ud83d\ude00".getBytes("UTF-8"), "\uffff".getBytes("UTF-8")) < 0);
+    }
+
+    /**
+     * Test that a run which cannot be written gives an IOFailure, not the raw exception of the sorting task.
+     */
+    @Test(expected = IOFailure.class)
+    public void testFailingRun() {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add("line " + i);
+        }
+        FileUtils.writeCollectionToFile(input, lines);
+        new ExternalSort(ExternalSort.LEXICOGRAPHIC, 1000, 2, new File(tempDir, "missing")).sort(input, output);
+    }
+
+    /**
+     * Test that crawl log lines are sorted by the fourth field onwards like "LANG=C sort -k 4b".
+     */
+    @Test
+    public void testCrawlLogOrdering() {
+        String line1 = "2020-01-01T00:00:03.000Z   200   10 http://a.dk/ - - text/html";
+        String line2 = "2020-01-01T00:00:01.000Z 200 10    http://b.dk/ - - text/html";
+        String line3 = "2020-01-01T00:00:02.000Z 404\t10 http://b.dk/ - - text/html";
+        String line4 = "short line";
+        FileUtils.writeCollectionToFile(input, Arrays.asList(line2, line1, line3, line4));
+
+        new ExternalSort(ExternalSort.CRAWL_LOG_URL, 1000000, 1, tempDir).sort(input, output);
+
+        assertEquals("Should sort on url and break ties on the whole line", Arrays.asList(line4, line1, line2, line3),
+                FileUtils.readListFromFile(output));
+        assertEquals("Key should start after leading blanks", "http://a.dk/ - - text/html".length(),
+                line1.length() - ExternalSort.keyStart(line1.getBytes(), 4));
+    }
+
+    /**
+     * Test that an empty file gives an empty result.
+     */
+    @Test
+    public void testEmptyFile() {
+        FileUtils.writeBinaryFile(input, new byte[0]);
+        new ExternalSort(ExternalSort.LEXICOGRAPHIC, 1000, 2, tempDir).sort(input, output);
+        assertEquals("Should give an empty file", 0, output.length());
+    }
+
+    /**
+     * Test that a missing input gives an IOFailure.
+     */
+    @Test(expected = IOFailure.class)
+    public void testMissingFile() {
+        new ExternalSort(ExternalSort.LEXICOGRAPHIC, 1000, 2, tempDir).sort(new File(tempDir, "missing"), output);
+    }
+}
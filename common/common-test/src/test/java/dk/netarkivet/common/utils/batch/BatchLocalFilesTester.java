@@ -24,17 +24,32 @@ package dk.netarkivet.common.utils.batch;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.cdx.ExtractCDXJob;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
 /**
  * Unit test for BatchLocalFiles.
  */
@@ -61,8 +76,11 @@ public class BatchLocalFilesTester {
     // Output stream for batch job
     OutputStream os;
 
+    ReloadSettings rs = new ReloadSettings();
+
     @Before
     public void setUp() throws Exception {
+        rs.setUp();
         initialized = 0;
         processed = 0;
         finished = 0;
@@ -74,6 +92,11 @@ public class BatchLocalFilesTester {
         os = new ByteArrayOutputStream();
     }
 
+    @After
+    public void tearDown() {
+        rs.tearDown();
+    }
+
     /**
      * Tests ordinary, non-failing execution of a batch job.
      */
@@ -201,6 +224,249 @@ public class BatchLocalFilesTester {
         assertEquals(1, finished);
     }
 
+    /**
+     * Tests that a job allowing it is run on the files of several directories in parallel, that all files are
+     * processed, and that the output is the same each time.
+     */
+    @Test
+    public void testParallelRun() {
+        File tempDir = FileUtils.createUniqueTempDir(new File(System.getProperty("java.io.tmpdir")), "parallelbatch");
+        Settings.set(CommonSettings.BATCH_THREADS_PER_DIRECTORY, "2");
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, new File(tempDir, "commontempdir").getPath());
+        try {
+            List<File> files = new ArrayList<File>();
+            for (int dir = 0; dir < 2; dir++) {
+                File subDir = new File(tempDir, "dir" + dir);
+                subDir.mkdirs();
+                for (int i = 0; i < 5; i++) {
+                    File file = new File(subDir, "file" + dir + i);
+                    FileUtils.writeBinaryFile(file, file.getName().getBytes());
+                    files.add(file);
+                }
+            }
+            File missing = new File(new File(tempDir, "dir0"), "missing");
+            files.add(missing);
+            BatchLocalFiles parallelFiles = new BatchLocalFiles(files.toArray(new File[files.size()]));
+
+            ChecksumJob job = new ChecksumJob();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            parallelFiles.run(job, out);
+            assertEquals("Should process all files", 11, job.getNoOfFilesProcessed());
+            assertEquals("Should record the failed file", Collections.singletonList(missing),
+                    new ArrayList<File>(job.getFilesFailed()));
+            List<String> lines = new ArrayList<String>(Arrays.asList(out.toString().split("\n")));
+            assertEquals("Should have output for each file", 10, lines.size());
+            List<String> names = new ArrayList<String>();
+            for (String line : lines) {
+                names.add(ChecksumJob.parseLine(line).getKey());
+            }
+            Collections.sort(names);
+            for (int i = 0; i < 10; i++) {
+                assertEquals("Should have output for each file", files.get(i).getName(), names.get(i));
+            }
+
+            ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+            parallelFiles.run(new ChecksumJob(), out2);
+            assertEquals("Should give output in the same order", out.toString(), out2.toString());
+            assertEquals("Should remove the temporary output", 0, FileUtils.getTempDir().list().length);
+        } finally {
+            FileUtils.removeRecursively(tempDir);
+        }
+    }
+
+    /**
+     * Tests that files in several directories are processed one at a time, in the order given, unless more threads per
+     * directory are configured.
+     */
+    @Test
+    public void testSeveralDirectoriesSequentialByDefault() {
+        File tempDir = FileUtils.createUniqueTempDir(new File(System.getProperty("java.io.tmpdir")), "parallelbatch");
+        Settings.set(CommonSettings.BATCH_THREADS_PER_DIRECTORY, "1");
+        try {
+            List<File> files = new ArrayList<File>();
+            for (int i = 0; i < 6; i++) {
+                File subDir = new File(tempDir, "dir" + (i % 2));
+                subDir.mkdirs();
+                File file = new File(subDir, "file" + i);
+                FileUtils.writeBinaryFile(file, file.getName().getBytes());
+                files.add(file);
+            }
+            final List<String> threads = new ArrayList<String>();
+            ChecksumJob job = new ChecksumJob() {
+                @Override
+                public boolean processFile(File file, OutputStream os) {
+                    threads.add(Thread.currentThread().getName());
+                    return super.processFile(file, os);
+                }
+            };
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new BatchLocalFiles(files.toArray(new File[files.size()])).run(job, out);
+            assertEquals("Should process all files", 6, job.getNoOfFilesProcessed());
+            assertEquals("Should process the files on the calling thread",
+                    Collections.nCopies(6, Thread.currentThread().getName()), threads);
+            String[] lines = out.toString().split("\n");
+            assertEquals("Should have output for each file", 6, lines.length);
+            for (int i = 0; i < 6; i++) {
+                assertEquals("Should give output in the order of the files", files.get(i).getName(),
+                        ChecksumJob.parseLine(lines[i]).getKey());
+            }
+        } finally {
+            FileUtils.removeRecursively(tempDir);
+        }
+    }
+
+    /**
+     * Tests that the records processed by the workers of a parallel run are all counted.
+     */
+    @Test
+    public void testParallelRunRecordCount() {
+        File tempDir = FileUtils.createUniqueTempDir(new File(System.getProperty("java.io.tmpdir")), "parallelbatch");
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, new File(tempDir, "commontempdir").getPath());
+        try {
+            File arcFile = new File(INPUT_DIR, "fyensdk.arc");
+            List<File> files = new ArrayList<File>();
+            for (int i = 0; i < 8; i++) {
+                File subDir = new File(tempDir, "dir" + (i % 2));
+                subDir.mkdirs();
+                File file = new File(subDir, "copy" + i + ".arc");
+                FileUtils.copyFile(arcFile, file);
+                files.add(file);
+            }
+
+            Settings.set(CommonSettings.BATCH_THREADS_PER_DIRECTORY, "1");
+            ExtractCDXJob single = new ExtractCDXJob();
+            new BatchLocalFiles(new File[] {arcFile}).run(single, new ByteArrayOutputStream());
+            assertTrue("Should process some records", single.noOfRecordsProcessed() > 0);
+
+            Settings.set(CommonSettings.BATCH_THREADS_PER_DIRECTORY, "4");
+            ExtractCDXJob parallel = new ExtractCDXJob();
+            new BatchLocalFiles(files.toArray(new File[files.size()])).run(parallel, new ByteArrayOutputStream());
+            assertEquals("Should process all files", 8, parallel.getNoOfFilesProcessed());
+            assertEquals("Should count the records of all workers", 8 * single.noOfRecordsProcessed(),
+                    parallel.noOfRecordsProcessed());
+        } finally {
+            FileUtils.removeRecursively(tempDir);
+        }
+    }
+
+    /**
+     * Tests that the output offsets of exceptions recorded while processing files in parallel refer to the output of
+     * all the files, not to the temporary output of a worker.
+     */
+    @Test
+    public void testParallelRunExceptionOffsets() {
+        File tempDir = FileUtils.createUniqueTempDir(new File(System.getProperty("java.io.tmpdir")), "parallelbatch");
+        Settings.set(CommonSettings.BATCH_THREADS_PER_DIRECTORY, "3");
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, new File(tempDir, "commontempdir").getPath());
+        try {
+            List<File> files = new ArrayList<File>();
+            for (int i = 0; i < 9; i++) {
+                File file = new File(tempDir, "file" + i);
+                FileUtils.writeBinaryFile(file, file.getName().getBytes());
+                files.add(file);
+            }
+            OffsetRecordingJob job = new OffsetRecordingJob();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new BatchLocalFiles(files.toArray(new File[files.size()])).run(job, out);
+            String output = out.toString();
+            assertEquals("Should record an exception for each file", 9, job.getExceptions().size());
+            for (FileBatchJob.ExceptionOccurrence occurrence : job.getExceptions()) {
+                assertTrue("The output offset of " + occurrence + " should be where the output of its file starts",
+                        output.startsWith(occurrence.getFileName() + "\n", (int) occurrence.getOutputOffset()));
+            }
+        } finally {
+            FileUtils.removeRecursively(tempDir);
+        }
+    }
+
+    /**
+     * Tests that a failing worker makes the parallel run fail once the other workers have ended, and that the job is
+     * still finished.
+     */
+    @Test
+    public void testParallelRunWorkerFailure() {
+        File tempDir = FileUtils.createUniqueTempDir(new File(System.getProperty("java.io.tmpdir")), "parallelbatch");
+        Settings.set(CommonSettings.BATCH_THREADS_PER_DIRECTORY, "2");
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, new File(tempDir, "commontempdir").getPath());
+        try {
+            List<File> files = new ArrayList<File>();
+            for (int i = 0; i < 4; i++) {
+                File file = new File(tempDir, "file" + i);
+                FileUtils.writeBinaryFile(file, file.getName().getBytes());
+                files.add(file);
+            }
+            TestBatchJob job = new TestBatchJob() {
+                @Override
+                public boolean isParallelizable() {
+                    return true;
+                }
+
+                @Override
+                public boolean processFile(File file, OutputStream os) {
+                    super.processFile(file, os);
+                    try {
+                        // The worker fails when it writes the buffered byte to its closed temporary file
+                        os.close();
+                        os.write('x');
+                    } catch (IOException e) {
+                        throw new IOFailure("Unexpected failure", e);
+                    }
+                    return true;
+                }
+            };
+            try {
+                new BatchLocalFiles(files.toArray(new File[files.size()])).run(job, new ByteArrayOutputStream());
+                fail("Should throw the failure of a worker");
+            } catch (IOFailure e) {
+                // expected
+            }
+            assertEquals("Should finish the job", 1, finished);
+            assertEquals("Should remove the temporary output", 0, FileUtils.getTempDir().list().length);
+        } finally {
+            FileUtils.removeRecursively(tempDir);
+        }
+    }
+
+    /**
+     * A parallelizable job writing the name of each file, and recording an exception with the output offset of the
+     * name in the stream it was given.
+     */
+    private static class OffsetRecordingJob extends FileBatchJob {
+
+        /** The number of bytes written to each stream. */
+        private final Map<OutputStream, Long> written = new IdentityHashMap<OutputStream, Long>();
+
+        @Override
+        public boolean isParallelizable() {
+            return true;
+        }
+
+        @Override
+        public void initialize(OutputStream os) {
+        }
+
+        @Override
+        public boolean processFile(File file, OutputStream os) {
+            byte[] line = (file.getName() + "\n").getBytes();
+            long offset;
+            synchronized (written) {
+                offset = written.containsKey(os) ? written.get(os) : 0L;
+                written.put(os, offset + line.length);
+            }
+            addException(file, 0, offset, new Exception("Recorded for " + file.getName()));
+            try {
+                os.write(line);
+            } catch (IOException e) {
+                throw new IOFailure("Could not write output", e);
+            }
+            return true;
+        }
+
+        @Override
+        public void finish(OutputStream os) {
+        }
+    }
+
     /**
      * A very simple FileBatchJob that simply counts relevant method calls in the parents class's designated fields.
      */
@@ -27,15 +27,12 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.lang.reflect.Method;
 import java.util.List;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
 import dk.netarkivet.common.utils.IteratorUtils;
-import dk.netarkivet.testutils.ReflectUtils;
 
 /**
  * Unit test for the BinSearch class.
@@ -120,49 +117,4 @@ public class BinSearchTester {
     private static List<String> findLinesInFile(File file, String find) {
         return IteratorUtils.toList(BinSearch.getLinesInFile(file, find).iterator());
     }
-
-    /**
-     * Test that skipToLine goes to the expected place, and puts the file pointer there.
-     *
-     * @throws Exception
-     */
-    @Test
-    public void testSkipToLine() throws Exception {
-        Method m = BinSearch.class.getDeclaredMethod("skipToLine", new Class[] {RandomAccessFile.class, Long.TYPE});
-        m.setAccessible(true);
-        RandomAccessFile f = new RandomAccessFile(TestInfo.SORTED_CDX_FILE, "r");
-        // Test at start of line
-        Long l = (Long) m.invoke(null, f, 24859); // 342-line
-        assertEquals("Should have 343-line returned", 25041, l.longValue());
-        assertEquals("File should be at returned value", l.longValue(), f.getFilePointer());
-        // Test just before start of line
-        l = (Long) m.invoke(null, f, 24858);
-        assertEquals("Should have 342-line returned", 24859, l.longValue());
-        assertEquals("File should be at returned value", l.longValue(), f.getFilePointer());
-        // Test just after start of line
-        l = (Long) m.invoke(null, f, 25042);
-        assertEquals("Should have 344-line returned", 25223, l.longValue());
-        assertEquals("File should be at returned value", l.longValue(), f.getFilePointer());
-    }
-
-    /**
-     * Test that findMiddleLine can actually find the right middle line.
-     */
-    @Test
-    public void testFindMiddleLine() throws Exception {
-        Method m = ReflectUtils.getPrivateMethod(BinSearch.class, "findMiddleLine", RandomAccessFile.class, Long.TYPE,
-                Long.TYPE);
-        RandomAccessFile f = new RandomAccessFile(TestInfo.SORTED_CDX_FILE, "r");
-        // This file has linestarts at 24859, 25041, 25223, 25406 consecutively
-        Long l = (Long) m.invoke(null, f, 24859, 25223);
-        assertEquals("Should have given line in middle", 25041, l.longValue());
-        assertEquals("Should have file pointer at the right place", l.longValue(), f.getFilePointer());
-        l = (Long) m.invoke(null, f, 24859, 25041);
-        assertEquals("Should have given -1", -1, l.longValue());
-        l = (Long) m.invoke(null, f, 24859, 25406);
-        assertEquals("Should have found a line in between", 25223, l.longValue());
-        assertEquals("Should have file pointer at the right place", l.longValue(), f.getFilePointer());
-        // This unit test is not complete.
-
-    }
 }
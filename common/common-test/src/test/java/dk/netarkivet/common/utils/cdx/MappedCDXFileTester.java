@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.IteratorUtils;
+
+/**
+ * Unit tests for the MappedCDXFile class.
+ */
+public class MappedCDXFileTester {
+
+    private File tempFile;
+
+    @Before
+    public void setUp() throws IOException {
+        tempFile = File.createTempFile("mapped", ".cdx");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.remove(tempFile);
+    }
+
+    /**
+     * Test that nextLineStart finds the start of the following line.
+     */
+    @Test
+    public void testNextLineStart() {
+        MappedCDXFile mapped = MappedCDXFile.getInstance(TestInfo.SORTED_CDX_FILE);
+        // This file has linestarts at 24859, 25041, 25223 consecutively
+        assertEquals("Should have 343-line returned from start of line", 25041, mapped.nextLineStart(24859));
+        assertEquals("Should have 342-line returned from just before start of line", 24859,
+                mapped.nextLineStart(24858));
+        assertEquals("Should have 344-line returned from just after start of line", 25223,
+                mapped.nextLineStart(25042));
+    }
+
+    /**
+     * Test that lookups spanning many index blocks find the first matching line and all following matches.
+     */
+    @Test
+    public void testLookupAcrossBlocks() {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 20000; i++) {
+            String key = String.format("http://host%05d.dk/", i / 3);
+            lines.add(key + " 127.0.0.1 20200101000000 text/html 100 file.arc " + i);
+        }
+        FileUtils.writeCollectionToFile(tempFile, lines);
+
+        MappedCDXFile mapped = MappedCDXFile.getInstance(tempFile);
+        assertEquals("Should find the first line", 0, mapped.findFirstLine("http://host00000.dk/"));
+        for (int host : new int[] {1, 1234, 4321, 6665}) {
+            String key = String.format("http://host%05d.dk/", host);
+            List<String> found = IteratorUtils.toList(mapped.getLinesWithPrefix(key).iterator());
+            assertEquals("Should find all lines for " + key, 3, found.size());
+            assertEquals("Should start at the first matching line", lines.get(host * 3), found.get(0));
+            assertEquals("Should end at the last matching line", lines.get(host * 3 + 2), found.get(2));
+        }
+        assertEquals("Should find lines shared by a common prefix", 30,
+                IteratorUtils.toList(mapped.getLinesWithPrefix("http://host0012").iterator()).size());
+        assertEquals("Should find nothing before the first line", -1, mapped.findFirstLine("dns:"));
+        assertEquals("Should find nothing between lines", -1, mapped.findFirstLine("http://host00001.dk/a"));
+        assertEquals("Should find nothing after the last line", -1, mapped.findFirstLine("http://host99999"));
+    }
+
+    /**
+     * Test that lines terminated by "\r\n" are returned without the terminator.
+     */
+    @Test
+    public void testCarriageReturns() {
+        FileUtils.writeBinaryFile(tempFile, "a 1\r\nb 1\r\nb 2\r\nc 1".getBytes());
+        List<String> found = IteratorUtils.toList(MappedCDXFile.getInstance(tempFile).getLinesWithPrefix("b ")
+                .iterator());
+        assertEquals("Should find both lines", 2, found.size());
+        assertEquals("Should strip the terminator", "b 2", found.get(1));
+        assertEquals("Should find the unterminated last line", "c 1", IteratorUtils.toList(
+                MappedCDXFile.getInstance(tempFile).getLinesWithPrefix("c").iterator()).get(0));
+    }
+
+    /**
+     * Test that the mapping is reused while the file is unchanged and remade when it changes.
+     */
+    @Test
+    public void testGetInstanceCaching() {
+        FileUtils.writeBinaryFile(tempFile, "a 1\nb 1\n".getBytes());
+        MappedCDXFile mapped = MappedCDXFile.getInstance(tempFile);
+        assertSame("Should reuse the mapping of an unchanged file", mapped, MappedCDXFile.getInstance(tempFile));
+
+        FileUtils.writeBinaryFile(tempFile, "a 1\nb 1\nc 1\n".getBytes());
+        MappedCDXFile remapped = MappedCDXFile.getInstance(tempFile);
+        assertNotSame("Should remap a changed file", mapped, remapped);
+        assertEquals("Should see the new content", 1,
+                IteratorUtils.toList(remapped.getLinesWithPrefix("c").iterator()).size());
+    }
+
+    /**
+     * Test that an empty file gives no results and a missing file gives an IOFailure.
+     */
+    @Test(expected = IOFailure.class)
+    public void testEmptyAndMissingFiles() {
+        FileUtils.writeBinaryFile(tempFile, new byte[0]);
+        assertEquals("Should find nothing in an empty file", -1,
+                MappedCDXFile.getInstance(tempFile).findFirstLine("a"));
+        MappedCDXFile.getInstance(TestInfo.MISSING_FILE);
+    }
+}
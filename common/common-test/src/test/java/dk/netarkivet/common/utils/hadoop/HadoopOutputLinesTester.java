@@ -0,0 +1,126 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.cdx.CDXRecord;
+
+/**
+ * Unit tests for reading job output lazily with HadoopOutputLines and HadoopJobUtils.
+ */
+public class HadoopOutputLinesTester {
+
+    private File outputDir;
+    private FileSystem fileSystem;
+
+    @Before
+    public void setUp() throws IOException {
+        outputDir = Files.createTempDirectory("hadoop-output").toFile();
+        fileSystem = FileSystem.getLocal(new Configuration());
+        writePart("part-m-00001", "b", "d", "f");
+        writePart("part-m-00000", "a", "c", "e", "g");
+        writePart("part-m-00002");
+        writePart("_SUCCESS");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(outputDir);
+    }
+
+    @Test
+    public void testConcatenated() throws IOException {
+        try (HadoopOutputLines lines = HadoopOutputLines.concatenated(fileSystem, new Path(outputDir.toURI()))) {
+            assertEquals(Arrays.asList("a", "c", "e", "g", "b", "d", "f"), toList(lines));
+            assertFalse(lines.hasNext());
+        }
+    }
+
+    @Test
+    public void testMerged() throws IOException {
+        Comparator<String> order = Comparator.naturalOrder();
+        try (HadoopOutputLines lines = HadoopOutputLines.merged(fileSystem, new Path(outputDir.toURI()), order)) {
+            assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f", "g"), toList(lines));
+        }
+    }
+
+    @Test
+    public void testCopyOutput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long bytes = HadoopJobUtils.copyOutput(fileSystem, new Path(outputDir.toURI()), out);
+        assertEquals("a\nc\ne\ng\nb\nd\nf\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(out.size(), bytes);
+    }
+
+    @Test
+    public void testGetCDXRecords() throws IOException {
+        FileUtils.removeRecursively(outputDir);
+        outputDir.mkdirs();
+        writePart("part-m-00000", "http://www.test.dk/ 127.0.0.1 20100101000000 text/html 42 test.arc 17 abc");
+        try (HadoopOutputLines lines = HadoopOutputLines.concatenated(fileSystem, new Path(outputDir.toURI()))) {
+            Iterator<CDXRecord> records = HadoopJobUtils.getCDXRecords(lines);
+            CDXRecord record = records.next();
+            assertEquals("http://www.test.dk/", record.getURL());
+            assertEquals("test.arc", record.getArcfile());
+            assertEquals(17, record.getOffset());
+            assertFalse(records.hasNext());
+        }
+    }
+
+    private void writePart(String name, String... lines) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        for (String line : lines) {
+            contents.append(line).append('\n');
+        }
+        Files.write(new File(outputDir, name).toPath(), contents.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> toList(Iterator<String> lines) {
+        List<String> result = new ArrayList<String>();
+        while (lines.hasNext()) {
+            result.add(lines.next());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.hadoop;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for splitting job input by size with SizeBalancedInputFormat, and for sorting job output with
+ * HadoopJobTool, run by Hadoop's local job runner.
+ */
+public class SizeBalancedInputFormatTester {
+
+    private File workDir;
+    private Configuration conf;
+    private FileSystem fileSystem;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("size-balanced").toFile();
+        conf = new Configuration();
+        conf.set(HadoopJobUtils.DEFAULT_FILESYSTEM, "file:///");
+        conf.set(HadoopJobUtils.MAPREDUCE_FRAMEWORK, "local");
+        fileSystem = FileSystem.getLocal(conf);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(workDir);
+    }
+
+    @Test
+    public void testSplitsBySizeInInputLines() throws IOException {
+        File input = writeFile("input", "file:///a\t60", "file:///b\t50", "file:///c\t10", "file:///d\t200",
+                "file:///e\t5");
+        List<FileSplit> splits = SizeBalancedInputFormat.getSplitsForFile(
+                fileSystem.getFileStatus(new Path(input.toURI())), conf, 100);
+        // a+b, c+d, e
+        assertEquals(3, splits.size());
+        assertEquals(Arrays.asList(2, 2, 1), linesPerSplit(input, splits));
+    }
+
+    @Test
+    public void testSplitsBySizeOnFilesystem() throws IOException {
+        File small = writeFile("small", "x");
+        File large = writeFile("large", "0123456789", "0123456789", "0123456789");
+        File input = writeFile("input", "file://" + small.getAbsolutePath(), "file://" + small.getAbsolutePath(),
+                "file://" + large.getAbsolutePath(), "file://" + small.getAbsolutePath());
+        List<FileSplit> splits = SizeBalancedInputFormat.getSplitsForFile(
+                fileSystem.getFileStatus(new Path(input.toURI())), conf, large.length());
+        assertEquals(Arrays.asList(3, 1), linesPerSplit(input, splits));
+        assertEquals(small.length(), SizeBalancedInputFormat.getInputFileSize("file://" + small.getAbsolutePath(),
+                conf));
+        assertEquals("file:///a", SizeBalancedInputFormat.getInputFilePath("file:///a\t60"));
+    }
+
+    @Test
+    public void testSortedOutput() throws Exception {
+        File first = writeFile("first", "m", "z", "c", "q");
+        File second = writeFile("second", "b", "y", "a", "m");
+        List<java.nio.file.Path> files = Arrays.asList(first.toPath(), second.toPath());
+        java.nio.file.Path input = new File(workDir, "input").toPath();
+        HadoopJobUtils.writeHadoopInputFileLinesToInputFile(files, input, true);
+        Path output = new Path(new File(workDir, "output").toURI());
+
+        conf.setLong(SizeBalancedInputFormat.BYTES_PER_SPLIT, 1);
+        conf.setBoolean(HadoopJobTool.SORTED_OUTPUT, true);
+        conf.setInt(HadoopJobTool.SORT_REDUCERS, 2);
+        int exitCode = ToolRunner.run(conf, new HadoopJobTool(conf, new LinesMapper()),
+                new String[] {input.toUri().toString(), output.toString()});
+        assertEquals(0, exitCode);
+
+        assertEquals(Arrays.asList("a", "b", "c", "m", "m", "q", "y", "z"),
+                HadoopJobUtils.collectOutputLines(fileSystem, output));
+    }
+
+    /** Mapper writing the lines of each input file. */
+    public static class LinesMapper extends Mapper<LongWritable, Text, NullWritable, Text> {
+        @Override
+        protected void map(LongWritable lineNumber, Text filePath, Context context)
+                throws IOException, InterruptedException {
+            File file = new File(new Path(filePath.toString()).toUri().getPath());
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    context.write(NullWritable.get(), new Text(line));
+                }
+            }
+        }
+    }
+
+    private File writeFile(String name, String... lines) throws IOException {
+        File file = new File(workDir, name);
+        Files.write(file.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<Integer> linesPerSplit(File input, List<FileSplit> splits) throws IOException {
+        byte[] bytes = Files.readAllBytes(input.toPath());
+        List<Integer> result = new ArrayList<Integer>();
+        long end = -1;
+        for (FileSplit split : splits) {
+            // Splits after the first start at the newline before their first line
+            long start = split.getStart() == 0 ? 0 : split.getStart() + 1;
+            end = split.getStart() + split.getLength();
+            int lines = 1;
+            for (long i = start; i < Math.min(end, bytes.length - 1); i++) {
+                if (bytes[(int) i] == '\n') {
+                    lines++;
+                }
+            }
+            result.add(lines);
+        }
+        return result;
+    }
+}
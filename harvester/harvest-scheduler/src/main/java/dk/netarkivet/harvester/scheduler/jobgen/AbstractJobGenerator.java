@@ -22,17 +22,31 @@
  */
 package dk.netarkivet.harvester.scheduler.jobgen;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.Constants;
@@ -45,6 +59,7 @@ import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
 import dk.netarkivet.harvester.datamodel.HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobDAO;
 import dk.netarkivet.harvester.datamodel.PartialHarvest;
 import dk.netarkivet.harvester.datamodel.Schedule;
 import dk.netarkivet.harvester.datamodel.SeedList;
@@ -58,6 +73,11 @@ import dk.netarkivet.harvester.datamodel.eav.EAV;
  * The base algorithm iterates over domain configurations within the harvest definition, and according to the
  * configuration ({@link HarvesterSettings#JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE}, constitutes a subset of domain
  * configurations from which one or more jobs will be generated.
+ * <p>
+ * If {@link HarvesterSettings#JOBGEN_THREADS} is more than one and the generator {@link #canGenerateInParallel()},
+ * each subset is split by harvest template, as a job never has configurations with different templates, and the
+ * parts are processed on that many threads at a time. The jobs made are stored by a single {@link JobWriter} thread
+ * in batches.
  */
 abstract class AbstractJobGenerator implements JobGenerator {
 
@@ -72,37 +92,47 @@ abstract class AbstractJobGenerator implements JobGenerator {
     /** Is deduplication enabled or disabled in the settings? */
     private final boolean DEDUPLICATION_ENABLED = Settings.getBoolean(HarvesterSettings.DEDUPLICATION_ENABLED);
 
+    /** How many threads make jobs from the domain configurations of a harvest at a time. */
+    private final int THREADS = Settings.getInt(HarvesterSettings.JOBGEN_THREADS);
+
+    /** How many jobs are stored in one go when making jobs with more than one thread. */
+    private final int WRITE_BATCH_SIZE = Settings.getInt(HarvesterSettings.JOBGEN_WRITE_BATCH_SIZE);
+
+    /** The writers storing the jobs of the harvests whose jobs are made with more than one thread, by harvest id. */
+    private final Map<Long, JobWriter> jobWriters = new ConcurrentHashMap<Long, JobWriter>();
+
     @Override
     public int generateJobs(HarvestDefinition harvest) {
         log.info("Generating jobs for harvestdefinition #{} using class '{}'", harvest.getOid(), this.getClass());
         int jobsMade = 0;
         final Iterator<DomainConfiguration> domainConfigurations = harvest.getDomainConfigurations();
         log.info("Now ready to iterate over the domainConfigurations for harvestdefinition #{}", harvest.getOid());
-        harvest.setNumEvents(harvest.getNumEvents() + 1);
-        if (harvest.isSnapShot()) {
-            HarvestDefinitionDAO.getInstance().update(harvest);
-        }
-        while (domainConfigurations.hasNext()) {
-            List<DomainConfiguration> subset = new ArrayList<DomainConfiguration>();
-            while (domainConfigurations.hasNext() && subset.size() < DOMAIN_CONFIG_SUBSET_SIZE) {
-                subset.add(domainConfigurations.next());
-            }
-
-            final Comparator<DomainConfiguration> domainConfigurationSubsetComparator = getDomainConfigurationSubsetComparator(
-                    harvest);
-            log.trace("Sorting domains with instance of " + domainConfigurationSubsetComparator.getClass().getName());
-            Collections.sort(subset, domainConfigurationSubsetComparator);
-            log.trace("{} domainconfigs now sorted and ready to processing for harvest #{}", subset.size(),
-                    harvest.getOid());
-            if (subset.size() == 0) {
-                log.warn("Processing a domain config subset of zero size for HD #{}.", harvest.getOid());
+        try {
+            harvest.setNumEvents(harvest.getNumEvents() + 1);
+            if (harvest.isSnapShot()) {
+                HarvestDefinitionDAO.getInstance().update(harvest);
             }
-            jobsMade += processDomainConfigurationSubset(harvest, subset.iterator());
-            if (jobsMade == 0) {
-                log.warn("Created 0 jobs for HD #{} from domain cfg subset size {}.", harvest.getOid(), subset.size());
+            if (THREADS > 1 && canGenerateInParallel()) {
+                jobsMade = generateJobsInParallel(harvest, domainConfigurations);
             } else {
-                log.info("Now created {} jobs for HD #{} from domain cfg subset size {}.", jobsMade, harvest.getOid(), subset.size());
+                while (domainConfigurations.hasNext()) {
+                    List<DomainConfiguration> subset = nextSubset(domainConfigurations);
+                    sortSubset(harvest, subset);
+                    if (subset.size() == 0) {
+                        log.warn("Processing a domain config subset of zero size for HD #{}.", harvest.getOid());
+                    }
+                    jobsMade += processDomainConfigurationSubset(harvest, subset.iterator());
+                    if (jobsMade == 0) {
+                        log.warn("Created 0 jobs for HD #{} from domain cfg subset size {}.", harvest.getOid(),
+                                subset.size());
+                    } else {
+                        log.info("Now created {} jobs for HD #{} from domain cfg subset size {}.", jobsMade,
+                                harvest.getOid(), subset.size());
+                    }
+                }
             }
+        } finally {
+            closeIfCloseable(domainConfigurations);
         }
 
         if (!harvest.isSnapShot()) {
@@ -138,6 +168,173 @@ abstract class AbstractJobGenerator implements JobGenerator {
         return jobsMade;
     }
 
+    /**
+     * Make the jobs for a harvest with more than one thread. Each subset of domain configurations is split by harvest
+     * template, and each part is sorted and processed by {@link #processDomainConfigurationSubset(HarvestDefinition,
+     * Iterator)} on a thread of its own, while the next subset is read. The jobs are stored by a {@link JobWriter}.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param domainConfigurations the configurations to make jobs from.
+     * @return The number of jobs created.
+     * @throws IOFailure If storing the jobs fails, or the thread is interrupted.
+     */
+    private int generateJobsInParallel(final HarvestDefinition harvest,
+            Iterator<DomainConfiguration> domainConfigurations) {
+        final Long harvestId = harvest.getOid();
+        log.info("Generating jobs for HD #{} with {} threads", harvestId, THREADS);
+        ExecutorService workers = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "JobGenerator-" + harvestId + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        JobWriter writer = new JobWriter("JobWriter-" + harvestId, WRITE_BATCH_SIZE);
+        jobWriters.put(harvestId, writer);
+        // Limit the parts read but not yet processed, so only a few subsets are held in memory
+        final Semaphore waitingParts = new Semaphore(2 * THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        boolean done = false;
+        try {
+            while (domainConfigurations.hasNext()) {
+                List<DomainConfiguration> subset = nextSubset(domainConfigurations);
+                for (final List<DomainConfiguration> part : splitByTemplate(subset)) {
+                    waitingParts.acquire();
+                    results.add(workers.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            try {
+                                sortSubset(harvest, part);
+                                return processDomainConfigurationSubset(harvest, part.iterator());
+                            } finally {
+                                waitingParts.release();
+                            }
+                        }
+                    }));
+                }
+            }
+            int jobsMade = 0;
+            for (Future<Integer> result : results) {
+                jobsMade += result.get();
+            }
+            int jobsWritten = writer.close();
+            done = true;
+            log.info("Created {} jobs for HD #{} from {} parts of domain cfg subsets, and stored {} of them in batches",
+                    jobsMade, harvestId, results.size(), jobsWritten);
+            return jobsMade;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while generating jobs for HD #" + harvestId, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOFailure("Failed to generate jobs for HD #" + harvestId, e.getCause());
+        } finally {
+            workers.shutdownNow();
+            jobWriters.remove(harvestId);
+            if (!done) {
+                writer.abort();
+            }
+        }
+    }
+
+    /**
+     * Close an iterator of domain configurations if it holds resources, e.g. the database connection a snapshot
+     * harvest reads its configurations on, so they are released even if the iteration is abandoned by an exception.
+     *
+     * @param domainConfigurations the configurations being processed.
+     */
+    private void closeIfCloseable(Iterator<DomainConfiguration> domainConfigurations) {
+        if (domainConfigurations instanceof Closeable) {
+            try {
+                ((Closeable) domainConfigurations).close();
+            } catch (IOException e) {
+                log.warn("Unable to close the domain configurations being processed", e);
+            }
+        }
+    }
+
+    /**
+     * Read the next subset of at most {@link #DOMAIN_CONFIG_SUBSET_SIZE} configurations.
+     *
+     * @param domainConfigurations the configurations being processed.
+     * @return The subset.
+     */
+    private List<DomainConfiguration> nextSubset(Iterator<DomainConfiguration> domainConfigurations) {
+        List<DomainConfiguration> subset = new ArrayList<DomainConfiguration>();
+        while (domainConfigurations.hasNext() && subset.size() < DOMAIN_CONFIG_SUBSET_SIZE) {
+            subset.add(domainConfigurations.next());
+        }
+        return subset;
+    }
+
+    /**
+     * Sort a subset of configurations by the comparator of this generator.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param subset the configurations to sort.
+     */
+    private void sortSubset(HarvestDefinition harvest, List<DomainConfiguration> subset) {
+        final Comparator<DomainConfiguration> domainConfigurationSubsetComparator = getDomainConfigurationSubsetComparator(
+                harvest);
+        log.trace("Sorting domains with instance of " + domainConfigurationSubsetComparator.getClass().getName());
+        Collections.sort(subset, domainConfigurationSubsetComparator);
+        log.trace("{} domainconfigs now sorted and ready to processing for harvest #{}", subset.size(),
+                harvest.getOid());
+    }
+
+    /**
+     * Split a subset of configurations by their harvest template, keeping the order of the configurations.
+     *
+     * @param subset the configurations.
+     * @return The configurations of each harvest template.
+     */
+    private static List<List<DomainConfiguration>> splitByTemplate(List<DomainConfiguration> subset) {
+        Map<String, List<DomainConfiguration>> parts = new LinkedHashMap<String, List<DomainConfiguration>>();
+        for (DomainConfiguration cfg : subset) {
+            List<DomainConfiguration> part = parts.get(cfg.getOrderXmlName());
+            if (part == null) {
+                part = new ArrayList<DomainConfiguration>();
+                parts.put(cfg.getOrderXmlName(), part);
+            }
+            part.add(cfg);
+        }
+        return new ArrayList<List<DomainConfiguration>>(parts.values());
+    }
+
+    /**
+     * Whether the subsets of domain configurations may be split by harvest template and processed on more than one
+     * thread at a time. This requires that {@link #processDomainConfigurationSubset(HarvestDefinition, Iterator)} is
+     * thread safe, and that the jobs made from the configurations of one template do not depend on those of another
+     * template or another subset. By default false.
+     *
+     * @return true if the jobs may be made in parallel.
+     */
+    protected boolean canGenerateInParallel() {
+        return false;
+    }
+
+    /**
+     * Store a finished job. If the jobs of the harvest are made with more than one thread, the job is handed to the
+     * {@link JobWriter} of the harvest, otherwise it is stored right away.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param job the job to store.
+     * @throws IOFailure If storing the job fails.
+     */
+    protected void writeJob(HarvestDefinition harvest, Job job) {
+        JobWriter writer = jobWriters.get(harvest.getOid());
+        if (writer == null) {
+            JobDAO.getInstance().create(job);
+        } else {
+            writer.write(job);
+        }
+    }
+
     /**
      * Instantiates a new job.
      *
@@ -36,7 +36,6 @@ import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.DomainConfiguration;
 import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.Job;
-import dk.netarkivet.harvester.datamodel.JobDAO;
 import dk.netarkivet.harvester.datamodel.NumberUtils;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 
@@ -143,6 +142,17 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
         return new CompareConfigsDesc(harvest.getMaxCountObjects(), harvest.getMaxBytes());
     }
 
+    /**
+     * The jobs made from each subset only depend on the configurations in it, and never mix harvest templates, so the
+     * subsets may be split by template and processed in parallel.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean canGenerateInParallel() {
+        return true;
+    }
+
     /**
      * Create new jobs from a collection of configurations. All configurations must use the same order.xml file.Jobs
      *
@@ -157,7 +167,6 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
         int jobsMade = 0;
         Job job = null;
         log.debug("Adding domainconfigs with the same order.xml for harvest #{}", harvest.getOid());
-        JobDAO dao = JobDAO.getInstance();
         DomainConfiguration previousDomainConf = null;
         while (domainConfSubset.hasNext()) {
             DomainConfiguration cfg = domainConfSubset.next();
@@ -177,7 +186,7 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
                 if (job != null) {
                     // If we're done with a job, write it out
                     ++jobsMade;
-                    dao.create(job);
+                    writeJob(harvest, job);
                 }
                 job = getNewJob(harvest, cfg);
                 log.trace("Created new job for harvest #{} to add configuration {} for domain {}", harvest.getOid(),
@@ -193,7 +202,7 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
         if (job != null) {
             ++jobsMade;
             editJobOrderXml(job);
-            dao.create(job);
+            writeJob(harvest, job);
             if (log.isTraceEnabled()) {
                 log.trace("Generated job: '{}'", job.toString());
                 StringBuilder logMsg = new StringBuilder("Job configurationsDomain:");
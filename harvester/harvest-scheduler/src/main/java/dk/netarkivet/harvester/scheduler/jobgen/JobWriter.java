@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.scheduler.jobgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobDAO;
+
+/**
+ * Stores jobs in the database on a thread of its own, so the threads making the jobs do not wait for the database.
+ * The jobs are stored in batches of the jobs waiting when the previous batch was done. At most two batches of jobs
+ * wait at a time; threads adding more jobs wait until there is room.
+ * <p>
+ * If storing a batch fails, the remaining jobs are discarded, and adding jobs or closing the writer throws the
+ * failure.
+ */
+class JobWriter {
+
+    /** Logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(JobWriter.class);
+
+    /** How long to wait at a time for jobs or for room for jobs, in milliseconds, before checking for failures. */
+    private static final long POLL_INTERVAL = 100;
+
+    /** The jobs waiting to be stored. */
+    private final BlockingQueue<Job> queue;
+    /** The largest number of jobs stored at a time. */
+    private final int batchSize;
+    /** The thread storing the jobs. */
+    private final Thread thread;
+    /** The number of jobs stored. */
+    private volatile int jobsWritten;
+    /** Set when no more jobs will be added. */
+    private volatile boolean closed;
+    /** The failure storing jobs, if any. */
+    private volatile RuntimeException failure;
+
+    /**
+     * Start a thread storing jobs.
+     *
+     * @param name The name of the thread.
+     * @param batchSize The largest number of jobs to store at a time.
+     * @throws ArgumentNotValid If the batch size is not positive.
+     */
+    JobWriter(String name, int batchSize) {
+        ArgumentNotValid.checkPositive(batchSize, "int batchSize");
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<Job>(2 * batchSize);
+        this.thread = new Thread(name) {
+            @Override
+            public void run() {
+                writeJobs();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Add a job to be stored, waiting until there is room for it.
+     *
+     * @param job The job.
+     * @throws IOFailure If storing a previous job failed, or the thread is interrupted while waiting.
+     */
+    void write(Job job) {
+        ArgumentNotValid.checkNotNull(job, "Job job");
+        try {
+            while (!queue.offer(job, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while waiting to store job " + job, e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Wait until all the jobs added have been stored, and stop the thread storing them.
+     *
+     * @return The number of jobs stored.
+     * @throws IOFailure If storing a job failed, or the thread is interrupted while waiting.
+     */
+    int close() {
+        closed = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while waiting for jobs to be stored", e);
+        }
+        checkFailure();
+        return jobsWritten;
+    }
+
+    /**
+     * Stop storing jobs, discarding the jobs not yet stored. Does not wait for a batch being stored.
+     */
+    void abort() {
+        closed = true;
+        thread.interrupt();
+    }
+
+    /**
+     * Throw the failure storing jobs, if any.
+     *
+     * @throws IOFailure If storing a job failed.
+     */
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IOFailure("Storing jobs failed", failure);
+        }
+    }
+
+    /**
+     * Store the jobs added until closed.
+     */
+    private void writeJobs() {
+        List<Job> batch = new ArrayList<Job>(batchSize);
+        try {
+            while (true) {
+                Job job = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (job == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(job);
+                queue.drainTo(batch, batchSize - 1);
+                JobDAO.getInstance().create(batch);
+                jobsWritten += batch.size();
+                log.debug("Stored {} jobs, {} in all", batch.size(), jobsWritten);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while storing jobs. {} jobs not stored.", batch.size() + queue.size());
+        } catch (RuntimeException e) {
+            log.warn("Failed to store {} jobs, starting with {}", batch.size(), batch.get(0), e);
+            // Threads waiting to add jobs see this the next time they check
+            failure = e;
+            queue.clear();
+        }
+    }
+
+}
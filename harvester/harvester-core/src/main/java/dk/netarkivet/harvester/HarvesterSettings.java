@@ -160,6 +160,22 @@ public class HarvesterSettings {
      */
     public static String JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE = "settings.harvester.scheduler.jobGen.domainConfigSubsetSize";
 
+    /**
+     * <b>settings.harvester.scheduler.jobGen.threads</b>: <br>
+     * How many threads make jobs from the domain configurations of a harvest definition at the same time. Each thread
+     * makes the jobs for the configurations of one harvest template in a domain configuration subset, and the jobs are
+     * stored by a separate thread in batches of {@link #JOBGEN_WRITE_BATCH_SIZE}. Only used by job generators whose
+     * jobs for different harvest templates are independent, such as the DefaultJobGenerator. The default is 1, which
+     * makes and stores the jobs one at a time.
+     */
+    public static String JOBGEN_THREADS = "settings.harvester.scheduler.jobGen.threads";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.writeBatchSize</b>: <br>
+     * When making jobs with more than one thread, the largest number of jobs stored in the database in one batch.
+     */
+    public static String JOBGEN_WRITE_BATCH_SIZE = "settings.harvester.scheduler.jobGen.writeBatchSize";
+
     /**
      * <b>settings.harvester.scheduler.jobGen.config.fixedDomainCountFocused</b>: <br>
      * If the job generator is {@link FixedDomainConfigurationCountJobGenerator}, then this parameter represents the
@@ -219,7 +235,11 @@ public class HarvesterSettings {
      * <b>settings.harvester.scheduler.jobGen.useAlternateSnapShotJobgenerationMethod</b>:</br>
      * If value is true, we use an alternate method for jobgeneration of a snapshotharvest continuing a previous harvest.
      * Default value is false.
+     *
+     * @deprecated No longer used: the configurations to continue are always streamed in a single pass, see
+     * {@link dk.netarkivet.harvester.datamodel.DomainDAO#getUnfinishedConfigurationsInSnapshotHarvestOrder(Long)}.
      */
+    @Deprecated
     public static String USE_ALTERNATE_SNAPSHOT_JOBGENERATION_METHOD = "settings.harvester.scheduler.jobGen.useAlternateSnapshotJobgenerationMethod";
     
     /**
@@ -691,6 +711,20 @@ public class HarvesterSettings {
      */
     public static String INDEXSERVER_INDEXING_MAX_SEGMENTS = "settings.harvester.indexserver.maxsegments";
 
+    /**
+     * <b>settings.harvester.indexserver.streamingMerge</b>: <br>
+     * Setting for whether the crawl logs of the jobs in an index are merged into the index by a single k-way merge
+     * instead of building a temporary index per job and adding these to the index in batches. The default is false.
+     */
+    public static String INDEXSERVER_INDEXING_STREAMING_MERGE = "settings.harvester.indexserver.streamingMerge";
+
+    /**
+     * <b>settings.harvester.indexserver.mergeFanIn</b>: <br>
+     * Setting for the maximum number of sorted crawl logs merged into the index at a time when streamingMerge is
+     * enabled. This bounds the number of files open at once. The default is 100.
+     */
+    public static String INDEXSERVER_INDEXING_MERGE_FANIN = "settings.harvester.indexserver.mergeFanIn";
+
     /**
      * <b>settings.harvester.indexserver.listeningcheckinterval</b>: <br>
      * Setting for the interval between each listening check in milliseconds. The default is 30000 (5 minutes).
@@ -723,6 +757,35 @@ public class HarvesterSettings {
      */
     public static String INDEXSERVER_INDEXING_LOOKFORDATAINOTHERBITARCHIVEREPLICAS = "settings.harvester.indexserver.lookfordataInAllBitarchiveReplicas";
 
+    /**
+     * <b>settings.harvester.indexserver.cacheMaxSize</b>: <br>
+     * Setting for the maximum number of bytes used by each of the index and metadata caches in the cache directory.
+     * When a cache grows beyond this size, entries not in use are evicted. The default is 0, meaning no limit.
+     */
+    public static String INDEXSERVER_CACHE_MAX_SIZE = "settings.harvester.indexserver.cacheMaxSize";
+
+    /**
+     * <b>settings.harvester.indexserver.cacheEvictionPolicy</b>: <br>
+     * Setting for how entries are chosen for eviction when a cache grows beyond cacheMaxSize: LRU evicts the least
+     * recently used entries, and LFU the least frequently used entries. The default is LRU.
+     */
+    public static String INDEXSERVER_CACHE_EVICTION_POLICY = "settings.harvester.indexserver.cacheEvictionPolicy";
+
+    /**
+     * <b>settings.harvester.indexserver.cacheFetchThreads</b>: <br>
+     * Setting for the maximum number of threads fetching data for missing cache entries at a time, when the data for
+     * several jobs is requested at once. The default is 4.
+     */
+    public static String INDEXSERVER_CACHE_FETCH_THREADS = "settings.harvester.indexserver.cacheFetchThreads";
+
+    /**
+     * <b>settings.harvester.indexserver.metadataExtractionBatchSize</b>: <br>
+     * Setting for the maximum number of jobs whose metadata is extracted by a single Hadoop job, when the metadata of
+     * several jobs is requested at once and the Hadoop backend is used. A value of 1 or less extracts the metadata of
+     * each job by a Hadoop job of its own. The default is 500.
+     */
+    public static String INDEXSERVER_METADATA_EXTRACTION_BATCH_SIZE = "settings.harvester.indexserver.metadataExtractionBatchSize";
+
     /***************************/
     /* Viewerproxy - settings. */
     /***************************/
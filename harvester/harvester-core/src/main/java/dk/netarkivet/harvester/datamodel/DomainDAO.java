@@ -191,6 +191,32 @@ public abstract class DomainDAO implements DAO, Iterable<Domain> {
      */
     public abstract Iterator<Domain> getAllDomainsInSnapshotHarvestOrder();
 
+    /**
+     * Gets the default configurations of all domains that are not aliases, in the order expected by snapshot harvest
+     * job generation, that is the configurations with attributes first, and then order by template name, then byte
+     * limit (descending), then domain name. Unlike {@link #getAllDomainsInSnapshotHarvestOrder()}, the domains are not
+     * read one by one; the configurations are streamed from a few queries, and only the harvest history of the default
+     * configurations is read.
+     *
+     * @return Iterator of the default configurations. Domains whose default configuration has no seedlists are left
+     * out.
+     */
+    public abstract Iterator<DomainConfiguration> getDefaultConfigurationsInSnapshotHarvestOrder();
+
+    /**
+     * Gets the configurations to harvest when continuing a snapshot harvest, in the same order as
+     * {@link #getDefaultConfigurationsInSnapshotHarvestOrder()}. These are the configurations used in the previous
+     * harvest by domains that are not aliases, and which did not finish in it: they did not complete, did not die
+     * uncleanly, and did not reach a byte or object limit of the configuration that has not been raised since. Like
+     * {@link #getDefaultConfigurationsInSnapshotHarvestOrder()}, the configurations are streamed from a few queries, and
+     * whether a configuration is to be harvested again is decided from its history while streaming.
+     *
+     * @param previousHid The id of the harvest definition of the harvest being continued.
+     * @return Iterator of the configurations to harvest.
+     * @throws ArgumentNotValid If previousHid is null.
+     */
+    public abstract Iterator<DomainConfiguration> getUnfinishedConfigurationsInSnapshotHarvestOrder(Long previousHid);
+
     /**
      * Reset the singleton. Only for use in tests! TODO remove this, no test methods in business classes!
      */
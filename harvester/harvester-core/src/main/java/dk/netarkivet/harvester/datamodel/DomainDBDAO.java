@@ -36,6 +36,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -1092,6 +1093,17 @@ public class DomainDBDAO extends DomainDAO {
         return getDomainsInSnapshotHarvestOrder(null);
     }
     
+    @Override
+    public Iterator<DomainConfiguration> getDefaultConfigurationsInSnapshotHarvestOrder() {
+        return new SnapshotConfigurationIterator(HarvestDBConnection.get(), null);
+    }
+
+    @Override
+    public Iterator<DomainConfiguration> getUnfinishedConfigurationsInSnapshotHarvestOrder(Long previousHid) {
+        ArgumentNotValid.checkNotNull(previousHid, "Long previousHid");
+        return new SnapshotConfigurationIterator(HarvestDBConnection.get(), previousHid);
+    }
+
     @Override
     public Iterator<Domain> getDomainsInSnapshotHarvestOrder(Long hid) {
         Connection c = HarvestDBConnection.get();
@@ -1116,7 +1128,7 @@ public class DomainDBDAO extends DomainDAO {
                 log.info("Retrieved all {} domains used for Snapshot harvesting that has attributes for their default configs", domainNamesWithAttributes.size());
                 domainNames = domainNames.stream().filter(DomainUtils::isValidDomainName).collect(Collectors.toList());
                 //  Remove the content of domainNamesWithAttributes from domainNames
-                domainNames.removeAll(domainNamesWithAttributes);
+                domainNames.removeAll(new HashSet<String>(domainNamesWithAttributes));
                 log.info("Removed all {} domains with attributes from the total list, reducing total-list to {}", domainNamesWithAttributes.size(), domainNames.size());
                 // Add the remainder of domainNames to domainNamesWithAttributes, so the domain configs with attributes will be handled first.
                 domainNamesWithAttributes.addAll(domainNames);
@@ -1145,7 +1157,7 @@ public class DomainDBDAO extends DomainDAO {
                 log.info("Retrieved all {} domains harvested in previous snapshot harvest that has attributes for their default configs", domainNamesWithAttributes.size());
                 domainNames = domainNames.stream().filter(DomainUtils::isValidDomainName).collect(Collectors.toList());
                 //  Remove the content of domainNamesWithAttributes from domainNames
-                domainNames.removeAll(domainNamesWithAttributes);
+                domainNames.removeAll(new HashSet<String>(domainNamesWithAttributes));
                 log.info("Removed all {} domains with attributes from the total list, reducing total-list to {}", domainNamesWithAttributes.size(), domainNames.size());
                 // Add the remainder of domainNames to domainNamesWithAttributes, so the domain configs with attributes will be handled first.
                 domainNamesWithAttributes.addAll(domainNames);
@@ -69,6 +69,15 @@ public abstract class JobDAO implements DAO, Iterable<Job> {
      */
     public abstract void create(Job job);
 
+    /**
+     * Creates instances in persistent storage of the given jobs in one go. Jobs without an ID have one generated.
+     *
+     * @param jobs the jobs to create in persistent storage.
+     * @throws UnknownID If a job refers to a harvest definition that does not exist
+     * @throws IOFailure If some IOException occurs while writing the jobs
+     */
+    public abstract void create(List<Job> jobs);
+
     /**
      * Check whether a particular job exists.
      *
@@ -32,10 +32,12 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +65,17 @@ public class JobDBDAO extends JobDAO {
     /** The logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(JobDBDAO.class);
 
+    /** The statement inserting a new job. */
+    private static final String INSERT_JOB = "INSERT INTO jobs "
+            + "(job_id, harvest_id, status, channel, forcemaxcount, "
+            + "forcemaxbytes, forcemaxrunningtime, orderxml, " + "orderxmldoc, seedlist, "
+            + "harvest_num, startdate, enddate, submitteddate, creationdate, "
+            + "num_configs, edition, resubmitted_as_job, harvestname_prefix, snapshot) "
+            + "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?," + "?, ?, ?, ?, ?, ?)";
+
+    /** The edition of a newly created job. */
+    private static final long INITIAL_EDITION = 1;
+
     /**
      * Create a new JobDAO implemented using database. This constructor also tries to upgrade the jobs and jobs_configs
      * tables in the current database. throws and IllegalState exception, if it is impossible to make the necessary
@@ -118,43 +131,12 @@ public class JobDBDAO extends JobDAO {
         PreparedStatement statement = null;
         try {
             connection.setAutoCommit(false);
-            statement = connection.prepareStatement("INSERT INTO jobs "
-                    + "(job_id, harvest_id, status, channel, forcemaxcount, "
-                    + "forcemaxbytes, forcemaxrunningtime, orderxml, " + "orderxmldoc, seedlist, "
-                    + "harvest_num, startdate, enddate, submitteddate, creationdate, "
-                    + "num_configs, edition, resubmitted_as_job, harvestname_prefix, snapshot) "
-                    + "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?," + "?, ?, ?, ?, ?, ?)");
-
-            statement.setLong(1, job.getJobID());
-            statement.setLong(2, job.getOrigHarvestDefinitionID());
-            statement.setInt(3, job.getStatus().ordinal());
-            statement.setString(4, job.getChannel());
-            statement.setLong(5, job.getForceMaxObjectsPerDomain());
-            statement.setLong(6, job.getMaxBytesPerDomain());
-            statement.setLong(7, job.getMaxJobRunningTime());
-            DBUtils.setStringMaxLength(statement, 8, job.getOrderXMLName(), Constants.MAX_NAME_SIZE, job,
-                    "order.xml name");
-            final String orderString = job.getOrderXMLdoc().getXML();
-            DBUtils.setClobMaxLength(statement, 9, orderString, Constants.MAX_ORDERXML_SIZE, job, "order.xml");
-            DBUtils.setClobMaxLength(statement, 10, job.getSeedListAsString(), Constants.MAX_COMBINED_SEED_LIST_SIZE,
-                    job, "seedlist");
-            statement.setInt(11, job.getHarvestNum());
-            DBUtils.setDateMaybeNull(statement, 12, job.getActualStart());
-            DBUtils.setDateMaybeNull(statement, 13, job.getActualStop());
-            DBUtils.setDateMaybeNull(statement, 14, job.getSubmittedDate());
-            DBUtils.setDateMaybeNull(statement, 15, job.getCreationDate());
-
-            // The size of the configuration map == number of configurations
-            statement.setInt(16, job.getDomainConfigurationMap().size());
-            long initialEdition = 1;
-            statement.setLong(17, initialEdition);
-            DBUtils.setLongMaybeNull(statement, 18, job.getResubmittedAsJob());
-            statement.setString(19, job.getHarvestFilenamePrefix());
-            statement.setBoolean(20, job.isSnapshot());
+            statement = connection.prepareStatement(INSERT_JOB);
+            setInsertJobParameters(statement, job);
             statement.executeUpdate();
             createJobConfigsEntries(connection, job);
             connection.commit();
-            job.setEdition(initialEdition);
+            job.setEdition(INITIAL_EDITION);
         } catch (SQLException e) {
             String message = "SQL error creating job " + job + " in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
@@ -166,6 +148,128 @@ public class JobDBDAO extends JobDAO {
         }
     }
 
+    /**
+     * Creates instances in persistent storage of the given jobs, like {@link #create(Job)}, but in a single
+     * transaction, using batched inserts for the jobs and their configurations.
+     *
+     * @param jobs the jobs to add to persistent storage
+     * @throws UnknownID If a job refers to a harvest definition that does not exist
+     * @throws IOFailure If some IOException occurs while writing the jobs to persistent storage
+     */
+    @Override
+    public synchronized void create(List<Job> jobs) {
+        ArgumentNotValid.checkNotNull(jobs, "List<Job> jobs");
+        Set<Long> harvestIds = new HashSet<Long>();
+        for (Job job : jobs) {
+            ArgumentNotValid.checkNotNull(job, "Job job");
+            harvestIds.add(job.getOrigHarvestDefinitionID());
+        }
+        for (Long harvestId : harvestIds) {
+            if (!HarvestDefinitionDAO.getInstance().exists(harvestId)) {
+                throw new UnknownID("No harvestdefinition with ID=" + harvestId);
+            }
+        }
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        Connection connection = HarvestDBConnection.get();
+        Long nextID = null;
+        for (Job job : jobs) {
+            if (job.getJobID() != null) {
+                log.warn("The jobId for the job is already set. This should probably never happen.");
+            } else {
+                if (nextID == null) {
+                    nextID = generateNextID(connection);
+                }
+                job.setJobID(nextID++);
+            }
+            job.setDefaultHarvestNamePrefix();
+            if (job.getCreationDate() != null) {
+                log.warn("The creation time for the job is already set. This should probably never happen.");
+            } else {
+                job.setCreationDate(new Date());
+            }
+        }
+        log.debug("Creating {} jobs, starting with {}", jobs.size(), jobs.get(0));
+
+        PreparedStatement jobStatement = null;
+        PreparedStatement configStatement = null;
+        try {
+            connection.setAutoCommit(false);
+            jobStatement = connection.prepareStatement(INSERT_JOB);
+            for (Job job : jobs) {
+                setInsertJobParameters(jobStatement, job);
+                jobStatement.addBatch();
+            }
+            jobStatement.executeBatch();
+            // The jobs are new, so there are no old entries in job_configs to replace
+            configStatement = connection.prepareStatement("INSERT INTO job_configs ( job_id, config_id ) "
+                    + "SELECT ?, configurations.config_id FROM domains, configurations"
+                    + " WHERE domains.name = ? AND domains.domain_id = configurations.domain_id"
+                    + " AND configurations.name = ?");
+            for (Job job : jobs) {
+                for (Map.Entry<String, String> entry : job.getDomainConfigurationMap().entrySet()) {
+                    configStatement.setLong(1, job.getJobID());
+                    configStatement.setString(2, entry.getKey());
+                    configStatement.setString(3, entry.getValue());
+                    configStatement.addBatch();
+                }
+            }
+            configStatement.executeBatch();
+            connection.commit();
+            for (Job job : jobs) {
+                job.configsChanged = false;
+                job.setEdition(INITIAL_EDITION);
+            }
+        } catch (SQLException e) {
+            String message = "SQL error creating " + jobs.size() + " jobs in database, starting with " + jobs.get(0)
+                    + "\n" + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(jobStatement);
+            DBUtils.closeStatementIfOpen(configStatement);
+            DBUtils.rollbackIfNeeded(connection, "create jobs", jobs);
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * Set the parameters of {@link #INSERT_JOB} for a job.
+     *
+     * @param statement The statement inserting the job.
+     * @param job The job. Its ID and creation date must be set.
+     * @throws SQLException If setting a parameter fails.
+     */
+    private void setInsertJobParameters(PreparedStatement statement, Job job) throws SQLException {
+        statement.setLong(1, job.getJobID());
+        statement.setLong(2, job.getOrigHarvestDefinitionID());
+        statement.setInt(3, job.getStatus().ordinal());
+        statement.setString(4, job.getChannel());
+        statement.setLong(5, job.getForceMaxObjectsPerDomain());
+        statement.setLong(6, job.getMaxBytesPerDomain());
+        statement.setLong(7, job.getMaxJobRunningTime());
+        DBUtils.setStringMaxLength(statement, 8, job.getOrderXMLName(), Constants.MAX_NAME_SIZE, job,
+                "order.xml name");
+        final String orderString = job.getOrderXMLdoc().getXML();
+        DBUtils.setClobMaxLength(statement, 9, orderString, Constants.MAX_ORDERXML_SIZE, job, "order.xml");
+        DBUtils.setClobMaxLength(statement, 10, job.getSeedListAsString(), Constants.MAX_COMBINED_SEED_LIST_SIZE,
+                job, "seedlist");
+        statement.setInt(11, job.getHarvestNum());
+        DBUtils.setDateMaybeNull(statement, 12, job.getActualStart());
+        DBUtils.setDateMaybeNull(statement, 13, job.getActualStop());
+        DBUtils.setDateMaybeNull(statement, 14, job.getSubmittedDate());
+        DBUtils.setDateMaybeNull(statement, 15, job.getCreationDate());
+
+        // The size of the configuration map == number of configurations
+        statement.setInt(16, job.getDomainConfigurationMap().size());
+        statement.setLong(17, INITIAL_EDITION);
+        DBUtils.setLongMaybeNull(statement, 18, job.getResubmittedAsJob());
+        statement.setString(19, job.getHarvestFilenamePrefix());
+        statement.setBoolean(20, job.isSnapshot());
+    }
+
     /**
      * Create the entries in the job_configs table for this job. Since some jobs have up to 10000 configs, this must be
      * optimized. The entries are only created, if job.configsChanged is true.
@@ -0,0 +1,477 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.io.Closeable;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.DomainUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.harvester.datamodel.eav.EAV;
+import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
+
+/**
+ * Iterator over domain configurations of domains that are not aliases, in snapshot harvest order: the configurations
+ * with attributes first, and within each group ordered by template name, then byte limit (descending), then domain
+ * name. For a new snapshot harvest these are the default configurations of all domains. For a snapshot harvest
+ * continuing a previous one, these are the configurations used in the previous harvest for the domains that were not
+ * finished, see {@link #isUnfinished(HarvestInfo, long, long)}.
+ * <p>
+ * Instead of reading each domain, the configurations are read by a few queries, which are all ordered the same way:
+ * one for the configurations themselves, and one each for their seedlists, passwords and harvest history. The rows of
+ * the queries are read side by side as the iterator advances, so only the current configuration is held in memory.
+ * Only the history of the configuration itself is read, as that is all the harvest expectations are based on.
+ * <p>
+ * The iterator holds a database connection until it is exhausted or closed.
+ */
+class SnapshotConfigurationIterator implements Iterator<DomainConfiguration>, Closeable {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(SnapshotConfigurationIterator.class);
+
+    /** The number of rows fetched from the database at a time by each query. */
+    private static final int FETCH_SIZE = 1000;
+
+    /** The tables every query reads the configurations from. */
+    private static final String CONFIGURATION_TABLES = " FROM domains, configurations, ordertemplates";
+
+    /** The conditions selecting the default configuration of each domain. */
+    private static final String DEFAULT_CONFIGURATIONS = " WHERE domains.defaultconfig = configurations.config_id"
+            + " AND configurations.template_id = ordertemplates.template_id";
+
+    /** The conditions selecting the configurations used in a given harvest. */
+    private static final String HARVESTED_CONFIGURATIONS = " WHERE domains.domain_id = configurations.domain_id"
+            + " AND configurations.template_id = ordertemplates.template_id"
+            + " AND configurations.config_id IN (SELECT previous.config_id FROM historyinfo AS previous"
+            + " WHERE previous.harvest_id = ?)";
+
+    /** The condition for a configuration having attributes. */
+    private static final String HAS_ATTRIBUTES = " EXISTS (SELECT * FROM eav_attribute"
+            + " WHERE eav_attribute.entity_id = configurations.config_id)";
+
+    /** The conditions for the configurations with attributes, and then the ones without. */
+    private static final String[] GROUPS = {" AND" + HAS_ATTRIBUTES, " AND NOT" + HAS_ATTRIBUTES};
+
+    /** The order of the configurations within each group. */
+    private static final String SNAPSHOT_ORDER = " ORDER BY ordertemplates.name, configurations.maxbytes DESC,"
+            + " domains.name, configurations.config_id";
+
+    /** The connection the queries are run on. */
+    private final Connection connection;
+    /** The id of the harvest being continued, or null for a new snapshot harvest. */
+    private final Long previousHarvestId;
+    /** The conditions selecting the configurations to read. */
+    private final String selection;
+    /** The auto-commit mode of the connection before it was turned off to let the queries stream their rows. */
+    private final boolean autoCommit;
+    /** The index in GROUPS of the group to read after the current one. */
+    private int nextGroup;
+    /** The configurations of the current group, or null when between groups. */
+    private Cursor configurations;
+    /** The seedlists of the configurations of the current group. */
+    private Cursor seedlists;
+    /** The passwords of the configurations of the current group. */
+    private Cursor passwords;
+    /** The harvest history of the configurations of the current group. */
+    private Cursor history;
+    /** The attributes of a configuration without attributes, i.e. the attribute types with no values. */
+    private List<AttributeAndType> defaultAttributes;
+    /** The next configuration to return, or null if it has not been read yet. */
+    private DomainConfiguration next;
+    /** Whether all configurations have been read, or the iterator has been closed. */
+    private boolean closed;
+
+    /**
+     * Start reading the configurations.
+     *
+     * @param connection The connection to read from. It is released when the iterator is exhausted or closed.
+     * @param previousHarvestId The id of the harvest being continued, or null to read the default configurations.
+     * @throws IOFailure If the connection cannot be prepared for reading.
+     */
+    SnapshotConfigurationIterator(Connection connection, Long previousHarvestId) {
+        this.connection = connection;
+        this.previousHarvestId = previousHarvestId;
+        this.selection = previousHarvestId == null ? DEFAULT_CONFIGURATIONS : HARVESTED_CONFIGURATIONS;
+        try {
+            autoCommit = connection.getAutoCommit();
+            // Some drivers only stream the rows of a query within a transaction
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            HarvestDBConnection.release(connection);
+            throw new IOFailure("Unable to prepare reading domain configurations\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !closed) {
+            try {
+                next = readNext();
+            } catch (SQLException e) {
+                close();
+                throw new IOFailure("SQL error reading domain configurations\n"
+                        + ExceptionUtils.getSQLExceptionCause(e), e);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public DomainConfiguration next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more domain configurations");
+        }
+        DomainConfiguration result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("This class does not support remove()");
+    }
+
+    /**
+     * Close the queries and release the connection. Called automatically when the iterator is exhausted.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeGroup();
+        try {
+            connection.rollback();
+            connection.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+            log.warn("Unable to restore connection after reading domain configurations", e);
+        } finally {
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * Read the next default configuration to return, skipping the ones that are not to be harvested.
+     *
+     * @return The configuration, or null if there are no more, in which case the iterator is closed.
+     * @throws SQLException If reading from the database fails.
+     */
+    private DomainConfiguration readNext() throws SQLException {
+        while (true) {
+            if (configurations == null) {
+                if (nextGroup == GROUPS.length) {
+                    close();
+                    return null;
+                }
+                openGroup(GROUPS[nextGroup++]);
+            } else if (!configurations.onRow) {
+                closeGroup();
+            } else {
+                DomainConfiguration configuration = readConfiguration(nextGroup == 1);
+                configurations.advance();
+                if (configuration != null) {
+                    return configuration;
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the queries for a group of configurations.
+     *
+     * @param condition The condition selecting the group.
+     * @throws SQLException If the queries fail.
+     */
+    private void openGroup(String condition) throws SQLException {
+        try {
+            configurations = new Cursor("SELECT configurations.config_id, domains.name, domains.crawlertraps,"
+                    + " (SELECT name FROM domains AS aliasdomains WHERE aliasdomains.domain_id = domains.alias),"
+                    + " domains.lastaliasupdate, configurations.name, configurations.comments, ordertemplates.name,"
+                    + " configurations.maxobjects, configurations.maxrate, configurations.maxbytes"
+                    + CONFIGURATION_TABLES + selection + condition + SNAPSHOT_ORDER);
+            seedlists = new Cursor("SELECT configurations.config_id, seedlists.seedlist_id, seedlists.name,"
+                    + " seedlists.comments, seedlists.seeds" + CONFIGURATION_TABLES + ", config_seedlists, seedlists"
+                    + selection + " AND config_seedlists.config_id = configurations.config_id"
+                    + " AND seedlists.seedlist_id = config_seedlists.seedlist_id" + condition + SNAPSHOT_ORDER);
+            passwords = new Cursor("SELECT configurations.config_id, passwords.password_id, passwords.name,"
+                    + " passwords.comments, passwords.url, passwords.realm, passwords.username, passwords.password"
+                    + CONFIGURATION_TABLES + ", config_passwords, passwords" + selection
+                    + " AND config_passwords.config_id = configurations.config_id"
+                    + " AND passwords.password_id = config_passwords.password_id" + condition + SNAPSHOT_ORDER);
+            history = new Cursor("SELECT configurations.config_id, historyinfo.historyinfo_id,"
+                    + " historyinfo.stopreason, historyinfo.objectcount, historyinfo.bytecount, historyinfo.job_id,"
+                    + " historyinfo.harvest_id, historyinfo.harvest_time" + CONFIGURATION_TABLES + ", historyinfo"
+                    + selection + " AND historyinfo.config_id = configurations.config_id" + condition
+                    + SNAPSHOT_ORDER);
+        } catch (SQLException e) {
+            closeGroup();
+            throw e;
+        }
+    }
+
+    /** Close the queries of the current group, if any. */
+    private void closeGroup() {
+        for (Cursor cursor : new Cursor[] {configurations, seedlists, passwords, history}) {
+            if (cursor != null) {
+                DBUtils.closeStatementIfOpen(cursor.statement);
+            }
+        }
+        configurations = null;
+        seedlists = null;
+        passwords = null;
+        history = null;
+    }
+
+    /**
+     * Read the configuration at the current row of the configuration query, and the rows of the other queries that
+     * belong to it.
+     *
+     * @param withAttributes Whether the configuration has attributes.
+     * @return The configuration, or null if it is not to be harvested.
+     * @throws SQLException If reading from the database fails.
+     */
+    private DomainConfiguration readConfiguration(boolean withAttributes) throws SQLException {
+        ResultSet res = configurations.rows;
+        long configId = res.getLong(1);
+        String domainName = res.getString(2);
+        String crawlertraps = res.getString(3);
+        String alias = res.getString(4);
+        Date lastAliasUpdate = DBUtils.getDateMaybeNull(res, 5);
+        String configName = res.getString(6);
+        long maxObjects = res.getLong(9);
+        long maxBytes = res.getLong(11);
+
+        DomainHistory domainHistory = new DomainHistory();
+        HarvestInfo previousHarvest = null;
+        for (; history.isAt(configId); history.advance()) {
+            ResultSet h = history.rows;
+            Long jobId = h.getLong(6);
+            if (h.wasNull()) {
+                jobId = null;
+            }
+            HarvestInfo hi = new HarvestInfo(h.getLong(7), jobId, domainName, configName,
+                    new Date(h.getTimestamp(8).getTime()), h.getLong(5), h.getLong(4),
+                    StopReason.getStopReason(h.getInt(3)));
+            hi.setID(h.getLong(2));
+            domainHistory.addHarvestInfo(hi);
+            if (previousHarvestId != null && previousHarvestId.equals(hi.getHarvestID())) {
+                if (previousHarvest == null) {
+                    previousHarvest = hi;
+                } else {
+                    log.warn("Found more than one harvest of configuration {} of domain '{}' in harvest #{}. "
+                            + "Using the first one: {}", configName, domainName, previousHarvestId, previousHarvest);
+                }
+            }
+        }
+
+        boolean include = DomainUtils.isValidDomainName(domainName)
+                // Don't include aliases
+                && (alias == null || new AliasInfo(domainName, alias, lastAliasUpdate).isExpired())
+                && (previousHarvestId == null || isUnfinished(previousHarvest, maxBytes, maxObjects));
+
+        // The seedlists and passwords of configurations not included are skipped without being read
+        List<SeedList> configSeedlists = new ArrayList<SeedList>();
+        for (; seedlists.isAt(configId); seedlists.advance()) {
+            if (include) {
+                configSeedlists.add(readSeedList(seedlists.rows));
+            }
+        }
+        List<Password> configPasswords = new ArrayList<Password>();
+        for (; passwords.isAt(configId); passwords.advance()) {
+            if (include) {
+                ResultSet p = passwords.rows;
+                Password password = new Password(p.getString(3), p.getString(4), p.getString(5), p.getString(6),
+                        p.getString(7), p.getString(8));
+                password.setID(p.getLong(2));
+                configPasswords.add(password);
+            }
+        }
+
+        if (!include) {
+            return null;
+        }
+        if (configSeedlists.isEmpty()) {
+            log.warn("Configuration {} of domain '{}' has no seedlists. Skipping the domain.", configName, domainName);
+            return null;
+        }
+
+        DomainConfiguration dc = new DomainConfiguration(configName, domainName, domainHistory,
+                readCrawlertraps(crawlertraps), configSeedlists, configPasswords);
+        dc.setComments(res.getString(7));
+        dc.setOrderXmlName(res.getString(8));
+        dc.setMaxObjects(maxObjects);
+        dc.setMaxRequestRate(res.getInt(10));
+        dc.setMaxBytes(maxBytes);
+        dc.setID(configId);
+        if (withAttributes) {
+            dc.setAttributesAndTypes(EAV.getInstance().getAttributesAndTypes(EAV.DOMAIN_TREE_ID, (int) configId));
+        } else {
+            if (defaultAttributes == null) {
+                // Every configuration without attributes gets the same list, so it is only read once
+                defaultAttributes = EAV.getInstance().getAttributesAndTypes(EAV.DOMAIN_TREE_ID, (int) configId);
+            }
+            // Each configuration gets its own copy, as the list may be sorted when compared
+            dc.setAttributesAndTypes(new ArrayList<AttributeAndType>(defaultAttributes));
+        }
+        return dc;
+    }
+
+    /**
+     * Decide whether a configuration should be harvested again when continuing a harvest. It should not if, in the
+     * harvest being continued, it 1) was completed 2) reached its maxBytes limit (and the maxBytes limit has not been
+     * raised since) 3) reached its maxObjects limit (and the maxObjects limit has not been raised since) 4) died
+     * uncleanly (e.g. due to a manual shutdown of heritrix).
+     *
+     * @param previousHarvest The harvest of the configuration in the harvest being continued, or null if none.
+     * @param maxBytes The current maxBytes limit of the configuration.
+     * @param maxObjects The current maxObjects limit of the configuration.
+     * @return True if the configuration should be harvested again.
+     */
+    static boolean isUnfinished(HarvestInfo previousHarvest, long maxBytes, long maxObjects) {
+        if (previousHarvest == null) {
+            return false;
+        }
+        StopReason stopReason = previousHarvest.getStopReason();
+        if (stopReason == StopReason.DOWNLOAD_COMPLETE || stopReason == StopReason.DOWNLOAD_UNFINISHED) {
+            // Don't include the ones that finished or died in an unclean fashion
+            return false;
+        }
+        if (stopReason == StopReason.CONFIG_SIZE_LIMIT) {
+            // Only include it if the limit has been raised since the previous harvest
+            return NumberUtils.compareInf(maxBytes, previousHarvest.getSizeDataRetrieved()) > 0;
+        }
+        if (stopReason == StopReason.CONFIG_OBJECT_LIMIT) {
+            // Only include it if the limit has been raised since the previous harvest
+            return NumberUtils.compareInf(maxObjects, previousHarvest.getCountObjectRetrieved()) > 0;
+        }
+        return true;
+    }
+
+    /**
+     * Make a SeedList from a row of the seedlist query (config id, seedlist id, name, comments, seeds).
+     *
+     * @param res The query at the row.
+     * @return The SeedList.
+     * @throws SQLException If reading from the database fails.
+     */
+    private static SeedList readSeedList(ResultSet res) throws SQLException {
+        String seeds;
+        if (DBSpecifics.getInstance().supportsClob()) {
+            Clob clob = res.getClob(5);
+            seeds = clob.getSubString(1, (int) clob.length());
+        } else {
+            seeds = res.getString(5);
+        }
+        SeedList seedlist = new SeedList(res.getString(3), seeds);
+        seedlist.setComments(res.getString(4));
+        seedlist.setID(res.getLong(2));
+        return seedlist;
+    }
+
+    /**
+     * Split the crawlertraps of a domain into a list, leaving out the empty ones.
+     *
+     * @param crawlertraps The crawlertraps, one per line.
+     * @return The crawlertraps.
+     */
+    private static List<String> readCrawlertraps(String crawlertraps) {
+        if (crawlertraps == null || crawlertraps.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> traps = new ArrayList<String>();
+        for (String trap : crawlertraps.split("\n")) {
+            if (!trap.trim().isEmpty()) {
+                traps.add(trap);
+            }
+        }
+        return Collections.unmodifiableList(traps);
+    }
+
+    /**
+     * A query whose rows are read one at a time, and which starts with the id of the configuration each row belongs
+     * to.
+     */
+    private final class Cursor {
+        /** The statement of the query. */
+        private final PreparedStatement statement;
+        /** The rows of the query. */
+        private final ResultSet rows;
+        /** Whether the rows are at a row, i.e. not past the last one. */
+        private boolean onRow;
+
+        /**
+         * Run a query over the configurations.
+         *
+         * @param sql The query, with the id of the harvest being continued as its only parameter, if any.
+         * @throws SQLException If the query fails.
+         */
+        private Cursor(String sql) throws SQLException {
+            statement = connection.prepareStatement(sql);
+            statement.setFetchSize(FETCH_SIZE);
+            if (previousHarvestId != null) {
+                statement.setLong(1, previousHarvestId);
+            }
+            rows = statement.executeQuery();
+            onRow = rows.next();
+        }
+
+        /**
+         * @param configId The id of a configuration.
+         * @return True if the current row belongs to the configuration.
+         * @throws SQLException If reading from the database fails.
+         */
+        private boolean isAt(long configId) throws SQLException {
+            return onRow && rows.getLong(1) == configId;
+        }
+
+        /**
+         * Move to the next row.
+         *
+         * @throws SQLException If reading from the database fails.
+         */
+        private void advance() throws SQLException {
+            onRow = rows.next();
+        }
+    }
+
+}
@@ -63,17 +63,27 @@ public abstract class CombiningMultiFileBasedCache<T extends Comparable<T>> exte
      *
      * @param ids The set of identifiers for which we want the corresponding data
      * @return The set of IDs, or subset if data fetching failed for some IDs. If some IDs failed, the file is not
-     * filled, though some data may be cached at a lower level.
+     * filled, though some data may be cached at a lower level. The raw data for the IDs is pinned in the raw data
+     * cache while the data is combined.
      */
     protected Set<T> cacheData(Set<T> ids) {
-        Map<T, File> filesFound = prepareCombine(ids);
-        File resultFile = getCacheFile(ids);
-        if (filesFound.size() == ids.size()) {
-            combine(filesFound);
-        } else {
-            FileUtils.remove(resultFile);
+        for (T id : ids) {
+            rawcache.pin(id);
+        }
+        try {
+            Map<T, File> filesFound = prepareCombine(ids);
+            File resultFile = getCacheFile(ids);
+            if (filesFound.size() == ids.size()) {
+                combine(filesFound);
+            } else {
+                FileUtils.remove(resultFile);
+            }
+            return filesFound.keySet();
+        } finally {
+            for (T id : ids) {
+                rawcache.unpin(id);
+            }
         }
-        return filesFound.keySet();
     }
 
     /**
@@ -27,13 +27,18 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -66,6 +71,9 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
     /** The log. */
     private static final Logger log = LoggerFactory.getLogger(CrawlLogIndexCache.class);
 
+    /** How long to wait for sorting threads to stop when a streaming merge ends, in milliseconds. */
+    private static final long SORTING_SHUTDOWN_TIMEOUT = 60000L;
+
     /** Needed to find origin information, which is file+offset from CDX index. */
     private final CDXDataCache cdxcache = new CDXDataCache();
 
@@ -95,6 +103,27 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         this.mimeFilter = mimeFilter;
     }
 
+    /**
+     * Cache data for the given IDs. This class overrides cacheData to pin the CDX data of the IDs while the index is
+     * made, so it is not evicted from the CDX cache before it is read.
+     *
+     * @param ids Set of IDs to make an index for.
+     * @return The set of IDs, or subset if data fetching failed for some IDs.
+     */
+    @Override
+    protected Set<Long> cacheData(Set<Long> ids) {
+        for (Long id : ids) {
+            cdxcache.pin(id);
+        }
+        try {
+            return super.cacheData(ids);
+        } finally {
+            for (Long id : ids) {
+                cdxcache.unpin(id);
+            }
+        }
+    }
+
     /**
      * Prepare data for combining. This class overrides prepareCombine to make sure that CDX data is available.
      *
@@ -123,6 +152,9 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
     /**
      * Combine a number of crawl.log files into one Lucene index. This index is placed as gzip files under the directory
      * returned by getCacheFile().
+     * <p>
+     * If {@link HarvesterSettings#INDEXSERVER_INDEXING_STREAMING_MERGE} is set, the sorted crawl.log files are merged
+     * directly into the index, otherwise a temporary index is made for each crawl.log file and added to the index.
      *
      * @param rawfiles The map from job ID into crawl.log contents. No null values are allowed in this map.
      */
@@ -140,126 +172,44 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
             DigestIndexer indexer = createStandardIndexer(indexLocation);
             final boolean verboseIndexing = false;
             DigestOptions indexingOptions = new DigestOptions(this.useBlacklist, verboseIndexing, this.mimeFilter);
-            long count = 0;
-            Set<IndexingState> outstandingJobs = new HashSet<IndexingState>();
             final int maxThreads = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAXTHREADS);
             executor = new ThreadPoolExecutor(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS,
                     new LinkedBlockingQueue<Runnable>());
 
             executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
 
-            for (Map.Entry<Long, File> entry : rawfiles.entrySet()) {
-                Long jobId = entry.getKey();
-                File crawlLog = entry.getValue();
-                // Generate UUID to ensure a unique filedir for the index.
-                File tmpFile = new File(FileUtils.getTempDir(), UUID.randomUUID().toString());
-                tmpfiles.add(tmpFile);
-                String localindexLocation = tmpFile.getAbsolutePath();
-                Long cached = cdxcache.cache(jobId);
-                if (cached == null) {
-                    log.warn("Skipping the ingest of logs for job {}. Unable to retrieve cdx-file for job.",
-                            entry.getKey());
-                    continue;
-                }
-                File cachedCDXFile = cdxcache.getCacheFile(cached);
-
-                // Dispatch this indexing task to a separate thread that
-                // handles the sorting of the logfiles and the generation
-                // of a lucene index for this crawllog and cdxfile.
-                ++count;
-                String taskID = count + " out of " + datasetSize;
-                log.debug("Making subthread for indexing job " + jobId + " - task " + taskID);
-                Callable<Boolean> task = new DigestIndexerWorker(localindexLocation, jobId, crawlLog, cachedCDXFile,
-                        indexingOptions, taskID);
-                Future<Boolean> result = executor.submit(task);
-                outstandingJobs.add(new IndexingState(jobId, localindexLocation, result));
-            }
-
-            // wait for all the outstanding subtasks to complete.
-            Set<Directory> subindices = new HashSet<Directory>();
-
             // Deadline for the combine-task
             long combineTimeout = Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_TIMEOUT);
             long timeOutTime = System.currentTimeMillis() + combineTimeout;
+            long startTime = System.currentTimeMillis();
 
             // The indexwriter for the totalindex.
             IndexWriter totalIndex = indexer.getIndex();
-            int subindicesInTotalIndex = 0;
             // Max number of segments in totalindex.
             int maxSegments = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAX_SEGMENTS);
 
-            final int ACCUMULATED_SUBINDICES_BEFORE_MERGING = 200;
-
-            while (outstandingJobs.size() > 0) {
-                log.info("Outstanding jobs in combine task #{} is now {}", indexingJobCount, outstandingJobs.size());
-                Iterator<IndexingState> iterator = outstandingJobs.iterator();
-                if (timeOutTime < System.currentTimeMillis()) {
-                    log.warn("Max indexing time exceeded for one index ({}). Indexing stops here, "
-                            + "although missing subindices for {} jobs",
-                            TimeUtils.readableTimeInterval(combineTimeout), outstandingJobs.size());
-                    break;
-                }
-                while (iterator.hasNext() && subindices.size() < ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
-                    Future<Boolean> nextResult;
-                    IndexingState next = iterator.next();
-                    if (next.getResultObject().isDone()) {
-                        nextResult = next.getResultObject();
-                        try {
-                            // check, if the indexing failed
-                            if (nextResult.get()) {
-                                subindices.add(new SimpleFSDirectory(new File(next.getIndex())));
-                            } else {
-                                log.warn("Indexing of job {} failed.", next.getJobIdentifier());
-                            }
-
-                        } catch (InterruptedException e) {
-                            log.warn("Unable to get Result back from indexing thread", e);
-                        } catch (ExecutionException e) {
-                            log.warn("Unable to get Result back from indexing thread", e);
-                        }
-                        // remove the done object from the set
-                        iterator.remove();
-                    }
-                }
-
-                if (subindices.size() >= ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
-
-                    log.info(
-                            "Adding {} subindices to main index. Forcing index to contain max {} files (related to combine task #{})",
-                            subindices.size(), maxSegments, indexingJobCount);
-                    totalIndex.addIndexes(subindices.toArray(new Directory[0]));
-                    totalIndex.forceMerge(maxSegments);
-                    totalIndex.commit();
-                    for (Directory luceneDir : subindices) {
-                        luceneDir.close();
-                    }
-                    subindicesInTotalIndex += subindices.size();
-                    log.info(
-                            "Completed adding {} subindices to main index, now containing {} subindices(related to combine task #{})",
-                            subindices.size(), subindicesInTotalIndex, indexingJobCount);
-                    subindices.clear();
-                } else {
-                    sleepAwhile();
-                }
+            long bytesMerged;
+            if (Settings.getBoolean(HarvesterSettings.INDEXSERVER_INDEXING_STREAMING_MERGE)) {
+                bytesMerged = mergeCrawlLogs(rawfiles, indexer, indexingOptions, executor, timeOutTime);
+            } else {
+                bytesMerged = addSubindices(rawfiles, indexer, indexingOptions, executor, timeOutTime, tmpfiles);
             }
 
-            log.info("Adding the final {} subindices to main index. "
-                    + "Forcing index to contain max {} files (related to combine task #{})", subindices.size(),
-                    maxSegments, indexingJobCount);
-
-            totalIndex.addIndexes(subindices.toArray(new Directory[0]));
+            log.info("Forcing index to contain max {} files (related to combine task #{})", maxSegments,
+                    indexingJobCount);
+            bytesMerged += getIndexSize(totalIndex);
             totalIndex.forceMerge(maxSegments);
             totalIndex.commit();
-            for (Directory luceneDir : subindices) {
-                luceneDir.close();
-            }
-            subindices.clear();
 
             log.info("Adding operation completed (combine task #{})!", indexingJobCount);
             long docsInIndex = totalIndex.numDocs();
+            long indexingTime = Math.max(1L, System.currentTimeMillis() - startTime);
 
             indexer.close();
             log.info("Closed index (related to combine task #{}", indexingJobCount);
+            log.info("Combine task #{} indexed {} documents in {} ({} docs/sec), merging {} bytes of input",
+                    indexingJobCount, docsInIndex, TimeUtils.readableTimeInterval(indexingTime), docsInIndex * 1000L
+                            / indexingTime, bytesMerged);
 
             // Now the index is made, gzip it up.
             File totalIndexDir = new File(indexLocation);
@@ -281,6 +231,304 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         }
     }
 
+    /**
+     * Index each crawl log into a temporary index of its own, and add these to the total index in batches.
+     *
+     * @param rawfiles The map from job ID into crawl.log contents.
+     * @param indexer The indexer of the total index.
+     * @param indexingOptions The options for the indexing process.
+     * @param executor The executor that runs the indexing of the individual crawl logs.
+     * @param timeOutTime The time at which to stop waiting for the individual indices.
+     * @param tmpfiles The set of temporary files, which the locations of the temporary indices are added to.
+     * @return The number of bytes in the total index before each intermediate merge.
+     * @throws IOException If the total index cannot be written.
+     */
+    private long addSubindices(Map<Long, File> rawfiles, DigestIndexer indexer, DigestOptions indexingOptions,
+            ThreadPoolExecutor executor, long timeOutTime, Set<File> tmpfiles) throws IOException {
+        long datasetSize = rawfiles.values().size();
+        long count = 0;
+        Set<IndexingState> outstandingJobs = new HashSet<IndexingState>();
+        for (Map.Entry<Long, File> entry : rawfiles.entrySet()) {
+            Long jobId = entry.getKey();
+            File crawlLog = entry.getValue();
+            // Generate UUID to ensure a unique filedir for the index.
+            File tmpFile = new File(FileUtils.getTempDir(), UUID.randomUUID().toString());
+            tmpfiles.add(tmpFile);
+            String localindexLocation = tmpFile.getAbsolutePath();
+            Long cached = cdxcache.cache(jobId);
+            if (cached == null) {
+                log.warn("Skipping the ingest of logs for job {}. Unable to retrieve cdx-file for job.",
+                        entry.getKey());
+                continue;
+            }
+            File cachedCDXFile = cdxcache.getCacheFile(cached);
+
+            // Dispatch this indexing task to a separate thread that
+            // handles the sorting of the logfiles and the generation
+            // of a lucene index for this crawllog and cdxfile.
+            ++count;
+            String taskID = count + " out of " + datasetSize;
+            log.debug("Making subthread for indexing job " + jobId + " - task " + taskID);
+            Callable<Boolean> task = new DigestIndexerWorker(localindexLocation, jobId, crawlLog, cachedCDXFile,
+                    indexingOptions, taskID);
+            Future<Boolean> result = executor.submit(task);
+            outstandingJobs.add(new IndexingState(jobId, localindexLocation, result));
+        }
+
+        // wait for all the outstanding subtasks to complete.
+        Set<Directory> subindices = new HashSet<Directory>();
+
+        // The indexwriter for the totalindex.
+        IndexWriter totalIndex = indexer.getIndex();
+        int subindicesInTotalIndex = 0;
+        long bytesMerged = 0;
+        // Max number of segments in totalindex.
+        int maxSegments = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAX_SEGMENTS);
+
+        final int ACCUMULATED_SUBINDICES_BEFORE_MERGING = 200;
+
+        while (outstandingJobs.size() > 0) {
+            log.info("Outstanding jobs in combine task #{} is now {}", indexingJobCount, outstandingJobs.size());
+            Iterator<IndexingState> iterator = outstandingJobs.iterator();
+            if (timeOutTime < System.currentTimeMillis()) {
+                log.warn("Max indexing time exceeded for one index ({}). Indexing stops here, "
+                        + "although missing subindices for {} jobs",
+                        TimeUtils.readableTimeInterval(Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_TIMEOUT)),
+                        outstandingJobs.size());
+                break;
+            }
+            while (iterator.hasNext() && subindices.size() < ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
+                Future<Boolean> nextResult;
+                IndexingState next = iterator.next();
+                if (next.getResultObject().isDone()) {
+                    nextResult = next.getResultObject();
+                    try {
+                        // check, if the indexing failed
+                        if (nextResult.get()) {
+                            subindices.add(new SimpleFSDirectory(new File(next.getIndex())));
+                        } else {
+                            log.warn("Indexing of job {} failed.", next.getJobIdentifier());
+                        }
+
+                    } catch (InterruptedException e) {
+                        log.warn("Unable to get Result back from indexing thread", e);
+                    } catch (ExecutionException e) {
+                        log.warn("Unable to get Result back from indexing thread", e);
+                    }
+                    // remove the done object from the set
+                    iterator.remove();
+                }
+            }
+
+            if (subindices.size() >= ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
+
+                log.info(
+                        "Adding {} subindices to main index. Forcing index to contain max {} files (related to combine task #{})",
+                        subindices.size(), maxSegments, indexingJobCount);
+                totalIndex.addIndexes(subindices.toArray(new Directory[0]));
+                bytesMerged += getIndexSize(totalIndex);
+                totalIndex.forceMerge(maxSegments);
+                totalIndex.commit();
+                for (Directory luceneDir : subindices) {
+                    luceneDir.close();
+                }
+                subindicesInTotalIndex += subindices.size();
+                log.info(
+                        "Completed adding {} subindices to main index, now containing {} subindices(related to combine task #{})",
+                        subindices.size(), subindicesInTotalIndex, indexingJobCount);
+                subindices.clear();
+            } else {
+                sleepAwhile();
+            }
+        }
+
+        log.info("Adding the final {} subindices to main index (related to combine task #{})", subindices.size(),
+                indexingJobCount);
+
+        totalIndex.addIndexes(subindices.toArray(new Directory[0]));
+        for (Directory luceneDir : subindices) {
+            luceneDir.close();
+        }
+        subindices.clear();
+        return bytesMerged;
+    }
+
+    /**
+     * Sort each crawl log and CDX file in parallel, and feed the sorted crawl logs through a k-way merge directly into
+     * the total index. Sorted crawl logs are taken from a completion queue as soon as they are ready, and merged into
+     * the index whenever {@link HarvesterSettings#INDEXSERVER_INDEXING_MERGE_FANIN} of them are ready. No temporary
+     * indices are built and the total index is not merged until the caller does its final merge.
+     *
+     * @param rawfiles The map from job ID into crawl.log contents.
+     * @param indexer The indexer of the total index.
+     * @param indexingOptions The options for the indexing process.
+     * @param executor The executor that runs the sorting of the individual crawl logs.
+     * @param timeOutTime The time at which to stop waiting for the sorted crawl logs.
+     * @return The number of bytes of sorted crawl logs and CDX files read by the merges into the index.
+     * @throws IOException If the total index cannot be written.
+     */
+    private long mergeCrawlLogs(Map<Long, File> rawfiles, DigestIndexer indexer, DigestOptions indexingOptions,
+            ThreadPoolExecutor executor, long timeOutTime) throws IOException {
+        long datasetSize = rawfiles.values().size();
+        final int fanIn = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MERGE_FANIN);
+        CompletionService<Boolean> completionQueue = new ExecutorCompletionService<Boolean>(executor);
+        Map<Future<Boolean>, CrawlLogSortingWorker> outstandingJobs = new HashMap<Future<Boolean>, CrawlLogSortingWorker>();
+        List<CrawlLogSortingWorker> allWorkers = new ArrayList<CrawlLogSortingWorker>();
+        long count = 0;
+        try {
+            for (Map.Entry<Long, File> entry : rawfiles.entrySet()) {
+                Long jobId = entry.getKey();
+                Long cached = cdxcache.cache(jobId);
+                if (cached == null) {
+                    log.warn("Skipping the ingest of logs for job {}. Unable to retrieve cdx-file for job.", jobId);
+                    continue;
+                }
+                ++count;
+                String taskID = count + " out of " + datasetSize;
+                log.debug("Making subthread for sorting job " + jobId + " - task " + taskID);
+                CrawlLogSortingWorker worker = new CrawlLogSortingWorker(jobId, entry.getValue(),
+                        cdxcache.getCacheFile(cached), taskID);
+                allWorkers.add(worker);
+                outstandingJobs.put(completionQueue.submit(worker), worker);
+            }
+
+            List<CrawlLogSortingWorker> sorted = new ArrayList<CrawlLogSortingWorker>();
+            long docsIndexed = 0;
+            long bytesMerged = 0;
+            while (outstandingJobs.size() > 0) {
+                long timeLeft = timeOutTime - System.currentTimeMillis();
+                if (timeLeft <= 0) {
+                    log.warn("Max indexing time exceeded for one index. Indexing stops here, "
+                            + "although missing crawl logs for {} jobs", outstandingJobs.size());
+                    break;
+                }
+                Future<Boolean> result;
+                try {
+                    result = completionQueue.poll(timeLeft, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    log.warn("Interrupted while waiting for sorting threads. Indexing stops here, "
+                            + "although missing crawl logs for {} jobs", outstandingJobs.size(), e);
+                    break;
+                }
+                if (result == null) {
+                    continue;
+                }
+                CrawlLogSortingWorker worker = outstandingJobs.remove(result);
+                try {
+                    if (result.get()) {
+                        sorted.add(worker);
+                    } else {
+                        log.warn("Sorting of job {} failed.", worker.getJobId());
+                    }
+                } catch (InterruptedException e) {
+                    log.warn("Unable to get Result back from sorting thread", e);
+                } catch (ExecutionException e) {
+                    log.warn("Unable to get Result back from sorting thread", e);
+                }
+                if (sorted.size() >= fanIn) {
+                    bytesMerged += getSortedSize(sorted);
+                    docsIndexed += mergeIntoIndex(sorted, indexer, indexingOptions);
+                    log.info("Merged {} sorted crawl logs into main index, now containing {} documents. "
+                            + "Outstanding jobs in combine task #{} is now {}", sorted.size(), docsIndexed,
+                            indexingJobCount, outstandingJobs.size());
+                    sorted.clear();
+                }
+            }
+            if (!sorted.isEmpty()) {
+                bytesMerged += getSortedSize(sorted);
+                docsIndexed += mergeIntoIndex(sorted, indexer, indexingOptions);
+                log.info("Merged the final {} sorted crawl logs into main index, now containing {} documents "
+                        + "(related to combine task #{})", sorted.size(), docsIndexed, indexingJobCount);
+            }
+            return bytesMerged;
+        } finally {
+            // Stop any workers still sorting, e.g. after a timeout, so they do not write sorted files after the
+            // cleanup. Workers which do not stop in time remove their own files when they finish.
+            for (CrawlLogSortingWorker worker : allWorkers) {
+                worker.cancel();
+            }
+            executor.shutdownNow();
+            try {
+                if (!executor.awaitTermination(SORTING_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    log.warn("Sorting threads of combine task #{} did not stop within {} ms", indexingJobCount,
+                            SORTING_SHUTDOWN_TIMEOUT);
+                }
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for sorting threads of combine task #{} to stop",
+                        indexingJobCount, e);
+                Thread.currentThread().interrupt();
+            }
+            for (CrawlLogSortingWorker worker : allWorkers) {
+                worker.cleanup();
+            }
+        }
+    }
+
+    /**
+     * Find the number of bytes of the sorted files of the given workers.
+     *
+     * @param sorted The workers holding the sorted crawl logs.
+     * @return The total size of their sorted crawl logs and CDX files.
+     */
+    private static long getSortedSize(List<CrawlLogSortingWorker> sorted) {
+        long size = 0;
+        for (CrawlLogSortingWorker worker : sorted) {
+            size += worker.getSortedSize();
+        }
+        return size;
+    }
+
+    /**
+     * Merge the given sorted crawl logs into the total index.
+     *
+     * @param sorted The workers holding the sorted crawl logs.
+     * @param indexer The indexer of the total index.
+     * @param indexingOptions The options for the indexing process.
+     * @return The number of documents added to the index.
+     * @throws IOException If the crawl logs cannot be read or the index cannot be written.
+     */
+    private static long mergeIntoIndex(List<CrawlLogSortingWorker> sorted, DigestIndexer indexer,
+            DigestOptions indexingOptions) throws IOException {
+        List<CrawlDataIterator> iterators = new ArrayList<CrawlDataIterator>(sorted.size());
+        try {
+            for (CrawlLogSortingWorker worker : sorted) {
+                iterators.add(worker.openIterator());
+            }
+            CrawlDataIterator merged = new MergingCrawlDataIterator(iterators);
+            return indexer.writeToIndex(merged, indexingOptions.getMimeFilter(), indexingOptions.getUseBlacklist(),
+                    "ERROR", indexingOptions.getVerboseMode());
+        } finally {
+            for (CrawlDataIterator iterator : iterators) {
+                try {
+                    iterator.close();
+                } catch (IOException e) {
+                    log.warn("Error closing sorted crawl log after merging", e);
+                }
+            }
+            for (CrawlLogSortingWorker worker : sorted) {
+                worker.cleanup();
+            }
+        }
+    }
+
+    /**
+     * Find the number of bytes currently used by an index.
+     *
+     * @param index An index being written.
+     * @return The total size of the files in the directory of the index.
+     * @throws IOException If the directory cannot be read.
+     */
+    private static long getIndexSize(IndexWriter index) throws IOException {
+        Directory directory = index.getDirectory();
+        long size = 0;
+        for (String file : directory.listAll()) {
+            if (directory.fileExists(file)) {
+                size += directory.fileLength(file);
+            }
+        }
+        return size;
+    }
+
     /**
      * Try to release all resources connected to the given ThreadPoolExecutor.
      *
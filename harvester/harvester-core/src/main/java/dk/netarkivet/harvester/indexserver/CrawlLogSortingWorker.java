@@ -0,0 +1,172 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.FileUtils;
+import is.hi.bok.deduplicator.CrawlDataIterator;
+
+/**
+ * This worker class sorts the crawl-log and associated cdxfile of a single job, so they can be merged with those of
+ * other jobs into a single index by a {@link MergingCrawlDataIterator}.
+ */
+public class CrawlLogSortingWorker implements Callable<Boolean> {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(CrawlLogSortingWorker.class);
+
+    /** The ID of the job which logfiles are being sorted. */
+    private final Long jobId;
+    /** The crawllog from the job. */
+    private final File crawlLog;
+    /** The cdxfile from the job. */
+    private final File cdxfile;
+    /** String defining this task among other tasks. */
+    private final String taskID;
+    /** The sorted crawllog, or null if not sorted yet. */
+    private volatile File sortedCrawlLog;
+    /** The sorted cdxfile, or null if not sorted yet. */
+    private volatile File sortedCDXFile;
+    /** Set when the sorted files are no longer wanted. */
+    private volatile boolean cancelled;
+
+    /**
+     * Constructor for the CrawlLogSortingWorker.
+     *
+     * @param jobId The ID of the job which logfiles are being sorted
+     * @param crawllogfile The crawllog from the job
+     * @param cdxFile The cdxfile from the job
+     * @param taskID string defining this task
+     */
+    public CrawlLogSortingWorker(Long jobId, File crawllogfile, File cdxFile, String taskID) {
+        ArgumentNotValid.checkNotNull(crawllogfile, "File crawllogfile");
+        ArgumentNotValid.checkNotNull(cdxFile, "File cdxFile");
+        ArgumentNotValid.checkNotNullOrEmpty(taskID, "String taskID");
+        this.jobId = jobId;
+        this.crawlLog = crawllogfile;
+        this.cdxfile = cdxFile;
+        this.taskID = taskID;
+    }
+
+    /**
+     * This method does the actual sorting.
+     *
+     * @return true, if the sorting completes successfully; otherwise it returns false
+     */
+    @Override
+    public Boolean call() {
+        try {
+            log.info("Starting sorting task ({}) of data from job {}", taskID, jobId);
+            sortedCDXFile = CrawlLogIndexCache.getSortedCDX(cdxfile);
+            sortedCrawlLog = CrawlLogIndexCache.getSortedCrawlLog(crawlLog);
+            if (cancelled) {
+                // The files may already have been cleaned up, so nobody else removes these.
+                cleanup();
+                return false;
+            }
+            log.info("Completed sorting task ({}) of data from job {}", taskID, jobId);
+            return true;
+        } catch (Throwable t) {
+            log.warn("Sorting for job w/ id {} failed.", jobId, t);
+            cleanup();
+            return false;
+        }
+    }
+
+    /**
+     * Open an iterator over the crawl-log items of the job, sorted by URL and with origins found in the CDX file. This
+     * may only be called after a successful call of {@link #call()}.
+     *
+     * @return A CrawlDataIterator that closes both the crawl-log and the CDX file when closed.
+     * @throws IOException If the sorted files cannot be opened.
+     */
+    public CrawlDataIterator openIterator() throws IOException {
+        final BufferedReader cdxReader = new BufferedReader(new FileReader(sortedCDXFile));
+        try {
+            return new CDXOriginCrawlLogIterator(sortedCrawlLog, cdxReader) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        cdxReader.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            cdxReader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Tell this worker that its sorted files are no longer wanted, so it removes them itself if it finishes sorting
+     * after {@link #cleanup()} has been called.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return The total size of the sorted crawl log and CDX file, or 0 if they have not been made.
+     */
+    public long getSortedSize() {
+        long size = 0;
+        if (sortedCrawlLog != null) {
+            size += sortedCrawlLog.length();
+        }
+        if (sortedCDXFile != null) {
+            size += sortedCDXFile.length();
+        }
+        return size;
+    }
+
+    /**
+     * Remove the sorted files made by this worker, if any.
+     */
+    public void cleanup() {
+        if (sortedCrawlLog != null) {
+            FileUtils.remove(sortedCrawlLog);
+        }
+        if (sortedCDXFile != null) {
+            FileUtils.remove(sortedCDXFile);
+        }
+    }
+
+    /**
+     * @return the ID of the job whose logfiles are sorted.
+     */
+    public Long getJobId() {
+        return jobId;
+    }
+
+}
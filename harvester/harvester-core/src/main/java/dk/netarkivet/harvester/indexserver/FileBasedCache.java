@@ -31,6 +31,13 @@ import java.nio.channels.OverlappingFileLockException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +48,7 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 
 /**
  * A generic cache that stores items in files. This abstract superclass handles placement of the cache directory and
@@ -53,9 +61,21 @@ public abstract class FileBasedCache<T> {
     /** Logger. */
     private static final Logger log = LoggerFactory.getLogger(FileBasedCache.class);
 
+    /** The locks of the cache files being looked up or made by threads in this process, shared by all caches. */
+    private static final KeyedLockTable LOCKS = new KeyedLockTable();
+
     /** Cache directory. */
     protected File cacheDir;
 
+    /** The manager of the entries in the cache directory. */
+    private final FileBasedCacheManager manager;
+
+    /** How long an idle thread of the fetch pool is kept, in seconds. */
+    private static final long FETCH_THREAD_KEEP_ALIVE = 60;
+
+    /** The threads caching entries for {@link #get(Set)}, made when first needed. Idle threads end after a while. */
+    private ThreadPoolExecutor fetchPool;
+
     /**
      * Creates a new FileBasedCache object. This creates a directory under the main cache directory holding cached
      * files.
@@ -68,6 +88,7 @@ public abstract class FileBasedCache<T> {
         this.cacheDir = new File(new File(Settings.get(CommonSettings.CACHE_DIR)), cacheName).getAbsoluteFile();
         log.info("Metadata cache for '{}' uses directory '{}'", cacheName, getCacheDir().getAbsolutePath());
         FileUtils.createDir(getCacheDir());
+        manager = FileBasedCacheManager.forDirectory(getCacheDir());
     }
 
     /**
@@ -80,6 +101,38 @@ public abstract class FileBasedCache<T> {
         return cacheDir;
     }
 
+    /**
+     * Get the statistics of the cache directory, which are shared by all caches in this process using the directory.
+     *
+     * @return The statistics.
+     */
+    public FileBasedCacheStatistics getStatistics() {
+        return manager;
+    }
+
+    /**
+     * Pin the cache file for an ID, so it is not evicted from the cache until unpinned. The file need not exist yet.
+     * Callers that use a cache file after {@link #cache(Object)} has returned should pin it before calling cache, and
+     * unpin it when done.
+     *
+     * @param id Some sort of id that uniquely identifies the item within the cache.
+     */
+    public void pin(T id) {
+        ArgumentNotValid.checkNotNull(id, "id");
+        manager.pin(getCacheFile(id));
+    }
+
+    /**
+     * Unpin the cache file for an ID pinned by {@link #pin(Object)}. If the file was made outside the cache, it is
+     * accounted for in the size of the cache from now on.
+     *
+     * @param id Some sort of id that uniquely identifies the item within the cache.
+     */
+    public void unpin(T id) {
+        ArgumentNotValid.checkNotNull(id, "id");
+        manager.unpin(getCacheFile(id));
+    }
+
     /**
      * Get the file that caches content for the given ID.
      *
@@ -110,7 +163,11 @@ public abstract class FileBasedCache<T> {
      * somebody else seems to be creating the file, we wait and see if they finish. This is checked by having an
      * exclusive lock on a ".working" file (we cannot use the result file, as it has to be created to be locked, and we
      * may end up with a different cached file than we thought, see above). The .working file itself is irrelevant, only
-     * the lock on it matters.
+     * the lock on it matters. Within this process, threads are kept apart by a lock on the name of the .working file
+     * before the file lock is taken, as file locks are held on behalf of the whole process.
+     * <p>
+     * The cache file is pinned while this method runs, so it cannot be evicted before it is returned. Newly made cache
+     * files may cause the least valuable unpinned files to be evicted, if the cache has a maximum size.
      *
      * @param id Some sort of id that uniquely identifies the item within the cache.
      * @return The id given if it was successfully fetched, otherwise null if the type parameter I does not allow
@@ -119,18 +176,19 @@ public abstract class FileBasedCache<T> {
     public T cache(T id) {
         ArgumentNotValid.checkNotNull(id, "id");
         File cachedFile = getCacheFile(id);
+        manager.pin(cachedFile);
         try {
             File fileBehindLockFile = new File(cachedFile.getAbsolutePath() + ".working");
-            FileOutputStream lockFile = new FileOutputStream(fileBehindLockFile);
-            FileLock lock = null;
+            String lockKey = fileBehindLockFile.getAbsolutePath();
             // Make sure no other thread tries to create this
-            // FIXME welcome to a memory leak, intern strings are never freed from memory again!
-            log.debug("Waiting to enter synchronization on {}", fileBehindLockFile.getAbsolutePath().intern());
-            // FIXME Potential memory leak. intern() remembers all strings until JVM exits.
-            synchronized (fileBehindLockFile.getAbsolutePath().intern()) {
+            log.debug("Waiting to enter synchronization on {}", lockKey);
+            LOCKS.lock(lockKey);
+            try {
+                FileOutputStream lockFile = new FileOutputStream(fileBehindLockFile);
+                FileLock lock = null;
                 try {
                     // Make sure no other process tries to create this.
-                    log.debug("locking filechannel for file '{}' (thread = {})", fileBehindLockFile.getAbsolutePath(),
+                    log.debug("locking filechannel for file '{}' (thread = {})", lockKey,
                             Thread.currentThread().getName());
                     try {
                         lock = lockFile.getChannel().lock();
@@ -141,9 +199,12 @@ public abstract class FileBasedCache<T> {
                     // Now we know nobody else touches the file.
                     // If the file already exists, just return it.
                     if (cachedFile.exists()) {
+                        manager.hit(cachedFile);
                         return id;
                     }
-                    return cacheData(id);
+                    T result = cacheData(id);
+                    manager.miss(cachedFile);
+                    return result;
                 } finally {
                     if (lock != null) {
                         log.debug("release lock on filechannel {}", lockFile.getChannel());
@@ -151,17 +212,24 @@ public abstract class FileBasedCache<T> {
                     }
                     lockFile.close();
                 }
+            } finally {
+                LOCKS.unlock(lockKey);
             }
         } catch (IOException e) {
             String errMsg = "Error obtaining lock for file '" + cachedFile.getAbsolutePath() + "'.";
             log.warn(errMsg, e);
             throw new IOFailure(errMsg, e);
+        } finally {
+            manager.unpin(cachedFile);
         }
     }
 
     /**
      * Utility method to get a number of cache entries at a time. Implementations of FileBasedCache may override this to
      * perform the caching more efficiently, if caching overhead per file is large.
+     * <p>
+     * The entries are cached by up to {@link HarvesterSettings#INDEXSERVER_CACHE_FETCH_THREADS} threads at a time, taken
+     * from a pool kept by the cache.
      *
      * @param ids List of IDs that uniquely identify a set of items within the cache.
      * @return A map from ID to the files containing cached data for those IDs. If caching failed, even partially, for
@@ -170,16 +238,91 @@ public abstract class FileBasedCache<T> {
     public Map<T, File> get(Set<T> ids) {
         ArgumentNotValid.checkNotNull(ids, "Set<I> ids");
         Map<T, File> result = new HashMap<T, File>(ids.size());
-        for (T id : ids) {
-            if (id.equals(cache(id))) {
-                result.put(id, getCacheFile(id));
-            } else {
-                result.put(id, null);
+        int threads = Math.min(ids.size(), Settings.getInt(HarvesterSettings.INDEXSERVER_CACHE_FETCH_THREADS));
+        if (threads <= 1) {
+            for (T id : ids) {
+                putCached(result, id, cache(id));
+            }
+            return result;
+        }
+        ThreadPoolExecutor executor = getFetchPool(threads);
+        Map<T, Future<T>> futures = new HashMap<T, Future<T>>(ids.size());
+        boolean done = false;
+        try {
+            for (final T id : ids) {
+                futures.put(id, executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() {
+                        return cache(id);
+                    }
+                }));
+            }
+            for (Map.Entry<T, Future<T>> future : futures.entrySet()) {
+                putCached(result, future.getKey(), future.getValue().get());
+            }
+            done = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while caching data for " + ids.size() + " ids in '" + getCacheDir()
+                    + "'", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOFailure("Error caching data in '" + getCacheDir() + "'", e.getCause());
+        } finally {
+            if (!done) {
+                // Leave the pool to other callers
+                for (Future<T> future : futures.values()) {
+                    future.cancel(true);
+                }
             }
         }
         return result;
     }
 
+    /**
+     * Get the pool of threads caching entries for {@link #get(Set)}. The pool is shared by all calls on this cache, and
+     * grows to the number of threads asked for.
+     *
+     * @param threads The number of threads wanted.
+     * @return The pool.
+     */
+    private synchronized ThreadPoolExecutor getFetchPool(int threads) {
+        if (fetchPool == null) {
+            final String name = "FileBasedCache-" + getCacheDir().getName();
+            fetchPool = new ThreadPoolExecutor(threads, threads, FETCH_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, name);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            fetchPool.allowCoreThreadTimeOut(true);
+        } else if (fetchPool.getMaximumPoolSize() < threads) {
+            fetchPool.setMaximumPoolSize(threads);
+            fetchPool.setCorePoolSize(threads);
+        }
+        return fetchPool;
+    }
+
+    /**
+     * Add the result of caching an ID to a map of results.
+     *
+     * @param result The map from ID to the file containing cached data for the ID, or null if caching failed.
+     * @param id The ID.
+     * @param cached The ID returned by {@link #cache(Object)} for the ID.
+     */
+    private void putCached(Map<T, File> result, T id, T cached) {
+        if (id.equals(cached)) {
+            result.put(id, getCacheFile(id));
+        } else {
+            result.put(id, null);
+        }
+    }
+
     /**
      * Forgiving index generating method, that returns a file with an index, of the greatest possible subset of a given
      * id, and the subset.
@@ -0,0 +1,399 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
+import dk.netarkivet.common.management.SingleMBeanObject;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * Keeps account of the entries in the directory of a {@link FileBasedCache}, and evicts entries when they use more
+ * bytes than allowed by the setting {@link HarvesterSettings#INDEXSERVER_CACHE_MAX_SIZE}.
+ * <p>
+ * An entry is a file or directory directly in the cache directory. Entries are chosen for eviction by the policy given
+ * by {@link HarvesterSettings#INDEXSERVER_CACHE_EVICTION_POLICY}: either the least recently used entry, or the least
+ * frequently used entry since this process started. Access times are recorded as the modification time of the entries,
+ * so they survive restarts. Entries that are pinned are never evicted.
+ * <p>
+ * There is one manager per cache directory, shared by all caches in this process using that directory. The size is
+ * only accounted for within this process.
+ */
+final class FileBasedCacheManager implements FileBasedCacheStatistics {
+
+    /** The class logger. */
+    private static final Logger log = LoggerFactory.getLogger(FileBasedCacheManager.class);
+
+    /** The JMX domain of the statistics of the caches. */
+    private static final String JMX_DOMAIN = "dk.netarkivet.harvester.indexserver";
+
+    /** Suffixes of files in the cache directory that are not entries. */
+    private static final String[] NON_ENTRY_SUFFIXES = {".working", ".unsorted"};
+
+    /** The policies for choosing entries to evict. */
+    enum EvictionPolicy {
+        /** Evict the least recently used entry. */
+        LRU,
+        /** Evict the least frequently used entry, and the least recently used among those. */
+        LFU
+    }
+
+    /** The managers of each cache directory. */
+    private static final Map<File, FileBasedCacheManager> managers = new HashMap<File, FileBasedCacheManager>();
+
+    /** An entry in the cache directory. */
+    private static final class Entry {
+        /** The file or directory of the entry. */
+        private final File file;
+        /** The number of bytes used by the entry. */
+        private long size;
+        /** The time of the last access in milliseconds. */
+        private long lastAccess;
+        /** The number of accesses in this process. */
+        private long accesses;
+
+        /**
+         * @param file The file or directory of the entry.
+         */
+        private Entry(File file) {
+            this.file = file;
+            this.size = sizeOf(file);
+            this.lastAccess = file.lastModified();
+        }
+    }
+
+    /** The cache directory. */
+    private final File cacheDir;
+    /** The number of bytes the entries may use, or 0 for no limit. */
+    private final long maxSize;
+    /** The policy for choosing entries to evict. */
+    private final EvictionPolicy policy;
+    /** The known entries by file name. */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    /** The number of current users of each pinned file name. */
+    private final Map<String, Integer> pins = new HashMap<String, Integer>();
+    /** The number of bytes used by the known entries. */
+    private long size;
+
+    /** The number of hits. */
+    private final LongAdder hits = new LongAdder();
+    /** The number of misses. */
+    private final LongAdder misses = new LongAdder();
+    /** The number of evicted entries. */
+    private final LongAdder evictions = new LongAdder();
+    /** The number of bytes freed by evicting entries. */
+    private final LongAdder evictedBytes = new LongAdder();
+
+    /**
+     * Create a manager for a cache directory, accounting for the entries already in the directory.
+     *
+     * @param cacheDir The cache directory.
+     * @param maxSize The number of bytes the entries may use, or 0 for no limit.
+     * @param policy The policy for choosing entries to evict.
+     * @throws ArgumentNotValid If the directory or policy is null, or the size is negative.
+     */
+    FileBasedCacheManager(File cacheDir, long maxSize, EvictionPolicy policy) {
+        ArgumentNotValid.checkNotNull(cacheDir, "File cacheDir");
+        ArgumentNotValid.checkNotNegative(maxSize, "long maxSize");
+        ArgumentNotValid.checkNotNull(policy, "EvictionPolicy policy");
+        this.cacheDir = cacheDir.getAbsoluteFile();
+        this.maxSize = maxSize;
+        this.policy = policy;
+        File[] files = this.cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (isEntry(file)) {
+                    Entry entry = new Entry(file);
+                    entries.put(file.getName(), entry);
+                    size += entry.size;
+                }
+            }
+        }
+        log.debug("Cache directory '{}' has {} entries of {} bytes", this.cacheDir, entries.size(), size);
+    }
+
+    /**
+     * Get the manager of a cache directory, creating it and registering its statistics as an MBean the first time.
+     *
+     * @param cacheDir The cache directory.
+     * @return The manager of the directory.
+     */
+    static synchronized FileBasedCacheManager forDirectory(File cacheDir) {
+        ArgumentNotValid.checkNotNull(cacheDir, "File cacheDir");
+        File dir = cacheDir.getAbsoluteFile();
+        FileBasedCacheManager manager = managers.get(dir);
+        if (manager == null) {
+            manager = new FileBasedCacheManager(dir, Settings.getLong(HarvesterSettings.INDEXSERVER_CACHE_MAX_SIZE),
+                    EvictionPolicy.valueOf(Settings.get(HarvesterSettings.INDEXSERVER_CACHE_EVICTION_POLICY).trim()
+                            .toUpperCase()));
+            managers.put(dir, manager);
+            manager.register();
+        }
+        return manager;
+    }
+
+    /**
+     * Register the statistics of this manager as an MBean. Failure to do so is logged, but otherwise ignored.
+     */
+    private void register() {
+        SingleMBeanObject<FileBasedCacheStatistics> mBean = new SingleMBeanObject<FileBasedCacheStatistics>(
+                JMX_DOMAIN, this, FileBasedCacheStatistics.class, ManagementFactory.getPlatformMBeanServer());
+        mBean.getNameProperties().put("cache", cacheDir.getName());
+        try {
+            mBean.register();
+        } catch (IllegalState | IOFailure e) {
+            log.warn("Unable to register statistics for cache directory '{}'", cacheDir, e);
+        }
+    }
+
+    /**
+     * Pin a file, so it is not evicted until it is unpinned again. The file need not exist yet.
+     *
+     * @param file A file in the cache directory.
+     */
+    synchronized void pin(File file) {
+        if (isInCacheDir(file)) {
+            Integer users = pins.get(file.getName());
+            pins.put(file.getName(), users == null ? 1 : users + 1);
+        }
+    }
+
+    /**
+     * Unpin a file. If the file exists and is not yet accounted for, it is added as an entry, since it may have been
+     * made by the user of the pin.
+     *
+     * @param file A file pinned by {@link #pin(File)}.
+     */
+    synchronized void unpin(File file) {
+        if (!isInCacheDir(file)) {
+            return;
+        }
+        Integer users = pins.get(file.getName());
+        if (users == null || users <= 1) {
+            pins.remove(file.getName());
+        } else {
+            pins.put(file.getName(), users - 1);
+        }
+        if (!entries.containsKey(file.getName()) && file.exists()) {
+            access(file);
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Record that cached data was found for a request.
+     *
+     * @param file The file holding the data.
+     */
+    void hit(File file) {
+        hits.increment();
+        synchronized (this) {
+            access(file);
+        }
+    }
+
+    /**
+     * Record that data for a request was not cached, and had to be fetched. If the file for the data was made, it is
+     * added as an entry, and other entries are evicted if needed.
+     *
+     * @param file The file for the data.
+     */
+    void miss(File file) {
+        misses.increment();
+        synchronized (this) {
+            if (!isInCacheDir(file)) {
+                return;
+            }
+            Entry old = entries.remove(file.getName());
+            if (old != null) {
+                size -= old.size;
+            }
+            if (file.exists()) {
+                access(file);
+                evictIfNeeded();
+            }
+        }
+    }
+
+    /**
+     * Record an access to an entry, adding it if it is not already accounted for.
+     *
+     * @param file The file of the entry.
+     */
+    private void access(File file) {
+        if (!isInCacheDir(file)) {
+            return;
+        }
+        Entry entry = entries.get(file.getName());
+        if (entry == null) {
+            if (!file.exists()) {
+                return;
+            }
+            entry = new Entry(file);
+            entries.put(file.getName(), entry);
+            size += entry.size;
+        }
+        entry.accesses++;
+        entry.lastAccess = System.currentTimeMillis();
+        if (!file.setLastModified(entry.lastAccess)) {
+            log.debug("Unable to record access time of '{}'", file);
+        }
+    }
+
+    /**
+     * Evict unpinned entries until the entries use no more than the maximum size, if any.
+     */
+    private void evictIfNeeded() {
+        while (maxSize > 0 && size > maxSize) {
+            Entry victim = null;
+            for (Entry entry : entries.values()) {
+                if (!pins.containsKey(entry.file.getName()) && (victim == null || isBefore(entry, victim))) {
+                    victim = entry;
+                }
+            }
+            if (victim == null) {
+                log.warn("Cache directory '{}' uses {} bytes, more than the maximum {} bytes, but all {} entries are "
+                        + "in use", cacheDir, size, maxSize, entries.size());
+                return;
+            }
+            entries.remove(victim.file.getName());
+            size -= victim.size;
+            if (victim.file.exists()) {
+                log.info("Evicting '{}' of {} bytes from cache directory '{}'", victim.file.getName(), victim.size,
+                        cacheDir);
+                FileUtils.removeRecursively(victim.file);
+                evictions.increment();
+                evictedBytes.add(victim.size);
+            }
+        }
+    }
+
+    /**
+     * @param entry An entry.
+     * @param other Another entry.
+     * @return True if the entry should be evicted before the other entry by the eviction policy.
+     */
+    private boolean isBefore(Entry entry, Entry other) {
+        if (policy == EvictionPolicy.LFU && entry.accesses != other.accesses) {
+            return entry.accesses < other.accesses;
+        }
+        return entry.lastAccess < other.lastAccess;
+    }
+
+    /**
+     * @param file A file.
+     * @return True if the file is directly in the cache directory.
+     */
+    private boolean isInCacheDir(File file) {
+        return cacheDir.equals(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * @param file A file in the cache directory.
+     * @return True if the file is an entry, and not e.g. a lock file or a file being made.
+     */
+    private static boolean isEntry(File file) {
+        for (String suffix : NON_ENTRY_SUFFIXES) {
+            if (file.getName().endsWith(suffix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param file A file or directory.
+     * @return The number of bytes used by the file, or by all files in the directory.
+     */
+    private static long sizeOf(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += sizeOf(f);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String getCacheDirectory() {
+        return cacheDir.getAbsolutePath();
+    }
+
+    @Override
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized int getPinnedEntryCount() {
+        return pins.size();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getEvictedBytes() {
+        return evictedBytes.sum();
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+/**
+ * Statistics for a directory of a {@link FileBasedCache}, exposed as an MBean.
+ */
+public interface FileBasedCacheStatistics {
+
+    /**
+     * @return The path of the cache directory.
+     */
+    String getCacheDirectory();
+
+    /**
+     * @return The number of bytes used by the entries in the cache directory.
+     */
+    long getSize();
+
+    /**
+     * @return The number of bytes the entries may use before entries are evicted, or 0 if the size is unbounded.
+     */
+    long getMaxSize();
+
+    /**
+     * @return The number of entries in the cache directory.
+     */
+    int getEntryCount();
+
+    /**
+     * @return The number of entries pinned by current users, and thus not evictable.
+     */
+    int getPinnedEntryCount();
+
+    /**
+     * @return The number of requests for data that was already cached.
+     */
+    long getHits();
+
+    /**
+     * @return The number of requests for data that had to be fetched.
+     */
+    long getMisses();
+
+    /**
+     * @return The number of entries evicted to keep the cache within its size.
+     */
+    long getEvictions();
+
+    /**
+     * @return The number of bytes freed by evicting entries.
+     */
+    long getEvictedBytes();
+
+}
@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IllegalState;
+
+/**
+ * A table of locks by key, for mutual exclusion between threads in this process working on the same key. The lock of a
+ * key only exists while some thread holds or waits for it, so the table does not grow with the number of keys ever
+ * used.
+ */
+final class KeyedLockTable {
+
+    /** The lock of a key and the number of threads holding or waiting for it. */
+    private static final class KeyLock {
+        /** The lock. */
+        private final ReentrantLock lock = new ReentrantLock();
+        /** The number of threads holding or waiting for the lock, counting reentrant holds. */
+        private int users;
+    }
+
+    /** The locks in use by key. */
+    private final Map<String, KeyLock> locks = new HashMap<String, KeyLock>();
+
+    /**
+     * Lock a key, waiting until no other thread holds the lock of the key. The lock is reentrant, and must be
+     * unlocked once for each time it is locked.
+     *
+     * @param key The key.
+     * @throws ArgumentNotValid If the key is null.
+     */
+    void lock(String key) {
+        ArgumentNotValid.checkNotNull(key, "String key");
+        KeyLock keyLock;
+        synchronized (locks) {
+            keyLock = locks.get(key);
+            if (keyLock == null) {
+                keyLock = new KeyLock();
+                locks.put(key, keyLock);
+            }
+            keyLock.users++;
+        }
+        keyLock.lock.lock();
+    }
+
+    /**
+     * Unlock a key locked by the current thread.
+     *
+     * @param key The key.
+     * @throws IllegalState If the current thread does not hold the lock of the key.
+     */
+    void unlock(String key) {
+        ArgumentNotValid.checkNotNull(key, "String key");
+        synchronized (locks) {
+            KeyLock keyLock = locks.get(key);
+            if (keyLock == null || !keyLock.lock.isHeldByCurrentThread()) {
+                throw new IllegalState("The lock of '" + key + "' is not held by this thread");
+            }
+            keyLock.lock.unlock();
+            if (--keyLock.users == 0) {
+                locks.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return The number of keys currently locked or waited for.
+     */
+    int size() {
+        synchronized (locks) {
+            return locks.size();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import is.hi.bok.deduplicator.CrawlDataItem;
+import is.hi.bok.deduplicator.CrawlDataIterator;
+
+/**
+ * A CrawlDataIterator that does a k-way merge of a number of CrawlDataIterators, each delivering its items sorted by
+ * URL. The merged items are delivered sorted by URL. Items with the same URL are delivered in the order of the
+ * iterators given to the constructor.
+ */
+public class MergingCrawlDataIterator extends CrawlDataIterator {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(MergingCrawlDataIterator.class);
+
+    /** The iterators being merged. */
+    private final List<CrawlDataIterator> iterators;
+
+    /** The current item of each iterator that is not yet exhausted, ordered by URL. */
+    private PriorityQueue<Head> heads;
+
+    /**
+     * Create a new iterator merging the given iterators.
+     *
+     * @param iterators A list of iterators each delivering items sorted by URL.
+     * @throws ArgumentNotValid If iterators is null.
+     */
+    public MergingCrawlDataIterator(List<CrawlDataIterator> iterators) {
+        super("merge of " + (iterators == null ? 0 : iterators.size()) + " crawl data iterators");
+        ArgumentNotValid.checkNotNull(iterators, "List<CrawlDataIterator> iterators");
+        this.iterators = new ArrayList<CrawlDataIterator>(iterators);
+    }
+
+    /**
+     * Read the first item from each iterator. This is done lazily, so that no reading happens in the constructor.
+     *
+     * @throws IOException If one of the iterators fails.
+     */
+    private void initHeads() throws IOException {
+        if (heads != null) {
+            return;
+        }
+        heads = new PriorityQueue<Head>(Math.max(1, iterators.size()));
+        for (int i = 0; i < iterators.size(); i++) {
+            CrawlDataIterator it = iterators.get(i);
+            if (it.hasNext()) {
+                heads.add(new Head(it.next(), i));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        initHeads();
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public CrawlDataItem next() throws IOException {
+        initHeads();
+        Head head = heads.poll();
+        if (head == null) {
+            throw new NoSuchElementException("No more items");
+        }
+        CrawlDataItem item = head.item;
+        CrawlDataIterator it = iterators.get(head.index);
+        if (it.hasNext()) {
+            head.item = it.next();
+            heads.add(head);
+        }
+        return item;
+    }
+
+    /**
+     * Close all the merged iterators. All iterators are attempted closed, even if some of them fail.
+     *
+     * @throws IOException If closing one of the iterators fails. The first failure is rethrown.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (CrawlDataIterator it : iterators) {
+            try {
+                it.close();
+            } catch (IOException e) {
+                log.warn("Error closing merged iterator {}", it.getSourceType(), e);
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String getSourceType() {
+        return "K-way merge of " + iterators.size() + " URL-sorted crawl data iterators";
+    }
+
+    /** The current item of one of the merged iterators. */
+    private static class Head implements Comparable<Head> {
+        /** The current item. */
+        private CrawlDataItem item;
+        /** The index of the iterator the item came from. */
+        private final int index;
+
+        /**
+         * @param item The current item.
+         * @param index The index of the iterator the item came from.
+         */
+        Head(CrawlDataItem item, int index) {
+            this.item = item;
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            int cmp = item.getURL().compareTo(other.item.getURL());
+            if (cmp == 0) {
+                cmp = Integer.compare(index, other.index);
+            }
+            return cmp;
+        }
+    }
+
+}
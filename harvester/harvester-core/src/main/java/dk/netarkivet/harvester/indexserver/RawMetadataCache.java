@@ -24,10 +24,14 @@ package dk.netarkivet.harvester.indexserver;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,6 +39,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.math3.util.Pair;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,6 +56,7 @@ import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.archive.ArchiveBatchJob;
 import dk.netarkivet.common.utils.archive.GetMetadataArchiveBatchJob;
 import dk.netarkivet.common.utils.hadoop.GetMetadataMapper;
+import dk.netarkivet.common.utils.hadoop.GetMetadataPerJobMapper;
 import dk.netarkivet.common.utils.hadoop.HadoopJob;
 import dk.netarkivet.common.utils.hadoop.HadoopJobStrategy;
 import dk.netarkivet.common.utils.hadoop.HadoopJobUtils;
@@ -84,6 +90,13 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
  
     /** Try to migrate jobs with a duplicationmigration record. */
     private boolean tryToMigrateDuplicationRecords;
+
+    /** Data for jobs extracted by a batched Hadoop job, waiting to be moved into the cache by cacheData. */
+    private final Map<Long, File> extractedData = new ConcurrentHashMap<Long, File>();
+
+    /** Jobs for which a batched Hadoop job found no data. */
+    private final Set<Long> extractedWithoutData = ConcurrentHashMap.newKeySet();
+
     /**
      * Create a new RawMetadataCache. For a given job ID, this will fetch and cache selected content from metadata files
      * (&lt;ID&gt;-metadata-[0-9]+.arc). Any entry in a metadata file that matches both patterns will be returned. The
@@ -133,6 +146,156 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
         return new File(getCacheDir(), prefix + "-" + id + "-cache");
     }
 
+    /**
+     * Get the cache files for a number of jobs. When using the Hadoop backend, the data for the jobs not yet cached is
+     * extracted by one Hadoop job per {@link HarvesterSettings#INDEXSERVER_METADATA_EXTRACTION_BATCH_SIZE} jobs,
+     * instead of one Hadoop job per job. If a batched Hadoop job fails, the data is extracted one job at a time.
+     *
+     * @param ids The jobs to get cache files for.
+     * @return A map from job ID to the file containing cached data for the job, or null if caching failed.
+     * @see FileBasedCache#get(Set)
+     */
+    @Override
+    public Map<Long, File> get(Set<Long> ids) {
+        ArgumentNotValid.checkNotNull(ids, "Set<Long> ids");
+        int batchSize = Settings.getInt(HarvesterSettings.INDEXSERVER_METADATA_EXTRACTION_BATCH_SIZE);
+        if (!Settings.getBoolean(CommonSettings.USE_BITMAG_HADOOP_BACKEND) || batchSize <= 1) {
+            return super.get(ids);
+        }
+        Set<Long> missing = new TreeSet<Long>();
+        for (Long id : ids) {
+            if (!getCacheFile(id).exists()) {
+                missing.add(id);
+            }
+        }
+        if (missing.size() <= 1) {
+            return super.get(ids);
+        }
+        Map<Long, File> extracted = new HashMap<Long, File>();
+        try {
+            List<Long> batch = new ArrayList<Long>(Math.min(batchSize, missing.size()));
+            for (Long id : missing) {
+                batch.add(id);
+                if (batch.size() == batchSize) {
+                    extractDataHadoop(batch, extracted);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                extractDataHadoop(batch, extracted);
+            }
+            return super.get(ids);
+        } finally {
+            // Clean up data not moved into the cache, e.g. because another thread cached the job meanwhile
+            for (Map.Entry<Long, File> entry : extracted.entrySet()) {
+                extractedData.remove(entry.getKey(), entry.getValue());
+                FileUtils.remove(entry.getValue());
+            }
+            extractedWithoutData.removeAll(missing);
+        }
+    }
+
+    /**
+     * Extract data for a number of jobs by a single Hadoop job, and leave it for {@link #cacheData(Long)} to move into
+     * the cache. Failure is logged, and leaves the jobs to be cached one at a time.
+     *
+     * @param ids The jobs to extract data for.
+     * @param extracted A map to add the files holding the extracted data to, by job ID.
+     */
+    private void extractDataHadoop(List<Long> ids, Map<Long, File> extracted) {
+        final String metadataFilePatternSuffix = Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX);
+        // The first group is the ID of the job that the file belongs to
+        final String specifiedPattern = "(?:.*-)?(" + StringUtils.join(ids, "|") + ")(?:-.*)?"
+                + metadataFilePatternSuffix;
+        Configuration conf = HadoopJobUtils.getConf();
+        conf.set(GetMetadataPerJobMapper.JOB_ID_PATTERN, specifiedPattern);
+
+        try (FileSystem fileSystem = FileSystem.newInstance(conf)) {
+            Path outputDir = runPerJobExtraction(ids, fileSystem, specifiedPattern, urlPattern, mimePattern);
+            Path migrationOutputDir = null;
+            try {
+                if (tryToMigrateDuplicationRecords && urlPattern.pattern().equals(MetadataFile.CRAWL_LOG_PATTERN)) {
+                    migrationOutputDir = runPerJobExtraction(ids, fileSystem, specifiedPattern,
+                            Pattern.compile(".*duplicationmigration.*"), Pattern.compile("text/plain"));
+                }
+                for (Long id : ids) {
+                    Path jobOutputDir = new Path(outputDir, id.toString());
+                    if (!fileSystem.exists(jobOutputDir)) {
+                        log.info("No data found for job '{}' for '{}' in local bitarchive. ", id, prefix);
+                        extractedWithoutData.add(id);
+                        continue;
+                    }
+                    File data = createTempOutputFile();
+                    HadoopJobUtils.copyOutputToFile(fileSystem, jobOutputDir, data);
+                    if (migrationOutputDir != null && fileSystem.exists(new Path(migrationOutputDir, id.toString()))) {
+                        File migration = createTempOutputFile();
+                        HadoopJobUtils.copyOutputToFile(fileSystem, new Path(migrationOutputDir, id.toString()),
+                                migration);
+                        log.info("Found a nonempty duplicationmigration record. Now we do the migration for job {}",
+                                id);
+                        Hashtable<Pair<String, Long>, Long> lookup = createLookupTableFromMigrationLines(id, migration);
+                        File migrated = createTempOutputFile();
+                        migrateFilenameOffsetPairs(id, migrated, data, lookup);
+                        data = migrated;
+                    }
+                    File previous = extractedData.putIfAbsent(id, data);
+                    if (previous == null) {
+                        extracted.put(id, data);
+                    } else {
+                        FileUtils.remove(data);
+                    }
+                }
+            } finally {
+                fileSystem.delete(outputDir, true);
+                if (migrationOutputDir != null) {
+                    fileSystem.delete(migrationOutputDir, true);
+                }
+            }
+        } catch (IOException | IOFailure e) {
+            log.warn("Failed extracting data for {} jobs for '{}' by a single Hadoop job. "
+                    + "Extracting it one job at a time.", ids.size(), prefix, e);
+        }
+    }
+
+    /**
+     * Run a Hadoop job extracting the metadata for a number of jobs, with the output for each job in a directory named
+     * by the job ID in the job output directory.
+     *
+     * @param ids The jobs to extract data for.
+     * @param fileSystem The filesystem on which the operations are carried out.
+     * @param specifiedPattern The pattern specifying the files to be found, with the job ID as the first group.
+     * @param urlMatcher The pattern for matching URLs of the desired entries.
+     * @param mimeMatcher The pattern for matching mime-types of the desired entries.
+     * @return The job output directory, which the caller must delete.
+     * @throws IOFailure If the Hadoop job fails, in which case its output directory has been deleted.
+     */
+    private Path runPerJobExtraction(List<Long> ids, FileSystem fileSystem, String specifiedPattern,
+            Pattern urlMatcher, Pattern mimeMatcher) {
+        Configuration conf = fileSystem.getConf();
+        conf.setPattern(GetMetadataMapper.URL_PATTERN, urlMatcher);
+        conf.setPattern(GetMetadataMapper.MIME_PATTERN, mimeMatcher);
+        HadoopJobStrategy jobStrategy = new MetadataExtractionStrategy(ids.get(0), fileSystem,
+                new GetMetadataPerJobMapper());
+        HadoopJob job = new HadoopJob(ids.get(0), jobStrategy);
+        job.processOnlyFilesMatching(specifiedPattern);
+        job.prepareJobInputOutput(fileSystem);
+        log.info("Extracting data for {} jobs from '{}' to '{}' by a single Hadoop job", ids.size(), ids.get(0),
+                ids.get(ids.size() - 1));
+        try {
+            job.run();
+        } catch (RuntimeException e) {
+            // The caller only gets the output directory if the job succeeds, so remove any partial output here
+            try {
+                fileSystem.delete(job.getJobOutputDir(), true);
+            } catch (IOException deleteFailure) {
+                log.warn("Unable to delete the output of the failed Hadoop job in '{}'", job.getJobOutputDir(),
+                        deleteFailure);
+            }
+            throw e;
+        }
+        return job.getJobOutputDir();
+    }
+
     /**
      * Actually cache data for the given ID.
      *
@@ -156,6 +319,15 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
      * @see FileBasedCache#cacheData(Object)
      */
     private Long cacheDataHadoop(Long id) {
+        File extracted = extractedData.remove(id);
+        if (extracted != null) {
+            FileUtils.moveFile(extracted, getCacheFile(id));
+            log.debug("Cached data for job '{}' for '{}' extracted by a batched Hadoop job", id, prefix);
+            return id;
+        }
+        if (extractedWithoutData.remove(id)) {
+            return null;
+        }
         final String metadataFilePatternSuffix = Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX);
         final String specifiedPattern = "(.*-)?" + id + "(-.*)?" + metadataFilePatternSuffix;
         Configuration conf = HadoopJobUtils.getConf();
@@ -170,17 +342,27 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
             job.run();
             // If no error is thrown, job was success
 
-            List<String> metadataLines = HadoopJobUtils.collectOutputLines(fileSystem, job.getJobOutputDir());
-            if (metadataLines.size() > 0) {
+            File metadata = createTempOutputFile();
+            long bytes;
+            try {
+                bytes = HadoopJobUtils.copyOutputToFile(fileSystem, job.getJobOutputDir(), metadata);
+            } catch (IOException e) {
+                FileUtils.remove(metadata);
+                throw e;
+            } finally {
+                fileSystem.delete(job.getJobOutputDir(), true);
+            }
+            if (bytes > 0) {
                 File cacheFileName = getCacheFile(id);
                 if (tryToMigrateDuplicationRecords) {
-                    migrateDuplicatesHadoop(id, fileSystem, specifiedPattern, metadataLines, cacheFileName);
+                    migrateDuplicatesHadoop(id, fileSystem, specifiedPattern, metadata, cacheFileName);
                 } else {
-                    copyResults(id, metadataLines, cacheFileName);
+                    FileUtils.moveFile(metadata, cacheFileName);
                 }
                 log.debug("Cached data for job '{}' for '{}'", id, prefix);
                 return id;
             } else {
+                FileUtils.remove(metadata);
                 log.info("No data found for job '{}' for '{}' in local bitarchive. ", id, prefix);
             }
         } catch (IOException e) {
@@ -192,15 +374,16 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
     /**
      * If this cache represents a crawllog cache then this method will attempt to migrate any duplicate annotations in
      * the crawl log using data in the duplicationmigration metadata record. This migrates filename/offset
-     * pairs from uncompressed to compressed (w)arc files. This method has the side effect of copying the index
+     * pairs from uncompressed to compressed (w)arc files. This method has the side effect of moving the index
      * cache (whether migrated or not) into the cache file whose name is generated from the id.
      * @param id the id of the cache
      * @param fileSystem the filesystem on which the operations are carried out
      * @param specifiedPattern the pattern specifying the files to be found
-     * @param originalJobResults the original hadoop job results which is a list containing the unmigrated data.
-     * @param cacheFileName the cache file for the job which the index cache is copied to.
+     * @param originalJobResults a file with the original hadoop job results, containing the unmigrated data.
+     * @param cacheFileName the cache file for the job which the index cache is moved to.
      */
-    private void migrateDuplicatesHadoop(Long id, FileSystem fileSystem, String specifiedPattern, List<String> originalJobResults, File cacheFileName) {
+    private void migrateDuplicatesHadoop(Long id, FileSystem fileSystem, String specifiedPattern,
+            File originalJobResults, File cacheFileName) {
         log.debug("Looking for a duplicationmigration record for id {}", id);
         if (urlPattern.pattern().equals(MetadataFile.CRAWL_LOG_PATTERN)) {
             Configuration conf = fileSystem.getConf();
@@ -212,14 +395,19 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
             job.prepareJobInputOutput(fileSystem);
             job.run();
 
+            File migration = createTempOutputFile();
             try {
-                List<String> metadataLines = HadoopJobUtils.collectOutputLines(fileSystem, job.getJobOutputDir());
-                handleMigrationHadoop(id, metadataLines, originalJobResults, cacheFileName);
+                HadoopJobUtils.copyOutputToFile(fileSystem, job.getJobOutputDir(), migration);
+                fileSystem.delete(job.getJobOutputDir(), true);
             } catch (IOException e) {
                 log.error("Failed getting duplicationmigration lines output from Hadoop job with ID: {}", id);
+                FileUtils.remove(migration);
+                FileUtils.moveFile(originalJobResults, cacheFileName);
+                return;
             }
+            handleMigrationHadoop(id, migration, originalJobResults, cacheFileName);
         } else {
-            copyResults(id, originalJobResults, cacheFileName);
+            FileUtils.moveFile(originalJobResults, cacheFileName);
         }
     }
 
@@ -227,31 +415,19 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
      * Helper method for {@link #migrateDuplicatesHadoop}.
      * Does the actual handling of migration after the job has finished successfully.
      * @param id The id of the cache.
-     * @param metadataLines The resulting lines from the duplication-migration job.
-     * @param originalJobResults The original hadoop job results which is a list containing the unmigrated data.
-     * @param cacheFileName The cache file for the job which the index cache is copied to.
+     * @param migration A file with the resulting lines from the duplication-migration job.
+     * @param originalJobResults A file with the original hadoop job results, containing the unmigrated data.
+     * @param cacheFileName The cache file for the job which the index cache is moved to.
      */
-    private void handleMigrationHadoop(Long id, List<String> metadataLines, List<String> originalJobResults,
-            File cacheFileName) {
-        File migration = null;
-        try {
-            migration = File.createTempFile("migration", "txt");
-        } catch (IOException e) {
-            throw new IOFailure("Could not create temporary output file.");
-        }
-        if (metadataLines.size() > 0) {
-            copyResults(id, metadataLines, migration);
-        }
+    private void handleMigrationHadoop(Long id, File migration, File originalJobResults, File cacheFileName) {
         boolean doMigration = migration.exists() && migration.length() > 0;
         if (doMigration) {
             log.info("Found a nonempty duplicationmigration record. Now we do the migration for job {}", id);
             Hashtable<Pair<String, Long>, Long> lookup = createLookupTableFromMigrationLines(id, migration);
-
-            File crawllog = createTempOutputFile();
-            copyResults(id, originalJobResults, crawllog);
-            migrateFilenameOffsetPairs(id, cacheFileName, crawllog, lookup);
+            migrateFilenameOffsetPairs(id, cacheFileName, originalJobResults, lookup);
         } else {
-            copyResults(id, originalJobResults, cacheFileName);
+            FileUtils.remove(migration);
+            FileUtils.moveFile(originalJobResults, cacheFileName);
         }
     }
 
@@ -269,21 +445,6 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
         return crawllog;
     }
 
-    /**
-     * Helper method for Hadoop methods.
-     * Copies the results of a job to a file.
-     * @param id The ID of the current job.
-     * @param jobResults The resulting lines output from a job.
-     * @param file The file to copy the results to.
-     */
-    private void copyResults(Long id, List<String> jobResults, File file) {
-        try {
-            Files.write(Paths.get(file.getAbsolutePath()), jobResults);
-        } catch (IOException e) {
-            throw new IOFailure("Failed writing results of job with ID '" + id + "' to file " + file.getAbsolutePath());
-        }
-    }
-
     /**
      * Actually cache data for the given ID.
      *
@@ -323,20 +323,25 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
         try {
             HashSet<Long> emptyJobs = new HashSet<>();
             FileBasedCache<Set<Long>> handler = handlers.get(RequestType.DEDUP_CRAWL_LOG);
-            File cacheFileWanted = handler.getCacheFile(irMsg.getRequestedJobs());
-            File cacheFileCreated = handler.getCacheFile(emptyJobs); //always empty-cache
-            if (!cacheFileCreated.getAbsolutePath().equals(cacheFileWanted.getAbsolutePath())) {
-                log.info("Faking dedup index by copying " + cacheFileCreated.getName()
-                        + " to " + cacheFileWanted.getName());
-                if (cacheFileCreated.isDirectory()) {
-                    cacheFileWanted.mkdirs();
-                    FileUtils.copyDirectory(cacheFileCreated, cacheFileWanted);
-                } else {
-                    FileUtils.copyFile(cacheFileCreated, cacheFileWanted);
+            handler.pin(irMsg.getRequestedJobs());
+            try {
+                File cacheFileWanted = handler.getCacheFile(irMsg.getRequestedJobs());
+                File cacheFileCreated = handler.getCacheFile(emptyJobs); //always empty-cache
+                if (!cacheFileCreated.getAbsolutePath().equals(cacheFileWanted.getAbsolutePath())) {
+                    log.info("Faking dedup index by copying " + cacheFileCreated.getName()
+                            + " to " + cacheFileWanted.getName());
+                    if (cacheFileCreated.isDirectory()) {
+                        cacheFileWanted.mkdirs();
+                        FileUtils.copyDirectory(cacheFileCreated, cacheFileWanted);
+                    } else {
+                        FileUtils.copyFile(cacheFileCreated, cacheFileWanted);
+                    }
                 }
+                log.info("Packaging result from cacheFile " + cacheFileWanted.getAbsolutePath());
+                packageResultFiles(irMsg, cacheFileWanted);
+            } finally {
+                handler.unpin(irMsg.getRequestedJobs());
             }
-            log.info("Packaging result from cacheFile " + cacheFileWanted.getAbsolutePath());
-            packageResultFiles(irMsg, cacheFileWanted);
             irMsg.setFoundJobs(irMsg.getRequestedJobs());
         } finally {
             synchronized (this) {
@@ -385,66 +390,76 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
             synchronized (checksum.intern()) {
                 log.debug("The indexing job of size {} with checksum '{}' is now in the synchronization zone",
                         jobIDs.size(), checksum);
-                Set<Long> foundIDs = handler.cache(jobIDs);
-                irMsg.setFoundJobs(foundIDs);
-                if (foundIDs.equals(jobIDs)) {
-                    if (log.isInfoEnabled()) {
-                        log.info("Retrieved successfully index of type '{}' for the {} jobs [{}]", type, jobIDs.size(),
-                                StringUtils.conjoin(",", jobIDs));
-                    }
-                    File cacheFile = handler.getCacheFile(jobIDs);
-                    if (mustReturnIndex) { // return index now!
-                        packageResultFiles(irMsg, cacheFile);
-                    }
-                } else if (satisfactoryTresholdReached(foundIDs, jobIDs)) {
-                    log.info("Data for full index w/ {} jobs not available. Only found data for {} jobs - "
-                            + "but satisfactoryTreshold reached, so assuming presence of all data", jobIDs.size(),
-                            foundIDs.size());
-                    // Make sure that the index of the data available is generated
-                    Set<Long> theFoundIDs = handler.cache(foundIDs);
-                    // TheFoundIDS should be identical to foundIDs
-                    // Lets make sure of that
-                    Set<Long> diffSet = new HashSet<Long>(foundIDs);
-                    diffSet.removeAll(theFoundIDs);
-
-                    // Make a copy of the index available, and give it the name of
-                    // the index cache file wanted.
-                    File cacheFileWanted = handler.getCacheFile(jobIDs);
-                    File cacheFileCreated = handler.getCacheFile(foundIDs);
-
-                    log.info("Satisfactory threshold reached - copying index {} '{}' to full index: {}",
-                            (cacheFileCreated.isDirectory() ? "dir" : "file"), cacheFileCreated.getAbsolutePath(),
-                            cacheFileWanted.getAbsolutePath());
-                    if (cacheFileCreated.isDirectory()) {
-                        // create destination cacheFileWanted, and
-                        // copy all files in cacheFileCreated to cacheFileWanted.
-                        cacheFileWanted.mkdirs();
-                        FileUtils.copyDirectory(cacheFileCreated, cacheFileWanted);
+                // Pin the index, so it is not evicted from the cache until it has been returned
+                handler.pin(jobIDs);
+                try {
+                    Set<Long> foundIDs = handler.cache(jobIDs);
+                    irMsg.setFoundJobs(foundIDs);
+                    if (foundIDs.equals(jobIDs)) {
+                        if (log.isInfoEnabled()) {
+                            log.info("Retrieved successfully index of type '{}' for the {} jobs [{}]", type,
+                                    jobIDs.size(), StringUtils.conjoin(",", jobIDs));
+                        }
+                        File cacheFile = handler.getCacheFile(jobIDs);
+                        if (mustReturnIndex) { // return index now!
+                            packageResultFiles(irMsg, cacheFile);
+                        }
+                    } else if (satisfactoryTresholdReached(foundIDs, jobIDs)) {
+                        log.info("Data for full index w/ {} jobs not available. Only found data for {} jobs - "
+                                + "but satisfactoryTreshold reached, so assuming presence of all data", jobIDs.size(),
+                                foundIDs.size());
+                        File cacheFileWanted = handler.getCacheFile(jobIDs);
+                        // Make sure that the index of the data available is generated, and kept while it is copied
+                        handler.pin(foundIDs);
+                        try {
+                            Set<Long> theFoundIDs = handler.cache(foundIDs);
+                            // TheFoundIDS should be identical to foundIDs
+                            // Lets make sure of that
+                            Set<Long> diffSet = new HashSet<Long>(foundIDs);
+                            diffSet.removeAll(theFoundIDs);
+
+                            // Make a copy of the index available, and give it the name of
+                            // the index cache file wanted.
+                            File cacheFileCreated = handler.getCacheFile(foundIDs);
+
+                            log.info("Satisfactory threshold reached - copying index {} '{}' to full index: {}",
+                                    (cacheFileCreated.isDirectory() ? "dir" : "file"),
+                                    cacheFileCreated.getAbsolutePath(), cacheFileWanted.getAbsolutePath());
+                            if (cacheFileCreated.isDirectory()) {
+                                // create destination cacheFileWanted, and
+                                // copy all files in cacheFileCreated to cacheFileWanted.
+                                cacheFileWanted.mkdirs();
+                                FileUtils.copyDirectory(cacheFileCreated, cacheFileWanted);
+                            } else {
+                                FileUtils.copyFile(cacheFileCreated, cacheFileWanted);
+                            }
+
+                            // TODO This delete-operation commented out, because it is deemed too dangerous,
+                            // as the cachedir represented by cacheFileCreated may still be used
+
+                            // log.info("Deleting the temporary index "
+                            // + cacheFileCreated.getAbsolutePath());
+                            // FileUtils.removeRecursively(cacheFileCreated);
+                            log.info("We keep the index '{}', as we don't know if anybody is using it",
+                                    cacheFileCreated.getAbsolutePath());
+                        } finally {
+                            handler.unpin(foundIDs);
+                        }
+
+                        // Information needed by recipient to store index in local cache
+                        irMsg.setFoundJobs(jobIDs);
+                        if (mustReturnIndex) { // return index now.
+                            packageResultFiles(irMsg, cacheFileWanted);
+                        }
                     } else {
-                        FileUtils.copyFile(cacheFileCreated, cacheFileWanted);
-                    }
-
-                    // TODO This delete-operation commented out, because it is deemed too dangerous,
-                    // as the cachedir represented by cacheFileCreated may still be used
-
-                    // log.info("Deleting the temporary index "
-                    // + cacheFileCreated.getAbsolutePath());
-                    // FileUtils.removeRecursively(cacheFileCreated);
-                    log.info("We keep the index '{}', as we don't know if anybody is using it",
-                            cacheFileCreated.getAbsolutePath());
-
-                    // Information needed by recipient to store index in local cache
-                    irMsg.setFoundJobs(jobIDs);
-                    if (mustReturnIndex) { // return index now.
-                        packageResultFiles(irMsg, cacheFileWanted);
+                        Set<Long> missingJobIds = new HashSet<Long>(jobIDs);
+                        missingJobIds.removeAll(foundIDs);
+                        log.warn("Failed generating index of type '{}' for the jobs [{}]. Missing data for jobs [{}].",
+                                type, StringUtils.conjoin(",", jobIDs), StringUtils.conjoin(",", missingJobIds));
                     }
-                } else {
-                    Set<Long> missingJobIds = new HashSet<Long>(jobIDs);
-                    missingJobIds.removeAll(foundIDs);
-                    log.warn("Failed generating index of type '{}' for the jobs [{}]. Missing data for jobs [{}].",
-                            type, StringUtils.conjoin(",", jobIDs), StringUtils.conjoin(",", missingJobIds));
+                } finally {
+                    handler.unpin(jobIDs);
                 }
-
             } // End of synchronization block
         } catch (Throwable t) {
             log.warn("Unable to generate index for jobs [" + StringUtils.conjoin(",", irMsg.getRequestedJobs()) + "]",
@@ -243,16 +243,13 @@ public class ARCArchiveAccess implements URIResolver {
     private void readPage(InputStream content, OutputStream out) {
         BufferedInputStream page = new BufferedInputStream(content);
         BufferedOutputStream responseOut = new BufferedOutputStream(out);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(); 
         try {
             byte[] buffer = new byte[Constants.IO_BUFFER_SIZE];
             int bytesRead;
             while ((bytesRead = page.read(buffer)) != -1) {
-            	baos.write(buffer, 0, bytesRead);
             	responseOut.write(buffer, 0, bytesRead);
             }
             responseOut.flush();
-            log.debug("pagecontents: ", new String(baos.toByteArray(), "UTF-8"));
         } catch (IOException e) {
             throw new IOFailure("Could not read or write data", e);
         }
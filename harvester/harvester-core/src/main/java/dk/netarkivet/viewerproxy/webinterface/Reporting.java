@@ -32,6 +32,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -61,6 +62,7 @@ import dk.netarkivet.common.utils.cdx.CDXRecord;
 import dk.netarkivet.common.utils.hadoop.HadoopJob;
 import dk.netarkivet.common.utils.hadoop.HadoopJobStrategy;
 import dk.netarkivet.common.utils.hadoop.HadoopJobUtils;
+import dk.netarkivet.common.utils.hadoop.HadoopOutputLines;
 import dk.netarkivet.common.utils.service.FileResolver;
 import dk.netarkivet.viewerproxy.webinterface.hadoop.CrawlLogExtractionStrategy;
 import dk.netarkivet.viewerproxy.webinterface.hadoop.MetadataCDXExtractionStrategy;
@@ -187,14 +189,19 @@ public class Reporting {
             job.prepareJobInputOutput(fileSystem);
             job.run();
 
-            List<String> cdxLines;
-            try {
-                cdxLines = HadoopJobUtils.collectOutputLines(fileSystem, job.getJobOutputDir());
-            } catch (IOException e) {
+            List<CDXRecord> records = new ArrayList<CDXRecord>();
+            try (HadoopOutputLines cdxLines = HadoopOutputLines.concatenated(fileSystem, job.getJobOutputDir())) {
+                Iterator<CDXRecord> cdxRecords = HadoopJobUtils.getCDXRecords(cdxLines);
+                while (cdxRecords.hasNext()) {
+                    records.add(cdxRecords.next());
+                }
+            } catch (IOException | IOFailure e) {
                 log.error("Failed getting CDX lines output for Hadoop job with ID: {}", jobid);
                 throw new IOFailure("Failed getting " + job.getJobType() + " job results");
+            } finally {
+                fileSystem.delete(job.getJobOutputDir(), true);
             }
-            return HadoopJobUtils.getCDXRecordListFromCDXLines(cdxLines);
+            return records;
         } catch (IOException e) {
             log.error("Error instantiating Hadoop filesystem for job {}.", jobid, e);
             throw new IOFailure("Failed instantiating Hadoop filesystem.");
@@ -283,14 +290,12 @@ public class Reporting {
     /**
      * Helper method to get sorted File of crawllog lines.
      *
-     * @param crawlLogLines The crawllog lines output from a job.
+     * @param tempFile A file with the crawllog lines output from a job. It is removed once sorted.
+     * @param uuid The unique part of the name of the file.
      * @return A File containing the sorted lines.
      */
-    private static File getResultFile(List<String> crawlLogLines) {
-        final String uuid = UUID.randomUUID().toString();
-        File tempFile = createTempResultFile(uuid);
+    private static File getSortedResultFile(File tempFile, String uuid) {
         File sortedTempFile = createTempResultFile(uuid + "-sorted");
-        FileUtils.writeCollectionToFile(tempFile, crawlLogLines);
         FileUtils.sortCrawlLogOnTimestamp(tempFile, sortedTempFile);
         FileUtils.remove(tempFile);
         return sortedTempFile;
@@ -350,14 +355,18 @@ public class Reporting {
             job.processOnlyFilesMatching(metadataFileSearchPattern);
             job.prepareJobInputOutput(fileSystem);
             job.run();
-            List<String> crawlLogLines;
+            final String uuid = UUID.randomUUID().toString();
+            File tempFile = createTempResultFile(uuid);
             try {
-                crawlLogLines = HadoopJobUtils.collectOutputLines(fileSystem, job.getJobOutputDir());
+                HadoopJobUtils.copyOutputToFile(fileSystem, job.getJobOutputDir(), tempFile);
             } catch (IOException e) {
                 log.error("Failed getting crawl log lines output for job with ID: {}", jobID);
+                FileUtils.remove(tempFile);
                 throw new IOFailure("Failed getting " + job.getJobType() + " job results");
+            } finally {
+                fileSystem.delete(job.getJobOutputDir(), true);
             }
-            return getResultFile(crawlLogLines);
+            return getSortedResultFile(tempFile, uuid);
         } catch (IOException e) {
             log.error("Error instantiating Hadoop filesystem for job {}.", jobID, e);
             throw new IOFailure("Failed instantiating Hadoop filesystem.");
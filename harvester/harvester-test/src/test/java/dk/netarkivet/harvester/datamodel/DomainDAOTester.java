@@ -33,8 +33,10 @@ import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
@@ -754,6 +756,55 @@ public class DomainDAOTester extends DataModelTestCase {
         }
     }
 
+    /**
+     * Test that the default configurations streamed in snapshot harvest order are the same as those of the domains read
+     * one by one.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testGetDefaultConfigurationsInSnapshotHarvestOrder() {
+        DomainDAO dao = DomainDAO.getInstance();
+        Domain d1 = dao.read("dr.dk");
+        d1.getDefaultConfiguration().setOrderXmlName("FullSite-order");
+        d1.getDefaultConfiguration().setMaxBytes(2000000);
+        dao.update(d1);
+        Domain d2 = dao.read("kb.dk");
+        d2.getDefaultConfiguration().setOrderXmlName("Max_20_2-order");
+        d2.getDefaultConfiguration().setMaxBytes(1000000);
+        dao.update(d2);
+
+        Map<String, DomainConfiguration> expected = new HashMap<String, DomainConfiguration>();
+        Iterator<Domain> domains = dao.getAllDomainsInSnapshotHarvestOrder();
+        while (domains.hasNext()) {
+            Domain domain = domains.next();
+            if (domain.getAliasInfo() == null || domain.getAliasInfo().isExpired()) {
+                expected.put(domain.getName(), domain.getDefaultConfiguration());
+            }
+        }
+        List<DomainConfiguration> actual = IteratorUtils.toList(dao.getDefaultConfigurationsInSnapshotHarvestOrder());
+
+        assertEquals("Should get a configuration for each domain that is not an alias", expected.size(),
+                actual.size());
+        for (DomainConfiguration cfg2 : actual) {
+            DomainConfiguration cfg1 = expected.get(cfg2.getDomainName());
+            assertNotNull("Should only get configurations of domains that are not aliases", cfg1);
+            assertEquals(cfg1.getName(), cfg2.getName());
+            assertEquals(cfg1.getID(), cfg2.getID());
+            assertEquals(cfg1.getOrderXmlName(), cfg2.getOrderXmlName());
+            assertEquals(cfg1.getMaxBytes(), cfg2.getMaxBytes());
+            assertEquals(cfg1.getMaxObjects(), cfg2.getMaxObjects());
+            assertEquals(cfg1.getMaxRequestRate(), cfg2.getMaxRequestRate());
+            assertEquals(cfg1.getCrawlertraps(), cfg2.getCrawlertraps());
+            assertEquals(IteratorUtils.toList(cfg1.getSeedLists()).size(),
+                    IteratorUtils.toList(cfg2.getSeedLists()).size());
+            assertEquals(IteratorUtils.toList(cfg1.getPasswords()).size(),
+                    IteratorUtils.toList(cfg2.getPasswords()).size());
+            assertEquals("Should expect the same number of objects from the history of " + cfg1.getDomainName(),
+                    cfg1.getExpectedNumberOfObjects(cfg1.getMaxObjects(), cfg1.getMaxBytes()),
+                    cfg2.getExpectedNumberOfObjects(cfg2.getMaxObjects(), cfg2.getMaxBytes()));
+        }
+    }
+
     /** Check constructor of DomainHarvestInfo(). */
     @Category(SlowTest.class)
     @Test
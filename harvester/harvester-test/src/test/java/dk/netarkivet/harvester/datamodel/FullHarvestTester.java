@@ -23,6 +23,8 @@
 package dk.netarkivet.harvester.datamodel;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.Date;
@@ -211,11 +213,44 @@ public class FullHarvestTester extends DataModelTestCase {
         assertNoDomainConfigurationsForDomain(fh.getDomainConfigurations(), "netarkivet.dk");
     }
 
+    /**
+     * Test which stop reasons and limits make a configuration be harvested again when continuing a harvest.
+     */
+    @Test
+    public void testIsUnfinished() {
+        assertFalse("Should not continue a domain not in the previous harvest",
+                SnapshotConfigurationIterator.isUnfinished(null, 1000L, 100L));
+        assertFalse("Should not continue a completed domain", SnapshotConfigurationIterator.isUnfinished(
+                harvestInfo(StopReason.DOWNLOAD_COMPLETE), 1000L, 100L));
+        assertFalse("Should not continue a domain that died uncleanly", SnapshotConfigurationIterator.isUnfinished(
+                harvestInfo(StopReason.DOWNLOAD_UNFINISHED), 1000L, 100L));
+        assertTrue("Should continue a domain that reached the harvest limit", SnapshotConfigurationIterator
+                .isUnfinished(harvestInfo(StopReason.SIZE_LIMIT), 1000L, 100L));
+        assertFalse("Should not continue a domain whose byte limit was not raised", SnapshotConfigurationIterator
+                .isUnfinished(harvestInfo(StopReason.CONFIG_SIZE_LIMIT), 200L, 100L));
+        assertTrue("Should continue a domain whose byte limit was raised", SnapshotConfigurationIterator
+                .isUnfinished(harvestInfo(StopReason.CONFIG_SIZE_LIMIT), 201L, 100L));
+        assertTrue("Should continue a domain whose byte limit was removed", SnapshotConfigurationIterator
+                .isUnfinished(harvestInfo(StopReason.CONFIG_SIZE_LIMIT), Constants.HERITRIX_MAXBYTES_INFINITY, 100L));
+        assertFalse("Should not continue a domain whose object limit was not raised", SnapshotConfigurationIterator
+                .isUnfinished(harvestInfo(StopReason.CONFIG_OBJECT_LIMIT), 1000L, 50L));
+        assertTrue("Should continue a domain whose object limit was raised", SnapshotConfigurationIterator
+                .isUnfinished(harvestInfo(StopReason.CONFIG_OBJECT_LIMIT), 1000L, 51L));
+    }
+
+    private HarvestInfo harvestInfo(StopReason stopReason) {
+        return new HarvestInfo(1L, "netarkivet.dk", "defaultconfig", new Date(), 200L, 50L, stopReason);
+    }
+
     private void assertDomainConfigurationsForDomain(Iterator<DomainConfiguration> domainConfigurations,
             String anotherDomainName) {
         while (domainConfigurations.hasNext()) {
             String domainName = domainConfigurations.next().getDomainName();
             if (domainName.equals(anotherDomainName)) {
+                // Release the database connection held by the unfinished iterator
+                if (domainConfigurations instanceof SnapshotConfigurationIterator) {
+                    ((SnapshotConfigurationIterator) domainConfigurations).close();
+                }
                 return;
             }
         }
@@ -131,6 +131,28 @@ public class JobDAOTester extends DataModelTestCase {
         // - but we probably do (at least nice to have)
     }
 
+    /**
+     * Test that jobs created in one go get consecutive ids and are stored like jobs created one at a time.
+     */
+    @Test
+    public void testCreateJobs() {
+        Job job1 = createDefaultJob(0);
+        Job job2 = createDefaultJob(1);
+        createJobInDB(createDefaultJob(2));
+        jobDAO.create(Arrays.asList(job1, job2));
+        assertEquals("Jobs created in one go should get consecutive ids", job1.getJobID() + 1,
+                (long) job2.getJobID());
+        for (Job job : Arrays.asList(job1, job2)) {
+            Job readJob = jobDAO.read(job.getJobID());
+            assertEquals(job.getHarvestNum(), readJob.getHarvestNum());
+            assertEquals(job.getOrderXMLName(), readJob.getOrderXMLName());
+            assertEquals(job.getHarvestFilenamePrefix(), readJob.getHarvestFilenamePrefix());
+            assertEquals("DomainConfigurationMap of read Job should equal that of the created Job",
+                    job.getDomainConfigurationMap(), readJob.getDomainConfigurationMap());
+            assertEquals(1L, job.getEdition());
+        }
+    }
+
     @Test(expected = UnknownID.class)
     public void testJobReadUnknownID() {
         jobDAO.read(42424242);
@@ -58,7 +58,9 @@ import org.junit.Test;
 
 import dk.netarkivet.common.utils.AllDocsCollector;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StringUtils;
+import dk.netarkivet.harvester.HarvesterSettings;
 import is.hi.bok.deduplicator.DigestIndexer;
 
 /**
@@ -158,6 +160,17 @@ public class DedupCrawlLogIndexCacheTester extends CacheTestCase {
                 origins.isEmpty());
     }
 
+    /**
+     * Test that combining by merging the sorted crawl logs directly into the index gives the same result. A fan-in of
+     * one makes each crawl log a separate merge.
+     */
+    @Test
+    public void testCombineWithStreamingMerge() throws Exception {
+        Settings.set(HarvesterSettings.INDEXSERVER_INDEXING_STREAMING_MERGE, "true");
+        Settings.set(HarvesterSettings.INDEXSERVER_INDEXING_MERGE_FANIN, "1");
+        testCombine();
+    }
+
     private void verifySearchResult(Map<String, String> origins, IndexSearcher index) throws IOException {
         Set<String> urls = new HashSet<String>(origins.keySet());
         List<String> errors = new ArrayList<String>();
@@ -0,0 +1,169 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.harvester.indexserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the size accounting and eviction of FileBasedCacheManager.
+ */
+public class FileBasedCacheManagerTester {
+
+    private static final File CACHE_DIR = new File(TestInfo.WORKING_DIR, "managedcache");
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(CACHE_DIR);
+        FileUtils.createDir(CACHE_DIR);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(CACHE_DIR);
+    }
+
+    @Test
+    public void testExistingEntriesAreAccountedFor() throws Exception {
+        makeEntry("1-cache", 10, 1000L);
+        File dir = new File(CACHE_DIR, "1-2-cache");
+        FileUtils.createDir(dir);
+        FileUtils.writeBinaryFile(new File(dir, "_0.cfs"), new byte[20]);
+        makeEntry("1-2-cache.working", 0, 1000L);
+
+        FileBasedCacheManager manager = new FileBasedCacheManager(CACHE_DIR, 0,
+                FileBasedCacheManager.EvictionPolicy.LRU);
+        assertEquals("Files and directories should be entries, lock files not", 2, manager.getEntryCount());
+        assertEquals("Directories should count the size of their files", 30, manager.getSize());
+    }
+
+    @Test
+    public void testLRUEviction() throws Exception {
+        File first = makeEntry("1-cache", 10, 1000L);
+        File second = makeEntry("2-cache", 10, 2000L);
+        FileBasedCacheManager manager = new FileBasedCacheManager(CACHE_DIR, 25,
+                FileBasedCacheManager.EvictionPolicy.LRU);
+        manager.hit(first);
+        assertEquals(1, manager.getHits());
+
+        File third = makeEntry("3-cache", 10, 3000L);
+        // The cache pins the entry being made
+        manager.pin(third);
+        manager.miss(third);
+        assertEquals(1, manager.getMisses());
+        assertTrue("Recently used entry should be kept", first.exists());
+        assertFalse("Least recently used entry should be evicted", second.exists());
+        assertTrue("New entry should be kept", third.exists());
+        assertEquals(1, manager.getEvictions());
+        assertEquals(10, manager.getEvictedBytes());
+        assertEquals(20, manager.getSize());
+        assertEquals(2, manager.getEntryCount());
+    }
+
+    @Test
+    public void testLFUEviction() throws Exception {
+        File first = makeEntry("1-cache", 10, 1000L);
+        File second = makeEntry("2-cache", 10, 2000L);
+        FileBasedCacheManager manager = new FileBasedCacheManager(CACHE_DIR, 25,
+                FileBasedCacheManager.EvictionPolicy.LFU);
+        manager.hit(first);
+        manager.hit(first);
+        manager.hit(second);
+
+        File third = makeEntry("3-cache", 10, 3000L);
+        // The cache pins the entry being made
+        manager.pin(third);
+        manager.miss(third);
+        assertTrue("Frequently used entry should be kept", first.exists());
+        assertFalse("Less frequently used entry should be evicted", second.exists());
+        assertTrue("New entry should be kept", third.exists());
+    }
+
+    @Test
+    public void testPinnedEntriesAreNotEvicted() throws Exception {
+        File first = makeEntry("1-cache", 10, 1000L);
+        File second = makeEntry("2-cache", 10, 2000L);
+        FileBasedCacheManager manager = new FileBasedCacheManager(CACHE_DIR, 15,
+                FileBasedCacheManager.EvictionPolicy.LRU);
+        manager.pin(first);
+        manager.pin(second);
+        assertEquals(2, manager.getPinnedEntryCount());
+
+        File third = makeEntry("3-cache", 10, 3000L);
+        manager.pin(third);
+        manager.miss(third);
+        assertTrue(first.exists());
+        assertTrue(second.exists());
+        assertTrue(third.exists());
+        assertEquals("Nothing should be evicted while everything is pinned", 0, manager.getEvictions());
+
+        manager.unpin(second);
+        manager.unpin(third);
+        manager.pin(third);
+        manager.miss(third);
+        assertTrue("Pinned entry should be kept", first.exists());
+        assertFalse("Unpinned entry should be evicted", second.exists());
+        assertTrue(third.exists());
+    }
+
+    @Test
+    public void testUnpinAccountsForEntriesMadeOutsideTheCache() throws Exception {
+        FileBasedCacheManager manager = new FileBasedCacheManager(CACHE_DIR, 0,
+                FileBasedCacheManager.EvictionPolicy.LRU);
+        File copy = new File(CACHE_DIR, "1-2-3-cache");
+        manager.pin(copy);
+        makeEntry("1-2-3-cache", 10, 1000L);
+        assertEquals(0, manager.getEntryCount());
+        manager.unpin(copy);
+        assertEquals(1, manager.getEntryCount());
+        assertEquals(10, manager.getSize());
+        assertEquals(0, manager.getPinnedEntryCount());
+    }
+
+    @Test
+    public void testFilesOutsideTheCacheAreIgnored() throws Exception {
+        FileBasedCacheManager manager = new FileBasedCacheManager(CACHE_DIR, 1,
+                FileBasedCacheManager.EvictionPolicy.LRU);
+        manager.hit(TestInfo.METADATA_FILE_3);
+        assertEquals(0, manager.getEntryCount());
+        assertEquals(1, manager.getHits());
+    }
+
+    private static File makeEntry(String name, int size, long lastAccess) {
+        File file = new File(CACHE_DIR, name);
+        FileUtils.writeBinaryFile(file, new byte[size]);
+        assertTrue(file.setLastModified(lastAccess));
+        return file;
+    }
+
+}
@@ -23,12 +23,23 @@
 
 package dk.netarkivet.harvester.indexserver;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
 import ch.qos.logback.classic.Level;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.testutils.LogbackRecorder;
 
 /**
@@ -87,4 +98,53 @@ public class FileBasedCacheTester {
         lr.stopRecorder();
     }
 
+    @Test
+    public void testGetCachesMissingIdsConcurrently() throws Exception {
+        final int maxThreads = Settings.getInt(HarvesterSettings.INDEXSERVER_CACHE_FETCH_THREADS);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        FileBasedCache<Long> cache = new FileBasedCache<Long>("ConcurrentTest") {
+            public File getCacheFile(Long id) {
+                return new File(getCacheDir(), id + "-cache");
+            }
+
+            protected Long cacheData(Long id) {
+                int now = running.incrementAndGet();
+                maxRunning.accumulateAndGet(now, Math::max);
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                }
+                if (id % 5 == 0) {
+                    return null;
+                }
+                FileUtils.writeBinaryFile(getCacheFile(id), new byte[] {1});
+                return id;
+            }
+        };
+        try {
+            Set<Long> ids = new HashSet<Long>();
+            for (long id = 1; id <= 20; id++) {
+                ids.add(id);
+            }
+            Map<Long, File> files = cache.get(ids);
+            assertEquals(ids, files.keySet());
+            for (Long id : ids) {
+                if (id % 5 == 0) {
+                    assertNull("No file expected for failed id " + id, files.get(id));
+                } else {
+                    assertEquals(cache.getCacheFile(id), files.get(id));
+                    assertTrue(files.get(id).exists());
+                }
+            }
+            assertTrue("Expected missing ids to be cached concurrently", maxRunning.get() > 1);
+            assertTrue("Expected at most " + maxThreads + " ids cached at a time", maxRunning.get() <= maxThreads);
+        } finally {
+            FileUtils.removeRecursively(cache.getCacheDir());
+        }
+    }
+
 }
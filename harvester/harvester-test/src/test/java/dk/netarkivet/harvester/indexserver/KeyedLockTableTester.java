@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.harvester.indexserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.IllegalState;
+
+/**
+ * Unit tests for KeyedLockTable.
+ */
+public class KeyedLockTableTester {
+
+    @Test
+    public void testLocksAreReleasedWhenIdle() {
+        KeyedLockTable locks = new KeyedLockTable();
+        locks.lock("a");
+        locks.lock("a");
+        locks.lock("b");
+        assertEquals(2, locks.size());
+        locks.unlock("a");
+        assertEquals(2, locks.size());
+        locks.unlock("a");
+        locks.unlock("b");
+        assertEquals("No locks should be kept for idle keys", 0, locks.size());
+    }
+
+    @Test
+    public void testUnlockWithoutLock() {
+        KeyedLockTable locks = new KeyedLockTable();
+        try {
+            locks.unlock("a");
+            fail("Should throw IllegalState when unlocking a key not locked");
+        } catch (IllegalState e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testSameKeyIsExclusive() throws Exception {
+        final KeyedLockTable locks = new KeyedLockTable();
+        final AtomicBoolean otherHasLock = new AtomicBoolean();
+        final CountDownLatch otherDone = new CountDownLatch(1);
+        locks.lock("a");
+        Thread other = new Thread() {
+            public void run() {
+                locks.lock("b");
+                locks.unlock("b");
+                locks.lock("a");
+                otherHasLock.set(true);
+                locks.unlock("a");
+                otherDone.countDown();
+            }
+        };
+        other.start();
+        assertFalse("Other thread should not get the lock of a locked key",
+                otherDone.await(200, TimeUnit.MILLISECONDS));
+        assertFalse(otherHasLock.get());
+        locks.unlock("a");
+        otherDone.await(10, TimeUnit.SECONDS);
+        other.join();
+        assertEquals("Other thread should get the lock once it is released", true, otherHasLock.get());
+        assertEquals(0, locks.size());
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import is.hi.bok.deduplicator.CrawlDataItem;
+import is.hi.bok.deduplicator.CrawlDataIterator;
+
+/**
+ * Unit tests for the MergingCrawlDataIterator class.
+ */
+public class MergingCrawlDataIteratorTester {
+
+    @Test
+    public void testMergesInURLOrder() throws IOException {
+        ListIterator first = new ListIterator("first", "http://a/", "http://c/", "http://e/");
+        ListIterator second = new ListIterator("second", "http://b/", "http://c/", "http://d/", "http://f/");
+        ListIterator empty = new ListIterator("empty");
+        MergingCrawlDataIterator merged = new MergingCrawlDataIterator(Arrays.<CrawlDataIterator> asList(first,
+                empty, second));
+
+        List<String> urls = new ArrayList<String>();
+        List<String> origins = new ArrayList<String>();
+        while (merged.hasNext()) {
+            CrawlDataItem item = merged.next();
+            urls.add(item.getURL());
+            origins.add(item.getOrigin());
+        }
+        assertEquals("Should get all items in URL order",
+                Arrays.asList("http://a/", "http://b/", "http://c/", "http://c/", "http://d/", "http://e/",
+                        "http://f/"), urls);
+        assertEquals("Should take equal URLs in the order of the iterators", Arrays.asList("first1", "second1"),
+                origins.subList(2, 4));
+        try {
+            merged.next();
+            fail("Should throw exception on getting next() after last");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+
+        merged.close();
+        assertTrue("Should close all iterators", first.closed && second.closed && empty.closed);
+    }
+
+    @Test
+    public void testNoIterators() throws IOException {
+        MergingCrawlDataIterator merged = new MergingCrawlDataIterator(new ArrayList<CrawlDataIterator>());
+        assertFalse("Should have no items", merged.hasNext());
+        merged.close();
+    }
+
+    /** A CrawlDataIterator over a list of URLs, using its name and the position in the list as origin. */
+    private static class ListIterator extends CrawlDataIterator {
+        private final String name;
+        private final Iterator<String> urls;
+        private int count;
+        private boolean closed;
+
+        ListIterator(String name, String... urls) {
+            super(name);
+            this.name = name;
+            this.urls = Arrays.asList(urls).iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return urls.hasNext();
+        }
+
+        @Override
+        public CrawlDataItem next() {
+            return new CrawlDataItem(urls.next(), "digest", "20200101000000", null, "text/html", name + count++,
+                    false);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public String getSourceType() {
+            return "test iterator";
+        }
+    }
+}
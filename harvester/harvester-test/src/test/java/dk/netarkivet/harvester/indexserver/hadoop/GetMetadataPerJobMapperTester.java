@@ -0,0 +1,115 @@
+package dk.netarkivet.harvester.indexserver.hadoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.ZipUtils;
+import dk.netarkivet.common.utils.hadoop.GetMetadataMapper;
+import dk.netarkivet.common.utils.hadoop.GetMetadataPerJobMapper;
+import dk.netarkivet.common.utils.hadoop.HadoopJobTool;
+import dk.netarkivet.common.utils.hadoop.HadoopJobUtils;
+import dk.netarkivet.harvester.harvesting.metadata.MetadataFile;
+import dk.netarkivet.harvester.indexserver.TestInfo;
+import dk.netarkivet.testutils.preconfigured.MoveTestFiles;
+
+/**
+ * Tests of the GetMetadataPerJobMapper, run by Hadoop's local job runner on the local filesystem.
+ */
+public class GetMetadataPerJobMapperTester {
+    private MoveTestFiles mtf;
+    private File metadataDir;
+    private File baseDir;
+    private Configuration conf;
+    private FileSystem fileSystem;
+
+    @Before
+    public void setUp() throws IOException {
+        setupTestFiles();
+        baseDir = Files.createTempDirectory("test_local_hadoop").toFile().getAbsoluteFile();
+        conf = new Configuration();
+        conf.set(HadoopJobUtils.DEFAULT_FILESYSTEM, "file:///");
+        conf.set(HadoopJobUtils.MAPREDUCE_FRAMEWORK, "local");
+        fileSystem = FileSystem.getLocal(conf);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtil.fullyDelete(baseDir);
+        mtf.tearDown();
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+    }
+
+    /**
+     * Test that a single Hadoop job with a GetMetadataPerJobMapper extracts the crawl log lines of two jobs into a
+     * directory for each job, and that these hold the same lines as extracting from both files at once.
+     */
+    @Test
+    public void testMetadataCrawlLogPerJob() throws Exception {
+        File[] files = getTestFiles();
+        java.nio.file.Path jobInputFile = Files.createTempFile("", UUID.randomUUID().toString());
+        Files.write(jobInputFile, Arrays.asList("file://" + files[0].getAbsolutePath(),
+                "file://" + files[1].getAbsolutePath()));
+        jobInputFile.toFile().deleteOnExit();
+        Path outputDir = new Path(new File(baseDir, "output").toURI());
+
+        conf.set(GetMetadataMapper.URL_PATTERN, MetadataFile.CRAWL_LOG_PATTERN);
+        conf.set(GetMetadataMapper.MIME_PATTERN, "text/plain");
+        conf.set(GetMetadataPerJobMapper.JOB_ID_PATTERN, "(?:.*-)?(1|2)(?:-.*)?-metadata-[0-9]+\\.(w)?arc");
+
+        Tool job = new HadoopJobTool(conf, new GetMetadataPerJobMapper());
+        int exitCode = ToolRunner.run(conf, job, new String[] {"file://" + jobInputFile.toString(),
+                outputDir.toString()});
+        Assert.assertEquals(0, exitCode); // job success
+
+        Assert.assertTrue(fileSystem.exists(new Path(outputDir, "1")));
+        Assert.assertTrue(fileSystem.exists(new Path(outputDir, "2")));
+        File copied = new File(baseDir, "2-crawllog");
+        long bytes = HadoopJobUtils.copyOutputToFile(fileSystem, new Path(outputDir, "2"), copied);
+        Assert.assertEquals(copied.length(), bytes);
+        List<String> linesOfJob1 = HadoopJobUtils.collectOutputLines(fileSystem, new Path(outputDir, "1"));
+        List<String> linesOfJob2 = HadoopJobUtils.collectOutputLines(fileSystem, new Path(outputDir, "2"));
+        Assert.assertEquals(linesOfJob2, Files.readAllLines(copied.toPath()));
+        Assert.assertFalse(linesOfJob1.isEmpty());
+        Assert.assertFalse(linesOfJob2.isEmpty());
+        Assert.assertEquals(624, linesOfJob1.size() + linesOfJob2.size());
+    }
+
+    /**
+     * Prepare the input files for test by moving them to a temporary 'working' directory.
+     */
+    public void setupTestFiles() {
+        TestInfo.WORKING_DIR.mkdir();
+        metadataDir = new File(TestInfo.WORKING_DIR, "metadata");
+        mtf = new MoveTestFiles(TestInfo.METADATA_DIR, metadataDir);
+        mtf.setUp();
+    }
+
+    /**
+     * Unzip the compressed test files and return their insides, renamed to belong to job 1 and job 2.
+     * @return The non-compressed archive files
+     */
+    public File[] getTestFiles() {
+        ZipUtils.unzip(new File(metadataDir, "1-metadata-1.warc.zip"), TestInfo.WORKING_DIR);
+        ZipUtils.unzip(new File(metadataDir, "1-metadata-1.arc.zip"), TestInfo.WORKING_DIR);
+        File warcFile = new File(TestInfo.WORKING_DIR, "1-metadata-1.warc");
+        File arcFile = new File(TestInfo.WORKING_DIR, "2-metadata-1.arc");
+        FileUtils.moveFile(new File(TestInfo.WORKING_DIR, "1-metadata-1.arc"), arcFile);
+        return new File[] {warcFile, arcFile};
+    }
+}
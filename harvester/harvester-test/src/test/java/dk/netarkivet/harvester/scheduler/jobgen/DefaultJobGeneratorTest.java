@@ -3,26 +3,46 @@ package dk.netarkivet.harvester.scheduler.jobgen;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.Constants;
 import dk.netarkivet.harvester.datamodel.DomainConfiguration;
 import dk.netarkivet.harvester.datamodel.DomainConfigurationTest;
+import dk.netarkivet.harvester.datamodel.FullHarvest;
 import dk.netarkivet.harvester.datamodel.H1HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.HarvestChannel;
+import dk.netarkivet.harvester.datamodel.HarvestDefinition;
+import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
 import dk.netarkivet.harvester.datamodel.HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobDAO;
 import dk.netarkivet.harvester.datamodel.JobTest;
 import dk.netarkivet.harvester.datamodel.TestInfo;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 import dk.netarkivet.harvester.test.utils.OrderXmlBuilder;
+import dk.netarkivet.testutils.ReflectUtils;
 
 public class DefaultJobGeneratorTest extends AbstractJobGeneratorTest {
     private static final HarvestChannel FOCUSED_CHANNEL = new HarvestChannel("FOCUSED", false, true, "");
@@ -130,6 +150,138 @@ public class DefaultJobGeneratorTest extends AbstractJobGeneratorTest {
         assertFalse(Collections.indexOfSubList(sortedNames, expected2) == -1);
     }
 
+    /**
+     * Test that generating the jobs of a snapshot harvest on several threads makes and stores the same jobs as
+     * generating them on one thread.
+     */
+    @Test(timeout = 60000)
+    public void testGenerateJobsInParallel() throws Exception {
+        List<DomainConfiguration> configs = getSnapshotConfigurations(23);
+        HarvestDefinitionDAO harvestDefinitionDAO = mock(HarvestDefinitionDAO.class);
+        ReflectUtils.getPrivateField(HarvestDefinitionDAO.class, "instance").set(null, harvestDefinitionDAO);
+        final List<Job> stored = Collections.synchronizedList(new ArrayList<Job>());
+        JobDAO jobDAO = mock(JobDAO.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                stored.add((Job) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(jobDAO).create(any(Job.class));
+        doAnswer(new Answer<Void>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                // The writer reuses its batch list, so the jobs are copied
+                stored.addAll((List<Job>) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(jobDAO).create(anyListOf(Job.class));
+        ReflectUtils.getPrivateField(JobDAO.class, "instance").set(null, jobDAO);
+        Settings.set(HarvesterSettings.JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE, "7");
+        Settings.set(HarvesterSettings.JOBGEN_FIXED_CONFIG_COUNT_SNAPSHOT, "2");
+        Settings.set(HarvesterSettings.JOBGEN_WRITE_BATCH_SIZE, "2");
+
+        Settings.set(HarvesterSettings.JOBGEN_THREADS, "1");
+        int sequentialJobs = new SnapshotJobGenerator().generateJobs(getSnapshotHarvest(1L, configs));
+        Set<Map<String, String>> sequential = getDomainConfigurationMaps(stored);
+        assertEquals("Every job made on one thread should be stored", sequentialJobs, stored.size());
+        assertTrue("The configurations should be split into several jobs", sequentialJobs > 3);
+
+        stored.clear();
+        Settings.set(HarvesterSettings.JOBGEN_THREADS, "4");
+        int parallelJobs = new SnapshotJobGenerator().generateJobs(getSnapshotHarvest(2L, configs));
+        assertEquals("The same number of jobs should be made on several threads", sequentialJobs, parallelJobs);
+        assertEquals("Every job made on several threads should be stored", parallelJobs, stored.size());
+        assertEquals("The jobs made on several threads should have the same configurations", sequential,
+                getDomainConfigurationMaps(stored));
+        for (Job job : stored) {
+            assertEquals("Jobs should belong to the harvest they were made for", Long.valueOf(2L),
+                    job.getOrigHarvestDefinitionID());
+        }
+    }
+
+    /**
+     * Test that a failure storing the jobs of a snapshot harvest made on several threads is thrown, instead of leaving
+     * the job generation waiting.
+     */
+    @Test(timeout = 60000)
+    public void testGenerateJobsInParallelStoreFailure() throws Exception {
+        ReflectUtils.getPrivateField(HarvestDefinitionDAO.class, "instance").set(null,
+                mock(HarvestDefinitionDAO.class));
+        JobDAO jobDAO = mock(JobDAO.class);
+        doThrow(new IOFailure("Database unavailable")).when(jobDAO).create(anyListOf(Job.class));
+        ReflectUtils.getPrivateField(JobDAO.class, "instance").set(null, jobDAO);
+        Settings.set(HarvesterSettings.JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE, "7");
+        Settings.set(HarvesterSettings.JOBGEN_FIXED_CONFIG_COUNT_SNAPSHOT, "1");
+        Settings.set(HarvesterSettings.JOBGEN_WRITE_BATCH_SIZE, "1");
+        Settings.set(HarvesterSettings.JOBGEN_THREADS, "4");
+
+        try {
+            new SnapshotJobGenerator().generateJobs(getSnapshotHarvest(3L, getSnapshotConfigurations(50)));
+            fail("A failure storing the jobs should be thrown");
+        } catch (IOFailure e) {
+            // Expected
+        }
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("JobWriter-3")) {
+                thread.join();
+            }
+        }
+    }
+
+    /**
+     * @param count The number of configurations.
+     * @return Configurations of different domains using two harvest templates.
+     */
+    private static List<DomainConfiguration> getSnapshotConfigurations(int count) {
+        List<DomainConfiguration> configs = new ArrayList<DomainConfiguration>();
+        for (int i = 0; i < count; i++) {
+            DomainConfiguration cfg = DomainConfigurationTest.createDefaultDomainConfiguration("domain" + i + ".dk");
+            cfg.setOrderXmlName(i % 3 == 0 ? "other_orderxml" : OrderXmlBuilder.DEFAULT_ORDER_XML_NAME);
+            configs.add(cfg);
+        }
+        return configs;
+    }
+
+    /**
+     * @param id The id of the harvest.
+     * @param configs The configurations to harvest.
+     * @return A snapshot harvest of the configurations.
+     */
+    private static HarvestDefinition getSnapshotHarvest(Long id, List<DomainConfiguration> configs) {
+        FullHarvest harvest = mock(FullHarvest.class);
+        when(harvest.getOid()).thenReturn(id);
+        when(harvest.isSnapShot()).thenReturn(true);
+        when(harvest.getDomainConfigurations()).thenReturn(configs.iterator());
+        return harvest;
+    }
+
+    /**
+     * @param jobs Some jobs.
+     * @return The domain configurations of each job.
+     */
+    private static Set<Map<String, String>> getDomainConfigurationMaps(List<Job> jobs) {
+        Set<Map<String, String>> maps = new HashSet<Map<String, String>>();
+        for (Job job : jobs) {
+            maps.add(job.getDomainConfigurationMap());
+        }
+        assertEquals("No two jobs should have the same configurations", jobs.size(), maps.size());
+        return maps;
+    }
+
+    /**
+     * A job generator making snapshot jobs without reading templates and harvest channels from the database.
+     */
+    private static class SnapshotJobGenerator extends DefaultJobGenerator {
+        @Override
+        public Job getNewJob(HarvestDefinition harvest, DomainConfiguration cfg) {
+            HeritrixTemplate ht = new H1HeritrixTemplate(OrderXmlBuilder.createDefault().getDoc());
+            return new Job(harvest.getOid(), cfg, ht, SNAPSHOT_CHANNEL, Constants.HERITRIX_MAXOBJECTS_INFINITY,
+                    cfg.getMaxBytes(), Constants.HERITRIX_MAXJOBRUNNINGTIME_INFINITY, harvest.getNumEvents());
+        }
+    }
+
     public static DomainConfiguration getDomainConfiguration(String name, Long maxBytes, int maxHops,
             boolean obeyRobots, boolean extractJS) {
         DomainConfiguration dc1 = DomainConfigurationTest.createDefaultDomainConfiguration(name);
@@ -31,24 +31,31 @@ import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TermRangeFilter;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.BytesRef;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
 import org.archive.modules.Processor;
@@ -88,6 +95,7 @@ import dk.netarkivet.common.utils.AllDocsCollector;
         <property name="originHandling" value="INDEX"/> Other options: NONE,PROCESSOR
         <property name="statsPerHost" value="true"/>
         <property name="revisitInWarcs" value="true"/>
+        <property name="lookupCacheSize" value="100"/> 0 disables the cache
 
 //          	/**
 //					(FROM deduplicator-commons/src/main/java/is/landsbokasafn/deduplicator/IndexFields.java)
@@ -327,6 +335,20 @@ public class DeDuplicator extends Processor implements InitializingBean {
     public Boolean getRevisitInWarcs() {
         return (Boolean) kp.get(ATTR_REVISIT_IN_WARCS);
     }
+
+    /* The number of recent index lookups each thread keeps the results of. */
+    public final static String ATTR_LOOKUP_CACHE_SIZE = "lookup-cache-size";
+    public final static int DEFAULT_LOOKUP_CACHE_SIZE = 100;
+    {
+        setLookupCacheSize(DEFAULT_LOOKUP_CACHE_SIZE);
+    }
+    public Integer getLookupCacheSize() {
+        return (Integer) kp.get(ATTR_LOOKUP_CACHE_SIZE);
+    }
+    /** SPRING SETTER */
+    public void setLookupCacheSize(Integer lookupCacheSize) {
+        kp.put(ATTR_LOOKUP_CACHE_SIZE, lookupCacheSize);
+    }
     
     // Spring configured access to Heritrix resources
     
@@ -355,7 +377,15 @@ public class DeDuplicator extends Processor implements InitializingBean {
     protected boolean useOriginFromIndex = false;
 
     protected Statistics stats = null;
-    protected HashMap<String, Statistics> perHostStats = null;
+    protected ConcurrentHashMap<String, Statistics> perHostStats = null;
+
+    /** The fields of the index documents used by this processor. Other fields are not loaded. */
+    protected static final Set<String> LOOKUP_FIELDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            DigestIndexer.FIELD_URL, DigestIndexer.FIELD_URL_NORMALIZED, DigestIndexer.FIELD_DIGEST,
+            DigestIndexer.FIELD_TIMESTAMP, DigestIndexer.FIELD_ORIGIN, "orig_record_id")));
+
+    /** The results of the recent lookups of each thread, by field and value. */
+    protected ThreadLocal<Map<String, List<Document>>> recentLookups = null;
 
 
     public void afterPropertiesSet() throws Exception {
@@ -398,7 +428,21 @@ public class DeDuplicator extends Processor implements InitializingBean {
         // Initialize some internal variables:
         stats = new Statistics();
         if (statsPerHost) {
-            perHostStats = new HashMap<String, Statistics>();
+            perHostStats = new ConcurrentHashMap<String, Statistics>();
+        }
+        final int lookupCacheSize = getLookupCacheSize();
+        if (lookupCacheSize > 0) {
+            recentLookups = new ThreadLocal<Map<String, List<Document>>>() {
+                @Override
+                protected Map<String, List<Document>> initialValue() {
+                    return new LinkedHashMap<String, List<Document>>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, List<Document>> eldest) {
+                            return size() > lookupCacheSize;
+                        }
+                    };
+                }
+            };
         }
     }
     
@@ -494,20 +538,21 @@ public class DeDuplicator extends Processor implements InitializingBean {
         logger.finest("Processing " + curi.toString() + "(" + 
                 curi.getContentType() + ")");
 
-        stats.handledNumber++;
-        stats.totalAmount += curi.getContentSize();
+        stats.handledNumber.increment();
+        stats.totalAmount.add(curi.getContentSize());
         Statistics currHostStats = null;
         if(statsPerHost){
-            synchronized (this) {
-                String host = getServerCache().getHostFor(curi.getUURI()).getHostName();
-                currHostStats = perHostStats.get(host);
-                if(currHostStats==null){
-                    currHostStats = new Statistics();
-                    perHostStats.put(host,currHostStats);
+            String host = getServerCache().getHostFor(curi.getUURI()).getHostName();
+            currHostStats = perHostStats.get(host);
+            if(currHostStats==null){
+                Statistics newStats = new Statistics();
+                currHostStats = perHostStats.putIfAbsent(host, newStats);
+                if (currHostStats == null) {
+                    currHostStats = newStats;
                 }
             }
-            currHostStats.handledNumber++;
-            currHostStats.totalAmount += curi.getContentSize();
+            currHostStats.handledNumber.increment();
+            currHostStats.totalAmount.add(curi.getContentSize());
         }
         
         Document duplicate = null; 
@@ -542,11 +587,11 @@ public class DeDuplicator extends Processor implements InitializingBean {
 
 
             // Increment statistics counters
-            stats.duplicateAmount += curi.getContentSize();
-            stats.duplicateNumber++;
+            stats.duplicateAmount.add(curi.getContentSize());
+            stats.duplicateNumber.increment();
             if(statsPerHost){ 
-                currHostStats.duplicateAmount+=curi.getContentSize();
-                currHostStats.duplicateNumber++;
+                currHostStats.duplicateAmount.add(curi.getContentSize());
+                currHostStats.duplicateNumber.increment();
             }
 
             String jumpTo = getJumpTo(); 
@@ -608,28 +653,20 @@ public class DeDuplicator extends Processor implements InitializingBean {
     protected Document lookupByURL(CrawlURI curi, Statistics currHostStats) {
         // Look the CrawlURI's URL up in the index.
         try {
-            Query query = queryField(DigestIndexer.FIELD_URL, curi.toString());
-            AllDocsCollector collectAllCollector = new AllDocsCollector();
-            indexSearcher.search(query, collectAllCollector);
-
-            List<ScoreDoc> hits = collectAllCollector.getHits();
-            Document doc = null;
+            List<Document> hits = lookup(DigestIndexer.FIELD_URL, curi.toString());
             String currentDigest = getDigestAsString(curi);
-            if (hits != null && hits.size() > 0) {
+            if (hits.size() > 0) {
                 // Typically there should only be one it, but we'll allow for
                 // multiple hits.
-                for (ScoreDoc hit : hits) {
-                    // for(int i=0 ; i < hits.size() ; i++){
+                for (Document doc : hits) {
                     // Multiple hits on same exact URL should be rare
                     // See if any have matching content digests
-                    int docId = hit.doc;
-                    doc = indexSearcher.doc(docId);
                     String oldDigest = doc.get(DigestIndexer.FIELD_DIGEST);
 
                     if (oldDigest.equalsIgnoreCase(currentDigest)) {
-                        stats.exactURLDuplicates++;
+                        stats.exactURLDuplicates.increment();
                         if (statsPerHost) {
-                            currHostStats.exactURLDuplicates++;
+                            currHostStats.exactURLDuplicates.increment();
                         }
 
                         logger.finest("Found exact match for " + curi.toString());
@@ -642,25 +679,18 @@ public class DeDuplicator extends Processor implements InitializingBean {
             if (getTryEquivalent()) {
                 // No exact hits. Let's try lenient matching.
                 String normalizedURL = DigestIndexer.stripURL(curi.toString());
-                query = queryField(DigestIndexer.FIELD_URL_NORMALIZED, normalizedURL);
-                collectAllCollector.reset(); // reset collector
-                indexSearcher.search(query, collectAllCollector);
-                hits = collectAllCollector.getHits();
-
-                for (ScoreDoc hit : hits) {
-                    // int i=0 ; i < hits.length ; i++){
+                hits = lookup(DigestIndexer.FIELD_URL_NORMALIZED, normalizedURL);
 
-                    int docId = hit.doc;
-                    Document doc1 = indexSearcher.doc(docId);
+                for (Document doc1 : hits) {
                     String indexDigest = doc1.get(DigestIndexer.FIELD_DIGEST);
                     if (indexDigest.equals(currentDigest)) {
                         // Make note in log
                         String equivURL = doc1.get(DigestIndexer.FIELD_URL);
                         curi.getAnnotations().add("equivalentURL:\"" + equivURL + "\"");
                         // Increment statistics counters
-                        stats.equivalentURLDuplicates++;
+                        stats.equivalentURLDuplicates.increment();
                         if (statsPerHost) {
-                            currHostStats.equivalentURLDuplicates++;
+                            currHostStats.equivalentURLDuplicates.increment();
                         }
                         logger.finest("Found equivalent match for " + curi.toString() + ". Normalized: "
                                 + normalizedURL + ". Equivalent to: " + equivURL);
@@ -696,32 +726,26 @@ public class DeDuplicator extends Processor implements InitializingBean {
             return null;
         }
 
-        Query query = queryField(DigestIndexer.FIELD_DIGEST, currentDigest);
         try {
-            AllDocsCollector collectAllCollector = new AllDocsCollector();
-            indexSearcher.search(query, collectAllCollector);
-
-            List<ScoreDoc> hits = collectAllCollector.getHits();
+            List<Document> hits = lookup(DigestIndexer.FIELD_DIGEST, currentDigest);
 
             StringBuffer mirrors = new StringBuffer();
             mirrors.append("mirrors: ");
-            if (hits != null && hits.size() > 0) {
+            if (hits.size() > 0) {
                 // Can definitely be more then one
                 // Note: We may find an equivalent match before we find an
                 // (existing) exact match.
                 // TODO: Ensure that an exact match is recorded if it exists.
-                Iterator<ScoreDoc> hitsIterator = hits.iterator();
+                Iterator<Document> hitsIterator = hits.iterator();
                 while (hitsIterator.hasNext() && duplicate == null) {
-                    ScoreDoc hit = hitsIterator.next();
-                    int docId = hit.doc;
-                    Document doc = indexSearcher.doc(docId);
+                    Document doc = hitsIterator.next();
                     String indexURL = doc.get(DigestIndexer.FIELD_URL);
                     // See if the current hit is an exact match.
                     if (curi.toString().equals(indexURL)) {
                         duplicate = doc;
-                        stats.exactURLDuplicates++;
+                        stats.exactURLDuplicates.increment();
                         if (statsPerHost) {
-                            currHostStats.exactURLDuplicates++;
+                            currHostStats.exactURLDuplicates.increment();
                         }
                         logger.finest("Found exact match for " + curi.toString());
                     }
@@ -733,9 +757,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
                         String indexNormalURL = doc.get(DigestIndexer.FIELD_URL_NORMALIZED);
                         if (normalURL.equals(indexNormalURL)) {
                             duplicate = doc;
-                            stats.equivalentURLDuplicates++;
+                            stats.equivalentURLDuplicates.increment();
                             if (statsPerHost) {
-                                currHostStats.equivalentURLDuplicates++;
+                                currHostStats.equivalentURLDuplicates.increment();
                             }
                             curi.getAnnotations().add("equivalentURL:\"" + indexURL + "\"");
                             logger.finest("Found equivalent match for " + curi.toString() + ". Normalized: "
@@ -750,9 +774,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
                     }
                 }
                 if (duplicate == null) {
-                    stats.mirrorNumber++;
+                    stats.mirrorNumber.increment();
                     if (statsPerHost) {
-                        currHostStats.mirrorNumber++;
+                        currHostStats.mirrorNumber.increment();
                     }
                     logger.log(Level.FINEST, "Found mirror URLs for " + curi.toString() + ". " + mirrors);
                 }
@@ -774,30 +798,30 @@ public class DeDuplicator extends Processor implements InitializingBean {
         }
         ret.append("                     - Lookup by " + 
         		(lookupByURL?"url":"digest") + " in use\n");
-        ret.append("  Total handled:     " + stats.handledNumber + "\n");
-        ret.append("  Duplicates found:  " + stats.duplicateNumber + " " + 
-        		getPercentage(stats.duplicateNumber,stats.handledNumber) + "\n");
-        ret.append("  Bytes total:       " + stats.totalAmount + " (" + 
-        		ArchiveUtils.formatBytesForDisplay(stats.totalAmount) + ")\n");
-        ret.append("  Bytes discarded:   " + stats.duplicateAmount + " (" + 
-        		ArchiveUtils.formatBytesForDisplay(stats.duplicateAmount) + ") " + 
-        		getPercentage(stats.duplicateAmount, stats.totalAmount) + "\n");
+        ret.append("  Total handled:     " + stats.handledNumber.sum() + "\n");
+        ret.append("  Duplicates found:  " + stats.duplicateNumber.sum() + " " + 
+        		getPercentage(stats.duplicateNumber.sum(),stats.handledNumber.sum()) + "\n");
+        ret.append("  Bytes total:       " + stats.totalAmount.sum() + " (" + 
+        		ArchiveUtils.formatBytesForDisplay(stats.totalAmount.sum()) + ")\n");
+        ret.append("  Bytes discarded:   " + stats.duplicateAmount.sum() + " (" + 
+        		ArchiveUtils.formatBytesForDisplay(stats.duplicateAmount.sum()) + ") " + 
+        		getPercentage(stats.duplicateAmount.sum(), stats.totalAmount.sum()) + "\n");
         
-    	ret.append("  New (no hits):     " + (stats.handledNumber-
-    			(stats.mirrorNumber+stats.exactURLDuplicates+stats.equivalentURLDuplicates)) + "\n");
-    	ret.append("  Exact hits:        " + stats.exactURLDuplicates + "\n");
-    	ret.append("  Equivalent hits:   " + stats.equivalentURLDuplicates + "\n");
+    	ret.append("  New (no hits):     " + (stats.handledNumber.sum()-
+    			(stats.mirrorNumber.sum()+stats.exactURLDuplicates.sum()+stats.equivalentURLDuplicates.sum())) + "\n");
+    	ret.append("  Exact hits:        " + stats.exactURLDuplicates.sum() + "\n");
+    	ret.append("  Equivalent hits:   " + stats.equivalentURLDuplicates.sum() + "\n");
         if(lookupByURL==false){
-        	ret.append("  Mirror hits:       " + stats.mirrorNumber + "\n");
+        	ret.append("  Mirror hits:       " + stats.mirrorNumber.sum() + "\n");
         }
         
         if(getAnalyzeTimestamp()){
         	ret.append("  Timestamp predicts: (Where exact URL existed in the index)\n");
-        	ret.append("  Change correctly:  " + stats.timestampChangeCorrect + "\n");
-        	ret.append("  Change falsely:     " + stats.timestampChangeFalse + "\n");
-        	ret.append("  Non-change correct:" + stats.timestampNoChangeCorrect + "\n");
-        	ret.append("  Non-change falsely: " + stats.timestampNoChangeFalse + "\n");
-        	ret.append("  Missing timpestamp:" + stats.timestampMissing + "\n");
+        	ret.append("  Change correctly:  " + stats.timestampChangeCorrect.sum() + "\n");
+        	ret.append("  Change falsely:     " + stats.timestampChangeFalse.sum() + "\n");
+        	ret.append("  Non-change correct:" + stats.timestampNoChangeCorrect.sum() + "\n");
+        	ret.append("  Non-change falsely: " + stats.timestampNoChangeFalse.sum() + "\n");
+        	ret.append("  Missing timpestamp:" + stats.timestampMissing.sum() + "\n");
         	
         }
         
@@ -813,48 +837,46 @@ public class DeDuplicator extends Processor implements InitializingBean {
                 ret.append(" [no timestamp]");
             }
             ret.append("\n");
-            synchronized (this) {
-                Iterator<String> it = perHostStats.keySet().iterator();
-                while(it.hasNext()){
-                    String key = it.next();
-                    Statistics curr = perHostStats.get(key);
-                    ret.append("  " +key);
-                    ret.append(" ");
-                    ret.append(curr.handledNumber);
+            Iterator<String> it = perHostStats.keySet().iterator();
+            while(it.hasNext()){
+                String key = it.next();
+                Statistics curr = perHostStats.get(key);
+                ret.append("  " +key);
+                ret.append(" ");
+                ret.append(curr.handledNumber.sum());
+                ret.append(" ");
+                ret.append(curr.duplicateNumber.sum());
+                ret.append(" ");
+                ret.append(curr.totalAmount.sum());
+                ret.append(" ");
+                ret.append(curr.duplicateAmount.sum());
+                ret.append(" ");
+                ret.append(curr.handledNumber.sum()-
+                        (curr.mirrorNumber.sum()+
+                         curr.exactURLDuplicates.sum()+
+                         curr.equivalentURLDuplicates.sum()));
+                ret.append(" ");
+                ret.append(curr.exactURLDuplicates.sum());
+                ret.append(" ");
+                ret.append(curr.equivalentURLDuplicates.sum());
+
+                if(lookupByURL==false){
                     ret.append(" ");
-                    ret.append(curr.duplicateNumber);
+                    ret.append(curr.mirrorNumber.sum());
+                }    
+                if(getAnalyzeTimestamp()){
                     ret.append(" ");
-                    ret.append(curr.totalAmount);
+                    ret.append(curr.timestampChangeCorrect.sum());
                     ret.append(" ");
-                    ret.append(curr.duplicateAmount);
+                    ret.append(curr.timestampChangeFalse.sum());
                     ret.append(" ");
-                    ret.append(curr.handledNumber-
-                            (curr.mirrorNumber+
-                             curr.exactURLDuplicates+
-                             curr.equivalentURLDuplicates));
+                    ret.append(curr.timestampNoChangeCorrect.sum());
                     ret.append(" ");
-                    ret.append(curr.exactURLDuplicates);
+                    ret.append(curr.timestampNoChangeFalse.sum());
                     ret.append(" ");
-                    ret.append(curr.equivalentURLDuplicates);
-
-                    if(lookupByURL==false){
-                        ret.append(" ");
-                        ret.append(curr.mirrorNumber);
-                    }    
-                    if(getAnalyzeTimestamp()){
-                        ret.append(" ");
-                        ret.append(curr.timestampChangeCorrect);
-                        ret.append(" ");
-                        ret.append(curr.timestampChangeFalse);
-                        ret.append(" ");
-                        ret.append(curr.timestampNoChangeCorrect);
-                        ret.append(" ");
-                        ret.append(curr.timestampNoChangeFalse);
-                        ret.append(" ");
-                        ret.append(curr.timestampMissing);
-                    }
-                    ret.append("\n");
+                    ret.append(curr.timestampMissing.sum());
                 }
+                ret.append("\n");
             }
         }
         
@@ -887,20 +909,13 @@ public class DeDuplicator extends Processor implements InitializingBean {
 	protected void doAnalysis(CrawlURI curi, Statistics currHostStats,
             boolean isDuplicate) {
 		try{
-    		Query query = queryField(DigestIndexer.FIELD_URL, curi.toString());
-            AllDocsCollector collectAllCollector = new AllDocsCollector();
-			indexSearcher.search(query, collectAllCollector);
-            List<ScoreDoc> hits = collectAllCollector.getHits();
-
-            Document doc = null;
+            List<Document> hits = lookup(DigestIndexer.FIELD_URL, curi.toString());
     	
-            if(hits != null && hits.size() > 0){
+            if(hits.size() > 0){
                 // If there are multiple hits, use the one with the most
                 // recent date.
                 Document docToEval = null;
-                for (ScoreDoc hit : hits) {
-                    int docId = hit.doc;
-                    doc = indexSearcher.doc(docId);
+                for (Document doc : hits) {
                     // The format of the timestamp ("yyyyMMddHHmmssSSS") allows
                     // us to do a greater then (later) or lesser than (earlier)
                     // comparison of the strings.
@@ -938,9 +953,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
 				return;
 			}
         } else {
-            stats.timestampMissing++;
+            stats.timestampMissing.increment();
             if (statsPerHost) {
-                currHostStats.timestampMissing++;
+                currHostStats.timestampMissing.increment();
                 logger.finest("Missing timestamp on " + curi.toString());
             }
         	return;
@@ -961,16 +976,16 @@ public class DeDuplicator extends Processor implements InitializingBean {
 			// Header predicts change
 			if(isDuplicate){
 				// But the DeDuplicator did not notice a change.
-                stats.timestampChangeFalse++;
+                stats.timestampChangeFalse.increment();
                 if (statsPerHost){
-                    currHostStats.timestampChangeFalse++;
+                    currHostStats.timestampChangeFalse.increment();
                 }
                 logger.finest("Last-modified falsly predicts change on " + 
                         curi.toString());
 			} else {
-                stats.timestampChangeCorrect++;
+                stats.timestampChangeCorrect.increment();
                 if (statsPerHost){
-                    currHostStats.timestampChangeCorrect++;
+                    currHostStats.timestampChangeCorrect.increment();
                 }
                 logger.finest("Last-modified correctly predicts change on " + 
                         curi.toString());
@@ -979,9 +994,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
 			// Header does not predict change.
 			if(isDuplicate){
 				// And the DeDuplicator verifies that no change had occurred
-                stats.timestampNoChangeCorrect++;
+                stats.timestampNoChangeCorrect.increment();
                 if (statsPerHost){
-                    currHostStats.timestampNoChangeCorrect++;
+                    currHostStats.timestampNoChangeCorrect.increment();
                 }
                 logger.finest("Last-modified correctly predicts no-change on " + 
                         curi.toString());
@@ -991,9 +1006,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
 						"no-change on " + curi.toString() + " " + 
 						curi.getContentType() + ". last-modified: " + 
                         lastModified + ". Last fetched: " + lastFetch);
-                stats.timestampNoChangeFalse++;
+                stats.timestampNoChangeFalse.increment();
                 if (statsPerHost){
-                    currHostStats.timestampNoChangeFalse++;
+                    currHostStats.timestampNoChangeFalse.increment();
                 }
 			}
 		}
@@ -1007,71 +1022,104 @@ public class DeDuplicator extends Processor implements InitializingBean {
      * @return A Query for the given value in the given field.
      */
 	protected Query queryField(String fieldName, String value) {
-		Query query = null;
-
-		/** alternate solution. */
-		BytesRef valueRef = new BytesRef(value.getBytes());
-		query = new ConstantScoreQuery(new TermRangeFilter(fieldName, valueRef, valueRef, true, true));
-
-		/** The most clean solution, but it seems also memory demanding */
-		// query = new ConstantScoreQuery(new FieldCacheTermsFilter(fieldName,
-		// value));
-		return query; 	
+		// The fields are indexed without analysis, so an exact match is a single term
+		return new TermQuery(new Term(fieldName, value));
 	}
+
+    /**
+     * Find the documents in the index with a given value in a given field. Only the LOOKUP_FIELDS of the documents are
+     * loaded. The results of the recent lookups of the current thread are reused, since the index does not change
+     * during the crawl.
+     *
+     * @param fieldName name of the field to look in.
+     * @param value The value to look for
+     * @return The documents found, possibly none.
+     * @throws IOException If the index cannot be read.
+     */
+    protected List<Document> lookup(String fieldName, String value) throws IOException {
+        Map<String, List<Document>> recent = recentLookups == null ? null : recentLookups.get();
+        String key = null;
+        if (recent != null) {
+            key = fieldName + '\u0000' + value;
+            List<Document> docs = recent.get(key);
+            if (docs != null) {
+                return docs;
+            }
+        }
+        AllDocsCollector collectAllCollector = new AllDocsCollector();
+        indexSearcher.search(queryField(fieldName, value), collectAllCollector);
+        List<ScoreDoc> hits = collectAllCollector.getHits();
+        List<Document> docs;
+        if (hits == null || hits.isEmpty()) {
+            docs = Collections.emptyList();
+        } else {
+            docs = new ArrayList<Document>(hits.size());
+            for (ScoreDoc hit : hits) {
+                docs.add(indexSearcher.doc(hit.doc, LOOKUP_FIELDS));
+            }
+        }
+        if (recent != null) {
+            recent.put(key, docs);
+        }
+        return docs;
+    }
 	
 }
 
+/**
+ * Counters of the processor, updated concurrently by the ToeThreads.
+ */
 class Statistics{
     // General statistics
     
     /** Number of URIs that make it through the processors exclusion rules
      *  and are processed by it.
      */
-    long handledNumber = 0;
+    final LongAdder handledNumber = new LongAdder();
     
     /** Number of URIs that are deemed duplicates and further processing is
      *  aborted
      */
-    long duplicateNumber = 0;
+    final LongAdder duplicateNumber = new LongAdder();
     
     /** Then number of URIs that turned out to have exact URL and content 
      *  digest matches.
      */
-    long exactURLDuplicates = 0;
+    final LongAdder exactURLDuplicates = new LongAdder();
     
     /** The number of URIs that turned out to have equivalent URL and content
      *  digest matches.
      */
-    long equivalentURLDuplicates = 0;
+    final LongAdder equivalentURLDuplicates = new LongAdder();
     
     /** The number of URIs that, while having no exact or equivalent matches,  
      *  do have exact content digest matches against non-equivalent URIs.
      */
-    long mirrorNumber = 0;
+    final LongAdder mirrorNumber = new LongAdder();
     
     /** The total amount of data represented by the documents who were deemed
      *  duplicates and excluded from further processing.
      */
-    long duplicateAmount = 0;
+    final LongAdder duplicateAmount = new LongAdder();
     
     /** The total amount of data represented by all the documents processed **/
-    long totalAmount = 0;
+    final LongAdder totalAmount = new LongAdder();
     
     // Timestamp analysis
     
-    long timestampChangeCorrect = 0;
-    long timestampChangeFalse = 0;
-    long timestampNoChangeCorrect = 0;
-    long timestampNoChangeFalse = 0;
-    long timestampMissing = 0;
+    final LongAdder timestampChangeCorrect = new LongAdder();
+    final LongAdder timestampChangeFalse = new LongAdder();
+    final LongAdder timestampNoChangeCorrect = new LongAdder();
+    final LongAdder timestampNoChangeFalse = new LongAdder();
+    final LongAdder timestampMissing = new LongAdder();
 
     // ETag analysis;
     
-    long ETagChangeCorrect = 0;
-    long ETagChangeFalse = 0;
-    long ETagNoChangeCorrect = 0;
-    long ETagNoChangeFalse = 0;
-    long ETagMissingIndex = 0;
-    long ETagMissingCURI = 0;
+    final LongAdder ETagChangeCorrect = new LongAdder();
+    final LongAdder ETagChangeFalse = new LongAdder();
+    final LongAdder ETagNoChangeCorrect = new LongAdder();
+    final LongAdder ETagNoChangeFalse = new LongAdder();
+    final LongAdder ETagMissingIndex = new LongAdder();
+    final LongAdder ETagMissingCURI = new LongAdder();
 }
 
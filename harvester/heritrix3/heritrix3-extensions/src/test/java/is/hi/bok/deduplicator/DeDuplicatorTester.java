@@ -4,8 +4,21 @@ import static org.junit.Assert.*;
 import is.hi.bok.deduplicator.DeDuplicator;
 import is.hi.bok.deduplicator.DeDuplicator.FilterMode;
 
+import java.io.File;
+import java.util.List;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
 import org.junit.Test;
 
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.utils.FileUtils;
+
 public class DeDuplicatorTester {
 
 	@Test
@@ -68,4 +81,48 @@ public class DeDuplicatorTester {
 	*/
 	}	
 
+
+	/**
+	 * Test that lookups match exact values only, load only the fields used, and are reused by the same thread.
+	 */
+	@Test
+	public void testLookup() throws Exception {
+		File indexDir = FileUtils.createUniqueTempDir(new File(System.getProperty("java.io.tmpdir")), "dedupindex");
+		try {
+			IndexWriter writer = new IndexWriter(FSDirectory.open(indexDir),
+					new IndexWriterConfig(Constants.LUCENE_VERSION, new WhitespaceAnalyzer(Constants.LUCENE_VERSION)));
+			addDocument(writer, "http://www.example.com/", "DIGEST1");
+			addDocument(writer, "http://www.example.com/a", "DIGEST1");
+			addDocument(writer, "http://www.example.com/b", "DIGEST2");
+			writer.close();
+
+			DeDuplicator deduplicator = new DeDuplicator();
+			deduplicator.setIndexLocation(indexDir.getAbsolutePath());
+			deduplicator.afterPropertiesSet();
+
+			List<Document> hits = deduplicator.lookup(DigestIndexer.FIELD_DIGEST, "DIGEST1");
+			assertEquals("Should find both documents with the digest", 2, hits.size());
+			assertNotNull("The url should be loaded", hits.get(0).get(DigestIndexer.FIELD_URL));
+			assertNull("The etag is not used, and should not be loaded", hits.get(0).get(DigestIndexer.FIELD_ETAG));
+			assertSame("A repeated lookup should be reused", hits,
+					deduplicator.lookup(DigestIndexer.FIELD_DIGEST, "DIGEST1"));
+			assertEquals("Should only match the exact url", 1,
+					deduplicator.lookup(DigestIndexer.FIELD_URL, "http://www.example.com/").size());
+			assertTrue("Should not match a prefix of the digest",
+					deduplicator.lookup(DigestIndexer.FIELD_DIGEST, "DIGEST").isEmpty());
+
+			deduplicator.indexReader.close();
+		} finally {
+			FileUtils.removeRecursively(indexDir);
+		}
+	}
+
+	private static void addDocument(IndexWriter writer, String url, String digest) throws Exception {
+		Document doc = new Document();
+		doc.add(new StringField(DigestIndexer.FIELD_URL, url, Field.Store.YES));
+		doc.add(new StringField(DigestIndexer.FIELD_DIGEST, digest, Field.Store.YES));
+		doc.add(new StringField(DigestIndexer.FIELD_ETAG, "etag", Field.Store.YES));
+		doc.add(new StringField(DigestIndexer.FIELD_TIMESTAMP, "20180101000000000", Field.Store.YES));
+		writer.addDocument(doc);
+	}
 }
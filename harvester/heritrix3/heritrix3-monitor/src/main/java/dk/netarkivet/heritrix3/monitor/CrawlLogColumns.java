@@ -0,0 +1,599 @@
+/*
+ * #%L
+ * Netarchivesuite - heritrix 3 monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.heritrix3.monitor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The columns of the lines of a crawl log, parsed once so crawl log searches do not have to read and parse the lines.
+ * <p>
+ * Each line is stored as a fixed size record in a file: status code, size, MIME type, discovery path, the names of the
+ * annotations, and the host of the URL. Strings are stored as numbers given by a dictionary per column. The values of
+ * annotations, e.g. the file and offset of <code>duplicate:"file,offset"</code>, are left out, so the dictionary of
+ * annotations stays small. The record also holds the previous line with the same host, so the lines of a host can be
+ * found without reading the other lines.
+ * <p>
+ * Lines are added by one thread at a time, and are searched by any thread without locking. Added lines can be searched
+ * once {@link #update(LineIndex, FileChannel)} returns.
+ */
+public class CrawlLogColumns implements Closeable {
+
+    /** The field of a crawl log line holding the status code. */
+    static final int STATUS_FIELD = 1;
+    /** The field of a crawl log line holding the size. */
+    static final int SIZE_FIELD = 2;
+    /** The field of a crawl log line holding the URL. */
+    static final int URL_FIELD = 3;
+    /** The field of a crawl log line holding the discovery path. */
+    static final int PATH_FIELD = 4;
+    /** The field of a crawl log line holding the MIME type. */
+    static final int MIME_FIELD = 6;
+    /** The field of a crawl log line holding the annotations. */
+    static final int ANNOTATIONS_FIELD = 11;
+
+    /** The size stored for a line without a size, e.g. "-". Sizes are never negative, so no size term selects it. */
+    static final long NO_SIZE = -1;
+
+    /** The offset of the size in a record. */
+    private static final int SIZE = 0;
+    /** The offset of the previous line with the same host in a record, or -1 if there is none. */
+    private static final int PREVIOUS_SAME_HOST = 8;
+    /** The offset of the status code in a record. */
+    private static final int STATUS = 16;
+    /** The offset of the host in a record. */
+    private static final int HOST = 20;
+    /** The offset of the MIME type in a record. */
+    private static final int MIME = 24;
+    /** The offset of the discovery path in a record. */
+    private static final int PATH = 28;
+    /** The offset of the annotations in a record. */
+    private static final int ANNOTATIONS = 32;
+    /** The number of bytes of a record. */
+    private static final int RECORD_SIZE = 36;
+
+    /** The largest number of lines of the hosts searched for which the lines of the hosts are used, not all lines. */
+    private static final int MAX_HOST_LINES = 1024 * 1024;
+
+    /** The number of bytes of the crawl log read at a time. */
+    private static final int READ_SIZE = 1024 * 1024;
+
+    /** The records of the lines. */
+    private final MappedRecordFile records;
+
+    /** The hosts, by name. */
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<String, Host>();
+
+    /** The hosts of the lines added since the last update, whose lines are not yet searched. */
+    private final List<Host> updatedHosts = new ArrayList<Host>();
+
+    /** The MIME types. */
+    private final Dictionary mimes = new Dictionary();
+
+    /** The discovery paths. */
+    private final Dictionary paths = new Dictionary();
+
+    /** The names of the annotations of a line, sorted and separated by commas. */
+    private final Dictionary annotations = new Dictionary();
+
+    /** The start and end of each field of the line being added. */
+    private final int[] fields = new int[2 * (ANNOTATIONS_FIELD + 1)];
+
+    /** The crawl log bytes being added. */
+    private byte[] bytes = new byte[READ_SIZE];
+
+    /** The number of lines added. */
+    private long added;
+
+    /** The number of lines which can be searched. */
+    private volatile long lines;
+
+    /**
+     * Create an empty file of crawl log columns.
+     *
+     * @param file The file holding the columns. Any existing content is removed.
+     * @throws IOException If the file cannot be created.
+     */
+    public CrawlLogColumns(File file) throws IOException {
+        records = new MappedRecordFile(file, RECORD_SIZE, true);
+    }
+
+    /**
+     * Add the lines of a crawl log which have been indexed since the last update.
+     *
+     * @param index The line index of the crawl log.
+     * @param log The crawl log.
+     * @throws IOException If reading the crawl log or writing the columns fails.
+     */
+    public void update(LineIndex index, FileChannel log) throws IOException {
+        long line = added;
+        long end = index.size() - 1;
+        while (line < end) {
+            // Read as many whole lines as fit in the buffer, and at least one.
+            long from = index.get(line);
+            long toLine = line + 1;
+            while (toLine < end && index.get(toLine + 1) - from <= bytes.length) {
+                ++toLine;
+            }
+            int length = (int) (index.get(toLine) - from);
+            if (length > bytes.length) {
+                bytes = new byte[length];
+            }
+            StringIndexFile.readFully(log, from, bytes, length);
+            while (line < toLine) {
+                add(line, (int) (index.get(line) - from), (int) (index.get(line + 1) - from));
+                added = ++line;
+            }
+        }
+        records.flush();
+        for (Host host : updatedHosts) {
+            host.publish();
+        }
+        updatedHosts.clear();
+        lines = records.size();
+    }
+
+    /**
+     * Parse a line and append its record.
+     *
+     * @param line The number of the line.
+     * @param from The start of the line in the bytes read.
+     * @param to The end of the line in the bytes read.
+     * @throws IOException If writing the record fails.
+     */
+    private void add(long line, int from, int to) throws IOException {
+        int found = splitFields(bytes, from, to, fields);
+        int status = (int) parseNumber(found, STATUS_FIELD, 0);
+        long size = parseNumber(found, SIZE_FIELD, NO_SIZE);
+        String mime = getField(found, MIME_FIELD).toLowerCase(Locale.ROOT);
+        int semicolon = mime.indexOf(';');
+        if (semicolon != -1) {
+            mime = mime.substring(0, semicolon).trim();
+        }
+        String hostName = "";
+        if (found > URL_FIELD) {
+            hostName = getHost(bytes, fields[2 * URL_FIELD], fields[2 * URL_FIELD + 1]);
+        }
+        Host host = hosts.get(hostName);
+        if (host == null) {
+            host = new Host(hosts.size());
+            hosts.put(hostName, host);
+        }
+        if (host.count == host.publishedCount) {
+            updatedHosts.add(host);
+        }
+        long previous = host.last;
+        host.last = line;
+        host.count++;
+        records.append()
+                .putLong(size)
+                .putLong(previous)
+                .putInt(status)
+                .putInt(host.id)
+                .putInt(mimes.getId(mime))
+                .putInt(paths.getId(getField(found, PATH_FIELD)))
+                .putInt(annotations.getId(getAnnotationNames(getField(found, ANNOTATIONS_FIELD))));
+    }
+
+    /**
+     * Find the fields of a crawl log line, which are separated by one or more spaces.
+     *
+     * @param bytes The bytes holding the line.
+     * @param from The start of the line.
+     * @param to The end of the line.
+     * @param fields Receives the start and end of each field found, as many as there is room for.
+     * @return The number of fields found.
+     */
+    static int splitFields(byte[] bytes, int from, int to, int[] fields) {
+        while (to > from && (bytes[to - 1] == '\n' || bytes[to - 1] == '\r')) {
+            --to;
+        }
+        int found = 0;
+        int i = from;
+        while (2 * found < fields.length) {
+            while (i < to && bytes[i] == ' ') {
+                ++i;
+            }
+            if (i == to) {
+                break;
+            }
+            fields[2 * found] = i;
+            while (i < to && bytes[i] != ' ') {
+                ++i;
+            }
+            fields[2 * found + 1] = i;
+            ++found;
+        }
+        return found;
+    }
+
+    /**
+     * Find one field of a crawl log line.
+     *
+     * @param bytes The bytes holding the line.
+     * @param from The start of the line.
+     * @param to The end of the line.
+     * @param field The number of the field.
+     * @return The start and end of the field, or null if the line has no such field.
+     */
+    static int[] findField(byte[] bytes, int from, int to, int field) {
+        int[] found = new int[2 * (field + 1)];
+        if (splitFields(bytes, from, to, found) <= field) {
+            return null;
+        }
+        return Arrays.copyOfRange(found, 2 * field, 2 * field + 2);
+    }
+
+    /**
+     * @param found The number of fields of the line being added.
+     * @param field The number of a field.
+     * @return The field, or "-" if the line has no such field.
+     */
+    private String getField(int found, int field) {
+        if (field >= found) {
+            return "-";
+        }
+        return new String(bytes, fields[2 * field], fields[2 * field + 1] - fields[2 * field], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param found The number of fields of the line being added.
+     * @param field The number of a field holding a number.
+     * @param defaultValue The number to use if the field is missing or is not a number, e.g. "-".
+     * @return The number.
+     */
+    private long parseNumber(int found, int field, long defaultValue) {
+        if (field >= found) {
+            return defaultValue;
+        }
+        return parseNumber(bytes, fields[2 * field], fields[2 * field + 1], defaultValue);
+    }
+
+    /**
+     * Parse a decimal number of at most 18 digits, which may be negative.
+     *
+     * @param bytes The bytes holding the number.
+     * @param from The start of the number.
+     * @param to The end of the number.
+     * @param defaultValue The number to use if the bytes are not a number, e.g. "-".
+     * @return The number.
+     */
+    static long parseNumber(byte[] bytes, int from, int to, long defaultValue) {
+        int i = from;
+        if (i == to) {
+            return defaultValue;
+        }
+        boolean negative = bytes[i] == '-';
+        if (negative) {
+            ++i;
+        }
+        if (i == to || to - i > 18) {
+            return defaultValue;
+        }
+        long value = 0;
+        while (i < to) {
+            int digit = bytes[i++] - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            value = 10 * value + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Get the names of the annotations of a crawl log line, e.g. "duplicate,ip" of
+     * <code>ip:192.0.2.1,duplicate:"file.warc.gz,1234"</code>. Commas within double quotes do not separate annotations.
+     *
+     * @param annotations The annotations of a line, separated by commas.
+     * @return The distinct names of the annotations, sorted and separated by commas.
+     */
+    static String getAnnotationNames(String annotations) {
+        SortedSet<String> names = new TreeSet<String>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i <= annotations.length(); i++) {
+            if (i == annotations.length() || (annotations.charAt(i) == ',' && !quoted)) {
+                String name = getAnnotationName(annotations.substring(start, i));
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+                start = i + 1;
+            } else if (annotations.charAt(i) == '"') {
+                quoted = !quoted;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the name of an annotation, which is the part before any ':' or '"', e.g. "duplicate" of
+     * <code>duplicate:"file.warc.gz,1234"</code>.
+     *
+     * @param annotation An annotation.
+     * @return The name of the annotation.
+     */
+    static String getAnnotationName(String annotation) {
+        int end = 0;
+        while (end < annotation.length() && annotation.charAt(end) != ':' && annotation.charAt(end) != '"') {
+            ++end;
+        }
+        return annotation.substring(0, end);
+    }
+
+    /**
+     * Get the host of a URL, e.g. "example.dk" of "http://user@www.example.dk:8080/index.html" or of "dns:example.dk".
+     *
+     * @param bytes The bytes holding the URL.
+     * @param from The start of the URL.
+     * @param to The end of the URL.
+     * @return The host in lower case, or an empty string if there is none.
+     */
+    static String getHost(byte[] bytes, int from, int to) {
+        int start = from;
+        int colon = -1;
+        for (int i = from; i < to && colon == -1; i++) {
+            if (bytes[i] == ':') {
+                colon = i;
+            } else if (bytes[i] == '/') {
+                break;
+            }
+        }
+        if (colon != -1) {
+            start = colon + 1;
+            if (start + 1 < to && bytes[start] == '/' && bytes[start + 1] == '/') {
+                start += 2;
+            }
+        }
+        int end = start;
+        while (end < to && bytes[end] != '/' && bytes[end] != '?' && bytes[end] != '#') {
+            ++end;
+        }
+        // Leave out any user and port.
+        for (int i = end - 1; i >= start; i--) {
+            if (bytes[i] == '@') {
+                start = i + 1;
+                break;
+            }
+        }
+        if (start < end && bytes[start] != '[') {
+            for (int i = start; i < end; i++) {
+                if (bytes[i] == ':') {
+                    end = i;
+                    break;
+                }
+            }
+        }
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return The number of lines which can be searched.
+     */
+    public long size() {
+        return lines;
+    }
+
+    /**
+     * Find the lines selected by the columns of a query, in order. Regular expressions of the query are not used.
+     *
+     * @param query The query.
+     * @param fromLine The first line to search.
+     * @param toLine The line after the last line to search, at most {@link #size()}.
+     * @param handler Receives the lines found.
+     * @throws IOException If the handler fails.
+     */
+    public void search(CrawlLogQuery query, long fromLine, long toLine, LineHandler handler) throws IOException {
+        ArgumentNotValid.checkNotNull(query, "CrawlLogQuery query");
+        ArgumentNotValid.checkNotNull(handler, "LineHandler handler");
+        ArgumentNotValid.checkTrue(toLine <= lines, "Only " + lines + " lines can be searched, not " + toLine);
+        BitSet mimeIds = query.mimes.isEmpty() ? null : mimes.find(query.mimes);
+        BitSet pathIds = query.paths.isEmpty() ? null : paths.find(query.paths);
+        BitSet annotationIds = null;
+        if (!query.annotations.isEmpty()) {
+            annotationIds = new BitSet();
+            for (Map.Entry<String, Integer> entry : annotations.ids.entrySet()) {
+                if (query.matchesAnnotations(entry.getKey())) {
+                    annotationIds.set(entry.getValue());
+                }
+            }
+        }
+        BitSet hostIds = null;
+        if (!query.hosts.isEmpty()) {
+            hostIds = new BitSet();
+            List<Host> found = new ArrayList<Host>();
+            long hostLines = 0;
+            for (Map.Entry<String, Host> entry : hosts.entrySet()) {
+                if (query.matchesHost(entry.getKey())) {
+                    Host host = entry.getValue();
+                    hostIds.set(host.id);
+                    found.add(host);
+                    hostLines += host.publishedCount;
+                }
+            }
+            if (hostLines <= MAX_HOST_LINES) {
+                // Follow the lines of each host back from its last line, and search them in order.
+                long[] hostLineArr = new long[(int) hostLines];
+                int count = 0;
+                for (Host host : found) {
+                    long line = host.publishedLast;
+                    while (line >= fromLine) {
+                        if (line < toLine) {
+                            if (count == hostLineArr.length) {
+                                hostLineArr = Arrays.copyOf(hostLineArr, 2 * count + 1);
+                            }
+                            hostLineArr[count++] = line;
+                        }
+                        line = records.getLong(line, PREVIOUS_SAME_HOST);
+                    }
+                }
+                Arrays.sort(hostLineArr, 0, count);
+                for (int i = 0; i < count; i++) {
+                    if (matches(hostLineArr[i], query, null, mimeIds, pathIds, annotationIds)) {
+                        handler.line(hostLineArr[i]);
+                    }
+                }
+                return;
+            }
+        }
+        for (long line = fromLine; line < toLine; line++) {
+            if (matches(line, query, hostIds, mimeIds, pathIds, annotationIds)) {
+                handler.line(line);
+            }
+        }
+    }
+
+    /**
+     * Check whether the columns of a line are selected by a query.
+     *
+     * @param line The number of the line.
+     * @param query The query.
+     * @param hostIds The hosts selected, or null for any host.
+     * @param mimeIds The MIME types selected, or null for any MIME type.
+     * @param pathIds The discovery paths selected, or null for any discovery path.
+     * @param annotationIds The names of annotations selected, or null for any annotations.
+     * @return Whether the line is selected.
+     */
+    private boolean matches(long line, CrawlLogQuery query, BitSet hostIds, BitSet mimeIds, BitSet pathIds,
+            BitSet annotationIds) {
+        return query.matchesStatus(records.getInt(line, STATUS))
+                && query.matchesSize(records.getLong(line, SIZE))
+                && (hostIds == null || hostIds.get(records.getInt(line, HOST)))
+                && (mimeIds == null || mimeIds.get(records.getInt(line, MIME)))
+                && (pathIds == null || pathIds.get(records.getInt(line, PATH)))
+                && (annotationIds == null || annotationIds.get(records.getInt(line, ANNOTATIONS)));
+    }
+
+    /**
+     * Close the file of columns.
+     *
+     * @throws IOException If closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        records.close();
+    }
+
+    /**
+     * Receives the lines found by a search.
+     */
+    public interface LineHandler {
+
+        /**
+         * @param line The number of a line found.
+         * @throws IOException If handling the line fails.
+         */
+        void line(long line) throws IOException;
+
+    }
+
+    /**
+     * The lines of a host.
+     */
+    private static final class Host {
+        /** The number of the host. */
+        private final int id;
+        /** The last line added. */
+        private long last = -1;
+        /** The number of lines added. */
+        private long count;
+        /** The last line which can be searched. */
+        private volatile long publishedLast = -1;
+        /** The number of lines which can be searched. */
+        private volatile long publishedCount;
+
+        private Host(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Make the lines added searchable.
+         */
+        private void publish() {
+            publishedLast = last;
+            publishedCount = count;
+        }
+    }
+
+    /**
+     * Numbers for the values of a column.
+     */
+    private static final class Dictionary {
+        /** The number of each value. */
+        private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+        /**
+         * Get the number of a value, giving it the next number if it has none. Called by one thread at a time.
+         *
+         * @param value The value.
+         * @return The number of the value.
+         */
+        private int getId(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = ids.size();
+                ids.put(value, id);
+            }
+            return id;
+        }
+
+        /**
+         * @param values Some values.
+         * @return The numbers of the values.
+         */
+        private BitSet find(Iterable<String> values) {
+            BitSet found = new BitSet();
+            for (String value : values) {
+                Integer id = ids.get(value);
+                if (id != null) {
+                    found.set(id);
+                }
+            }
+            return found;
+        }
+    }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * #%L
+ * Netarchivesuite - heritrix 3 monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.heritrix3.monitor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A search of a crawl log, e.g. <code>status=404 host=example.dk mime=text/html</code>.
+ * <p>
+ * A query is a list of terms separated by whitespace. These terms select lines by their columns:
+ * <ul>
+ * <li><code>status=N</code>: the fetch status code is N.</li>
+ * <li><code>size=N</code>, <code>size&gt;N</code>, <code>size&lt;N</code>: the size is N, more than N or less than N.
+ * Lines without a size are not selected.</li>
+ * <li><code>host=H</code>: the host of the URL is H or a subdomain of H.</li>
+ * <li><code>mime=M</code>: the MIME type is M, ignoring any parameters.</li>
+ * <li><code>path=P</code>: the discovery path is P.</li>
+ * <li><code>annotation=A</code>: A is the name of one of the annotations, e.g. <code>duplicate</code>. Any value of
+ * the annotation, after a ':', is ignored.</li>
+ * </ul>
+ * Terms with the same name select the lines matching any of them. Terms with different names select the lines matching
+ * all of them. Any other term is a regular expression, which must be found in the URL, ignoring case.
+ */
+public class CrawlLogQuery {
+
+    /** A term selecting lines by a column. */
+    private static final Pattern TERM = Pattern.compile("(?i)(status|size|host|mime|path|annotation)([=<>])(.*)");
+
+    /** The status codes of the lines selected, or an empty array for any status code. */
+    final int[] statuses;
+
+    /** The smallest size of the lines selected. */
+    final long minSize;
+
+    /** The largest size of the lines selected. */
+    final long maxSize;
+
+    /** The hosts of the lines selected, in lower case, or an empty set for any host. */
+    final Set<String> hosts;
+
+    /** The MIME types of the lines selected, in lower case, or an empty set for any MIME type. */
+    final Set<String> mimes;
+
+    /** The discovery paths of the lines selected, or an empty set for any discovery path. */
+    final Set<String> paths;
+
+    /** The names of the annotations of the lines selected, or an empty set for any annotations. */
+    final Set<String> annotations;
+
+    /** The regular expressions which must be found in the URLs of the lines selected. */
+    private final List<Pattern> urlPatterns;
+
+    private CrawlLogQuery(int[] statuses, long minSize, long maxSize, Set<String> hosts, Set<String> mimes,
+            Set<String> paths, Set<String> annotations, List<Pattern> urlPatterns) {
+        this.statuses = statuses;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.hosts = hosts;
+        this.mimes = mimes;
+        this.paths = paths;
+        this.annotations = annotations;
+        this.urlPatterns = urlPatterns;
+    }
+
+    /**
+     * Parse a query.
+     *
+     * @param q The query.
+     * @return The query parsed.
+     * @throws ArgumentNotValid If the query is null, or a term has no value or a value of the wrong kind.
+     * @throws java.util.regex.PatternSyntaxException If a regular expression is not valid.
+     */
+    public static CrawlLogQuery parse(String q) {
+        ArgumentNotValid.checkNotNull(q, "String q");
+        List<Integer> statuses = new ArrayList<Integer>();
+        long minSize = Long.MIN_VALUE;
+        long maxSize = Long.MAX_VALUE;
+        Set<String> hosts = new HashSet<String>();
+        Set<String> mimes = new HashSet<String>();
+        Set<String> paths = new HashSet<String>();
+        Set<String> annotations = new HashSet<String>();
+        List<Pattern> urlPatterns = new ArrayList<Pattern>();
+        for (String term : q.trim().split("\\s+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            Matcher m = TERM.matcher(term);
+            if (!m.matches()) {
+                urlPatterns.add(Pattern.compile(term, Pattern.CASE_INSENSITIVE));
+                continue;
+            }
+            String name = m.group(1).toLowerCase(Locale.ROOT);
+            String operator = m.group(2);
+            String value = m.group(3);
+            ArgumentNotValid.checkNotNullOrEmpty(value, "The value of the term " + term);
+            ArgumentNotValid.checkTrue("=".equals(operator) || "size".equals(name), "The term " + term
+                    + " must use '='");
+            if ("status".equals(name)) {
+                statuses.add((int) parseNumber(term, value));
+            } else if ("size".equals(name)) {
+                long size = parseNumber(term, value);
+                if (!">".equals(operator)) {
+                    maxSize = Math.min(maxSize, "<".equals(operator) ? size - 1 : size);
+                }
+                if (!"<".equals(operator)) {
+                    minSize = Math.max(minSize, ">".equals(operator) ? size + 1 : size);
+                }
+                // Sizes are never negative, which leaves out the lines without a size
+                minSize = Math.max(minSize, 0);
+            } else if ("host".equals(name)) {
+                hosts.add(value.toLowerCase(Locale.ROOT));
+            } else if ("mime".equals(name)) {
+                mimes.add(value.toLowerCase(Locale.ROOT));
+            } else if ("path".equals(name)) {
+                paths.add(value);
+            } else {
+                String annotationName = CrawlLogColumns.getAnnotationName(value);
+                ArgumentNotValid.checkNotNullOrEmpty(annotationName, "The annotation name of the term " + term);
+                annotations.add(annotationName);
+            }
+        }
+        int[] statusArr = new int[statuses.size()];
+        for (int i = 0; i < statusArr.length; i++) {
+            statusArr[i] = statuses.get(i);
+        }
+        return new CrawlLogQuery(statusArr, minSize, maxSize, hosts, mimes, paths, annotations, urlPatterns);
+    }
+
+    /**
+     * Parse the value of a number term.
+     *
+     * @param term The term.
+     * @param value The value.
+     * @return The number.
+     * @throws ArgumentNotValid If the value is not a number.
+     */
+    private static long parseNumber(String term, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new ArgumentNotValid("The value of the term " + term + " is not a number");
+        }
+    }
+
+    /**
+     * @param status A status code.
+     * @return Whether lines with the status code are selected.
+     */
+    boolean matchesStatus(int status) {
+        if (statuses.length == 0) {
+            return true;
+        }
+        for (int s : statuses) {
+            if (s == status) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param size A size.
+     * @return Whether lines with the size are selected.
+     */
+    boolean matchesSize(long size) {
+        return size >= minSize && size <= maxSize;
+    }
+
+    /**
+     * @param host A host, in lower case.
+     * @return Whether lines with the host are selected.
+     */
+    boolean matchesHost(String host) {
+        if (hosts.isEmpty()) {
+            return true;
+        }
+        for (String h : hosts) {
+            if (host.equals(h) || (host.endsWith(h) && host.charAt(host.length() - h.length() - 1) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param annotationNames The names of the annotations of a line, separated by commas, as given by
+     * {@link CrawlLogColumns#getAnnotationNames(String)}.
+     * @return Whether lines with the annotations are selected.
+     */
+    boolean matchesAnnotations(String annotationNames) {
+        if (annotations.isEmpty()) {
+            return true;
+        }
+        for (String annotationName : annotationNames.split(",")) {
+            if (annotations.contains(annotationName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether the query has regular expressions, so lines must be read to find out whether they match.
+     */
+    public boolean hasUrlPatterns() {
+        return !urlPatterns.isEmpty();
+    }
+
+    /**
+     * Check whether the URL of a crawl log line matches the regular expressions of the query.
+     *
+     * @param bytes The bytes holding the line.
+     * @param offset The offset of the line.
+     * @param length The length of the line.
+     * @return Whether the URL matches.
+     */
+    public boolean matchesUrl(byte[] bytes, int offset, int length) {
+        if (urlPatterns.isEmpty()) {
+            return true;
+        }
+        int[] field = CrawlLogColumns.findField(bytes, offset, offset + length, CrawlLogColumns.URL_FIELD);
+        String url = (field != null) ? new String(bytes, field[0], field[1] - field[0], StandardCharsets.UTF_8) : "";
+        for (Pattern p : urlPatterns) {
+            if (!p.matcher(url).find()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "statuses=" + Arrays.toString(statuses) + ", sizes=" + minSize + ".." + maxSize + ", hosts=" + hosts
+                + ", mimes=" + mimes + ", paths=" + paths + ", annotations=" + annotations + ", urls=" + urlPatterns;
+    }
+
+}
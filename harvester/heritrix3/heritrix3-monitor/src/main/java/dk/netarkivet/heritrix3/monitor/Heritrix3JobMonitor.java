@@ -77,11 +77,15 @@ public class Heritrix3JobMonitor implements Pageable {
 
     public File idxFile;
 
-    public RandomAccessFile idxRaf;
+    public volatile LineIndex idx;
 
-    public long lastIndexed = 0;
+    public File colFile;
+
+    public volatile CrawlLogColumns columns;
+
+    public volatile long lastIndexed = 0;
     
-    public long totalCachedLines = 0;
+    public volatile long totalCachedLines = 0;
 
     protected Heritrix3JobMonitor() {
     }
@@ -92,6 +96,7 @@ public class Heritrix3JobMonitor implements Pageable {
         jobmonitor.jobId = jobId;
         jobmonitor.logFile = new File(environment.tempPath, "crawllog-" + jobId + ".log");
         jobmonitor.idxFile = new File(environment.tempPath, "crawllog-" + jobId + ".idx");
+        jobmonitor.colFile = new File(environment.tempPath, "crawllog-" + jobId + ".col");
         jobmonitor.init();
         return jobmonitor;
     }
@@ -122,16 +127,14 @@ public class Heritrix3JobMonitor implements Pageable {
                 }
                 if (crawlLogFilePath != null) {
                     logRaf = new RandomAccessFile(logFile, "rw");
-                    idxRaf = new RandomAccessFile(idxFile, "rw");
-                    if (idxRaf.length() == 0) {
-                        idxRaf.writeLong(0);
-                    } else {
-                        idxRaf.seek(idxRaf.length() - 8);
-                        lastIndexed = idxRaf.readLong();
-                    	totalCachedLines = (idxRaf.length() / 8) - 1;
-                    }
-                    idxRaf.seek(idxRaf.length());
+                    idx = new LineIndex(idxFile, false);
+                    lastIndexed = idx.getLast();
+                    totalCachedLines = idx.size() - 1;
                     logRaf.seek(logRaf.length());
+                    // The columns are not kept between restarts, so parse the lines cached so far.
+                    CrawlLogColumns tmpColumns = new CrawlLogColumns(colFile);
+                    tmpColumns.update(idx, logRaf.getChannel());
+                    columns = tmpColumns;
                     bInitialized = true;
                 }
             }
@@ -160,7 +163,7 @@ public class Heritrix3JobMonitor implements Pageable {
     public synchronized void updateCrawlLog(byte[] tmpBuf) {
         long pos;
         long to;
-        int idx;
+        int bufIdx;
         boolean bLoop;
         ByteRange byteRange;
         try {
@@ -170,7 +173,6 @@ public class Heritrix3JobMonitor implements Pageable {
             if (bActive && bInitialized) {
                 bLoop = true;
                 while (bLoop) {
-                    idxRaf.seek(idxRaf.length());
                     pos = logRaf.length();
                     to = pos;
                     if (jobResult != null && jobResult.job != null && jobResult.job.crawlLogFilePath != null) {
@@ -193,14 +195,12 @@ public class Heritrix3JobMonitor implements Pageable {
                                         while ((read = anypathResult.in.read(tmpBuf)) != -1) {
                                             logRaf.write(tmpBuf, 0, read);
                                             to += read;
-                                            idx = 0;
+                                            bufIdx = 0;
                                             while (read > 0) {
                                                 ++pos;
                                                 --read;
-                                                if (tmpBuf[idx++] == '\n') {
-                                                    idxRaf.writeLong(pos);
-                                                    lastIndexed = pos;
-                                                    totalCachedLines++;
+                                                if (tmpBuf[bufIdx++] == '\n') {
+                                                    idx.add(pos);
                                                 }
                                             }
                                         }
@@ -208,6 +208,11 @@ public class Heritrix3JobMonitor implements Pageable {
                                     catch (IOException e) {
                                         e.printStackTrace();
                                     }
+                                    // Make the lines of the range readable.
+                                    idx.flush();
+                                    lastIndexed = idx.getLast();
+                                    totalCachedLines = idx.size() - 1;
+                                    columns.update(idx, logRaf.getChannel());
                                     IOUtils.closeQuietly(anypathResult);
                                     if (byteRange.contentLength == to) {
                                         bLoop = false;
@@ -241,9 +246,11 @@ public class Heritrix3JobMonitor implements Pageable {
             crawlLogFilePath = null;
             totalCachedLines = 0;
             IOUtils.closeQuietly(logRaf);
-            IOUtils.closeQuietly(idxRaf);
+            IOUtils.closeQuietly(idx);
+            IOUtils.closeQuietly(columns);
             oldFilesList.add(logFile);
             oldFilesList.add(idxFile);
+            oldFilesList.add(colFile);
             Iterator<SearchResult> srIter = qSearchResultMap.values().iterator();
             SearchResult sr;
             while (srIter.hasNext()) {
@@ -258,8 +265,9 @@ public class Heritrix3JobMonitor implements Pageable {
     }
 
     @Override
-    public synchronized long getIndexSize() {
-        return idxFile.length();
+    public long getIndexSize() {
+        LineIndex tmpIdx = idx;
+        return (tmpIdx != null) ? tmpIdx.size() * 8 : 0;
     }
 
     @Override
@@ -272,8 +280,8 @@ public class Heritrix3JobMonitor implements Pageable {
     }
 
     @Override
-    public synchronized byte[] readPage(long page, long itemsPerPage, boolean descending) throws IOException {
-        return StringIndexFile.readPage(idxRaf, logRaf, page, itemsPerPage, descending);
+    public byte[] readPage(long page, long itemsPerPage, boolean descending) throws IOException {
+        return StringIndexFile.readPage(idx, logRaf.getChannel(), page, itemsPerPage, descending);
     }
 
     public synchronized boolean isReady() {
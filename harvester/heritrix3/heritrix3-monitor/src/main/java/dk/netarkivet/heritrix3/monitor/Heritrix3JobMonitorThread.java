@@ -204,6 +204,7 @@ public class Heritrix3JobMonitorThread implements Runnable {
                         if (oldFilesMap != null) {
                             oldFilesMap.remove(jobmonitor.logFile.getName());
                             oldFilesMap.remove(jobmonitor.idxFile.getName());
+                            oldFilesMap.remove(jobmonitor.colFile.getName());
                         }
                         if (!jobmonitor.bInitialized) {
                             jobmonitor.init();
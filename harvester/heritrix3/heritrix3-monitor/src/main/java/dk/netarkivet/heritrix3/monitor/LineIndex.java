@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * Netarchivesuite - heritrix 3 monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.heritrix3.monitor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An index file of the offsets of the lines of a log file, stored as longs: the first entry is 0, and each following
+ * entry is the offset just after a line.
+ * <p>
+ * Entries are added by one thread at a time. They are collected in a direct buffer and written to the file in large
+ * chunks, either when the buffer is full or when {@link #flush()} is called. Only written entries can be read. They are
+ * read from memory mapped segments of the file without any locking, so reads are not held up while entries are added.
+ */
+public class LineIndex implements Closeable {
+
+    /** The number of bytes of an entry. */
+    private static final int ENTRY_SIZE = 8;
+
+    /** The entries. */
+    private final MappedRecordFile entries;
+
+    /** The last entry added. */
+    private long last;
+
+    /**
+     * Open an index file, discarding any partial entry at the end. An empty file gets the first entry, 0.
+     *
+     * @param file The index file.
+     * @param truncate If true, any existing entries are removed first.
+     * @throws IOException If the file cannot be opened.
+     */
+    public LineIndex(File file, boolean truncate) throws IOException {
+        entries = new MappedRecordFile(file, ENTRY_SIZE, truncate);
+        long size = entries.size();
+        if (size == 0) {
+            add(0);
+            flush();
+        } else {
+            last = get(size - 1);
+        }
+    }
+
+    /**
+     * Add an entry. It can be read once written to the file.
+     *
+     * @param offset The offset just after a line.
+     * @throws IOException If the buffer is full and cannot be written.
+     */
+    public void add(long offset) throws IOException {
+        entries.append().putLong(offset);
+        last = offset;
+    }
+
+    /**
+     * Write the entries added to the file, so they can be read.
+     *
+     * @throws IOException If writing fails.
+     */
+    public void flush() throws IOException {
+        entries.flush();
+    }
+
+    /**
+     * @return The number of entries that can be read.
+     */
+    public long size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The last entry added, whether written or not.
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * Read an entry. May be called by any thread.
+     *
+     * @param i The number of the entry.
+     * @return The entry.
+     * @throws IndexOutOfBoundsException If the entry has not been written.
+     */
+    public long get(long i) {
+        return entries.getLong(i, 0);
+    }
+
+    /**
+     * Write the entries added, and close the file. Entries that have been read remain readable.
+     *
+     * @throws IOException If writing or closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        entries.close();
+    }
+
+}
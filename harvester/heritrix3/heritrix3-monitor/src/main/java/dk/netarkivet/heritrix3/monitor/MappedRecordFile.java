@@ -0,0 +1,215 @@
+/*
+ * #%L
+ * Netarchivesuite - heritrix 3 monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.heritrix3.monitor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A file of fixed size records, which are appended by one thread at a time and read by any thread.
+ * <p>
+ * Records are collected in a direct buffer and written to the file in large chunks, either when the buffer is full or
+ * when {@link #flush()} is called. Only written records can be read. They are read from memory mapped segments of the
+ * file without any locking, so reads are not held up while records are added.
+ */
+class MappedRecordFile implements Closeable {
+
+    /** The number of records in the buffer written at a time. */
+    private static final int BUFFER_RECORDS = 64 * 1024;
+
+    /** The base 2 logarithm of the number of records in a mapped segment of the file. */
+    private static final int SEGMENT_SHIFT = 24;
+
+    /** The number of records in a mapped segment of the file. */
+    private static final long SEGMENT_RECORDS = 1L << SEGMENT_SHIFT;
+
+    /** The number of bytes of a record. */
+    private final int recordSize;
+
+    /** The file. */
+    private final RandomAccessFile raf;
+
+    /** The channel of the file. */
+    private final FileChannel channel;
+
+    /** The records not yet written to the file. */
+    private final ByteBuffer buffer;
+
+    /** The records written to the file, which can be read. */
+    private volatile Mapping mapping;
+
+    /**
+     * Open a record file, discarding any partial record at the end.
+     *
+     * @param file The file.
+     * @param recordSize The number of bytes of a record.
+     * @param truncate If true, any existing records are removed first.
+     * @throws IOException If the file cannot be opened.
+     */
+    MappedRecordFile(File file, int recordSize, boolean truncate) throws IOException {
+        this.recordSize = recordSize;
+        buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * recordSize);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        long records = truncate ? 0 : raf.length() / recordSize;
+        raf.setLength(records * recordSize);
+        mapping = new Mapping(new MappedByteBuffer[0], 0);
+        publish(records);
+    }
+
+    /**
+     * Make room for a record, which the caller then puts into the returned buffer. Exactly one record must be put
+     * before this method is called again.
+     *
+     * @return The buffer to put the record into.
+     * @throws IOException If the buffer is full and cannot be written.
+     */
+    ByteBuffer append() throws IOException {
+        if (buffer.remaining() < recordSize) {
+            flush();
+        }
+        return buffer;
+    }
+
+    /**
+     * Write the records appended to the file, so they can be read.
+     *
+     * @throws IOException If writing fails.
+     */
+    void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        long position = mapping.records * recordSize;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+        publish(position / recordSize);
+    }
+
+    /**
+     * Map the segments of the file holding the given number of records, and make the records readable. Full segments
+     * are mapped once, and only the last segment is mapped again as it grows.
+     *
+     * @param records The number of records in the file.
+     * @throws IOException If mapping fails.
+     */
+    private void publish(long records) throws IOException {
+        Mapping old = mapping;
+        int segments = (int) ((records + SEGMENT_RECORDS - 1) >> SEGMENT_SHIFT);
+        MappedByteBuffer[] maps = Arrays.copyOf(old.segments, segments);
+        int from = Math.max(0, old.segments.length - 1);
+        for (int i = from; i < segments; i++) {
+            long start = i * SEGMENT_RECORDS;
+            long length = Math.min(SEGMENT_RECORDS, records - start);
+            if (maps[i] == null || maps[i].capacity() != length * recordSize) {
+                maps[i] = channel.map(FileChannel.MapMode.READ_ONLY, start * recordSize, length * recordSize);
+            }
+        }
+        mapping = new Mapping(maps, records);
+    }
+
+    /**
+     * @return The number of records that can be read.
+     */
+    long size() {
+        return mapping.records;
+    }
+
+    /**
+     * Read a long from a record. May be called by any thread.
+     *
+     * @param record The number of the record.
+     * @param offset The offset of the long within the record.
+     * @return The long.
+     * @throws IndexOutOfBoundsException If the record has not been written.
+     */
+    long getLong(long record, int offset) {
+        Mapping current = mapping;
+        return current.segment(record).getLong(current.position(record, recordSize) + offset);
+    }
+
+    /**
+     * Read an int from a record. May be called by any thread.
+     *
+     * @param record The number of the record.
+     * @param offset The offset of the int within the record.
+     * @return The int.
+     * @throws IndexOutOfBoundsException If the record has not been written.
+     */
+    int getInt(long record, int offset) {
+        Mapping current = mapping;
+        return current.segment(record).getInt(current.position(record, recordSize) + offset);
+    }
+
+    /**
+     * Write the records appended, and close the file. Records that have been read remain readable.
+     *
+     * @throws IOException If writing or closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * The mapped segments of the file and the number of records in them, replaced as a whole when records are written,
+     * so readers always see a consistent view.
+     */
+    private static final class Mapping {
+        /** The mapped segments of the file. */
+        private final MappedByteBuffer[] segments;
+        /** The number of records in the segments. */
+        private final long records;
+
+        private Mapping(MappedByteBuffer[] segments, long records) {
+            this.segments = segments;
+            this.records = records;
+        }
+
+        private MappedByteBuffer segment(long record) {
+            if (record < 0 || record >= records) {
+                throw new IndexOutOfBoundsException("Record " + record + " of " + records);
+            }
+            return segments[(int) (record >> SEGMENT_SHIFT)];
+        }
+
+        private int position(long record, int recordSize) {
+            return (int) (record & (SEGMENT_RECORDS - 1)) * recordSize;
+        }
+    }
+
+}
@@ -26,10 +26,7 @@ package dk.netarkivet.heritrix3.monitor;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
 
@@ -37,8 +34,7 @@ public class SearchResult implements Pageable {
 
     protected Heritrix3JobMonitor h3Job;
 
-    protected Pattern p;
-    protected Matcher m;
+    protected CrawlLogQuery query;
 
     protected File srLogFile;
 
@@ -46,80 +42,89 @@ public class SearchResult implements Pageable {
 
     protected File srIdxFile;
 
-    protected RandomAccessFile srIdxRaf;
+    protected LineIndex srIdx;
 
-    protected long lastIndexed;
+    /** The number of lines of the cached crawl log searched. */
+    protected long searchedLines;
+
+    /** Lines of the cached crawl log, read ahead of the lines found. */
+    protected byte[] block = new byte[1024*1024];
+
+    /** The position of the lines read ahead in the cached crawl log. */
+    protected long blockFrom;
+
+    /** The number of bytes read ahead. */
+    protected int blockLength;
 
     public SearchResult(NASEnvironment environment, Heritrix3JobMonitor h3Job, String q, int searchResultNr) throws IOException {
         this.h3Job = h3Job;
-        p = Pattern.compile(q, Pattern.CASE_INSENSITIVE);
-        // Create a reusable pattern matcher object for use with the reset method.
-        m = p.matcher("42");
+        query = CrawlLogQuery.parse(q);
         srLogFile = new File(environment.tempPath, "crawllog-" + h3Job.jobId + "-" + searchResultNr + ".log");
         srLogRaf = new RandomAccessFile(srLogFile, "rw");
         srLogRaf.setLength(0);
         srIdxFile = new File(environment.tempPath, "crawllog-" + h3Job.jobId + "-" + searchResultNr + ".idx");
-        srIdxRaf = new RandomAccessFile(srIdxFile, "rw");
-        srIdxRaf.setLength(0);
-        srIdxRaf.writeLong(0);
-        lastIndexed = 0;
+        srIdx = new LineIndex(srIdxFile, true);
+        searchedLines = 0;
     }
 
+    /**
+     * Search the lines added to the crawl log columns of the job since the last update. The columns select the lines,
+     * and only the lines selected are read, to match any regular expressions of the query against their URL.
+     *
+     * @throws IOException If reading the cached crawl log or writing the lines found fails.
+     */
     public synchronized void update() throws IOException {
-        RandomAccessFile logRaf = new RandomAccessFile(h3Job.logFile, "r");
-        logRaf.seek(lastIndexed);
+        CrawlLogColumns columns = h3Job.columns;
+        if (columns == null) {
+            return;
+        }
+        long toLine = columns.size();
+        if (toLine <= searchedLines) {
+            return;
+        }
+        final LineIndex idx = h3Job.idx;
+        final FileChannel logChannel = h3Job.logRaf.getChannel();
         srLogRaf.seek(srLogRaf.length());
-        srIdxRaf.seek(srIdxRaf.length());
-        FileChannel logChannel = logRaf.getChannel();
-        byte[] bytes = new byte[1024*1024];
-        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-        String tmpStr;
-        //long index = lastIndex;
-        long index = srLogRaf.length();
-        int pos;
-        int to;
-        int mark;
-        int limit;
-        boolean b;
-        while (logChannel.read(byteBuffer) != -1) {
-            byteBuffer.flip();
-            pos = byteBuffer.position();
-            mark = pos;
-            limit = byteBuffer.limit();
-            b = true;
-            while (b) {
-                if (pos < limit) {
-                    if (bytes[pos++] == '\n') {
-                        to = pos - 1;
-                        if (bytes[to - 1] == '\r') {
-                            --to;
-                        }
-                        tmpStr = new String(bytes, mark, to - mark, "UTF-8");
-                        m.reset(tmpStr);
-                        if (m.matches()) {
-                            srLogRaf.write(bytes, mark, pos - mark);
-                            index += pos - mark;
-                            srIdxRaf.writeLong(index);
-                        }
-                        lastIndexed += pos - mark;
-                        // next
-                        mark = pos;
-                        //index += pos - mark;
-                        //lastIndex = index;
-                    }
-                } else {
-                    b = false;
-                }
+        columns.search(query, searchedLines, toLine, new CrawlLogColumns.LineHandler() {
+            @Override
+            public void line(long line) throws IOException {
+                addLine(idx, logChannel, line);
             }
-            byteBuffer.position(mark);
-            byteBuffer.compact();
+        });
+        // Make the matching lines readable.
+        srIdx.flush();
+        searchedLines = toLine;
+    }
+
+    /**
+     * Add a line of the cached crawl log to the search result, if its URL matches the query.
+     *
+     * @param idx The line index of the cached crawl log.
+     * @param logChannel The cached crawl log.
+     * @param line The number of the line.
+     * @throws IOException If reading the line or writing it fails.
+     */
+    protected void addLine(LineIndex idx, FileChannel logChannel, long line) throws IOException {
+        long from = idx.get(line);
+        int len = (int)(idx.get(line + 1) - from);
+        if (from < blockFrom || from + len > blockFrom + blockLength) {
+            if (len > block.length) {
+                block = new byte[len];
+            }
+            blockFrom = from;
+            blockLength = (int) Math.min(block.length, idx.get(idx.size() - 1) - from);
+            StringIndexFile.readFully(logChannel, blockFrom, block, blockLength);
+        }
+        int offset = (int)(from - blockFrom);
+        if (query.matchesUrl(block, offset, len)) {
+            srLogRaf.write(block, offset, len);
+            srIdx.add(srLogRaf.getFilePointer());
         }
-        logRaf.close();
     }
 
     @Override
     public long getIndexSize() {
-        return srIdxFile.length();
+        return srIdx.size() * 8;
     }
 
     @Override
@@ -128,12 +133,13 @@ public class SearchResult implements Pageable {
     }
 
     @Override
-    public synchronized byte[] readPage(long page, long itemsPerPage, boolean descending) throws IOException {
-        return StringIndexFile.readPage(srIdxRaf, srLogRaf, page, itemsPerPage, descending);
+    public byte[] readPage(long page, long itemsPerPage, boolean descending) throws IOException {
+        return StringIndexFile.readPage(srIdx, srLogRaf.getChannel(), page, itemsPerPage, descending);
     }
 
     public synchronized void cleanup() {
-        IOUtils.closeQuietly(srIdxRaf);
+        IOUtils.closeQuietly(srIdx);
+        IOUtils.closeQuietly(srLogRaf);
     }
 
 }
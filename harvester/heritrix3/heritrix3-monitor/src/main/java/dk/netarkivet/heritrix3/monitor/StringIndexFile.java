@@ -24,90 +24,86 @@
 package dk.netarkivet.heritrix3.monitor;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class StringIndexFile {
 
-    public static byte[] readPage(RandomAccessFile idxRaf, RandomAccessFile logRaf, long page, long itemsPerPage, boolean descending) throws IOException {
-        byte[] bytes = null;;
+    /**
+     * Read a page of lines from a log file using its line index. Only reads from the index and positional reads from
+     * the log, so it may be called while lines are being added, without locking. The page is read from the lines
+     * indexed when it is called.
+     *
+     * @param index The line index of the log file.
+     * @param logChannel The log file.
+     * @param page The number of the page, starting from 1.
+     * @param itemsPerPage The number of lines in a page.
+     * @param descending If true, pages are counted from the last line, and the lines of a page are in reverse order.
+     * @return The lines of the page, or an empty array if there are none.
+     * @throws IOException If reading the log file fails.
+     */
+    public static byte[] readPage(LineIndex index, FileChannel logChannel, long page, long itemsPerPage, boolean descending) throws IOException {
         if (page < 1) {
             throw new IllegalArgumentException();
         }
         if (itemsPerPage < 25) {
             throw new IllegalArgumentException();
         }
-        long length = idxRaf.length();
-        if (length > 8) {
-            if (!descending) {
-                // Forwards.
-                long fromIdx = (page - 1) * (itemsPerPage * 8);
-                long toIdx = fromIdx + (itemsPerPage * 8);
-                if (toIdx > length) {
-                    toIdx = length;
-                }
-                idxRaf.seek(fromIdx);
-                fromIdx = idxRaf.readLong();
-                idxRaf.seek(toIdx);
-                toIdx = idxRaf.readLong();
-                logRaf.seek(fromIdx);
-                bytes = new byte[(int)(toIdx - fromIdx)];
-                logRaf.readFully(bytes, 0, (int)(toIdx - fromIdx));
-            } else {
-                // Backwards.
-                long toIdx = length - ((page - 1) * itemsPerPage * 8);
-                long fromIdx = toIdx - (itemsPerPage * 8) - 8;
-                if (fromIdx < 0) {
-                    fromIdx = 0;
-                }
-                // Read line indexes for page.
-                int pageIdxArrLen = (int)(toIdx - fromIdx);
-                byte[] pageIdxArr = new byte[pageIdxArrLen];
-                idxRaf.seek(fromIdx);
-                int pos = 0;
-                int limit = pageIdxArrLen;
-                int read = 0;
-                while (limit > 0 && read != -1) {
-                    read = idxRaf.read(pageIdxArr, pos, limit);
-                    if (read != -1) {
-                        pos += read;
-                        limit -= read;
-                    }
-                }
-                // Convert line indexes for page.
-                limit = pos;
-                pos = 0;
-                long[] idxArr = new long[limit / 8];
-                long l;
-                int dstIdx = 0;
-                while (pos < limit) {
-                    l = (pageIdxArr[pos++] & 255) << 56 | (pageIdxArr[pos++] & 255) << 48 | (pageIdxArr[pos++] & 255) << 40 | (pageIdxArr[pos++] & 255) << 32
-                            | (pageIdxArr[pos++] & 255) << 24 | (pageIdxArr[pos++] & 255) << 16 | (pageIdxArr[pos++] & 255) << 8 | (pageIdxArr[pos++] & 255);
-                    idxArr[dstIdx++] = l;
-                }
-                // Load the crawllog lines for page.
-                pos = 0;
-                limit /= 8;
-                fromIdx = idxArr[pos];
-                toIdx = idxArr[limit - 1];
-                logRaf.seek(fromIdx);
-                byte[] tmpBytes = new byte[(int)(toIdx - fromIdx)];
-                logRaf.readFully(tmpBytes, 0, (int)(toIdx - fromIdx));
-                // Reverse crawllog lines for page.
-                bytes = new byte[tmpBytes.length];
-                long base = idxArr[pos++];
-                fromIdx = base;
-                int len;
-                dstIdx = bytes.length;
-                while (pos < limit) {
-                    toIdx = idxArr[pos++];
-                    len = (int)(toIdx - fromIdx);
-                    dstIdx -= len;
-                    System.arraycopy(tmpBytes, (int)(fromIdx - base), bytes, dstIdx, len);
-                    fromIdx = toIdx;
-                }
-            }
+        // The lines are those between consecutive entries.
+        long entries = index.size();
+        long fromEntry;
+        long toEntry;
+        if (!descending) {
+            // Forwards.
+            fromEntry = (page - 1) * itemsPerPage;
+            toEntry = Math.min(fromEntry + itemsPerPage, entries - 1);
+        } else {
+            // Backwards.
+            toEntry = entries - 1 - ((page - 1) * itemsPerPage);
+            fromEntry = Math.max(0, toEntry - itemsPerPage);
+        }
+        if (fromEntry >= toEntry) {
+            return new byte[0];
+        }
+        long from = index.get(fromEntry);
+        byte[] tmpBytes = new byte[(int)(index.get(toEntry) - from)];
+        readFully(logChannel, from, tmpBytes, tmpBytes.length);
+        if (!descending) {
+            return tmpBytes;
+        }
+        // Reverse crawllog lines for page.
+        byte[] bytes = new byte[tmpBytes.length];
+        long lineFrom = from;
+        long lineTo;
+        int len;
+        int dstIdx = bytes.length;
+        for (long entry = fromEntry + 1; entry <= toEntry; ++entry) {
+            lineTo = index.get(entry);
+            len = (int)(lineTo - lineFrom);
+            dstIdx -= len;
+            System.arraycopy(tmpBytes, (int)(lineFrom - from), bytes, dstIdx, len);
+            lineFrom = lineTo;
         }
         return bytes;
     }
 
+    /**
+     * Read bytes from a log file without changing the position of the file, so it may be called while the file is
+     * being written.
+     *
+     * @param logChannel The log file.
+     * @param position The position of the first byte to read.
+     * @param bytes Receives the bytes read.
+     * @param length The number of bytes to read.
+     * @throws IOException If reading fails, or the file ends before all the bytes are read.
+     */
+    public static void readFully(FileChannel logChannel, long position, byte[] bytes, int length) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, 0, length);
+        while (byteBuffer.hasRemaining()) {
+            if (logChannel.read(byteBuffer, position + byteBuffer.position()) == -1) {
+                throw new IOException("Log file shorter than its index, " + (position + byteBuffer.position()) + " bytes");
+            }
+        }
+    }
+
 }
@@ -189,8 +189,8 @@ public class H3CrawlLogCachedResource implements ResourceAbstract {
             sb.append("<form class=\"form-horizontal\" action=\"?\" name=\"insert_form\" method=\"post\" enctype=\"application/x-www-form-urlencoded\" accept-charset=\"utf-8\">");
             sb.append("<label for=\"itemsperpage\">Lines per page:</label>");
             sb.append("<input type=\"text\" id=\"itemsperpage\" name=\"itemsperpage\" value=\"" + linesPerPage + "\" placeholder=\"must be &gt; 25 and &lt; 1000 \">\n");
-            sb.append("<label for=\"q\">Filter regex:</label>");
-            sb.append("<input type=\"text\" id=\"q\" name=\"q\" value=\"" + q + "\" placeholder=\"content-type\" style=\"display:inline;width:350px;\">\n");
+            sb.append("<label for=\"q\">Filter:</label>");
+            sb.append("<input type=\"text\" id=\"q\" name=\"q\" value=\"" + q + "\" placeholder=\"status=404 host=example.dk mime=text/html\" title=\"Terms status=, size=, size&lt;, size&gt;, host=, mime=, path= and annotation= select lines by column. Other terms are regular expressions found in the URL.\" style=\"display:inline;width:350px;\">\n");
             sb.append("<button type=\"submit\" name=\"search\" value=\"1\" class=\"btn btn-success\"><i class=\"icon-white icon-thumbs-up\"></i> Search</button>\n");
 
             sb.append("</div>\n");
@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * Netarchivesuite - heritrix 3 monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.heritrix3.monitor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+public class TestCrawlLogQuery {
+
+    private static final String LINE = "2018-01-01T00:00:00.000Z   200       1234 http://www.Example.dk/Index.html L "
+            + "http://www.example.dk/ text/html #042 20180101000000000+12 sha1:ABC - ip:192.0.2.1\n";
+
+    @Test
+    public void test_parse() {
+        CrawlLogQuery query = CrawlLogQuery.parse("  status=404 STATUS=-9998 size>100 size<2000 Host=Example.DK "
+                + "mime=Text/HTML path=LX annotation=duplicate:\"file.warc,12\" index\\.html  ");
+        Assert.assertArrayEquals(new int[] {404, -9998}, query.statuses);
+        Assert.assertEquals(101, query.minSize);
+        Assert.assertEquals(1999, query.maxSize);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("example.dk")), query.hosts);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("text/html")), query.mimes);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("LX")), query.paths);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("duplicate")), query.annotations);
+        Assert.assertTrue(query.hasUrlPatterns());
+    }
+
+    @Test
+    public void test_parse_empty() {
+        CrawlLogQuery query = CrawlLogQuery.parse("   ");
+        Assert.assertEquals(0, query.statuses.length);
+        Assert.assertEquals(Long.MIN_VALUE, query.minSize);
+        Assert.assertEquals(Long.MAX_VALUE, query.maxSize);
+        Assert.assertTrue(query.hosts.isEmpty());
+        Assert.assertTrue(query.mimes.isEmpty());
+        Assert.assertTrue(query.paths.isEmpty());
+        Assert.assertTrue(query.annotations.isEmpty());
+        Assert.assertFalse(query.hasUrlPatterns());
+        Assert.assertTrue(query.matchesStatus(200));
+        Assert.assertTrue(query.matchesSize(-1));
+        Assert.assertTrue(query.matchesHost(""));
+        Assert.assertTrue(query.matchesAnnotations("-"));
+        byte[] bytes = LINE.getBytes(StandardCharsets.UTF_8);
+        Assert.assertTrue(query.matchesUrl(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void test_parse_size() {
+        CrawlLogQuery query = CrawlLogQuery.parse("size=1000");
+        Assert.assertFalse(query.matchesSize(999));
+        Assert.assertTrue(query.matchesSize(1000));
+        Assert.assertFalse(query.matchesSize(1001));
+        query = CrawlLogQuery.parse("size>1000");
+        Assert.assertFalse(query.matchesSize(1000));
+        Assert.assertTrue(query.matchesSize(1001));
+        query = CrawlLogQuery.parse("size<1000");
+        Assert.assertTrue(query.matchesSize(999));
+        Assert.assertFalse(query.matchesSize(1000));
+        Assert.assertTrue(query.matchesSize(0));
+    }
+
+    @Test
+    public void test_parse_size_missing() {
+        // Lines without a size are selected by no size term, only by queries without one.
+        Assert.assertTrue(CrawlLogQuery.parse("status=200").matchesSize(CrawlLogColumns.NO_SIZE));
+        String[] queries = {"size<1000", "size<0", "size=-1", "size>-5", "size<1 size>-10"};
+        for (String q : queries) {
+            Assert.assertFalse(q, CrawlLogQuery.parse(q).matchesSize(CrawlLogColumns.NO_SIZE));
+        }
+        Assert.assertTrue(CrawlLogQuery.parse("size>-5").matchesSize(0));
+        Assert.assertTrue(CrawlLogQuery.parse("size<1 size>-10").matchesSize(0));
+        Assert.assertFalse(CrawlLogQuery.parse("size=-1").matchesSize(0));
+    }
+
+    @Test
+    public void test_parse_invalid() {
+        String[] invalid = {null, "status=", "status=abc", "status>200", "size=1k", "host<example.dk", "mime=",
+                "annotation=:value"};
+        for (String q : invalid) {
+            try {
+                CrawlLogQuery.parse(q);
+                Assert.fail("Query should be invalid: " + q);
+            } catch (ArgumentNotValid e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void test_matchesStatus() {
+        CrawlLogQuery query = CrawlLogQuery.parse("status=200 status=404");
+        Assert.assertTrue(query.matchesStatus(200));
+        Assert.assertTrue(query.matchesStatus(404));
+        Assert.assertFalse(query.matchesStatus(500));
+    }
+
+    @Test
+    public void test_matchesHost() {
+        CrawlLogQuery query = CrawlLogQuery.parse("host=example.dk host=netarkivet.dk");
+        Assert.assertTrue(query.matchesHost("example.dk"));
+        Assert.assertTrue(query.matchesHost("www.example.dk"));
+        Assert.assertTrue(query.matchesHost("a.b.netarkivet.dk"));
+        Assert.assertFalse(query.matchesHost("badexample.dk"));
+        Assert.assertFalse(query.matchesHost("example.dk.evil.com"));
+        Assert.assertFalse(query.matchesHost("dk"));
+        Assert.assertFalse(query.matchesHost(""));
+    }
+
+    @Test
+    public void test_matchesAnnotations() {
+        CrawlLogQuery query = CrawlLogQuery.parse("annotation=duplicate annotation=3t");
+        Assert.assertTrue(query.matchesAnnotations("duplicate"));
+        Assert.assertTrue(query.matchesAnnotations("3t,ip"));
+        Assert.assertFalse(query.matchesAnnotations("ip"));
+        Assert.assertFalse(query.matchesAnnotations("-"));
+    }
+
+    @Test
+    public void test_matchesUrl() {
+        byte[] bytes = ("prefix " + LINE).getBytes(StandardCharsets.UTF_8);
+        int offset = "prefix ".length();
+        int length = bytes.length - offset;
+        Assert.assertTrue(CrawlLogQuery.parse("example\\.dk/index").matchesUrl(bytes, offset, length));
+        Assert.assertTrue(CrawlLogQuery.parse("^http: html$").matchesUrl(bytes, offset, length));
+        Assert.assertFalse(CrawlLogQuery.parse("example html$ missing").matchesUrl(bytes, offset, length));
+        // The other fields are not searched.
+        Assert.assertFalse(CrawlLogQuery.parse("text/html").matchesUrl(bytes, offset, length));
+        byte[] noUrl = "2018-01-01T00:00:00.000Z 200 1234\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertFalse(CrawlLogQuery.parse("http").matchesUrl(noUrl, 0, noUrl.length));
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * Netarchivesuite - heritrix 3 monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.heritrix3.monitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestLineIndex {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File logFile;
+
+    private RandomAccessFile logRaf;
+
+    private File idxFile;
+
+    private LineIndex idx;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = tmp.newFile("crawl.log");
+        logRaf = new RandomAccessFile(logFile, "rw");
+        idxFile = tmp.newFile("crawl.idx");
+        idx = new LineIndex(idxFile, true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        idx.close();
+        logRaf.close();
+    }
+
+    /**
+     * Append lines to the log, and add their offsets to the index without flushing it.
+     */
+    private void appendLines(int from, int to) throws IOException {
+        logRaf.seek(logRaf.length());
+        for (int i = from; i < to; i++) {
+            logRaf.write(line(i).getBytes(StandardCharsets.UTF_8));
+            idx.add(logRaf.getFilePointer());
+        }
+    }
+
+    private static String line(int i) {
+        return "line " + i + "\n";
+    }
+
+    private static String lines(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        if (from <= to) {
+            for (int i = from; i < to; i++) {
+                sb.append(line(i));
+            }
+        } else {
+            for (int i = from - 1; i >= to; i--) {
+                sb.append(line(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    private String readPage(long page, boolean descending) throws IOException {
+        byte[] bytes = StringIndexFile.readPage(idx, logRaf.getChannel(), page, 25, descending);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void test_empty() throws IOException {
+        Assert.assertEquals(1, idx.size());
+        Assert.assertEquals(0, idx.get(0));
+        Assert.assertEquals(0, idx.getLast());
+        Assert.assertEquals("", readPage(1, false));
+        Assert.assertEquals("", readPage(1, true));
+    }
+
+    @Test
+    public void test_only_flushed_entries_are_readable() throws IOException {
+        appendLines(0, 3);
+        Assert.assertEquals(1, idx.size());
+        Assert.assertEquals(logRaf.length(), idx.getLast());
+        try {
+            idx.get(1);
+            Assert.fail("Entries not flushed should not be readable");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+        idx.flush();
+        Assert.assertEquals(4, idx.size());
+        Assert.assertEquals(logRaf.length(), idx.get(3));
+    }
+
+    @Test
+    public void test_readPage_across_flush() throws IOException {
+        appendLines(0, 30);
+        idx.flush();
+        appendLines(30, 60);
+        idx.flush();
+        Assert.assertEquals(61, idx.size());
+
+        Assert.assertEquals(lines(0, 25), readPage(1, false));
+        Assert.assertEquals(lines(25, 50), readPage(2, false));
+        Assert.assertEquals(lines(50, 60), readPage(3, false));
+
+        Assert.assertEquals(lines(60, 35), readPage(1, true));
+        Assert.assertEquals(lines(35, 10), readPage(2, true));
+        Assert.assertEquals(lines(10, 0), readPage(3, true));
+    }
+
+    @Test
+    public void test_readPage_past_end() throws IOException {
+        appendLines(0, 50);
+        idx.flush();
+        Assert.assertEquals(lines(25, 50), readPage(2, false));
+        Assert.assertEquals(0, StringIndexFile.readPage(idx, logRaf.getChannel(), 3, 25, false).length);
+        Assert.assertEquals(0, StringIndexFile.readPage(idx, logRaf.getChannel(), 3, 25, true).length);
+        Assert.assertEquals(0, StringIndexFile.readPage(idx, logRaf.getChannel(), 100, 25, true).length);
+    }
+
+    @Test
+    public void test_readPage_ignores_unflushed_entries() throws IOException {
+        appendLines(0, 10);
+        idx.flush();
+        appendLines(10, 20);
+        Assert.assertEquals(lines(0, 10), readPage(1, false));
+        Assert.assertEquals(lines(10, 0), readPage(1, true));
+    }
+
+    @Test
+    public void test_reopen_discards_partial_entry() throws IOException {
+        appendLines(0, 5);
+        idx.close();
+        long length = idxFile.length();
+        Assert.assertEquals(6 * 8, length);
+        RandomAccessFile raf = new RandomAccessFile(idxFile, "rw");
+        try {
+            raf.seek(length);
+            raf.write(new byte[] {1, 2, 3});
+        } finally {
+            raf.close();
+        }
+
+        idx = new LineIndex(idxFile, false);
+        Assert.assertEquals(6, idx.size());
+        Assert.assertEquals(length, idxFile.length());
+        Assert.assertEquals(logRaf.length(), idx.getLast());
+        Assert.assertEquals(lines(0, 5), readPage(1, false));
+
+        // New entries follow the complete ones.
+        appendLines(5, 7);
+        idx.flush();
+        Assert.assertEquals(8, idx.size());
+        Assert.assertEquals(lines(0, 7), readPage(1, false));
+    }
+
+    @Test
+    public void test_reopen_truncated() throws IOException {
+        appendLines(0, 5);
+        idx.close();
+        idx = new LineIndex(idxFile, true);
+        Assert.assertEquals(1, idx.size());
+        Assert.assertEquals(0, idx.get(0));
+        Assert.assertEquals(8, idxFile.length());
+    }
+
+}
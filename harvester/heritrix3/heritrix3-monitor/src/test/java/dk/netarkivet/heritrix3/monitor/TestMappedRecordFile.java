@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Netarchivesuite - heritrix 3 monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.heritrix3.monitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestMappedRecordFile {
+
+    /** The number of bytes of the records used: a long and an int. */
+    private static final int RECORD_SIZE = 12;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static void append(MappedRecordFile records, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            records.append().putLong(1000L * i).putInt(i);
+        }
+    }
+
+    private static void assertRecords(MappedRecordFile records, int count) {
+        Assert.assertEquals(count, records.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(1000L * i, records.getLong(i, 0));
+            Assert.assertEquals(i, records.getInt(i, 8));
+        }
+        try {
+            records.getLong(count, 0);
+            Assert.fail("Record " + count + " should not be readable");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void test_append_and_flush() throws IOException {
+        File file = tmp.newFile("records");
+        MappedRecordFile records = new MappedRecordFile(file, RECORD_SIZE, true);
+        try {
+            assertRecords(records, 0);
+            append(records, 0, 10);
+            // Records are only readable once written.
+            assertRecords(records, 0);
+            records.flush();
+            assertRecords(records, 10);
+            append(records, 10, 20);
+            records.flush();
+            assertRecords(records, 20);
+            // Flushing nothing changes nothing.
+            records.flush();
+            assertRecords(records, 20);
+            Assert.assertEquals(20 * RECORD_SIZE, file.length());
+        } finally {
+            records.close();
+        }
+    }
+
+    @Test
+    public void test_full_buffer_is_written() throws IOException {
+        MappedRecordFile records = new MappedRecordFile(tmp.newFile("records"), RECORD_SIZE, true);
+        try {
+            int count = 200 * 1000;
+            append(records, 0, count);
+            // The buffer has been written when full, so most records are readable before a flush.
+            Assert.assertTrue(records.size() > 0);
+            Assert.assertTrue(records.size() < count);
+            records.flush();
+            assertRecords(records, count);
+        } finally {
+            records.close();
+        }
+    }
+
+    @Test
+    public void test_records_read_before_flush_remain_readable() throws IOException {
+        MappedRecordFile records = new MappedRecordFile(tmp.newFile("records"), RECORD_SIZE, true);
+        try {
+            append(records, 0, 5);
+            records.flush();
+            long first = records.getLong(4, 0);
+            append(records, 5, 100);
+            records.flush();
+            Assert.assertEquals(first, records.getLong(4, 0));
+            assertRecords(records, 100);
+        } finally {
+            records.close();
+        }
+    }
+
+    @Test
+    public void test_reopen() throws IOException {
+        File file = tmp.newFile("records");
+        MappedRecordFile records = new MappedRecordFile(file, RECORD_SIZE, true);
+        append(records, 0, 7);
+        // Closing writes the records appended.
+        records.close();
+        Assert.assertEquals(7 * RECORD_SIZE, file.length());
+
+        // A partial record at the end is discarded.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(file.length());
+            raf.write(new byte[RECORD_SIZE - 1]);
+        } finally {
+            raf.close();
+        }
+        records = new MappedRecordFile(file, RECORD_SIZE, false);
+        try {
+            assertRecords(records, 7);
+            Assert.assertEquals(7 * RECORD_SIZE, file.length());
+            append(records, 7, 9);
+            records.flush();
+            assertRecords(records, 9);
+        } finally {
+            records.close();
+        }
+
+        records = new MappedRecordFile(file, RECORD_SIZE, true);
+        try {
+            assertRecords(records, 0);
+            Assert.assertEquals(0, file.length());
+        } finally {
+            records.close();
+        }
+    }
+
+}
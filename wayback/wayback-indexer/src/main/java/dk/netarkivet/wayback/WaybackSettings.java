@@ -74,6 +74,8 @@ public class WaybackSettings {
     public static String HIBERNATE_HBM2DDL_AUTO = "settings.wayback.hibernate.hbm2ddlAuto";
     public static String HIBERNATE_USERNAME = "settings.wayback.hibernate.user";
     public static String HIBERNATE_PASSWORD = "settings.wayback.hibernate.password";
+    /** The number of inserts sent to the database in one JDBC batch. The default is 50. */
+    public static String HIBERNATE_JDBC_BATCH_SIZE = "settings.wayback.hibernate.jdbcBatchSize";
 
     /**
      * The replica to be used by the wayback indexer.
@@ -122,12 +124,39 @@ public class WaybackSettings {
      */
     public static String WAYBACK_INDEXER_CONSUMER_THREADS = "settings.wayback.indexer.consumerThreads";
 
+    /**
+     * The smallest number of files indexed at the same time. The consumer threads index between this and
+     * WAYBACK_INDEXER_CONSUMER_THREADS files at a time, fewer when indexing becomes slow. The default is 1.
+     */
+    public static String WAYBACK_INDEXER_MIN_CONSUMER_THREADS = "settings.wayback.indexer.minConsumerThreads";
+
+    /**
+     * The maximum number of files waiting in the indexer queue. Further files are left in the object store until there
+     * is room in the queue. The default is 1000.
+     */
+    public static String WAYBACK_INDEXER_QUEUE_CAPACITY = "settings.wayback.indexer.queueCapacity";
+
+    /**
+     * The time in milliseconds to wait after the first failed attempt to index a file before trying again. The wait is
+     * doubled for each further failed attempt. The default is one hour (3600000).
+     */
+    public static String WAYBACK_INDEXER_RETRY_BACKOFF = "settings.wayback.indexer.retryBackoff";
+
+    /** The longest time in milliseconds to wait before trying to index a failed file again. The default is one day. */
+    public static String WAYBACK_INDEXER_MAX_RETRY_BACKOFF = "settings.wayback.indexer.maxRetryBackoff";
+
     /**
      * A file containing a list of files which have been archived and therefore do not need to be archived again. This
      * key may be unset.
      */
     public static String WAYBACK_INDEXER_INITIAL_FILES = "settings.wayback.indexer.initialFiles";
 
+    /**
+     * The number of new archive files created in the object store in one transaction when harvesting filenames, and
+     * the number of filenames looked up in one query. The default is 1000.
+     */
+    public static String WAYBACK_INDEXER_HARVEST_BATCH_SIZE = "settings.wayback.indexer.harvestBatchSize";
+
     /** -------------------------Aggregator Settings--------------------------- */
 
     /** The directory the Aggregator places the Aggregated and sorted files into. */
@@ -152,6 +181,28 @@ public class WaybackSettings {
      */
     public static String WAYBACK_AGGREGATOR_MAX_MAIN_INDEX_FILE_SIZE = "settings.wayback.aggregator.maxMainIndexFileSize";
 
+    /**
+     * Whether the aggregator keeps the index as a set of sorted segments listed in a manifest, instead of merging new
+     * indexes into the intermediate and main index files. The default is false. See
+     * {@link dk.netarkivet.wayback.aggregator.SegmentedIndexStore}.
+     */
+    public static String WAYBACK_AGGREGATOR_SEGMENTED_INDEX = "settings.wayback.aggregator.segmentedIndex";
+
+    /**
+     * The number of segments on a level of the segmented index which are merged into one segment on the next level.
+     * The default is 4.
+     */
+    public static String WAYBACK_AGGREGATOR_SEGMENT_FAN_OUT = "settings.wayback.aggregator.segmentFanOut";
+
+    /** Whether the blocks of new segments of the segmented index are gzip compressed. The default is false. */
+    public static String WAYBACK_AGGREGATOR_COMPRESS_SEGMENTS = "settings.wayback.aggregator.compressSegments";
+
+    /**
+     * The number of index lines in each block of a segment, and thus between the keys of its summary. The default is
+     * 3000.
+     */
+    public static String WAYBACK_AGGREGATOR_SEGMENT_BLOCK_LINES = "settings.wayback.aggregator.segmentBlockLines";
+
     /**
      * The maximum number of files in the resourcestore cache. The default is 100.
      */
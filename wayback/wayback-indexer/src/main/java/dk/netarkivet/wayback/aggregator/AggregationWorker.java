@@ -22,8 +22,12 @@
  */
 package dk.netarkivet.wayback.aggregator;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Timer;
@@ -34,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
@@ -89,6 +94,15 @@ public class AggregationWorker implements CleanupIF {
      * WaybackSettings#WAYBACK_AGGREGATOR_FINAL_INDEX_FILE_SIZE_LIMIT
      */
     public static final File FINAL_INDEX_FILE = new File(indexOutputDir, "wayback.index");
+    /**
+     * The directory of the segmented index, used instead of the intermediate and final index files if
+     * WaybackSettings#WAYBACK_AGGREGATOR_SEGMENTED_INDEX is set.
+     */
+    public static final File SEGMENT_DIR = new File(indexOutputDir, "segments");
+    /** The file the raw index files are concatenated into before being sorted for the segmented index. */
+    static final File TEMP_UNSORTED_FILE_INDEX = new File(temporaryDir, "temp_unsorted.index");
+    /** The segmented index, or null if the intermediate and final index files are used. */
+    private SegmentedIndexStore segmentStore;
 
     /**
      * Factory method which creates a singleton aggregator and sets it running. It has the side effect of creating the
@@ -168,6 +182,11 @@ public class AggregationWorker implements CleanupIF {
             }
         }
 
+        if (segmentStore != null) {
+            addToSegmentStore(filesToProcess);
+            return;
+        }
+
         aggregator.sortAndMergeFiles(filesToProcess, TEMP_FILE_INDEX);
         if (log.isDebugEnabled()) {
             log.debug("Sorted raw indexes into temporary index file ");
@@ -199,6 +218,43 @@ public class AggregationWorker implements CleanupIF {
 
     }
 
+    /**
+     * Sorts the raw index files into a new segment of the segmented index. The sorting is done in the JVM, and only the
+     * new index lines are written. The lines are sorted by their bytes, which is the order the segments are merged and
+     * searched in. The raw index files are deleted afterwards.
+     *
+     * @param filesToProcess The raw index files.
+     */
+    private void addToSegmentStore(File[] filesToProcess) {
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(TEMP_UNSORTED_FILE_INDEX));
+            try {
+                for (File inputFile : filesToProcess) {
+                    Files.copy(inputFile.toPath(), out);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Failed to collect raw index files in '" + TEMP_UNSORTED_FILE_INDEX + "'", e);
+        }
+        FileUtils.sortCDX(TEMP_UNSORTED_FILE_INDEX, TEMP_FILE_INDEX);
+        TEMP_UNSORTED_FILE_INDEX.delete();
+        segmentStore.ingest(TEMP_FILE_INDEX);
+
+        for (File inputFile : filesToProcess) {
+            inputFile.delete();
+        }
+        TEMP_FILE_INDEX.delete();
+    }
+
+    /**
+     * @return The segmented index, or null if the intermediate and final index files are used.
+     */
+    SegmentedIndexStore getSegmentStore() {
+        return segmentStore;
+    }
+
     /**
      * Call the handleFinalIndexFileMerge is case of a exceeded
      * WaybackSettings.WAYBACK_AGGREGATOR_MAX_INTERMEDIATE_INDEX_FILE_SIZE and ?.
@@ -261,6 +317,9 @@ public class AggregationWorker implements CleanupIF {
 
     @Override
     public void cleanup() {
+        if (segmentStore != null) {
+            segmentStore.close();
+        }
         FileUtils.removeRecursively(temporaryDir);
     }
 
@@ -279,5 +338,16 @@ public class AggregationWorker implements CleanupIF {
         }
         FileUtils.removeRecursively(temporaryDir);
         FileUtils.createDir(temporaryDir);
+        if (segmentStore != null) {
+            segmentStore.close();
+            segmentStore = null;
+        }
+        if (Settings.getBoolean(WaybackSettings.WAYBACK_AGGREGATOR_SEGMENTED_INDEX)) {
+            segmentStore = new SegmentedIndexStore(SEGMENT_DIR,
+                    Settings.getInt(WaybackSettings.WAYBACK_AGGREGATOR_SEGMENT_FAN_OUT),
+                    1024 * Settings.getLong(WaybackSettings.WAYBACK_AGGREGATOR_MAX_MAIN_INDEX_FILE_SIZE),
+                    Settings.getBoolean(WaybackSettings.WAYBACK_AGGREGATOR_COMPRESS_SEGMENTS),
+                    Settings.getInt(WaybackSettings.WAYBACK_AGGREGATOR_SEGMENT_BLOCK_LINES));
+        }
     }
 }
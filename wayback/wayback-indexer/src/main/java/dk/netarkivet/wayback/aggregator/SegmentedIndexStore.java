@@ -0,0 +1,686 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.aggregator;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * A Wayback index kept as a set of sorted CDX segment files, so adding new index lines only writes the new lines
+ * instead of rewriting one large index file.
+ * <p>
+ * New lines are added as a level 0 segment. When a level holds {@link #fanOut} segments or more, they are merged into
+ * one segment on the next level by a background thread. Every line is thus rewritten about once per level, and the
+ * number of levels only grows with the logarithm of the index size. Segments of at least {@link #maxSegmentSize}
+ * bytes are never merged again, like the renamed main index files of the non-segmented aggregation.
+ * <p>
+ * The live segments are listed with their level in the manifest file {@link #MANIFEST_NAME}, which is replaced
+ * atomically after each change. A segment is only visible once it is listed in the manifest, and is only deleted
+ * after the manifest no longer lists it, so readers of the manifest always see each index line exactly once. Segments
+ * replaced by a merge while a {@link #lookup(String)} of this store reads them are deleted when the last such lookup
+ * is done.
+ * <p>
+ * Each segment is written in blocks of {@link #blockLines} lines, optionally each compressed as a gzip member of its
+ * own. A summary file next to the segment holds one line for each block with its first line, the segment name, and
+ * the offset and length of the block, separated by tabs. This is the layout of a ZipNum cluster, and allows a lookup
+ * to read only the blocks which may hold the lines looked for.
+ */
+public class SegmentedIndexStore implements Closeable {
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(SegmentedIndexStore.class);
+
+    /** The name of the manifest file listing the live segments. */
+    public static final String MANIFEST_NAME = "segments.manifest";
+    /** The prefix of the names of segment files. */
+    static final String SEGMENT_PREFIX = "segment-";
+    /** The suffix of uncompressed segment files. */
+    static final String PLAIN_SUFFIX = ".cdx";
+    /** The suffix of compressed segment files. */
+    static final String COMPRESSED_SUFFIX = ".cdx.gz";
+    /** The suffix of the summary files of segments. */
+    static final String SUMMARY_SUFFIX = ".summary";
+    /** The charset the lines are read and written in, which makes the order of strings the bytewise order. */
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+    /** The size of the buffers used for reading and writing segments. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The directory holding the segments and the manifest. */
+    private final File dir;
+    /** The number of segments on a level that causes them to be merged into the next level. */
+    private final int fanOut;
+    /** The size in bytes from which segments are no longer merged. */
+    private final long maxSegmentSize;
+    /** Whether new segments are compressed. */
+    private final boolean compress;
+    /** The number of lines in each block of a segment. */
+    private final int blockLines;
+    /** The live segments in the order they were created. Guarded by this. */
+    private final List<Segment> segments = new ArrayList<Segment>();
+    /** The sequence number of the next segment. Guarded by this. */
+    private long nextSequence;
+    /** Lock ensuring that only one compaction runs at a time. */
+    private final Object compactionLock = new Object();
+    /** The thread running compactions in the background. */
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "SegmentCompactor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Open the segmented index in a directory, creating the directory if needed. Segment files in the directory not
+     * listed in the manifest are left overs from an interrupted ingest or compaction, and are deleted.
+     *
+     * @param dir The directory holding the segments.
+     * @param fanOut The number of segments on a level that causes them to be merged into the next level.
+     * @param maxSegmentSize The size in bytes from which segments are no longer merged.
+     * @param compress Whether new segments are compressed.
+     * @param blockLines The number of lines in each block of a segment.
+     * @throws ArgumentNotValid If the directory is null, the fan out is less than 2, or the block size is not positive.
+     * @throws IOFailure If the manifest cannot be read.
+     */
+    public SegmentedIndexStore(File dir, int fanOut, long maxSegmentSize, boolean compress, int blockLines) {
+        ArgumentNotValid.checkNotNull(dir, "File dir");
+        ArgumentNotValid.checkTrue(fanOut >= 2, "The fan out must be at least 2, but was " + fanOut);
+        ArgumentNotValid.checkPositive(blockLines, "int blockLines");
+        this.dir = dir;
+        this.fanOut = fanOut;
+        this.maxSegmentSize = maxSegmentSize;
+        this.compress = compress;
+        this.blockLines = blockLines;
+        FileUtils.createDir(dir);
+        readManifest();
+        removeUnlistedFiles();
+    }
+
+    /**
+     * Add the lines of a sorted file as a new level 0 segment, and start merging segments in the background if a level
+     * is full. The file itself is left untouched.
+     *
+     * @param sortedFile A file of CDX lines in bytewise order.
+     * @throws IOFailure If the segment cannot be written.
+     */
+    public void ingest(File sortedFile) {
+        ArgumentNotValid.checkExistsNormalFile(sortedFile, "File sortedFile");
+        if (sortedFile.length() == 0) {
+            log.debug("No lines in '{}' to add to the index", sortedFile);
+            return;
+        }
+        Segment segment = newSegment(0);
+        BufferedReader reader = null;
+        try {
+            reader = openReader(new FileInputStream(sortedFile));
+            writeSegment(segment, Collections.singletonList(reader));
+        } catch (IOException e) {
+            deleteFiles(segment);
+            throw new IOFailure("Failed to add '" + sortedFile + "' as segment '" + segment.name + "'", e);
+        } finally {
+            closeQuietly(reader);
+        }
+        synchronized (this) {
+            segments.add(segment);
+            writeManifest();
+        }
+        log.info("Added '{}' to the index as segment '{}' of {} bytes", sortedFile, segment.name,
+                segment.file().length());
+        compactor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    log.warn("Failed to compact index segments in '{}'", dir, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Merge the segments of each full level into one segment on the next level, until no level is full.
+     *
+     * @throws IOFailure If the segments cannot be merged.
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            List<Segment> inputs;
+            while (!(inputs = findFullLevel()).isEmpty()) {
+                merge(inputs);
+            }
+        }
+    }
+
+    /**
+     * Find the segments of the lowest level holding at least {@link #fanOut} segments which can still be merged.
+     *
+     * @return The segments of the level, or an empty list if no level is full.
+     */
+    private synchronized List<Segment> findFullLevel() {
+        int maxLevel = 0;
+        for (Segment segment : segments) {
+            maxLevel = Math.max(maxLevel, segment.level);
+        }
+        for (int level = 0; level <= maxLevel; level++) {
+            List<Segment> onLevel = new ArrayList<Segment>();
+            for (Segment segment : segments) {
+                if (segment.level == level && segment.file().length() < maxSegmentSize) {
+                    onLevel.add(segment);
+                }
+            }
+            if (onLevel.size() >= fanOut) {
+                return onLevel;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Merge segments into one new segment on the level after theirs, and replace them by it in the manifest.
+     *
+     * @param inputs The segments to merge, all on the same level.
+     * @throws IOFailure If the segments cannot be merged.
+     */
+    private void merge(List<Segment> inputs) {
+        long startTime = System.currentTimeMillis();
+        Segment merged = newSegment(inputs.get(0).level + 1);
+        List<BufferedReader> readers = new ArrayList<BufferedReader>(inputs.size());
+        try {
+            for (Segment input : inputs) {
+                readers.add(input.openReader());
+            }
+            writeSegment(merged, readers);
+        } catch (IOException e) {
+            deleteFiles(merged);
+            throw new IOFailure("Failed to merge segments " + inputs + " into '" + merged.name + "'", e);
+        } finally {
+            for (BufferedReader reader : readers) {
+                closeQuietly(reader);
+            }
+        }
+        List<Segment> unused = new ArrayList<Segment>(inputs.size());
+        synchronized (this) {
+            int position = segments.indexOf(inputs.get(0));
+            segments.removeAll(inputs);
+            segments.add(position, merged);
+            writeManifest();
+            for (Segment input : inputs) {
+                input.replaced = true;
+                if (input.lookups == 0) {
+                    unused.add(input);
+                }
+            }
+        }
+        // Segments still being read are deleted by the last lookup reading them
+        for (Segment input : unused) {
+            deleteFiles(input);
+        }
+        log.info("Merged {} segments into segment '{}' on level {} in {} ms", inputs.size(), merged.name,
+                merged.level, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Find the lines starting with a prefix, reading only the blocks of each segment that may hold them.
+     *
+     * @param prefix The prefix of the lines, e.g. a canonicalized URL followed by a space.
+     * @return The lines in sorted order.
+     * @throws IOFailure If a segment cannot be read.
+     */
+    public List<String> lookup(String prefix) {
+        ArgumentNotValid.checkNotNull(prefix, "String prefix");
+        List<String> result = new ArrayList<String>();
+        List<Segment> reading = acquireSegments();
+        try {
+            for (Segment segment : reading) {
+                try {
+                    segment.lookup(prefix, result);
+                } catch (IOException e) {
+                    throw new IOFailure("Failed to look up '" + prefix + "' in segment '" + segment.name + "'", e);
+                }
+            }
+        } finally {
+            releaseSegments(reading);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Get the live segments for reading. They are not deleted before they are released, even if they are replaced.
+     *
+     * @return A copy of the list of live segments.
+     */
+    synchronized List<Segment> acquireSegments() {
+        for (Segment segment : segments) {
+            segment.lookups++;
+        }
+        return new ArrayList<Segment>(segments);
+    }
+
+    /**
+     * Release segments gotten by {@link #acquireSegments()}, deleting those which have been replaced and are no longer
+     * read.
+     *
+     * @param reading The segments.
+     */
+    void releaseSegments(List<Segment> reading) {
+        List<Segment> unused = new ArrayList<Segment>();
+        synchronized (this) {
+            for (Segment segment : reading) {
+                if (--segment.lookups == 0 && segment.replaced) {
+                    unused.add(segment);
+                }
+            }
+        }
+        for (Segment segment : unused) {
+            deleteFiles(segment);
+        }
+    }
+
+    /**
+     * @return The files of the live segments, in the order they were created.
+     */
+    public synchronized List<File> getSegmentFiles() {
+        List<File> files = new ArrayList<File>(segments.size());
+        for (Segment segment : segments) {
+            files.add(segment.file());
+        }
+        return files;
+    }
+
+    /**
+     * @return The levels of the live segments, in the order they were created.
+     */
+    synchronized List<Integer> getLevels() {
+        List<Integer> levels = new ArrayList<Integer>(segments.size());
+        for (Segment segment : segments) {
+            levels.add(segment.level);
+        }
+        return levels;
+    }
+
+    /**
+     * Stop the background compaction, waiting for a running compaction to finish.
+     */
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            if (!compactor.awaitTermination(1, TimeUnit.HOURS)) {
+                log.warn("Gave up waiting for the compaction of the segments in '{}' to finish", dir);
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for the compaction of the segments in '{}' to finish", dir);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Make a new segment, which is not yet live.
+     *
+     * @param level The level of the segment.
+     * @return The segment.
+     */
+    private synchronized Segment newSegment(int level) {
+        String name = String.format("%s%012d%s", SEGMENT_PREFIX, nextSequence++, compress ? COMPRESSED_SUFFIX
+                : PLAIN_SUFFIX);
+        return new Segment(name, level);
+    }
+
+    /**
+     * Write the lines of a number of sorted readers merged in sorted order to a segment and its summary.
+     *
+     * @param segment The segment to write.
+     * @param readers The readers of sorted lines.
+     * @throws IOException If the lines cannot be read or the segment cannot be written.
+     */
+    private void writeSegment(Segment segment, List<BufferedReader> readers) throws IOException {
+        // Entries are the current line and the index of its reader, which keeps equal lines in a stable order.
+        PriorityQueue<Object[]> heads = new PriorityQueue<Object[]>(Math.max(1, readers.size()),
+                new Comparator<Object[]>() {
+                    @Override
+                    public int compare(Object[] head1, Object[] head2) {
+                        int cmp = ((String) head1[0]).compareTo((String) head2[0]);
+                        return cmp != 0 ? cmp : Integer.compare((Integer) head1[1], (Integer) head2[1]);
+                    }
+                });
+        for (int i = 0; i < readers.size(); i++) {
+            String line = readers.get(i).readLine();
+            if (line != null) {
+                heads.add(new Object[] {line, i});
+            }
+        }
+        CountingOutputStream file = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(
+                segment.file()), BUFFER_SIZE));
+        OutputStream summary = new BufferedOutputStream(new FileOutputStream(segment.summaryFile()));
+        try {
+            OutputStream block = null;
+            long blockStart = 0;
+            String firstLine = null;
+            int linesInBlock = 0;
+            Object[] head;
+            while ((head = heads.poll()) != null) {
+                String line = (String) head[0];
+                if (block == null) {
+                    blockStart = file.getByteCount();
+                    block = compress ? new GZIPOutputStream(new CloseShieldOutputStream(file), BUFFER_SIZE) : file;
+                    firstLine = line;
+                }
+                block.write(line.getBytes(CHARSET));
+                block.write('\n');
+                if (++linesInBlock == blockLines) {
+                    finishBlock(block, summary, segment, firstLine, blockStart, file);
+                    block = null;
+                    linesInBlock = 0;
+                }
+                String next = readers.get((Integer) head[1]).readLine();
+                if (next != null) {
+                    head[0] = next;
+                    heads.add(head);
+                }
+            }
+            if (block != null) {
+                finishBlock(block, summary, segment, firstLine, blockStart, file);
+            }
+        } finally {
+            file.close();
+            summary.close();
+        }
+    }
+
+    /**
+     * Finish a block of a segment and write its summary line.
+     *
+     * @param block The stream the block was written to.
+     * @param summary The stream of the summary file.
+     * @param segment The segment the block belongs to.
+     * @param firstLine The first line of the block.
+     * @param blockStart The offset of the block in the segment file.
+     * @param file The stream of the segment file.
+     * @throws IOException If the block or summary cannot be written.
+     */
+    private static void finishBlock(OutputStream block, OutputStream summary, Segment segment, String firstLine,
+            long blockStart, CountingOutputStream file) throws IOException {
+        if (block != file) {
+            // Ends the gzip member, leaving the segment file open for the next block
+            block.close();
+        }
+        String summaryLine = firstLine + '\t' + segment.name + '\t' + blockStart + '\t'
+                + (file.getByteCount() - blockStart) + '\n';
+        summary.write(summaryLine.getBytes(CHARSET));
+    }
+
+    /**
+     * Read the manifest, if there is one.
+     *
+     * @throws IOFailure If the manifest cannot be read or is malformed.
+     */
+    private synchronized void readManifest() {
+        File manifest = new File(dir, MANIFEST_NAME);
+        if (!manifest.exists()) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(manifest.toPath(), CHARSET)) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 2 || !parts[1].startsWith(SEGMENT_PREFIX)) {
+                    throw new IOFailure("Malformed line '" + line + "' in manifest '" + manifest + "'");
+                }
+                Segment segment = new Segment(parts[1], Integer.parseInt(parts[0]));
+                segments.add(segment);
+                nextSequence = Math.max(nextSequence, segment.sequence() + 1);
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new IOFailure("Failed to read manifest '" + manifest + "'", e);
+        }
+        log.info("Opened index of {} segments in '{}'", segments.size(), dir);
+    }
+
+    /**
+     * Replace the manifest by one listing the live segments. The new manifest is written to a temporary file which is
+     * then renamed, so readers see either the old or the new manifest.
+     *
+     * @throws IOFailure If the manifest cannot be written.
+     */
+    private synchronized void writeManifest() {
+        File manifest = new File(dir, MANIFEST_NAME);
+        File tempManifest = new File(dir, MANIFEST_NAME + ".tmp");
+        List<String> lines = new ArrayList<String>(segments.size());
+        for (Segment segment : segments) {
+            lines.add(segment.level + " " + segment.name);
+        }
+        try {
+            Files.write(tempManifest.toPath(), lines, CHARSET);
+            Files.move(tempManifest.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IOFailure("Failed to write manifest '" + manifest + "'", e);
+        }
+    }
+
+    /**
+     * Delete the segment and summary files not belonging to a live segment.
+     */
+    private synchronized void removeUnlistedFiles() {
+        Set<String> live = new HashSet<String>();
+        for (Segment segment : segments) {
+            live.add(segment.file().getName());
+            live.add(segment.summaryFile().getName());
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOFailure("Unable to list the contents of '" + dir + "'");
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(SEGMENT_PREFIX) && !live.contains(file.getName())) {
+                log.info("Removing '{}', which is not listed in the manifest", file);
+                FileUtils.remove(file);
+            }
+        }
+    }
+
+    /**
+     * Delete the files of a segment.
+     *
+     * @param segment The segment.
+     */
+    private static void deleteFiles(Segment segment) {
+        FileUtils.remove(segment.file());
+        FileUtils.remove(segment.summaryFile());
+    }
+
+    /**
+     * @param in A stream of lines.
+     * @return A reader of the lines.
+     */
+    private static BufferedReader openReader(InputStream in) {
+        return new BufferedReader(new InputStreamReader(in, CHARSET), BUFFER_SIZE);
+    }
+
+    /**
+     * Close a reader, ignoring failure.
+     *
+     * @param reader The reader, or null.
+     */
+    private static void closeQuietly(Closeable reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                log.debug("Failed to close reader", e);
+            }
+        }
+    }
+
+    /** A segment of the index. */
+    final class Segment {
+        /** The name of the segment file. */
+        private final String name;
+        /** The level of the segment. */
+        private final int level;
+        /** The number of lookups reading the segment. Guarded by the store. */
+        private int lookups;
+        /** Whether the segment has been replaced by a merge, so it is deleted once no lookup reads it. */
+        private boolean replaced;
+
+        /**
+         * @param name The name of the segment file.
+         * @param level The level of the segment.
+         */
+        private Segment(String name, int level) {
+            this.name = name;
+            this.level = level;
+        }
+
+        /** @return The segment file. */
+        private File file() {
+            return new File(dir, name);
+        }
+
+        /** @return The summary file of the segment. */
+        private File summaryFile() {
+            return new File(dir, name.substring(0, name.indexOf('.')) + SUMMARY_SUFFIX);
+        }
+
+        /** @return Whether the blocks of the segment are compressed. */
+        private boolean isCompressed() {
+            return name.endsWith(COMPRESSED_SUFFIX);
+        }
+
+        /** @return The sequence number of the segment, taken from its name. */
+        private long sequence() {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.indexOf('.')));
+        }
+
+        /**
+         * @return A reader of all the lines of the segment.
+         * @throws IOException If the segment cannot be opened.
+         */
+        private BufferedReader openReader() throws IOException {
+            InputStream in = new FileInputStream(file());
+            // GZIPInputStream reads all the members of the file, one for each block
+            return SegmentedIndexStore.openReader(isCompressed() ? new GZIPInputStream(in, BUFFER_SIZE) : in);
+        }
+
+        /**
+         * Add the lines starting with a prefix to a list. Only the blocks from the last one starting before the prefix
+         * to the last one starting with the prefix are read.
+         *
+         * @param prefix The prefix of the lines.
+         * @param result The list to add the lines to.
+         * @throws IOException If the segment cannot be read.
+         */
+        private void lookup(String prefix, List<String> result) throws IOException {
+            List<String> summary = Files.readAllLines(summaryFile().toPath(), CHARSET);
+            int first = 0;
+            for (int i = 0; i < summary.size(); i++) {
+                if (firstLineOf(summary.get(i)).compareTo(prefix) < 0) {
+                    first = i;
+                } else {
+                    break;
+                }
+            }
+            RandomAccessFile in = new RandomAccessFile(file(), "r");
+            try {
+                for (int i = first; i < summary.size(); i++) {
+                    String firstLine = firstLineOf(summary.get(i));
+                    if (i > first && !firstLine.startsWith(prefix) && firstLine.compareTo(prefix) > 0) {
+                        break;
+                    }
+                    String[] fields = summary.get(i).substring(firstLine.length() + 1).split("\t");
+                    byte[] bytes = new byte[Integer.parseInt(fields[2])];
+                    in.seek(Long.parseLong(fields[1]));
+                    in.readFully(bytes);
+                    InputStream block = new ByteArrayInputStream(bytes);
+                    BufferedReader reader = SegmentedIndexStore.openReader(isCompressed() ? new GZIPInputStream(
+                            block) : block);
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith(prefix)) {
+                            result.add(line);
+                        }
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * @param summaryLine A line of a summary file.
+         * @return The first line of the block the summary line describes.
+         */
+        private String firstLineOf(String summaryLine) {
+            int end = summaryLine.length();
+            for (int i = 0; i < 3; i++) {
+                end = summaryLine.lastIndexOf('\t', end - 1);
+            }
+            return summaryLine.substring(0, end);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
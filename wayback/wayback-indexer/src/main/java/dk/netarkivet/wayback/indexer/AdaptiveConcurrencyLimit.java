@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.indexer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A limit on the number of indexing jobs running at the same time, which adapts to how long the jobs take.
+ * <p>
+ * The duration of each job is averaged over the last few jobs and over many jobs. When the short term average exceeds
+ * the long term average by {@link #TOLERANCE}, or a job fails, the batch or Hadoop cluster is taken to be overloaded
+ * and the limit is lowered by one. Otherwise the limit is raised by one, up to the maximum.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+
+    /** The weight of a new duration in the short term average. */
+    private static final double SHORT_TERM_WEIGHT = 0.3;
+    /** The weight of a new duration in the long term average. */
+    private static final double LONG_TERM_WEIGHT = 0.05;
+    /** How many times slower than the long term average the short term average may be before the limit is lowered. */
+    static final double TOLERANCE = 2.0;
+
+    /** The lowest limit. */
+    private final int minLimit;
+    /** The highest limit. */
+    private final int maxLimit;
+    /** The current limit. */
+    private int limit;
+    /** The number of jobs running. */
+    private int running;
+    /** The short term average duration in milliseconds, or a negative number before the first job. */
+    private double shortTermAverage = -1;
+    /** The long term average duration in milliseconds, or a negative number before the first job. */
+    private double longTermAverage = -1;
+
+    /**
+     * Create a limit starting at its maximum.
+     *
+     * @param minLimit The lowest limit.
+     * @param maxLimit The highest limit.
+     * @throws ArgumentNotValid If the minimum is not positive or is larger than the maximum.
+     */
+    public AdaptiveConcurrencyLimit(int minLimit, int maxLimit) {
+        ArgumentNotValid.checkPositive(minLimit, "int minLimit");
+        ArgumentNotValid.checkTrue(minLimit <= maxLimit, "The minimum limit " + minLimit
+                + " must not exceed the maximum limit " + maxLimit);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Wait until another job may run, and count it as running.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (running >= limit) {
+            wait();
+        }
+        running++;
+    }
+
+    /**
+     * Count a job as finished without adjusting the limit, e.g. if it was skipped or never started.
+     */
+    public synchronized void release() {
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * Count a job as finished, and adjust the limit by its outcome.
+     *
+     * @param durationMillis The time the job took.
+     * @param succeeded Whether the job succeeded. The duration of failed jobs is not averaged.
+     */
+    public synchronized void release(long durationMillis, boolean succeeded) {
+        running--;
+        int oldLimit = limit;
+        if (!succeeded) {
+            limit = Math.max(minLimit, limit - 1);
+        } else {
+            if (longTermAverage < 0) {
+                shortTermAverage = durationMillis;
+                longTermAverage = durationMillis;
+            } else {
+                shortTermAverage += SHORT_TERM_WEIGHT * (durationMillis - shortTermAverage);
+                longTermAverage += LONG_TERM_WEIGHT * (durationMillis - longTermAverage);
+            }
+            if (shortTermAverage > TOLERANCE * longTermAverage) {
+                limit = Math.max(minLimit, limit - 1);
+            } else {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+        }
+        if (limit != oldLimit) {
+            log.info("Changed the number of files indexed at a time from {} to {} (average indexing time {} ms, "
+                    + "recently {} ms)", oldLimit, limit, (long) longTermAverage, (long) shortTermAverage);
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return The current limit.
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+}
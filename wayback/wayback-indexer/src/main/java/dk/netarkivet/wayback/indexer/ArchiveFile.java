@@ -27,7 +27,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 
 import javax.persistence.Entity;
@@ -86,6 +85,12 @@ public class ArchiveFile {
     /** The date on which this file was indexed. */
     private Date indexedDate;
 
+    /** The date on which this file was found in the archive and added to the object store, if known. */
+    private Date createdDate;
+
+    /** The date of the latest failed attempt to index this file, if any. */
+    private Date lastFailedDate;
+
     /**
      * Constructor, creates a new instance in the unindexed state.
      */
@@ -130,6 +135,42 @@ public class ArchiveFile {
         this.indexedDate = indexedDate;
     }
 
+    /**
+     * Returns createdDate.
+     *
+     * @return the date the file was added to the object store, or null if unknown.
+     */
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+
+    /**
+     * Sets createdDate.
+     *
+     * @param createdDate The date the file was added to the object store.
+     */
+    public void setCreatedDate(Date createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    /**
+     * Returns lastFailedDate.
+     *
+     * @return the date of the latest failed indexing attempt, or null if none has failed.
+     */
+    public Date getLastFailedDate() {
+        return lastFailedDate;
+    }
+
+    /**
+     * Sets lastFailedDate.
+     *
+     * @param lastFailedDate The date of the latest failed indexing attempt.
+     */
+    public void setLastFailedDate(Date lastFailedDate) {
+        this.lastFailedDate = lastFailedDate;
+    }
+
     /**
      * The filename is used as a natural key because it is a fundamental property of the arcrepository that filenames
      * are unique.
@@ -215,6 +256,7 @@ public class ArchiveFile {
         }
 
         Configuration conf = HadoopJobUtils.getConf();
+        conf.setBoolean(HadoopJobTool.SORTED_OUTPUT, Settings.getBoolean(CommonSettings.HADOOP_MAPRED_CDXJOB_SORTED_OUTPUT));
         UUID uuid = UUID.randomUUID();
         log.info("File {} indexed with job uuid for i/o {}.", this.filename, uuid);
         try (FileSystem fileSystem = FileSystem.newInstance(conf)) {
@@ -272,12 +314,15 @@ public class ArchiveFile {
                     collectHadoopResults(fileSystem, jobOutputDir);
                 } else {
                     log.warn("Hadoop job failed with exit code '{}'", exitCode);
+                    registerFailedAttempt();
                 }
             } catch (Exception exception) {
                log.error("Hadoop indexing job failed to run normally.", exception);
+               registerFailedAttempt();
             }
         } catch (IOException e) {
            log.error("Error on hadoop filesystem.", e);
+           registerFailedAttempt();
         }
 
     }
@@ -293,8 +338,8 @@ public class ArchiveFile {
         File outputFile = makeNewFileInWaybackTempDir();
         log.info("Collecting index for '{}' from parts in '{}' to '{}'", this.getFilename(), jobOutputDir, outputFile.getAbsolutePath());
         try {
-            List<String> cdxLines = HadoopJobUtils.collectOutputLines(fs, jobOutputDir);
-            FileUtils.writeCollectionToFile(outputFile, cdxLines);
+            HadoopJobUtils.copyOutputToFile(fs, jobOutputDir, outputFile);
+            fs.delete(jobOutputDir, true);
             log.info("Finished collecting index for '{}' to '{}'", this.getFilename(), outputFile.getAbsolutePath());
         } catch (IOException e) {
             log.warn("Could not collect index results from '{}'", jobOutputDir.toString(), e);
@@ -432,7 +477,16 @@ public class ArchiveFile {
             }
         }
         log.error(message);
+        registerFailedAttempt();
+    }
+
+    /**
+     * Increments the number of failed attempts for this ArchiveFile and records the time of the failure, from which
+     * the IndexerQueue schedules the next attempt.
+     */
+    private void registerFailedAttempt() {
         indexingFailedAttempts += 1;
+        lastFailedDate = new Date();
         (new ArchiveFileDAO()).update(this);
     }
 
@@ -22,9 +22,21 @@
  */
 package dk.netarkivet.wayback.indexer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
 
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.wayback.WaybackSettings;
@@ -35,6 +47,13 @@ import dk.netarkivet.wayback.WaybackSettings;
 @SuppressWarnings({"unchecked"})
 public class ArchiveFileDAO extends GenericHibernateDAO<ArchiveFile, String> {
 
+    /**
+     * The order of files awaiting indexing: fewer failed attempts first, then recently added files first and files
+     * without a date last, as in IndexerQueue, whatever the database does with nulls.
+     */
+    private static final String AWAITING_INDEXING_ORDER = "indexingFailedAttempts ASC,"
+            + " CASE WHEN createdDate IS NULL THEN 1 ELSE 0 END ASC, createdDate DESC";
+
     /**
      * Default constructor.
      */
@@ -53,6 +72,83 @@ public class ArchiveFileDAO extends GenericHibernateDAO<ArchiveFile, String> {
         return !sess.createQuery("from ArchiveFile where filename='" + filename + "'").list().isEmpty();
     }
 
+    /**
+     * Returns the names of all files in the object store, sorted in the natural order of strings. The names are read
+     * with a forward-only cursor and kept in a plain array, so even millions of names take little more memory than the
+     * strings themselves.
+     *
+     * @return the sorted names of all known files.
+     */
+    public String[] getAllFilenamesSorted() {
+        List<String> filenames = new ArrayList<String>();
+        StatelessSession sess = HibernateUtil.getStatelessSession();
+        try {
+            ScrollableResults results = sess.createQuery("select filename from ArchiveFile").setFetchSize(
+                    Settings.getInt(WaybackSettings.WAYBACK_INDEXER_HARVEST_BATCH_SIZE)).scroll(
+                    ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    filenames.add((String) results.get(0));
+                }
+            } finally {
+                results.close();
+            }
+        } finally {
+            sess.close();
+        }
+        String[] sorted = filenames.toArray(new String[filenames.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Returns those of the given names which are found in the object store, looking them up in chunks of
+     * WaybackSettings#WAYBACK_INDEXER_HARVEST_BATCH_SIZE names per query.
+     *
+     * @param filenames the names of the files.
+     * @return the names which are already known.
+     */
+    public Set<String> getExistingFilenames(Collection<String> filenames) {
+        Set<String> existing = new HashSet<String>();
+        int chunkSize = Settings.getInt(WaybackSettings.WAYBACK_INDEXER_HARVEST_BATCH_SIZE);
+        List<String> all = new ArrayList<String>(filenames);
+        Session sess = getSession();
+        try {
+            for (int start = 0; start < all.size(); start += chunkSize) {
+                List<String> chunk = all.subList(start, Math.min(all.size(), start + chunkSize));
+                existing.addAll(sess.createQuery("select filename from ArchiveFile where filename in (:names)")
+                        .setParameterList("names", chunk).list());
+            }
+        } finally {
+            sess.close();
+        }
+        return existing;
+    }
+
+    /**
+     * Inserts new files in the object store in one transaction, through a stateless session which sends the inserts in
+     * JDBC batches of WaybackSettings#HIBERNATE_JDBC_BATCH_SIZE.
+     *
+     * @param files the files to insert, none of which may already be known.
+     */
+    public void createAll(Collection<ArchiveFile> files) {
+        StatelessSession sess = HibernateUtil.getStatelessSession();
+        try {
+            Transaction transaction = sess.beginTransaction();
+            try {
+                for (ArchiveFile file : files) {
+                    sess.insert(file);
+                }
+                transaction.commit();
+            } catch (RuntimeException e) {
+                transaction.rollback();
+                throw e;
+            }
+        } finally {
+            sess.close();
+        }
+    }
+
     /**
      * Returns a list of all files awaiting indexing, ie all files not yet indexed and which have not failed indexing
      * more than the maximum number of allowed times. The list is ordered such that previously failed files are returned
@@ -61,10 +157,90 @@ public class ArchiveFileDAO extends GenericHibernateDAO<ArchiveFile, String> {
      * @return the list of files awaiting indexing.
      */
     public List<ArchiveFile> getFilesAwaitingIndexing() {
+        return getFilesAwaitingIndexing(0);
+    }
+
+    /**
+     * Returns a list of files awaiting indexing, as {@link #getFilesAwaitingIndexing()}. Among files with the same
+     * number of failed attempts, the most recently added files are returned first, and files without a date last.
+     *
+     * @param maxResults the maximum number of files to return, or 0 for all of them.
+     * @return the list of files awaiting indexing.
+     */
+    public List<ArchiveFile> getFilesAwaitingIndexing(int maxResults) {
         int maxFailedAttempts = Settings.getInt(WaybackSettings.WAYBACK_INDEXER_MAXFAILEDATTEMPTS);
-        return getSession().createQuery(
+        Query query = getSession().createQuery(
                 "FROM ArchiveFile WHERE indexed=false" + " AND indexingFailedAttempts <  " + maxFailedAttempts
-                        + " ORDER BY indexingFailedAttempts ASC").list();
+                        + " ORDER BY " + AWAITING_INDEXING_ORDER);
+        if (maxResults > 0) {
+            query.setMaxResults(maxResults);
+        }
+        return query.list();
+    }
+
+    /**
+     * Returns the files awaiting indexing which are due to be indexed now, i.e. which have not failed or whose retry
+     * backoff has passed, see IndexerQueue#getNextAttemptTime. Other files than metadata files are returned first, and
+     * within each kind the files are in the order of {@link #getFilesAwaitingIndexing(int)}. Files not due are left
+     * out by the query, and the files are read with a forward-only cursor, so a large backlog neither hides the files
+     * due nor fills the memory.
+     *
+     * @param maxResults the maximum number of files to return.
+     * @param metadataFilePattern the pattern matching the names of metadata files.
+     * @param excluded the names of files not to return, e.g. files already queued.
+     * @return the files due to be indexed.
+     */
+    public List<ArchiveFile> getFilesDueForIndexing(int maxResults, Pattern metadataFilePattern,
+            Set<String> excluded) {
+        int maxFailedAttempts = Settings.getInt(WaybackSettings.WAYBACK_INDEXER_MAXFAILEDATTEMPTS);
+        long maxBackoff = Settings.getLong(WaybackSettings.WAYBACK_INDEXER_MAX_RETRY_BACKOFF);
+        long now = System.currentTimeMillis();
+        // A retry is due when the last failure is at least the backoff for the number of failed attempts ago. The
+        // backoff stops growing at the maximal backoff, so one condition covers all the attempts from there on.
+        StringBuilder due = new StringBuilder("indexingFailedAttempts = 0 OR lastFailedDate IS NULL");
+        List<Date> latestFailures = new ArrayList<Date>();
+        for (int attempts = 1; attempts < maxFailedAttempts; attempts++) {
+            long backoff = IndexerQueue.getRetryBackoff(attempts);
+            boolean atMaxBackoff = backoff >= maxBackoff;
+            due.append(" OR (indexingFailedAttempts ").append(atMaxBackoff ? ">= " : "= ").append(attempts)
+                    .append(" AND lastFailedDate <= :failed").append(attempts).append(")");
+            latestFailures.add(new Date(now - backoff));
+            if (atMaxBackoff) {
+                break;
+            }
+        }
+        List<ArchiveFile> files = new ArrayList<ArchiveFile>();
+        List<ArchiveFile> metadataFiles = new ArrayList<ArchiveFile>();
+        StatelessSession sess = HibernateUtil.getStatelessSession();
+        try {
+            Query query = sess.createQuery("FROM ArchiveFile WHERE indexed=false AND indexingFailedAttempts < "
+                    + maxFailedAttempts + " AND (" + due + ") ORDER BY " + AWAITING_INDEXING_ORDER);
+            for (int i = 0; i < latestFailures.size(); i++) {
+                query.setTimestamp("failed" + (i + 1), latestFailures.get(i));
+            }
+            ScrollableResults results = query.setFetchSize(
+                    Settings.getInt(WaybackSettings.WAYBACK_INDEXER_HARVEST_BATCH_SIZE)).scroll(
+                    ScrollMode.FORWARD_ONLY);
+            try {
+                while (files.size() < maxResults && results.next()) {
+                    ArchiveFile file = (ArchiveFile) results.get(0);
+                    if (excluded.contains(file.getFilename())) {
+                        continue;
+                    }
+                    if (!metadataFilePattern.matcher(file.getFilename()).matches()) {
+                        files.add(file);
+                    } else if (metadataFiles.size() < maxResults) {
+                        metadataFiles.add(file);
+                    }
+                }
+            } finally {
+                results.close();
+            }
+        } finally {
+            sess.close();
+        }
+        files.addAll(metadataFiles.subList(0, Math.min(metadataFiles.size(), maxResults - files.size())));
+        return files;
     }
 
 }
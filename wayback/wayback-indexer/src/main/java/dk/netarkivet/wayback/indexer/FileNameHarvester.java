@@ -28,7 +28,11 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
@@ -49,11 +53,22 @@ import dk.netarkivet.common.utils.batch.DatedFileListJob;
 import dk.netarkivet.common.utils.batch.FileListJob;
 import dk.netarkivet.wayback.WaybackSettings;
 
+/**
+ * Harvests the names of the files in the archive and creates an ArchiveFile in the object store for each file not
+ * already known there.
+ * <p>
+ * The new files are found by a set difference over all the harvested names at once, instead of a query for each
+ * name. When harvesting the whole archive, the names of all known files are loaded once as a sorted array and
+ * compared with the sorted harvested names in a single pass. When harvesting recent files, the harvested names are
+ * looked up in chunks. The new files are then inserted in batches.
+ */
 public class FileNameHarvester {
 
     /** Logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(FileNameHarvester.class);
 
+    /** The minimal time in milliseconds between progress reports while creating files. */
+    private static final long PROGRESS_INTERVAL = 10000L;
 
     /**
      * This method harvests a list of all the files currently in the arcrepository and appends any new ones found to the
@@ -64,11 +79,11 @@ public class FileNameHarvester {
         if (Settings.getBoolean(CommonSettings.USE_BITMAG_HADOOP_BACKEND)) {
             Set<String> fileNames = getFilesFromBitmagSince(new Date(0));
             log.info("Harvested {} file(s) from bitmag", fileNames.size());
-            createFilesInDB(fileNames, dao);
+            createFilesInDB(fileNames, dao, true);
         } else {
             PreservationArcRepositoryClient client = ArcRepositoryClientFactory.getPreservationInstance();
             BatchStatus status = client.batch(new FileListJob(), Settings.get(WaybackSettings.WAYBACK_REPLICA));
-            getResultFileAndCreateInDB(status, dao);
+            getResultFileAndCreateInDB(status, dao, true);
         }
     }
 
@@ -83,12 +98,12 @@ public class FileNameHarvester {
         if (Settings.getBoolean(CommonSettings.USE_BITMAG_HADOOP_BACKEND)) {
             Set<String> fileNames = getFilesFromBitmagSince(sinceDate);
             log.info("Harvested {} recent file(s) from bitmag", fileNames.size());
-            createFilesInDB(fileNames, dao);
+            createFilesInDB(fileNames, dao, false);
         } else {
             PreservationArcRepositoryClient client = ArcRepositoryClientFactory.getPreservationInstance();
             BatchStatus status = client.batch(
                     new DatedFileListJob(sinceDate), Settings.get(WaybackSettings.WAYBACK_REPLICA));
-            getResultFileAndCreateInDB(status, dao);
+            getResultFileAndCreateInDB(status, dao, false);
         }
     }
 
@@ -97,18 +112,75 @@ public class FileNameHarvester {
      * If the given set is empty it just logs that there were no files to add to the database.
      * @param fileNames Files to create
      * @param dao The DAO through which the database is accessed
+     * @param wholeArchive Whether the filenames are those of the whole archive, in which case all known filenames are
+     * loaded and compared with them, instead of looking the filenames up
      */
-    private static void createFilesInDB(Set<String> fileNames, ArchiveFileDAO dao) {
-        if (!fileNames.isEmpty()) {
-            for (String fileName : fileNames) {
-                if (!dao.exists(fileName)) {
-                    createArchiveFileInDB(fileName, dao);
+    private static void createFilesInDB(Collection<String> fileNames, ArchiveFileDAO dao, boolean wholeArchive) {
+        if (fileNames.isEmpty()) {
+            log.info("No new files to add in database after harvest");
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        String[] harvested = sortedDistinct(fileNames);
+        List<String> newFileNames;
+        if (wholeArchive) {
+            String[] known = dao.getAllFilenamesSorted();
+            log.info("Loaded {} known file(s) from the object store in {} ms", known.length,
+                    System.currentTimeMillis() - startTime);
+            newFileNames = difference(harvested, known);
+        } else {
+            Set<String> existing = dao.getExistingFilenames(Arrays.asList(harvested));
+            newFileNames = new ArrayList<String>(harvested.length - existing.size());
+            for (String fileName : harvested) {
+                if (!existing.contains(fileName)) {
+                    newFileNames.add(fileName);
                 }
             }
-        } else {
-            String collectionID = BitmagUtils.getDefaultCollectionID();
-            log.info("No new files to add in database after harvest of collection '{}'", collectionID);
         }
+        log.info("Found {} new file(s) among {} harvested file(s) in {} ms", newFileNames.size(), harvested.length,
+                System.currentTimeMillis() - startTime);
+        createArchiveFilesInDB(newFileNames, dao);
+    }
+
+    /**
+     * Trims the given filenames, and sorts them without duplicates and empty names.
+     * @param fileNames The filenames
+     * @return The sorted, distinct filenames
+     */
+    static String[] sortedDistinct(Collection<String> fileNames) {
+        String[] sorted = new String[fileNames.size()];
+        int i = 0;
+        for (String fileName : fileNames) {
+            sorted[i++] = fileName.trim();
+        }
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (String fileName : sorted) {
+            if (!fileName.isEmpty() && (distinct == 0 || !fileName.equals(sorted[distinct - 1]))) {
+                sorted[distinct++] = fileName;
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    /**
+     * Finds the filenames in one sorted array which are not in another, in a single pass over both.
+     * @param fileNames The sorted filenames to look for
+     * @param known The sorted filenames to leave out
+     * @return The filenames not in the known array, in sorted order
+     */
+    static List<String> difference(String[] fileNames, String[] known) {
+        List<String> result = new ArrayList<String>();
+        int k = 0;
+        for (String fileName : fileNames) {
+            while (k < known.length && known[k].compareTo(fileName) < 0) {
+                k++;
+            }
+            if (k == known.length || !known[k].equals(fileName)) {
+                result.add(fileName);
+            }
+        }
+        return result;
     }
 
     /**
@@ -129,36 +201,58 @@ public class FileNameHarvester {
      * Helper method for handling results from BatchStatus and putting it in the database.
      * @param status The BatchStatus with results from batch()
      * @param dao The DAO through which the database is accessed.
+     * @param wholeArchive Whether the results list the whole archive
      */
-    private static void getResultFileAndCreateInDB(BatchStatus status, ArchiveFileDAO dao) {
+    private static void getResultFileAndCreateInDB(BatchStatus status, ArchiveFileDAO dao, boolean wholeArchive) {
         RemoteFile results = status.getResultFile();
         InputStream is = results.getInputStream();
         BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+        List<String> fileNames = new ArrayList<String>();
         String line;
         try {
             while ((line = reader.readLine()) != null) {
-                if (!dao.exists(line.trim())) {
-                    createArchiveFileInDB(line, dao);
-                } // If the file is already known in the persistent store, no
-                // action needs to be taken.
+                fileNames.add(line);
             }
         } catch (IOException e) {
             throw new IOFailure("Error reading remote file", e);
         } finally {
             IOUtils.closeQuietly(reader);
         }
+        log.info("Harvested {} file(s) from the arcrepository", fileNames.size());
+        createFilesInDB(fileNames, dao, wholeArchive);
     }
 
     /**
-     * Helper method to create an ArchiveFile from a given filename and put it in the database.
-     * @param fileName The filename to create.
+     * Helper method to create ArchiveFiles from the given filenames and put them in the database, in batches of
+     * WaybackSettings#WAYBACK_INDEXER_HARVEST_BATCH_SIZE files. Progress and the rate of creation are logged as it runs.
+     * @param fileNames The filenames to create, none of which are in the database.
      * @param dao The DAO through which the database is accessed.
      */
-    private static void createArchiveFileInDB(String fileName, ArchiveFileDAO dao) {
-        ArchiveFile file = new ArchiveFile();
-        file.setFilename(fileName.trim());
-        file.setIndexed(false);
-        log.info("Creating object store entry for '{}'", file.getFilename());
-        dao.create(file);
+    private static void createArchiveFilesInDB(List<String> fileNames, ArchiveFileDAO dao) {
+        int batchSize = Settings.getInt(WaybackSettings.WAYBACK_INDEXER_HARVEST_BATCH_SIZE);
+        long startTime = System.currentTimeMillis();
+        long lastReport = startTime;
+        List<ArchiveFile> batch = new ArrayList<ArchiveFile>(Math.min(batchSize, fileNames.size()));
+        Date createdDate = new Date(startTime);
+        int created = 0;
+        for (String fileName : fileNames) {
+            ArchiveFile file = new ArchiveFile();
+            file.setFilename(fileName);
+            file.setIndexed(false);
+            file.setCreatedDate(createdDate);
+            log.debug("Creating object store entry for '{}'", fileName);
+            batch.add(file);
+            if (batch.size() == batchSize || created + batch.size() == fileNames.size()) {
+                dao.createAll(batch);
+                created += batch.size();
+                batch.clear();
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= PROGRESS_INTERVAL || created == fileNames.size()) {
+                    log.info("Created {} of {} new file(s) in the object store ({} files/s)", created,
+                            fileNames.size(), created * 1000L / Math.max(1L, now - startTime));
+                    lastReport = now;
+                }
+            }
+        }
     }
 }
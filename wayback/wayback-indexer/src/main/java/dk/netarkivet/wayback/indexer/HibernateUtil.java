@@ -24,6 +24,7 @@ package dk.netarkivet.wayback.indexer;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.cfg.AnnotationConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,6 +69,7 @@ public class HibernateUtil {
     private static final String HIBERNATE_SHOW_SQL = "hibernate.show_sql";
     private static final String HIBERNATE_CONNECTION_USERNAME = "hibernate.connection.username";
     private static final String HIBERNATE_CONNECTION_PASSWORD = "hibernate.connection.password";
+    private static final String HIBERNATE_JDBC_BATCH_SIZE = "hibernate.jdbc.batch_size";
 
     /**
      * Private constructor as this class is never instantiated.
@@ -107,6 +109,7 @@ public class HibernateUtil {
                 config.setProperty(HIBERNATE_TRANSACTION_FACTORY_CLASS,
                         Settings.get(WaybackSettings.HIBERNATE_TRANSACTION_FACTORY));
                 config.setProperty(HIBERNATE_SHOW_SQL, Settings.get(WaybackSettings.HIBERNATE_SHOW_SQL));
+                config.setProperty(HIBERNATE_JDBC_BATCH_SIZE, Settings.get(WaybackSettings.HIBERNATE_JDBC_BATCH_SIZE));
                 log.info("Hibernate properties used: " + CONNECTION_PROVIDER_CLASS + " = "
                         + ORG_HIBERNATE_CONNECTION_C3_P0_CONNECTION_PROVIDER + ", " + C3P0_ACQUIRE_INCREMENT + " = "
                         + Settings.get(WaybackSettings.C3P0_ACQUIRE_INCREMENT) + ", " + C3P0_IDLE_TEST_PERIOD + " = "
@@ -124,7 +127,8 @@ public class HibernateUtil {
                         + " = " + Settings.get(WaybackSettings.HIBERNATE_HBM2DDL_AUTO) + ", "
                         + HIBERNATE_TRANSACTION_FACTORY_CLASS + " = "
                         + Settings.get(WaybackSettings.HIBERNATE_TRANSACTION_FACTORY) + ", " + HIBERNATE_SHOW_SQL
-                        + " = " + Settings.get(WaybackSettings.HIBERNATE_SHOW_SQL));
+                        + " = " + Settings.get(WaybackSettings.HIBERNATE_SHOW_SQL) + ", " + HIBERNATE_JDBC_BATCH_SIZE
+                        + " = " + Settings.get(WaybackSettings.HIBERNATE_JDBC_BATCH_SIZE));
 
                 // Specifically allow unset username/password for the database
                 // so that we can use database without authentication, e.g. in
@@ -155,4 +159,15 @@ public class HibernateUtil {
         return sessionFactory.openSession();
     }
 
+    /**
+     * Get a stateless hibernate session for bulk operations on the object store, which keeps no first-level cache and
+     * sends inserts to the database in JDBC batches. This method has the same side effect as {@link #getSession()}.
+     *
+     * @return a new stateless session, which must be closed after use.
+     */
+    public static StatelessSession getStatelessSession() {
+        initialiseFactory();
+        return sessionFactory.openStatelessSession();
+    }
+
 }
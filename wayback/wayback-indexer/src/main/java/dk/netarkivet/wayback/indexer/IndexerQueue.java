@@ -22,16 +22,30 @@
  */
 package dk.netarkivet.wayback.indexer;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.wayback.WaybackSettings;
+
 /**
  * Singleton class which maintains the basic data structure and methods for the indexer.
+ * <p>
+ * Files are indexed in order of priority: metadata files after all other files, files with fewer failed attempts
+ * first, and recently added files first. A file is only in the queue or being indexed once at a time. After a failed
+ * attempt a file is not queued again until WaybackSettings#WAYBACK_INDEXER_RETRY_BACKOFF has passed, doubled for each
+ * further failed attempt. As the number of failed attempts and the time of the latest failure are stored with the
+ * file, the wait survives restarts. The number of files indexed at a time is adapted to how long indexing takes, see
+ * {@link AdaptiveConcurrencyLimit}.
  */
 public class IndexerQueue {
 
@@ -42,9 +56,19 @@ public class IndexerQueue {
     private static IndexerQueue instance;
 
     /** This is the basic underlying datastructure of the indexer - a queue of files waiting to be indexed. */
-    private static LinkedBlockingQueue<ArchiveFile> queue;
+    private static PriorityBlockingQueue<ArchiveFile> queue;
+
+    /** The names of the files in the queue or being indexed. */
+    private static Set<String> scheduled;
+
+    /** The limit on the number of files indexed at a time. */
+    private static AdaptiveConcurrencyLimit concurrencyLimit;
 
-    private static Set<String> indexing;
+    /** The pattern matching the names of metadata files. */
+    private final Pattern metadataFilePattern;
+
+    /** The order in which files are indexed. */
+    private final Comparator<ArchiveFile> priority;
 
     /**
      * Factory method for obtaining the unique instance of this class.
@@ -62,59 +86,126 @@ public class IndexerQueue {
      * Private constructor for this method. Initialises an empty queue.
      */
     private IndexerQueue() {
-        queue = new LinkedBlockingQueue<ArchiveFile>();
-        indexing = new CopyOnWriteArraySet<>();
+        String metadataFileRegex = "(.*)" + Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX);
+        metadataFilePattern = Pattern.compile(metadataFileRegex);
+        priority = new IndexingPriority(metadataFilePattern);
+        queue = new PriorityBlockingQueue<ArchiveFile>(11, priority);
+        scheduled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        int maxConsumers = Settings.getInt(WaybackSettings.WAYBACK_INDEXER_CONSUMER_THREADS);
+        int minConsumers = Math.min(maxConsumers,
+                Settings.getInt(WaybackSettings.WAYBACK_INDEXER_MIN_CONSUMER_THREADS));
+        concurrencyLimit = new AdaptiveConcurrencyLimit(minConsumers, maxConsumers);
     }
 
     /**
-     * Check the database for any new ArchiveFile objects and add them to the queue.
+     * Check the database for any new ArchiveFile objects and add them to the queue, in order of priority and as long as
+     * there is room in the queue. Files already queued or being indexed, and failed files whose retry is not yet due,
+     * are skipped.
      */
     public synchronized void populate() {
-        List<ArchiveFile> files = (new ArchiveFileDAO()).getFilesAwaitingIndexing();
-        if (!files.isEmpty()) {
-            log.info("Will now add '{}' unindexed files from object store to queue (if they are not already queued).",
-                    files.size());
+        int capacity = Settings.getInt(WaybackSettings.WAYBACK_INDEXER_QUEUE_CAPACITY);
+        int room = capacity - queue.size();
+        if (room <= 0) {
+            log.info("Indexing queue is full with {} files. Not adding more files from the object store.",
+                    queue.size());
+            return;
         }
-        for (ArchiveFile file : files) {
-            if (!queue.contains(file)) {
-                log.info("Adding file '{}' to indexing queue.", file.getFilename());
-                queue.add(file);
-                log.info("Files in queue: '{}'", queue.size());
-            }
+        List<ArchiveFile> due = (new ArchiveFileDAO()).getFilesDueForIndexing(room, metadataFilePattern, scheduled);
+        Collections.sort(due, priority);
+        for (ArchiveFile file : due) {
+            log.debug("Adding file '{}' to indexing queue.", file.getFilename());
+            scheduled.add(file.getFilename());
+            queue.add(file);
+        }
+        if (!due.isEmpty()) {
+            log.info("Added {} unindexed files from object store to queue. Files in queue: '{}'", due.size(),
+                    queue.size());
+        }
+    }
+
+    /**
+     * Find the earliest time a file may be indexed. A file which has failed may be retried after the retry backoff for
+     * its number of failed attempts, see {@link #getRetryBackoff(int)}.
+     *
+     * @param file The file.
+     * @return The time in milliseconds since the epoch, which is 0 for files that have not failed.
+     */
+    static long getNextAttemptTime(ArchiveFile file) {
+        if (file.getIndexingFailedAttempts() == 0 || file.getLastFailedDate() == null) {
+            return 0;
         }
+        return file.getLastFailedDate().getTime() + getRetryBackoff(file.getIndexingFailedAttempts());
+    }
+
+    /**
+     * Find how long to wait after a failed attempt before retrying a file: the retry backoff, doubled for each failed
+     * attempt after the first, but at most the maximal retry backoff.
+     *
+     * @param failedAttempts The number of failed attempts, at least 1.
+     * @return The backoff in milliseconds.
+     */
+    static long getRetryBackoff(int failedAttempts) {
+        long maxBackoff = Settings.getLong(WaybackSettings.WAYBACK_INDEXER_MAX_RETRY_BACKOFF);
+        long backoff = Math.min(maxBackoff, Settings.getLong(WaybackSettings.WAYBACK_INDEXER_RETRY_BACKOFF));
+        for (int i = 1; i < failedAttempts && backoff < maxBackoff; i++) {
+            backoff = Math.min(maxBackoff, 2 * backoff);
+        }
+        return backoff;
     }
 
     /**
      * Sequentially take objects from the queue and index them, blocking indefinitely while waiting for new objects to
-     * be added to the queue. It is intended that multiple threads should run this method simultaneously.
+     * be added to the queue. It is intended that multiple threads should run this method simultaneously. Each thread
+     * waits for the concurrency limit before taking a file.
      */
     public void consume() {
         while (true) {
             try {
-                ArchiveFile file = null;
-                try {
-                    file = queue.take();
-                    log.info("Taken file '{}' from indexing queue.", file.getFilename());
-                    log.info("Files in queue: '{}'", queue.size());
-                    if (!indexing.contains(file.getFilename())) {
-                        indexing.add(file.getFilename());
-                        try {
-                            file.index();
-                        } finally {
-                            indexing.remove(file.getFilename());
-                        }
-                    } else {
-                        log.info("Not indexing " + file.getFilename() + " as it is already being indexed.");
-                    }
-                } catch (InterruptedException e) {
-                    log.error("Unexpected interrupt in indexer while waiting for new elements", e);
-                }
+                concurrencyLimit.acquire();
+            } catch (InterruptedException e) {
+                log.error("Unexpected interrupt in indexer while waiting to index", e);
+                continue;
+            }
+            ArchiveFile file = null;
+            long startTime = 0;
+            try {
+                file = queue.take();
+                log.info("Taken file '{}' from indexing queue.", file.getFilename());
+                log.info("Files in queue: '{}'", queue.size());
+                startTime = System.currentTimeMillis();
+                file.index();
+            } catch (InterruptedException e) {
+                log.error("Unexpected interrupt in indexer while waiting for new elements", e);
             } catch (Exception e) { // Fault Barrier
                 log.warn("Caught exception at fault barrier for {}", Thread.currentThread().getName(), e);
+            } finally {
+                release(file, startTime);
             }
         }
     }
 
+    /**
+     * Mark a file as no longer being indexed, and give the outcome of indexing it to the concurrency limit. Files which
+     * were neither indexed nor had a failed attempt registered, e.g. skipped files, do not affect the limit.
+     *
+     * @param file The file, or null if no file was taken from the queue.
+     * @param startTime The time indexing of the file started.
+     */
+    private static void release(ArchiveFile file, long startTime) {
+        if (file == null) {
+            concurrencyLimit.release();
+            return;
+        }
+        scheduled.remove(file.getFilename());
+        if (file.isIndexed()) {
+            concurrencyLimit.release(System.currentTimeMillis() - startTime, true);
+        } else if (file.getLastFailedDate() != null && file.getLastFailedDate().getTime() >= startTime) {
+            concurrencyLimit.release(System.currentTimeMillis() - startTime, false);
+        } else {
+            concurrencyLimit.release();
+        }
+    }
+
     /**
      * Convenience method for use in unit tests.
      */
@@ -123,5 +214,50 @@ public class IndexerQueue {
         if (queue != null) {
             queue.clear();
         }
+        if (scheduled != null) {
+            scheduled.clear();
+        }
+    }
+
+    /**
+     * The order in which files are indexed: metadata files after all other files, then files with fewer failed
+     * attempts first, then recently added files first.
+     */
+    static class IndexingPriority implements Comparator<ArchiveFile> {
+        /** The pattern matching the names of metadata files. */
+        private final Pattern metadataFilePattern;
+
+        /**
+         * @param metadataFilePattern The pattern matching the names of metadata files.
+         */
+        IndexingPriority(Pattern metadataFilePattern) {
+            this.metadataFilePattern = metadataFilePattern;
+        }
+
+        @Override
+        public int compare(ArchiveFile file1, ArchiveFile file2) {
+            int cmp = Boolean.compare(isMetadataFile(file1), isMetadataFile(file2));
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = Integer.compare(file1.getIndexingFailedAttempts(), file2.getIndexingFailedAttempts());
+            if (cmp != 0) {
+                return cmp;
+            }
+            if (file1.getCreatedDate() != null && file2.getCreatedDate() != null) {
+                cmp = file2.getCreatedDate().compareTo(file1.getCreatedDate());
+            } else if (file1.getCreatedDate() != file2.getCreatedDate()) {
+                cmp = file1.getCreatedDate() == null ? 1 : -1;
+            }
+            return cmp != 0 ? cmp : file1.getFilename().compareTo(file2.getFilename());
+        }
+
+        /**
+         * @param file A file.
+         * @return Whether the file is a metadata file.
+         */
+        private boolean isMetadataFile(ArchiveFile file) {
+            return metadataFilePattern.matcher(file.getFilename()).matches();
+        }
     }
 }
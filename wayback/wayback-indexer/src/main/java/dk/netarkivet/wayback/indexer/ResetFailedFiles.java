@@ -51,6 +51,7 @@ public class ResetFailedFiles {
             if (archiveFile != null) {
                 log.info("Resetting to 0 failures for '{}'", archiveFile.getFilename());
                 archiveFile.setIndexingFailedAttempts(0);
+                archiveFile.setLastFailedDate(null);
                 dao.update(archiveFile);
             } else {
                 log.warn("Attempt to process unknown file '{}'", filename);
@@ -22,11 +22,13 @@
  */
 package dk.netarkivet.wayback.aggregator;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -50,6 +52,8 @@ public class AggregationWorkerTest extends AggregatorTestCase {
 
     @After
     public void tearDown() throws Exception {
+        System.clearProperty(WaybackSettings.WAYBACK_AGGREGATOR_SEGMENTED_INDEX);
+        System.clearProperty(WaybackSettings.WAYBACK_AGGREGATOR_SEGMENT_FAN_OUT);
         super.tearDown();
     }
 
@@ -98,6 +102,38 @@ public class AggregationWorkerTest extends AggregatorTestCase {
         assertTrue("Temporary index file remains after aggregation", !AggregationWorker.TEMP_FILE_INDEX.exists());
     }
 
+    /**
+     * Verifies that with a segmented index each aggregation adds a sorted segment holding the new indexes, and that the
+     * intermediate and final index files are not used.
+     */
+    @Test
+    public void testSegmentedAggregation() {
+        System.setProperty(WaybackSettings.WAYBACK_AGGREGATOR_SEGMENTED_INDEX, "true");
+        System.setProperty(WaybackSettings.WAYBACK_AGGREGATOR_SEGMENT_FAN_OUT, "10");
+        worker.initialize();
+
+        File[] inputFiles = prepareSourceIndex(new String[] {inputFile1Name, inputFile2Name});
+        TestIndex testIndex = new TestIndex();
+        testIndex.addIndexesFromFiles(inputFiles);
+        worker.runAggregation();
+
+        List<File> segments = worker.getSegmentStore().getSegmentFiles();
+        assertEquals(1, segments.size());
+        assertNull("Unexpected content of segment", testIndex.compareToIndex(segments.get(0)));
+
+        inputFiles = prepareSourceIndex(new String[] {inputFile3Name});
+        testIndex = new TestIndex();
+        testIndex.addIndexesFromFiles(inputFiles);
+        worker.runAggregation();
+
+        segments = worker.getSegmentStore().getSegmentFiles();
+        assertEquals(2, segments.size());
+        assertNull("Unexpected content of new segment", testIndex.compareToIndex(segments.get(1)));
+        assertTrue("InputFiles remain after aggregation", new File(inputDirName).list().length == 0);
+        assertTrue("Temporary index file remains after aggregation", !AggregationWorker.TEMP_FILE_INDEX.exists());
+        assertTrue("Intermediate index file should not be used", !AggregationWorker.INTERMEDIATE_INDEX_FILE.exists());
+    }
+
     /**
      * Verifies that the aggregator merges the IntermediateIndexFile into the main index file when the
      * WaybackSettings#INTERMEDIATE_INDEX_FILE_LIMIT is exceeded. The old Intermediate Index file should have been
@@ -0,0 +1,215 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.aggregator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Verifies that the <code>SegmentedIndexStore</code> keeps all the index lines added to it through compactions and
+ * reopening, and finds lines by their prefix.
+ */
+public class SegmentedIndexStoreTest extends AggregatorTestCase {
+    private static final String[] INPUT_FILE_NAMES = {inputFile1Name, inputFile2Name, inputFile3Name,
+            inputFile109KName};
+
+    private File segmentDir;
+    private SegmentedIndexStore store;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        new File(tempDirName).mkdirs();
+        segmentDir = new File(outputDirName, "segments");
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+        super.tearDown();
+    }
+
+    @Test
+    public void testIngestAndCompact() throws IOException {
+        store = new SegmentedIndexStore(segmentDir, 2, Long.MAX_VALUE, false, 10);
+        List<String> expected = ingestAll();
+
+        // Four level 0 segments end up as one level 2 segment
+        assertEquals(Collections.singletonList(2), store.getLevels());
+        File segment = store.getSegmentFiles().get(0);
+        assertTrue("Segment should be a plain CDX file", segment.getName().endsWith(".cdx"));
+        assertEquals(expected, Files.readAllLines(segment.toPath(), StandardCharsets.ISO_8859_1));
+        assertEquals(expected, store.lookup(""));
+        assertEquals("Only the live segment and its summary should remain besides the manifest", 3,
+                segmentDir.list().length);
+    }
+
+    @Test
+    public void testCompressedLookup() throws IOException {
+        store = new SegmentedIndexStore(segmentDir, 3, Long.MAX_VALUE, true, 7);
+        List<String> expected = ingestAll();
+
+        assertEquals(Arrays.asList(1, 0), store.getLevels());
+        for (File segment : store.getSegmentFiles()) {
+            assertTrue("Segment should be compressed", segment.getName().endsWith(".cdx.gz"));
+        }
+        assertEquals(expected, store.lookup(""));
+        String prefix = "stjernerfordig.dk/";
+        List<String> matching = new ArrayList<String>();
+        for (String line : expected) {
+            if (line.startsWith(prefix)) {
+                matching.add(line);
+            }
+        }
+        assertFalse("Test data should contain lines with the prefix", matching.isEmpty());
+        assertEquals(matching, store.lookup(prefix));
+        assertTrue(store.lookup("no.such.host/").isEmpty());
+    }
+
+    @Test
+    public void testMaxSegmentSizeStopsMerging() throws IOException {
+        store = new SegmentedIndexStore(segmentDir, 2, 1, false, 10);
+        ingestAll();
+        assertEquals(Arrays.asList(0, 0, 0, 0), store.getLevels());
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        store = new SegmentedIndexStore(segmentDir, 2, Long.MAX_VALUE, false, 10);
+        List<String> expected = ingestAll();
+        List<File> segments = store.getSegmentFiles();
+        store.close();
+
+        File leftOver = new File(segmentDir, SegmentedIndexStore.SEGMENT_PREFIX + "000000000099.cdx");
+        FileUtils.writeBinaryFile(leftOver, "left over\n".getBytes(StandardCharsets.ISO_8859_1));
+        store = new SegmentedIndexStore(segmentDir, 2, Long.MAX_VALUE, false, 10);
+        assertEquals(segments, store.getSegmentFiles());
+        assertEquals(expected, store.lookup(""));
+        assertFalse("Segment files not in the manifest should be removed", leftOver.exists());
+    }
+
+    @Test
+    public void testReplacedSegmentsKeptWhileRead() throws IOException {
+        store = new SegmentedIndexStore(segmentDir, 2, Long.MAX_VALUE, false, 10);
+        File[] inputs = prepareSourceIndex(new String[] {inputFile1Name, inputFile2Name});
+        File first = new File(tempDirName, inputs[0].getName() + ".sorted");
+        FileUtils.sortCDX(inputs[0], first);
+        store.ingest(first);
+        store.compact();
+        File firstSegment = store.getSegmentFiles().get(0);
+
+        List<SegmentedIndexStore.Segment> reading = store.acquireSegments();
+        File second = new File(tempDirName, inputs[1].getName() + ".sorted");
+        FileUtils.sortCDX(inputs[1], second);
+        store.ingest(second);
+        store.compact();
+        assertEquals("The segments should be merged", Collections.singletonList(1), store.getLevels());
+        assertTrue("A replaced segment should be kept while it is read", firstSegment.exists());
+
+        store.releaseSegments(reading);
+        assertFalse("A replaced segment should be deleted when no longer read", firstSegment.exists());
+        assertEquals("Only the live segment and its summary should remain besides the manifest", 3,
+                segmentDir.list().length);
+    }
+
+    /**
+     * Tests that lines with bytes above 0x7f are merged and found. Such lines are UTF-8 with characters above U+FFFF,
+     * whose order as Java strings differs from their byte order, and malformed UTF-8.
+     */
+    @Test
+    public void testHighByteKeys() throws IOException {
+        store = new SegmentedIndexStore(segmentDir, 2, Long.MAX_VALUE, false, 2);
+        byte[][] keys = {
+                {'a'},
+                {'a', (byte) 0xc3, (byte) 0xa6}, // U+00E6
+                {'a', (byte) 0xee, (byte) 0x80, (byte) 0x80}, // U+E000
+                {'a', (byte) 0xef, (byte) 0xbf, (byte) 0xbd}, // U+FFFD
+                {'a', (byte) 0xf0, (byte) 0x9f, (byte) 0x98, (byte) 0x80}, // U+1F600
+                {'a', (byte) 0xff}, // Not UTF-8
+                {'a', (byte) 0x80, 'b'}, // Not UTF-8
+                {'b'}};
+        List<String> expected = new ArrayList<String>();
+        for (int part = 0; part < 2; part++) {
+            // Each part holds every other key in reverse order, so it must be sorted, and the parts are merged
+            StringBuilder unsorted = new StringBuilder();
+            for (int i = keys.length - 1 - part; i >= 0; i -= 2) {
+                String line = new String(keys[i], StandardCharsets.ISO_8859_1) + " 20180101000000 part" + part;
+                expected.add(line);
+                unsorted.append(line).append('\n');
+            }
+            File input = new File(tempDirName, "highbytes" + part + ".cdx");
+            FileUtils.writeBinaryFile(input, unsorted.toString().getBytes(StandardCharsets.ISO_8859_1));
+            File sorted = new File(tempDirName, input.getName() + ".sorted");
+            FileUtils.sortCDX(input, sorted);
+            store.ingest(sorted);
+            store.compact();
+        }
+        assertEquals(Collections.singletonList(1), store.getLevels());
+        // Strings decoded as ISO-8859-1 are ordered like their bytes
+        Collections.sort(expected);
+        assertEquals(expected, store.lookup(""));
+        for (String line : expected) {
+            String key = line.substring(0, line.indexOf(' ') + 1);
+            assertEquals("Should find the line of '" + key + "'", Collections.singletonList(line), store.lookup(key));
+        }
+    }
+
+    /**
+     * Sorts each of the test input files and adds it to the store as a segment. Compacts after each segment, which also
+     * waits for any background compaction, so the resulting levels do not depend on timing.
+     *
+     * @return All the lines of the input files in sorted order.
+     */
+    private List<String> ingestAll() throws IOException {
+        List<String> expected = new ArrayList<String>();
+        for (File input : prepareSourceIndex(INPUT_FILE_NAMES)) {
+            expected.addAll(Files.readAllLines(input.toPath(), StandardCharsets.ISO_8859_1));
+            File sorted = new File(tempDirName, input.getName() + ".sorted");
+            FileUtils.sortCDX(input, sorted);
+            store.ingest(sorted);
+            store.compact();
+        }
+        Collections.sort(expected);
+        return expected;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTester {
+
+    @Test
+    public void testLimitFollowsDurationsAndFailures() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 3);
+        assertEquals(3, limit.getLimit());
+        limit.acquire();
+        limit.release(1000, true);
+        assertEquals("Steady durations should keep the maximum limit", 3, limit.getLimit());
+        for (int i = 0; i < 3; i++) {
+            limit.acquire();
+            limit.release(10000, true);
+        }
+        assertEquals("Much slower jobs should lower the limit to the minimum", 1, limit.getLimit());
+        limit.acquire();
+        limit.release(0, false);
+        assertEquals("The limit should not go below the minimum", 1, limit.getLimit());
+        for (int i = 0; i < 20; i++) {
+            limit.acquire();
+            limit.release(1000, true);
+        }
+        assertEquals("Fast jobs should raise the limit to the maximum again", 3, limit.getLimit());
+        limit.acquire();
+        limit.release(0, false);
+        assertEquals("A failure should lower the limit", 2, limit.getLimit());
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws InterruptedException {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1);
+        limit.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    limit.acquire();
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    // The test fails by timing out below
+                }
+            }
+        };
+        waiter.start();
+        assertFalse("A second job should wait for the first", acquired.await(200, TimeUnit.MILLISECONDS));
+        limit.release();
+        assertTrue("The second job should run once the first is released", acquired.await(10, TimeUnit.SECONDS));
+        waiter.join();
+    }
+}
@@ -24,6 +24,8 @@ package dk.netarkivet.wayback.indexer;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
@@ -48,4 +50,29 @@ public class FileNameHarvesterTester extends IndexerTestCase {
         assertEquals("There should still be four files", 6, files.size());
     }
 
+    @Test
+    public void testHarvestRecentAfterHarvestAll() {
+        FileNameHarvester.harvestAllFilenames();
+        FileNameHarvester.harvestRecentFilenames();
+        ArchiveFileDAO dao = new ArchiveFileDAO();
+        List<ArchiveFile> files = dao.getSession().createQuery("from ArchiveFile").list();
+        assertEquals("Recent files already known should not be created again", 6, files.size());
+        assertEquals(6, dao.getAllFilenamesSorted().length);
+    }
+
+    @Test
+    public void testSortedDistinct() {
+        String[] sorted = FileNameHarvester.sortedDistinct(Arrays.asList("b.arc ", "a.arc", "", "b.arc", "c.warc"));
+        assertEquals(Arrays.asList("a.arc", "b.arc", "c.warc"), Arrays.asList(sorted));
+    }
+
+    @Test
+    public void testDifference() {
+        String[] harvested = {"a.arc", "b.arc", "d.arc", "f.arc"};
+        assertEquals(Arrays.asList("b.arc", "f.arc"),
+                FileNameHarvester.difference(harvested, new String[] {"0.arc", "a.arc", "c.arc", "d.arc"}));
+        assertEquals(Arrays.asList(harvested), FileNameHarvester.difference(harvested, new String[0]));
+        assertEquals(Collections.emptyList(), FileNameHarvester.difference(new String[0], harvested));
+    }
+
 }
@@ -26,8 +26,12 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.File;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
 
 import org.junit.After;
 import org.junit.Before;
@@ -35,6 +39,7 @@ import org.junit.Test;
 
 import dk.netarkivet.testutils.ReflectUtils;
 import dk.netarkivet.wayback.TestInfo;
+import dk.netarkivet.wayback.WaybackSettings;
 
 @SuppressWarnings({"unchecked"})
 public class IndexerQueueTester extends IndexerTestCase {
@@ -58,7 +63,7 @@ public class IndexerQueueTester extends IndexerTestCase {
         FileNameHarvester.harvestAllFilenames();
         IndexerQueue.getInstance().populate();
         Field queueField = ReflectUtils.getPrivateField(IndexerQueue.class, "queue");
-        LinkedBlockingQueue<ArchiveFile> queue = (LinkedBlockingQueue<ArchiveFile>) queueField.get(null);
+        BlockingQueue<ArchiveFile> queue = (BlockingQueue<ArchiveFile>) queueField.get(null);
         assertEquals("Queue should have four objects in it", 6, queue.size());
         IndexerQueue.getInstance().populate();
         assertEquals("Queue should still have four objects in it", 6, queue.size());
@@ -78,12 +83,129 @@ public class IndexerQueueTester extends IndexerTestCase {
         FileNameHarvester.harvestRecentFilenames();
         IndexerQueue.getInstance().populate();
         Field queueField = ReflectUtils.getPrivateField(IndexerQueue.class, "queue");
-        LinkedBlockingQueue<ArchiveFile> queue = (LinkedBlockingQueue<ArchiveFile>) queueField.get(null);
+        BlockingQueue<ArchiveFile> queue = (BlockingQueue<ArchiveFile>) queueField.get(null);
         assertEquals("Queue should have four objects in it", 4, queue.size());
         IndexerQueue.getInstance().populate();
         assertEquals("Queue should still have four objects in it", 4, queue.size());
     }
 
+    @Test
+    public void testPriorityAndRetryBackoff() throws NoSuchFieldException, IllegalAccessException {
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_RETRY_BACKOFF, "3600000");
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_MAX_RETRY_BACKOFF, "86400000");
+        long now = System.currentTimeMillis();
+        ArchiveFileDAO dao = new ArchiveFileDAO();
+        dao.create(createFile("1-1-metadata-1.warc", 0, new Date(now), null));
+        dao.create(createFile("old.warc", 0, new Date(now - 3600000L), null));
+        dao.create(createFile("new.warc", 0, new Date(now), null));
+        dao.create(createFile("unknown-age.warc", 0, null, null));
+        dao.create(createFile("failed-long-ago.warc", 2, new Date(now), new Date(now - 3 * 3600000L)));
+        dao.create(createFile("failed-recently.warc", 2, new Date(now), new Date(now - 3600000L)));
+
+        IndexerQueue.getInstance().populate();
+        Field queueField = ReflectUtils.getPrivateField(IndexerQueue.class, "queue");
+        BlockingQueue<ArchiveFile> queue = (BlockingQueue<ArchiveFile>) queueField.get(null);
+        List<String> order = new ArrayList<String>();
+        while (!queue.isEmpty()) {
+            order.add(queue.poll().getFilename());
+        }
+        assertEquals("Files should be queued by priority, leaving out the file not due for retry", Arrays.asList(
+                "new.warc", "old.warc", "unknown-age.warc", "failed-long-ago.warc", "1-1-metadata-1.warc"), order);
+    }
+
+    @Test
+    public void testQueueCapacity() throws NoSuchFieldException, IllegalAccessException {
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_QUEUE_CAPACITY, "4");
+        FileNameHarvester.harvestAllFilenames();
+        IndexerQueue.getInstance().populate();
+        Field queueField = ReflectUtils.getPrivateField(IndexerQueue.class, "queue");
+        BlockingQueue<ArchiveFile> queue = (BlockingQueue<ArchiveFile>) queueField.get(null);
+        assertEquals("Queue should be filled to its capacity", 4, queue.size());
+        queue.poll();
+        IndexerQueue.getInstance().populate();
+        assertEquals("Files taken from the queue should not be queued again while being indexed", 4, queue.size());
+    }
+
+    @Test
+    public void testQueueCapacityWithUndatedFiles() throws NoSuchFieldException, IllegalAccessException {
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_QUEUE_CAPACITY, "2");
+        long now = System.currentTimeMillis();
+        ArchiveFileDAO dao = new ArchiveFileDAO();
+        for (int i = 0; i < 3; i++) {
+            dao.create(createFile("unknown-age-" + i + ".warc", 0, null, null));
+        }
+        dao.create(createFile("old.warc", 0, new Date(now - 3600000L), null));
+        dao.create(createFile("new.warc", 0, new Date(now), null));
+
+        IndexerQueue.getInstance().populate();
+        Field queueField = ReflectUtils.getPrivateField(IndexerQueue.class, "queue");
+        BlockingQueue<ArchiveFile> queue = (BlockingQueue<ArchiveFile>) queueField.get(null);
+        List<String> order = new ArrayList<String>();
+        while (!queue.isEmpty()) {
+            order.add(queue.poll().getFilename());
+        }
+        assertEquals("Files without a date should not crowd out dated files", Arrays.asList("new.warc", "old.warc"),
+                order);
+    }
+
+    @Test
+    public void testBacklogLargerThanCapacity() throws NoSuchFieldException, IllegalAccessException {
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_QUEUE_CAPACITY, "2");
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_MAXFAILEDATTEMPTS, "3");
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_RETRY_BACKOFF, "3600000");
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_MAX_RETRY_BACKOFF, "86400000");
+        long now = System.currentTimeMillis();
+        ArchiveFileDAO dao = new ArchiveFileDAO();
+        // Untried metadata files and files not due for retry come first in the object store, and fill the capacity.
+        for (int i = 1; i <= 3; i++) {
+            dao.create(createFile(i + "-metadata-1.warc", 0, new Date(now - i * 1000L), null));
+            dao.create(createFile("failed-recently-" + i + ".warc", 1, new Date(now), new Date(now - 60000L)));
+        }
+        dao.create(createFile("failed-long-ago-1.warc", 2, new Date(now), new Date(now - 3 * 3600000L)));
+        dao.create(createFile("failed-long-ago-2.warc", 2, new Date(now - 1000L), new Date(now - 3 * 3600000L)));
+
+        IndexerQueue.getInstance().populate();
+        Field queueField = ReflectUtils.getPrivateField(IndexerQueue.class, "queue");
+        BlockingQueue<ArchiveFile> queue = (BlockingQueue<ArchiveFile>) queueField.get(null);
+        List<String> order = new ArrayList<String>();
+        for (ArchiveFile file : queue) {
+            order.add(file.getFilename());
+        }
+        Collections.sort(order);
+        assertEquals("Files due should be queued before metadata files, and files not due left out",
+                Arrays.asList("failed-long-ago-1.warc", "failed-long-ago-2.warc"), order);
+
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_QUEUE_CAPACITY, "4");
+        IndexerQueue.getInstance().populate();
+        order.clear();
+        while (!queue.isEmpty()) {
+            order.add(queue.poll().getFilename());
+        }
+        assertEquals("The most recent metadata files should fill the rest of the queue", Arrays.asList(
+                "failed-long-ago-1.warc", "failed-long-ago-2.warc", "1-metadata-1.warc", "2-metadata-1.warc"), order);
+    }
+
+    @Test
+    public void testNextAttemptTime() {
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_RETRY_BACKOFF, "1000");
+        System.setProperty(WaybackSettings.WAYBACK_INDEXER_MAX_RETRY_BACKOFF, "5000");
+        Date failed = new Date(100000L);
+        assertEquals(0L, IndexerQueue.getNextAttemptTime(createFile("a.warc", 0, null, null)));
+        assertEquals(101000L, IndexerQueue.getNextAttemptTime(createFile("a.warc", 1, null, failed)));
+        assertEquals(104000L, IndexerQueue.getNextAttemptTime(createFile("a.warc", 3, null, failed)));
+        assertEquals(105000L, IndexerQueue.getNextAttemptTime(createFile("a.warc", 10, null, failed)));
+        assertEquals(105000L, IndexerQueue.getNextAttemptTime(createFile("a.warc", 1000, null, failed)));
+    }
+
+    private static ArchiveFile createFile(String filename, int failedAttempts, Date created, Date lastFailed) {
+        ArchiveFile file = new ArchiveFile();
+        file.setFilename(filename);
+        file.setIndexingFailedAttempts(failedAttempts);
+        file.setCreatedDate(created);
+        file.setLastFailedDate(lastFailed);
+        return file;
+    }
+
     /**
      * testConsume has been removed from unittestersuite, as it fails.
      */
@@ -93,7 +215,7 @@ public class IndexerQueueTester extends IndexerTestCase {
      * 
      * public void run() { IndexerQueue.getInstance().consume(); } }; (new Thread(consumerRunnable)).start();
      * Thread.sleep(100000L); Field queueField = ReflectUtils.getPrivateField(IndexerQueue.class, "queue");
-     * LinkedBlockingQueue<ArchiveFile> queue = (LinkedBlockingQueue<ArchiveFile>) queueField.get(null);
+     * BlockingQueue<ArchiveFile> queue = (BlockingQueue<ArchiveFile>) queueField.get(null);
      * assertEquals("DAO should have four indexed files", 4, (new ArchiveFileDAO()).findByCriteria(
      * Restrictions.eq("indexed", true)).size()); assertTrue("Queue should be empty now", queue.isEmpty());
      * assertEquals("Should have four files", 4, tempdir.listFiles().length); }